@@ -0,0 +1,104 @@
+package com.paycritical;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.paycritical.response.PaycriticalAuthorization;
+import com.paycritical.response.PaycriticalCapture;
+import com.paycritical.response.PaycriticalPayment;
+import com.paycritical.response.PaycriticalPaymentStatus;
+import com.paycritical.response.PaycriticalQRCode;
+import com.paycritical.response.PaycriticalQRCodeStatus;
+import com.paycritical.response.ValidationSummary;
+
+/**
+ * Decoding of every com.paycritical.response type. The ViaString benchmarks
+ * keep the original decoding through an intermediate String as a baseline for
+ * the streamed decoding the gateway uses now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+	static final byte[] PAYMENT = bytes("{\"paymentId\":\"6d419e63-6c0d-4331-bbe6-e80586d6299c\","
+			+ "\"paymentHumanId\":\"LQ50EWPO\",\"status\":\"Requested\"}");
+	static final byte[] PAYMENT_STATUS = bytes("{\"status\":\"Completed\",\"transactionType\":\"Authorization\"}");
+	static final byte[] CAPTURE = bytes("{\"paymentId\":\"6d419e63-6c0d-4331-bbe6-e80586d6299c\","
+			+ "\"paymentHumanId\":\"LQ50EWPO\",\"amount\":0.5}");
+	static final byte[] AUTHORIZATION = bytes("{\"status\":\"Completed\",\"expiration\":\"2021-09-25T14:10:43.017\","
+			+ "\"remainingAmount\":1.23,\"captures\":["
+			+ "{\"paymentId\":\"6d419e63-6c0d-4331-bbe6-e80586d6299c\",\"paymentHumanId\":\"LQ50EWPO\",\"amount\":0.5},"
+			+ "{\"paymentId\":\"c14af8ec-d2f4-4d9d-a351-2ce119cb9bb9\",\"paymentHumanId\":\"LQ50EWPP\",\"amount\":0.25},"
+			+ "{\"paymentId\":\"f6530724-b143-4df6-8a10-b346b435e7b0\",\"paymentHumanId\":\"LQ50EWPQ\",\"amount\":0.1}]}");
+	static final byte[] QR_CODE = bytes("{\"qrCodeId\":\"f6530724-b143-4df6-8a10-b346b435e7b0\"}");
+	static final byte[] QR_CODE_STATUS = bytes("{\"paymentId\":\"6d419e63-6c0d-4331-bbe6-e80586d6299c\","
+			+ "\"paymentHumanId\":\"LQ50EWPO\",\"status\":\"Completed\"}");
+	static final byte[] VALIDATION_SUMMARY = bytes("{\"code\":\"PhoneNumberInvalid\","
+			+ "\"description\":\"The phone number is not valid.\"}");
+
+	private final PaycriticalJson json = new PaycriticalJson();
+
+	static byte[] bytes(String json) {
+		return json.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public PaycriticalPaymentStatus paymentStatusViaString() throws IOException {
+		return json.reader(PaycriticalPaymentStatus.class).readValue(new String(PAYMENT_STATUS, StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	public PaycriticalPaymentStatus paymentStatus() throws IOException {
+		return json.read(PaycriticalPaymentStatus.class, new ByteArrayInputStream(PAYMENT_STATUS));
+	}
+
+	@Benchmark
+	public PaycriticalAuthorization authorizationViaString() throws IOException {
+		return json.reader(PaycriticalAuthorization.class).readValue(new String(AUTHORIZATION, StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	public PaycriticalAuthorization authorization() throws IOException {
+		return json.read(PaycriticalAuthorization.class, new ByteArrayInputStream(AUTHORIZATION));
+	}
+
+	@Benchmark
+	public PaycriticalPayment payment() throws IOException {
+		return json.read(PaycriticalPayment.class, new ByteArrayInputStream(PAYMENT));
+	}
+
+	@Benchmark
+	public PaycriticalCapture capture() throws IOException {
+		return json.read(PaycriticalCapture.class, new ByteArrayInputStream(CAPTURE));
+	}
+
+	@Benchmark
+	public PaycriticalQRCode qrCode() throws IOException {
+		return json.read(PaycriticalQRCode.class, new ByteArrayInputStream(QR_CODE));
+	}
+
+	@Benchmark
+	public PaycriticalQRCodeStatus qrCodeStatus() throws IOException {
+		return json.read(PaycriticalQRCodeStatus.class, new ByteArrayInputStream(QR_CODE_STATUS));
+	}
+
+	@Benchmark
+	public ValidationSummary validationSummary() throws IOException {
+		return json.read(ValidationSummary.class, new ByteArrayInputStream(VALIDATION_SUMMARY));
+	}
+}
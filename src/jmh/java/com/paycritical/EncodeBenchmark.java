@@ -0,0 +1,82 @@
+package com.paycritical;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.paycritical.request.PaycriticalAmountRequest;
+import com.paycritical.request.PaycriticalPaymentIdRequest;
+import com.paycritical.request.PaycriticalPaymentRequest;
+import com.paycritical.request.PaycriticalQRCodeRequest;
+
+/**
+ * Request body serialization. The map benchmarks keep the original HashMap
+ * encoding, with a fresh ObjectMapper per call and with a cached writer, as a
+ * baseline for the typed request classes the gateway uses now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+	private final PaycriticalJson json = new PaycriticalJson();
+	private final ObjectWriter mapWriter = new ObjectMapper().writerFor(Map.class);
+	private double amount = 1.25;
+	private String orderRef = "8c0a5c2e-1d55-4a53-9d59-0b1e3cc1b6a7";
+	private String phoneNumber = "+351911111111";
+	private String paymentId = "6d419e63-6c0d-4331-bbe6-e80586d6299c";
+
+	private Map<String, String> values() {
+		var values = new HashMap<String, String>();
+		values.put("amount", Double.toString(amount));
+		values.put("orderRef", orderRef);
+		values.put("phoneNumber", phoneNumber);
+		values.put("transactionType", "Capture");
+		return values;
+	}
+
+	@Benchmark
+	public String mapWithNewMapper() throws IOException {
+		return new ObjectMapper().writeValueAsString(values());
+	}
+
+	@Benchmark
+	public byte[] mapWithCachedWriter() throws IOException {
+		return mapWriter.writeValueAsBytes(values());
+	}
+
+	@Benchmark
+	public byte[] paymentRequest() throws IOException {
+		return json.write(new PaycriticalPaymentRequest(amount, orderRef, phoneNumber, "Capture"));
+	}
+
+	@Benchmark
+	public byte[] qrCodeRequest() throws IOException {
+		return json.write(new PaycriticalQRCodeRequest(amount, orderRef));
+	}
+
+	@Benchmark
+	public byte[] amountRequest() throws IOException {
+		return json.write(new PaycriticalAmountRequest(paymentId, amount));
+	}
+
+	@Benchmark
+	public byte[] paymentIdRequest() throws IOException {
+		return json.write(new PaycriticalPaymentIdRequest(paymentId));
+	}
+}
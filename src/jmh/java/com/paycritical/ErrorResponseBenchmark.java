@@ -0,0 +1,53 @@
+package com.paycritical;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of turning each error status code the API returns into the exception
+ * the gateway throws, with and without its stack trace, against building the
+ * ApiOutcome returned instead by PaycriticalOutcomes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ErrorResponseBenchmark {
+	@Param({ "400", "401", "403", "500", "502" })
+	public int statusCode;
+
+	@Param({ "true", "false" })
+	public boolean stackTraces;
+
+	private String body;
+
+	@Setup
+	public void setUp() {
+		body = statusCode == 400 ? new String(DecodeBenchmark.VALIDATION_SUMMARY, StandardCharsets.UTF_8)
+				: "{\"eventId\":\"0b0f5e38-5f0e-4f7c-9d7e-3f1f4a7b2c11\"}";
+	}
+
+	@Benchmark
+	public Object exception() {
+		return PaycriticalPaymentGateway.failure(statusCode, body).toException(stackTraces);
+	}
+
+	@Benchmark
+	public Object outcome() {
+		return PaycriticalPaymentGateway.failure(statusCode, body);
+	}
+}
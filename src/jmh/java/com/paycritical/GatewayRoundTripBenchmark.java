@@ -0,0 +1,154 @@
+package com.paycritical;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.paycritical.exception.PaycriticalApiException;
+import com.paycritical.metrics.PaycriticalMetricsRecorder;
+import com.paycritical.response.PaycriticalAuthorization;
+import com.paycritical.response.PaycriticalPayment;
+import com.paycritical.response.PaycriticalPaymentStatus;
+import com.paycritical.response.PaycriticalQRCode;
+import com.paycritical.response.PaycriticalQRCodeStatus;
+import com.paycritical.simulator.LatencyDistribution;
+import com.paycritical.simulator.PaycriticalSimulator;
+
+/**
+ * Full round trip of every gateway method against the embedded simulator.
+ *
+ * The simulator answers at once, so the scores are the client's own cost of a
+ * call. Throughput and sampled latency are both reported; run with more
+ * threads, e.g. -t 8, to measure the gateway under concurrent load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GatewayRoundTripBenchmark {
+	private static final String ORDER_REF = "8c0a5c2e-1d55-4a53-9d59-0b1e3cc1b6a7";
+	private static final String PHONE_NUMBER = "+351911111111";
+
+	// Compares the untimed path with a gateway feeding a metrics recorder
+	@Param({ "false", "true" })
+	public boolean recordMetrics;
+
+	private PaycriticalSimulator simulator;
+	private PaycriticalPaymentGateway gateway;
+	// Never answered, so it can be read and resent for the whole run
+	private String pendingPaymentId;
+	private String qrCodeId;
+	// Large enough to capture from and refund for the whole run
+	private String authorizationId;
+	private String captureId;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, InterruptedException, PaycriticalApiException {
+		simulator = PaycriticalSimulator.builder()
+				.customerResponseTime(LatencyDistribution.fixed(Duration.ofDays(1)))
+				.paymentExpiration(Duration.ofDays(1))
+				.start();
+		var builder = PaycriticalPaymentGateway.builder("Basic benchmark", simulator.baseUrl());
+		if (recordMetrics) {
+			builder.callListener(new PaycriticalMetricsRecorder());
+		}
+		gateway = builder.build();
+
+		pendingPaymentId = gateway.requestPayment(1.25, PHONE_NUMBER, ORDER_REF).getPaymentId();
+		qrCodeId = gateway.requestQRCode(1.25, ORDER_REF).getQrCodeId();
+		authorizationId = gateway.requestAuthorization(1e9, PHONE_NUMBER, ORDER_REF).getPaymentId();
+		simulator.approve(authorizationId);
+		captureId = gateway.requestPayment(1e9, PHONE_NUMBER, ORDER_REF).getPaymentId();
+		simulator.approve(captureId);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		gateway.close();
+		simulator.close();
+	}
+
+	/**
+	 * A new pending payment for every cancelPaymentRequest call, created
+	 * outside the measurement.
+	 */
+	@State(Scope.Thread)
+	public static class PendingPayment {
+		String paymentId;
+
+		@Setup(Level.Invocation)
+		public void setUp(GatewayRoundTripBenchmark benchmark)
+				throws IOException, InterruptedException, PaycriticalApiException {
+			paymentId = benchmark.gateway.requestPayment(1.25, PHONE_NUMBER, ORDER_REF).getPaymentId();
+		}
+	}
+
+	@Benchmark
+	public PaycriticalPaymentStatus getPaymentStatus()
+			throws IOException, InterruptedException, PaycriticalApiException {
+		return gateway.getPaymentStatus(pendingPaymentId);
+	}
+
+	@Benchmark
+	public PaycriticalAuthorization getAuthorizationDetails()
+			throws IOException, InterruptedException, PaycriticalApiException {
+		return gateway.getAuthorizationDetails(authorizationId);
+	}
+
+	@Benchmark
+	public PaycriticalPayment requestAuthorization() throws IOException, InterruptedException, PaycriticalApiException {
+		return gateway.requestAuthorization(1.25, PHONE_NUMBER, ORDER_REF);
+	}
+
+	@Benchmark
+	public PaycriticalPayment requestPayment() throws IOException, InterruptedException, PaycriticalApiException {
+		return gateway.requestPayment(1.25, PHONE_NUMBER, ORDER_REF);
+	}
+
+	@Benchmark
+	public void resendPayment() throws IOException, InterruptedException, PaycriticalApiException {
+		gateway.resendPayment(pendingPaymentId);
+	}
+
+	@Benchmark
+	public PaycriticalQRCode requestQRCode() throws IOException, InterruptedException, PaycriticalApiException {
+		return gateway.requestQRCode(1.25, ORDER_REF);
+	}
+
+	@Benchmark
+	public PaycriticalQRCodeStatus getQRCodeStatus() throws IOException, InterruptedException, PaycriticalApiException {
+		return gateway.getQRCodeStatus(qrCodeId);
+	}
+
+	@Benchmark
+	public void cancelPaymentRequest(PendingPayment payment)
+			throws IOException, InterruptedException, PaycriticalApiException {
+		gateway.cancelPaymentRequest(payment.paymentId);
+	}
+
+	@Benchmark
+	public void refundPaymentRequest() throws IOException, InterruptedException, PaycriticalApiException {
+		gateway.refundPaymentRequest(captureId, 0.01);
+	}
+
+	@Benchmark
+	public void capturePaymentRequest() throws IOException, InterruptedException, PaycriticalApiException {
+		gateway.capturePaymentRequest(authorizationId, 0.01);
+	}
+}
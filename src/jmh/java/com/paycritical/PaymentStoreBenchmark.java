@@ -0,0 +1,162 @@
+package com.paycritical;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.paycritical.response.PaycriticalAuthorization;
+import com.paycritical.response.PaycriticalCapture;
+import com.paycritical.response.PaycriticalPaymentStatus;
+
+/**
+ * Footprint and lookups of PaycriticalPaymentStore against a HashMap of the
+ * response objects, for the same payments. The heap retained by each is
+ * printed once the payments are loaded; the gc profiler shows the lookups of
+ * the store do not allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PaymentStoreBenchmark {
+	private static final String[] STATUSES = { "Requested", "Completed", "RejectedByUser", "Expired", "Cancelled",
+			"Refunded" };
+
+	/**
+	 * A payment as an application would keep it without the store.
+	 */
+	static final class Payment {
+		PaycriticalPaymentStatus status;
+		PaycriticalAuthorization authorization;
+	}
+
+	@Param({ "1000000" })
+	private int payments;
+
+	@Param({ "store", "map" })
+	private String index;
+
+	private String[] ids;
+	private PaycriticalPaymentStore store;
+	private Map<String, Payment> map;
+	private final PaycriticalPaymentState state = new PaycriticalPaymentState();
+	private int next;
+
+	@Setup(Level.Trial)
+	public void load() {
+		var random = new Random(42);
+		ids = new String[payments];
+		long before = retained();
+		if (index.equals("store")) {
+			store = PaycriticalPaymentStore.builder().expectedSize(payments).build();
+		} else {
+			map = new HashMap<>();
+		}
+		for (int i = 0; i < payments; i++) {
+			// Kept apart from the ids so their strings are counted for the map only
+			var id = new UUID(random.nextLong(), random.nextLong()).toString();
+			var status = status(random);
+			var authorization = authorization(random);
+			if (store != null) {
+				store.putPaymentStatus(id, status);
+				store.putAuthorization(id, authorization);
+			} else {
+				var payment = new Payment();
+				payment.status = status;
+				payment.authorization = authorization;
+				map.put(id, payment);
+			}
+		}
+		long after = retained();
+		System.out.printf("%n%s retains %d bytes for %d payments, %d bytes each%n", index, after - before, payments,
+				(after - before) / payments);
+		random = new Random(42);
+		for (int i = 0; i < payments; i++) {
+			ids[i] = new UUID(random.nextLong(), random.nextLong()).toString();
+			status(random);
+			authorization(random);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void unload() {
+		store = null;
+		map = null;
+	}
+
+	private static PaycriticalPaymentStatus status(Random random) {
+		var status = new PaycriticalPaymentStatus();
+		status.setStatus(STATUSES[random.nextInt(STATUSES.length)]);
+		status.setTransactionType(random.nextBoolean() ? "Capture" : "Authorization");
+		return status;
+	}
+
+	private static PaycriticalAuthorization authorization(Random random) {
+		var authorization = new PaycriticalAuthorization();
+		authorization.setStatus(STATUSES[random.nextInt(STATUSES.length)]);
+		authorization.setExpiration("2021-09-25T14:10:43.017");
+		authorization.setRemainingAmount(random.nextInt(10_000) / 100.0);
+		List<PaycriticalCapture> captures = new ArrayList<>();
+		for (int i = random.nextInt(3); i > 0; i--) {
+			var capture = new PaycriticalCapture();
+			capture.setAmount(random.nextInt(10_000) / 100.0);
+			captures.add(capture);
+		}
+		authorization.setCaptures(captures);
+		return authorization;
+	}
+
+	private static long retained() {
+		var runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private String nextId() {
+		var id = ids[next];
+		next = next + 1 == ids.length ? 0 : next + 1;
+		return id;
+	}
+
+	@Benchmark
+	public long remainingAmount() {
+		var id = nextId();
+		if (store != null) {
+			return store.read(id, state) ? state.getRemainingAmountMinor() : 0;
+		}
+		var payment = map.get(id);
+		return payment == null ? 0 : Math.round(payment.authorization.getRemainingAmount() * 100);
+	}
+
+	@Benchmark
+	public String status() {
+		var id = nextId();
+		if (store != null) {
+			return store.read(id, state) ? state.getStatus() : null;
+		}
+		var payment = map.get(id);
+		return payment == null ? null : payment.status.getStatus();
+	}
+}
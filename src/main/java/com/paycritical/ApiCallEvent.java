@@ -0,0 +1,94 @@
+package com.paycritical;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one gateway call, from the moment the gateway
+ * method is invoked until its future completes.
+ *
+ * The event is committed on the thread that completes the call, so the
+ * calling thread is recorded in its own field. Calls answered from the status
+ * cache and calls joined to an identical request in flight are recorded too,
+ * flagged as such. When the event is not enabled in any recording the gateway
+ * creates no event objects and reads no clocks for it.
+ */
+@Name("com.paycritical.ApiCall")
+@Label("Paycritical API Call")
+@Category("Paycritical")
+@Description("A call to the Paycritical API made through PaycriticalPaymentGateway")
+@StackTrace(false)
+final class ApiCallEvent extends Event {
+	// JFR enables and disables an event type as a whole, so any instance can answer isEnabled
+	private static final ApiCallEvent PROBE = new ApiCallEvent();
+
+	@Label("Endpoint")
+	String endpoint;
+
+	@Label("Resource ID")
+	@Description("Payment ID or QR code ID the call refers to, or the order reference of a new payment or QR code")
+	String resourceId;
+
+	@Label("Status Code")
+	int statusCode;
+
+	@Label("Request Size")
+	@DataAmount
+	long requestBytes;
+
+	@Label("Response Size")
+	@DataAmount
+	long responseBytes;
+
+	@Label("Serialization Time")
+	@Timespan
+	long serializationTime;
+
+	@Label("Time To First Byte")
+	@Timespan
+	long timeToFirstByte;
+
+	@Label("Deserialization Time")
+	@Timespan
+	long deserializationTime;
+
+	@Label("Coalesced")
+	@Description("Joined an identical request already in flight")
+	boolean coalesced;
+
+	@Label("Cached")
+	@Description("Answered from the status cache without a request")
+	boolean cached;
+
+	@Label("Exception")
+	String exception;
+
+	@Label("Caller Thread")
+	Thread callerThread;
+
+	static boolean isRecorded() {
+		return PROBE.isEnabled();
+	}
+
+	static ApiCallEvent start(PaycriticalEndpoint endpoint, String resourceId) {
+		var event = new ApiCallEvent();
+		event.endpoint = endpoint.name();
+		event.resourceId = resourceId;
+		event.callerThread = Thread.currentThread();
+		event.begin();
+		return event;
+	}
+
+	void complete(Throwable error) {
+		if (error != null) {
+			exception = error.getClass().getName();
+		}
+		commit();
+	}
+}
@@ -0,0 +1,243 @@
+package com.paycritical;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+import com.paycritical.exception.PaycriticalApiException;
+import com.paycritical.exception.PaycriticalApiForbiddenException;
+import com.paycritical.exception.PaycriticalApiInternalServerErrorException;
+import com.paycritical.exception.PaycriticalApiUnauthorizedException;
+import com.paycritical.exception.PaycriticalApiUnavailableException;
+import com.paycritical.exception.PaycriticalApiValidationException;
+
+/**
+ * Result of an API call: either a {@link Success} holding the decoded
+ * response, or a {@link Failure} holding the error response of the API.
+ *
+ * Returned by the calls of {@link PaycriticalOutcomes}, which report error
+ * responses without creating an exception. Success and Failure are the only
+ * subclasses. Instances are immutable.
+ *
+ * @param <T> The type of the response.
+ */
+public abstract class ApiOutcome<T> {
+	private ApiOutcome() {
+	}
+
+	public static <T> Success<T> success(T value) {
+		return new Success<>(value);
+	}
+
+	/**
+	 * @param statusCode  The HTTP status code of the response.
+	 * @param code        The error code of a 400 response, or null.
+	 * @param description The error description of a 400 response, or null.
+	 * @param message     The body of the response.
+	 */
+	public static <T> Failure<T> failure(int statusCode, String code, String description, String message) {
+		return new Failure<>(statusCode, code, description, message, null);
+	}
+
+	/**
+	 * @param retryAfter How long the response asked to wait before trying
+	 *                   again, or null.
+	 */
+	static <T> Failure<T> failure(int statusCode, String code, String description, String message,
+			Duration retryAfter) {
+		return new Failure<>(statusCode, code, description, message, retryAfter);
+	}
+
+	/**
+	 * @return Whether the call succeeded.
+	 */
+	public abstract boolean isSuccess();
+
+	/**
+	 * @return The response of a successful call.
+	 * @throws IllegalStateException The call failed.
+	 */
+	public abstract T getValue();
+
+	/**
+	 * @return The error of a failed call.
+	 * @throws IllegalStateException The call succeeded.
+	 */
+	public abstract Failure<T> getFailure();
+
+	/**
+	 * @return The response of a successful call.
+	 * @throws PaycriticalApiException The exception the blocking gateway calls
+	 *                                 throw for the error.
+	 */
+	public abstract T orElseThrow() throws PaycriticalApiException;
+
+	/**
+	 * @return The outcome with the response converted, or the same error.
+	 */
+	public abstract <U> ApiOutcome<U> map(Function<? super T, ? extends U> mapper);
+
+	/**
+	 * The call succeeded.
+	 */
+	public static final class Success<T> extends ApiOutcome<T> {
+		private final T value;
+
+		private Success(T value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean isSuccess() {
+			return true;
+		}
+
+		@Override
+		public T getValue() {
+			return value;
+		}
+
+		@Override
+		public Failure<T> getFailure() {
+			throw new IllegalStateException("The call succeeded.");
+		}
+
+		@Override
+		public T orElseThrow() {
+			return value;
+		}
+
+		@Override
+		public <U> ApiOutcome<U> map(Function<? super T, ? extends U> mapper) {
+			return new Success<>(mapper.apply(value));
+		}
+
+		@Override
+		public String toString() {
+			return "Success[" + value + "]";
+		}
+	}
+
+	/**
+	 * The API answered with an error status code.
+	 */
+	public static final class Failure<T> extends ApiOutcome<T> {
+		private final int statusCode;
+		private final String code;
+		private final String description;
+		private final String message;
+		private final Duration retryAfter;
+
+		private Failure(int statusCode, String code, String description, String message, Duration retryAfter) {
+			this.statusCode = statusCode;
+			this.code = code;
+			this.description = description;
+			this.message = message;
+			this.retryAfter = retryAfter;
+		}
+
+		@Override
+		public boolean isSuccess() {
+			return false;
+		}
+
+		@Override
+		public T getValue() {
+			throw new IllegalStateException("The call failed with status code " + statusCode + ".");
+		}
+
+		@Override
+		public Failure<T> getFailure() {
+			return this;
+		}
+
+		@Override
+		public T orElseThrow() throws PaycriticalApiException {
+			throw toException(true);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <U> ApiOutcome<U> map(Function<? super T, ? extends U> mapper) {
+			// Holds no value, so it is a failure of any type
+			return (ApiOutcome<U>) this;
+		}
+
+		/**
+		 * @return The HTTP status code of the response.
+		 */
+		public int getStatusCode() {
+			return statusCode;
+		}
+
+		/**
+		 * @return The error code of a 400 response, as in its
+		 *         {@link com.paycritical.response.ValidationSummary}, or null.
+		 */
+		public String getCode() {
+			return code;
+		}
+
+		/**
+		 * @return The error description of a 400 response, or null.
+		 */
+		public String getDescription() {
+			return description;
+		}
+
+		/**
+		 * @return The body of the response.
+		 */
+		public String getMessage() {
+			return message;
+		}
+
+		/**
+		 * @return How long the API asked to wait before trying again, from the
+		 *         Retry-After header of the response, or null if it did not say.
+		 */
+		public Duration getRetryAfter() {
+			return retryAfter;
+		}
+
+		/**
+		 * @return Whether the API may answer the same request differently later:
+		 *         a 500, 429, 502, 503 or 504 response.
+		 */
+		public boolean isTransient() {
+			return statusCode == 500 || statusCode == 429 || statusCode == 502 || statusCode == 503
+					|| statusCode == 504;
+		}
+
+		/**
+		 * @return The exception the blocking gateway calls throw for this error.
+		 */
+		public PaycriticalApiException toException() {
+			return toException(true);
+		}
+
+		PaycriticalApiException toException(boolean writableStackTrace) {
+			switch (statusCode) {
+			case 400:
+				return new PaycriticalApiValidationException(code, description, "", writableStackTrace);
+			case 401:
+				return new PaycriticalApiUnauthorizedException(message, writableStackTrace);
+			case 403:
+				return new PaycriticalApiForbiddenException(message, writableStackTrace);
+			case 500:
+				return new PaycriticalApiInternalServerErrorException(message, writableStackTrace);
+			case 429:
+			case 502:
+			case 503:
+			case 504:
+				return new PaycriticalApiUnavailableException(message, retryAfter, writableStackTrace);
+			default:
+				return new PaycriticalApiException(message, writableStackTrace);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Failure[" + statusCode + (code != null ? " " + code + ": " + description : "") + "]";
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package com.paycritical;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.paycritical.exception.PaycriticalConcurrencyLimitException;
+
+/**
+ * Adaptive limit on the calls a gateway has in flight to the Paycritical API,
+ * kept separately for the status lookups and for the calls that change
+ * payments, so a backlog of one kind cannot starve the other.
+ *
+ * Each limit follows additive increase, multiplicative decrease: it grows by
+ * one after a limit's worth of healthy calls made while it was mostly in use,
+ * and shrinks by the backoff ratio when a call fails with a 5xx or 429
+ * response or an I/O error, or when recent latency rises above the tolerance
+ * times its long-term average. It shrinks at most once per round trip, since
+ * the calls already in flight were sent under the old limit.
+ *
+ * A call over the limit waits in a bounded queue, or fails straight away with
+ * a {@link PaycriticalConcurrencyLimitException} when the queue is full or
+ * disabled. Instances are thread-safe and may be shared by several gateways.
+ */
+public final class PaycriticalConcurrencyLimit {
+	// Weights of a new latency sample in the short and long-term averages
+	private static final double SHORT_WEIGHT = 0.1;
+	private static final double LONG_WEIGHT = 0.01;
+
+	private final Limit reads;
+	private final Limit writes;
+	private final double backoffRatio;
+	private final double latencyTolerance;
+	private final int maxQueued;
+	private final Duration maxWait;
+	private final LongAdder rejected = new LongAdder();
+
+	private PaycriticalConcurrencyLimit(Builder builder) {
+		this.reads = new Limit("read", builder.readInitial, builder.readMax);
+		this.writes = new Limit("write", builder.writeInitial, builder.writeMax);
+		this.backoffRatio = builder.backoffRatio;
+		this.latencyTolerance = builder.latencyTolerance;
+		this.maxQueued = builder.maxQueued;
+		this.maxWait = builder.maxWait;
+	}
+
+	/**
+	 * <p>
+	 * Create a Concurrency Limit Builder
+	 * </p>
+	 *
+	 * @return A builder for a PaycriticalConcurrencyLimit.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return The current limit on status lookups in flight.
+	 */
+	public int readLimit() {
+		return reads.current();
+	}
+
+	/**
+	 * @return The current limit on payment, capture, refund, cancel, resend
+	 *         and QR code requests in flight.
+	 */
+	public int writeLimit() {
+		return writes.current();
+	}
+
+	/**
+	 * @return The number of calls failed without being sent, because the queue
+	 *         was full or they waited too long.
+	 */
+	public long rejectedCount() {
+		return rejected.sum();
+	}
+
+	/**
+	 * Takes a slot for a call to the endpoint. The future completes once the
+	 * call may be sent, and fails with a PaycriticalConcurrencyLimitException if
+	 * it may not. Cancelling it gives up the place in the queue.
+	 *
+	 * @param executor The executor of the gateway, which fails the call once it
+	 *                 waited too long.
+	 */
+	CompletableFuture<Permit> acquire(PaycriticalEndpoint endpoint, Executor executor) {
+		return (endpoint.isRead() ? reads : writes).acquire(executor);
+	}
+
+	/**
+	 * A slot held by one call. Exactly one of release or abandon must be called.
+	 */
+	final class Permit {
+		private final Limit limit;
+		private final long start = System.nanoTime();
+
+		private Permit(Limit limit) {
+			this.limit = limit;
+		}
+
+		/**
+		 * Frees the slot once the response arrived or the call failed.
+		 *
+		 * @param overloaded Whether the outcome is a sign of overload, e.g. a 503
+		 *                   response or a timeout.
+		 */
+		void release(boolean overloaded) {
+			limit.release(this, true, overloaded);
+		}
+
+		/**
+		 * Frees the slot of a call that was never sent.
+		 */
+		void abandon() {
+			limit.release(this, false, false);
+		}
+	}
+
+	/**
+	 * One limit and its queue. The state is small and only held briefly, so it
+	 * is guarded by the instance lock.
+	 */
+	private final class Limit {
+		private final String kind;
+		private final int max;
+		private final ArrayDeque<CompletableFuture<Permit>> queue = new ArrayDeque<>();
+		private double limit;
+		private int inFlight;
+		private double shortLatency;
+		private double longLatency;
+		private long lastDecrease = System.nanoTime() - 1;
+
+		private Limit(String kind, int initial, int max) {
+			this.kind = kind;
+			this.limit = initial;
+			this.max = max;
+		}
+
+		private synchronized int current() {
+			return (int) limit;
+		}
+
+		private CompletableFuture<Permit> acquire(Executor executor) {
+			var waiter = new CompletableFuture<Permit>();
+			synchronized (this) {
+				if (inFlight < (int) limit) {
+					inFlight++;
+					return CompletableFuture.completedFuture(new Permit(this));
+				}
+				if (queue.size() >= maxQueued) {
+					rejected.increment();
+					return CompletableFuture.failedFuture(new PaycriticalConcurrencyLimitException(
+							"The " + kind + " concurrency limit of " + (int) limit + " calls is reached."));
+				}
+				queue.add(waiter);
+			}
+
+			// Removed from the timer once the waiter is granted a slot or cancelled
+			var timer = maxWait == null ? null : PaycriticalTimer.schedule(() -> executor.execute(() -> {
+				if (dequeue(waiter)) {
+					rejected.increment();
+					waiter.completeExceptionally(new PaycriticalConcurrencyLimitException(
+							"No " + kind + " call slot was free within " + maxWait + "."));
+				}
+			}), maxWait.toNanos());
+			waiter.whenComplete((permit, error) -> {
+				if (timer != null) {
+					timer.cancel(false);
+				}
+				if (waiter.isCancelled()) {
+					dequeue(waiter);
+				}
+			});
+			return waiter;
+		}
+
+		private synchronized boolean dequeue(CompletableFuture<Permit> waiter) {
+			return queue.remove(waiter);
+		}
+
+		private void release(Permit permit, boolean sample, boolean overloaded) {
+			var granted = new ArrayList<CompletableFuture<Permit>>();
+			synchronized (this) {
+				if (sample) {
+					adjust(permit.start, System.nanoTime(), overloaded);
+				}
+				inFlight--;
+				while (inFlight < (int) limit && !queue.isEmpty()) {
+					inFlight++;
+					granted.add(queue.poll());
+				}
+			}
+			// Outside the lock, as completing a waiter runs the call it was waiting for
+			for (var waiter : granted) {
+				var next = new Permit(this);
+				if (!waiter.complete(next)) {
+					next.abandon();
+				}
+			}
+		}
+
+		private void adjust(long start, long end, boolean overloaded) {
+			if (!overloaded) {
+				double latency = end - start;
+				if (longLatency == 0) {
+					shortLatency = latency;
+					longLatency = latency;
+				}
+				shortLatency += (latency - shortLatency) * SHORT_WEIGHT;
+				longLatency += (latency - longLatency) * LONG_WEIGHT;
+				overloaded = shortLatency > longLatency * latencyTolerance;
+			}
+			if (overloaded) {
+				// Calls sent before the last decrease do not count against the new limit
+				if (start - lastDecrease > 0) {
+					limit = Math.max(1, limit * backoffRatio);
+					lastDecrease = end;
+				}
+			} else if (inFlight * 2 >= limit) {
+				limit = Math.min(max, limit + 1 / limit);
+			}
+		}
+	}
+
+	/**
+	 * Builder for {@link PaycriticalConcurrencyLimit}. Not thread-safe.
+	 */
+	public static final class Builder {
+		private int readInitial = 20;
+		private int readMax = 200;
+		private int writeInitial = 10;
+		private int writeMax = 100;
+		private double backoffRatio = 0.9;
+		private double latencyTolerance = 2;
+		private int maxQueued;
+		private Duration maxWait;
+
+		private Builder() {
+		}
+
+		/**
+		 * Limit on status lookups in flight. Defaults to starting at 20 and
+		 * growing up to 200.
+		 */
+		public Builder readLimit(int initial, int max) {
+			checkLimit(initial, max);
+			this.readInitial = initial;
+			this.readMax = max;
+			return this;
+		}
+
+		/**
+		 * Limit on the other calls in flight. Defaults to starting at 10 and
+		 * growing up to 100.
+		 */
+		public Builder writeLimit(int initial, int max) {
+			checkLimit(initial, max);
+			this.writeInitial = initial;
+			this.writeMax = max;
+			return this;
+		}
+
+		/**
+		 * Ratio a limit is multiplied by on overload. Defaults to 0.9.
+		 */
+		public Builder backoffRatio(double backoffRatio) {
+			if (backoffRatio <= 0 || backoffRatio >= 1) {
+				throw new IllegalArgumentException("The backoff ratio must be between 0 and 1.");
+			}
+			this.backoffRatio = backoffRatio;
+			return this;
+		}
+
+		/**
+		 * How many times its long-term average the recent latency may reach
+		 * before the limit shrinks. Defaults to 2.
+		 */
+		public Builder latencyTolerance(double latencyTolerance) {
+			if (latencyTolerance <= 1) {
+				throw new IllegalArgumentException("The latency tolerance must be greater than 1.");
+			}
+			this.latencyTolerance = latencyTolerance;
+			return this;
+		}
+
+		/**
+		 * Let calls over the limit wait for a free slot instead of failing. By
+		 * default they fail straight away.
+		 *
+		 * @param maxQueued Calls of each kind that may wait at once.
+		 * @param maxWait   How long a call may wait, or null to wait as long as it
+		 *                  takes.
+		 */
+		public Builder queue(int maxQueued, Duration maxWait) {
+			if (maxQueued < 0) {
+				throw new IllegalArgumentException("The queue size can not be negative.");
+			}
+			this.maxQueued = maxQueued;
+			this.maxWait = maxWait;
+			return this;
+		}
+
+		public PaycriticalConcurrencyLimit build() {
+			return new PaycriticalConcurrencyLimit(this);
+		}
+
+		private static void checkLimit(int initial, int max) {
+			if (initial < 1 || max < initial) {
+				throw new IllegalArgumentException("The limit must be at least 1 and at most its maximum.");
+			}
+		}
+	}
+}
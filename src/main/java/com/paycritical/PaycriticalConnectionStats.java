@@ -0,0 +1,77 @@
+package com.paycritical;
+
+/**
+ * Snapshot of the use of one connection of a gateway, as returned by
+ * {@link PaycriticalPaymentGateway#connectionStats()}.
+ *
+ * With HTTP/2 a connection is a single socket per host carrying many
+ * concurrent streams. With HTTP/1.1 it is a pool of keep-alive sockets, one
+ * per concurrent request.
+ */
+public final class PaycriticalConnectionStats {
+	private final int index;
+	private final int activeStreams;
+	private final int peakStreams;
+	private final long requests;
+	private final long http2Responses;
+	private final long http11Responses;
+
+	public PaycriticalConnectionStats(int index, int activeStreams, int peakStreams, long requests,
+			long http2Responses, long http11Responses) {
+		this.index = index;
+		this.activeStreams = activeStreams;
+		this.peakStreams = peakStreams;
+		this.requests = requests;
+		this.http2Responses = http2Responses;
+		this.http11Responses = http11Responses;
+	}
+
+	/**
+	 * @return The position of the connection, from 0.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return The requests in flight on the connection.
+	 */
+	public int getActiveStreams() {
+		return activeStreams;
+	}
+
+	/**
+	 * @return The most requests the connection has had in flight at once.
+	 */
+	public int getPeakStreams() {
+		return peakStreams;
+	}
+
+	/**
+	 * @return The requests sent on the connection.
+	 */
+	public long getRequests() {
+		return requests;
+	}
+
+	/**
+	 * @return The responses received over HTTP/2.
+	 */
+	public long getHttp2Responses() {
+		return http2Responses;
+	}
+
+	/**
+	 * @return The responses received over HTTP/1.1, e.g. because the server
+	 *         did not negotiate HTTP/2.
+	 */
+	public long getHttp11Responses() {
+		return http11Responses;
+	}
+
+	@Override
+	public String toString() {
+		return "connection " + index + ": active=" + activeStreams + " peak=" + peakStreams + " requests=" + requests
+				+ " http2=" + http2Responses + " http1.1=" + http11Responses;
+	}
+}
@@ -0,0 +1,47 @@
+package com.paycritical;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Point in time by which a gateway call must have completed, shared by its
+ * attempts so retries and hedges only get the time that is left.
+ */
+final class PaycriticalDeadline {
+	private final Duration timeout;
+	private final long at;
+
+	private PaycriticalDeadline(Duration timeout) {
+		this.timeout = timeout;
+		this.at = System.nanoTime() + timeout.toNanos();
+	}
+
+	/**
+	 * @return A deadline the timeout from now, or null for no timeout.
+	 */
+	static PaycriticalDeadline after(Duration timeout) {
+		return timeout == null ? null : new PaycriticalDeadline(timeout);
+	}
+
+	/**
+	 * @return The time left, zero or negative once the deadline has passed.
+	 */
+	long remainingNanos() {
+		return at - System.nanoTime();
+	}
+
+	/**
+	 * @return The timeout the deadline was set with.
+	 */
+	Duration timeout() {
+		return timeout;
+	}
+
+	/**
+	 * Runs the task on the timer thread when the deadline passes. The task must
+	 * only hand work off.
+	 */
+	ScheduledFuture<?> schedule(Runnable task) {
+		return PaycriticalTimer.schedule(task, remainingNanos());
+	}
+}
@@ -0,0 +1,48 @@
+package com.paycritical;
+
+/**
+ * The API operations called by {@link PaycriticalPaymentGateway}, one per
+ * gateway method.
+ */
+public enum PaycriticalEndpoint {
+	GET_PAYMENT_STATUS("GET", "/api/payment/{paymentId}"),
+	GET_AUTHORIZATION_DETAILS("GET", "/api/payment/{paymentId}/authorization"),
+	REQUEST_AUTHORIZATION("POST", "/api/payment"),
+	REQUEST_PAYMENT("POST", "/api/payment"),
+	RESEND_PAYMENT("POST", "/api/payment/resend"),
+	REQUEST_QR_CODE("POST", "/api/qrcode"),
+	GET_QR_CODE_STATUS("GET", "/api/qrCode/{qrCodeId}"),
+	CANCEL_PAYMENT("PUT", "/api/payment/cancel"),
+	REFUND_PAYMENT("PUT", "/api/payment/refund"),
+	CAPTURE_PAYMENT("PUT", "/api/payment/capture");
+
+	private final String method;
+	private final String path;
+
+	PaycriticalEndpoint(String method, String path) {
+		this.method = method;
+		this.path = path;
+	}
+
+	/**
+	 * @return The HTTP method, e.g. GET.
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return The path template, e.g. /api/payment/{paymentId}.
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return true for the status lookups, which change nothing on the server
+	 *         and can safely be sent again.
+	 */
+	public boolean isRead() {
+		return "GET".equals(method);
+	}
+}
@@ -0,0 +1,221 @@
+package com.paycritical;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+
+import com.paycritical.metrics.LatencyHistogram;
+
+/**
+ * Weighted fair share of the calls a {@link PaycriticalGatewayPool} has in
+ * flight, between its tenants.
+ *
+ * Calls over the limit wait in a queue per tenant. When a slot frees up it
+ * goes to the waiting tenant that has been served least relative to its
+ * weight: every call sent advances the virtual time of its tenant by one over
+ * its weight, and the tenant with the lowest virtual time goes next. A tenant
+ * that was idle starts again from the virtual time of the busiest tenants,
+ * so it cannot save up a burst while idle. A tenant with twice the weight of
+ * another thus gets twice its share of the slots while both are waiting, and
+ * any tenant gets a slot within a few calls of the others, however many calls
+ * a batch job has queued.
+ *
+ * The state is small and only held briefly, so it is guarded by the instance
+ * lock.
+ */
+final class PaycriticalFairScheduler {
+	private final int maxInFlight;
+	// Tenants with calls waiting, by virtual time
+	private final PriorityQueue<Tenant> waiting = new PriorityQueue<>(
+			Comparator.comparingDouble((Tenant tenant) -> tenant.virtualTime).thenComparingLong(tenant -> tenant.order));
+	private int inFlight;
+	private double virtualTime;
+	private long order;
+
+	PaycriticalFairScheduler(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	Tenant tenant(String id, int weight) {
+		return new Tenant(id, weight);
+	}
+
+	private void release(Tenant tenant, long start, boolean completed) {
+		if (completed) {
+			tenant.latency.record(System.nanoTime() - start);
+		}
+		var granted = new ArrayList<Grant>();
+		synchronized (this) {
+			inFlight--;
+			tenant.inFlight--;
+			if (completed) {
+				tenant.calls++;
+			}
+			dispatch(granted);
+		}
+		complete(granted);
+	}
+
+	/**
+	 * Hands the free slots to the waiting calls, fairest first.
+	 */
+	private void dispatch(ArrayList<Grant> granted) {
+		while (inFlight < maxInFlight && !waiting.isEmpty()) {
+			var tenant = waiting.poll();
+			var waiter = tenant.queue.poll();
+			inFlight++;
+			tenant.inFlight++;
+			virtualTime = Math.max(virtualTime, tenant.virtualTime);
+			tenant.virtualTime += 1.0 / tenant.weight;
+			if (!tenant.queue.isEmpty()) {
+				waiting.add(tenant);
+			}
+			granted.add(new Grant(tenant, waiter));
+		}
+	}
+
+	/**
+	 * Completes the granted waiters outside the lock, as completing one runs
+	 * the call it was waiting for.
+	 */
+	private void complete(ArrayList<Grant> granted) {
+		for (var grant : granted) {
+			var slot = new Slot(grant.tenant, grant.waiter.start);
+			if (!grant.waiter.future.complete(slot)) {
+				// Cancelled meanwhile
+				slot.abandon();
+			}
+		}
+	}
+
+	/**
+	 * The calls of one tenant of the pool.
+	 */
+	final class Tenant {
+		private final String id;
+		private final int weight;
+		private final long order;
+		private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private double virtualTime;
+		private int inFlight;
+		private long calls;
+		private volatile boolean removed;
+
+		private Tenant(String id, int weight) {
+			this.id = id;
+			this.weight = weight;
+			synchronized (PaycriticalFairScheduler.this) {
+				this.order = PaycriticalFairScheduler.this.order++;
+			}
+		}
+
+		/**
+		 * Takes a slot for a call. The future completes once the call may be
+		 * sent; cancelling it gives up the place in the queue.
+		 */
+		CompletableFuture<Slot> acquire() {
+			long start = System.nanoTime();
+			var waiter = new Waiter(start);
+			synchronized (PaycriticalFairScheduler.this) {
+				var scheduler = PaycriticalFairScheduler.this;
+				if (scheduler.inFlight < maxInFlight && waiting.isEmpty()) {
+					scheduler.inFlight++;
+					inFlight++;
+					// Idle tenants catch up with the others rather than bursting
+					virtualTime = Math.max(virtualTime, scheduler.virtualTime);
+					scheduler.virtualTime = virtualTime;
+					virtualTime += 1.0 / weight;
+					return CompletableFuture.completedFuture(new Slot(this, start));
+				}
+				if (queue.isEmpty()) {
+					virtualTime = Math.max(virtualTime, scheduler.virtualTime);
+					waiting.add(this);
+				}
+				queue.add(waiter);
+			}
+			waiter.future.whenComplete((slot, error) -> {
+				if (waiter.future.isCancelled()) {
+					dequeue(waiter);
+				}
+			});
+			return waiter.future;
+		}
+
+		private void dequeue(Waiter waiter) {
+			synchronized (PaycriticalFairScheduler.this) {
+				if (queue.remove(waiter) && queue.isEmpty()) {
+					waiting.remove(this);
+				}
+			}
+		}
+
+		String id() {
+			return id;
+		}
+
+		boolean isRemoved() {
+			return removed;
+		}
+
+		void remove() {
+			removed = true;
+		}
+
+		PaycriticalTenantStats stats() {
+			synchronized (PaycriticalFairScheduler.this) {
+				return new PaycriticalTenantStats(id, weight, inFlight, queue.size(), calls, latency.snapshot());
+			}
+		}
+	}
+
+	/**
+	 * A slot held by one call, to release once it completed, whatever the
+	 * outcome.
+	 */
+	final class Slot {
+		private final Tenant tenant;
+		private final long start;
+
+		private Slot(Tenant tenant, long start) {
+			this.tenant = tenant;
+			this.start = start;
+		}
+
+		/**
+		 * Frees the slot once the call completed, counting it in the stats of
+		 * its tenant.
+		 */
+		void release() {
+			PaycriticalFairScheduler.this.release(tenant, start, true);
+		}
+
+		/**
+		 * Frees the slot of a call that was never sent.
+		 */
+		void abandon() {
+			PaycriticalFairScheduler.this.release(tenant, start, false);
+		}
+	}
+
+	private static final class Waiter {
+		private final long start;
+		private final CompletableFuture<Slot> future = new CompletableFuture<>();
+
+		private Waiter(long start) {
+			this.start = start;
+		}
+	}
+
+	private static final class Grant {
+		private final Tenant tenant;
+		private final Waiter waiter;
+
+		private Grant(Tenant tenant, Waiter waiter) {
+			this.tenant = tenant;
+			this.waiter = waiter;
+		}
+	}
+}
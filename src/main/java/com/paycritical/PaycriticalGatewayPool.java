@@ -0,0 +1,201 @@
+package com.paycritical;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gateways for many merchant accounts, each with its own API key, sharing
+ * one set of connections, worker threads and settings.
+ *
+ * Every tenant of the pool gets a gateway sending the tenant's API key. All
+ * of them share the HttpClient, connections, executor, limits and policies
+ * of one gateway built from the pool's settings, so adding a tenant opens no
+ * connection and starts no thread. A rate limiter still counts its tokens per
+ * API key, so per tenant.
+ *
+ * The calls the pool has in flight are shared fairly between the tenants:
+ * once the pool is full, the next free slot goes to the waiting tenant that
+ * was served least relative to its weight, so a merchant running a batch job
+ * slows the others down by its share only. Each tenant's in-flight calls,
+ * queue and latencies are reported by {@link #tenantStats()}.
+ *
+ * Instances are thread-safe.
+ */
+public final class PaycriticalGatewayPool implements AutoCloseable {
+	private final PaycriticalPaymentGateway shared;
+	private final PaycriticalFairScheduler scheduler;
+	private final ConcurrentHashMap<String, Entry> tenants = new ConcurrentHashMap<>();
+
+	private PaycriticalGatewayPool(Builder builder) {
+		this.shared = builder.gateway.build();
+		if (shared.keepsPaymentState()) {
+			shared.close();
+			throw new IllegalStateException("A status cache or journal cannot be shared by the tenants of a pool.");
+		}
+		this.scheduler = new PaycriticalFairScheduler(builder.maxInFlight);
+	}
+
+	/**
+	 * <p>
+	 * Create a Pool Builder
+	 * </p>
+	 *
+	 * @param gateway The settings shared by the tenants: base URL, connections,
+	 *                timeouts, limits and policies. Its API key is not used. It
+	 *                must have no status cache and no journal, which cannot tell
+	 *                tenants apart.
+	 * @return A builder for a PaycriticalGatewayPool.
+	 */
+	public static Builder builder(PaycriticalPaymentGateway.Builder gateway) {
+		return new Builder(gateway);
+	}
+
+	/**
+	 * <p>
+	 * Add a Tenant
+	 * </p>
+	 *
+	 * @param tenantId A name for the tenant, e.g. the merchant account.
+	 * @param apiKey   The API key of the tenant, in the format: Basic
+	 *                 &lt;string&gt;
+	 * @param weight   The share of the pool the tenant gets when it is full,
+	 *                 relative to the weights of the other tenants.
+	 * @return The gateway making the calls of the tenant. Closing it has no
+	 *         effect.
+	 * @throws IllegalArgumentException A tenant with this ID was already
+	 *                                  added.
+	 */
+	public PaycriticalPaymentGateway addTenant(String tenantId, String apiKey, int weight) {
+		Objects.requireNonNull(tenantId);
+		Objects.requireNonNull(apiKey);
+		if (weight < 1) {
+			throw new IllegalArgumentException("The weight must be at least 1.");
+		}
+		var tenant = scheduler.tenant(tenantId, weight);
+		var entry = new Entry(tenant, shared.forTenant(apiKey, tenant));
+		if (tenants.putIfAbsent(tenantId, entry) != null) {
+			throw new IllegalArgumentException("The tenant " + tenantId + " was already added.");
+		}
+		return entry.gateway;
+	}
+
+	/**
+	 * @return The gateway of a tenant, or null if there is no such tenant.
+	 */
+	public PaycriticalPaymentGateway tenant(String tenantId) {
+		var entry = tenants.get(tenantId);
+		return entry != null ? entry.gateway : null;
+	}
+
+	/**
+	 * Removes a tenant. New calls on its gateway fail with an
+	 * IllegalStateException; calls already made are allowed to finish.
+	 *
+	 * @return Whether there was such a tenant.
+	 */
+	public boolean removeTenant(String tenantId) {
+		var entry = tenants.remove(tenantId);
+		if (entry == null) {
+			return false;
+		}
+		entry.tenant.remove();
+		return true;
+	}
+
+	/**
+	 * @return A snapshot of the calls of every tenant.
+	 */
+	public List<PaycriticalTenantStats> tenantStats() {
+		var stats = new ArrayList<PaycriticalTenantStats>(tenants.size());
+		for (var entry : tenants.values()) {
+			stats.add(entry.tenant.stats());
+		}
+		return stats;
+	}
+
+	/**
+	 * @return A snapshot of the calls of a tenant, or null if there is no such
+	 *         tenant.
+	 */
+	public PaycriticalTenantStats tenantStats(String tenantId) {
+		var entry = tenants.get(tenantId);
+		return entry != null ? entry.tenant.stats() : null;
+	}
+
+	/**
+	 * @return A snapshot of the use of every connection, shared by all the
+	 *         tenants.
+	 */
+	public List<PaycriticalConnectionStats> connectionStats() {
+		return shared.connectionStats();
+	}
+
+	/**
+	 * Opens the shared connections before the tenants take traffic.
+	 *
+	 * @see PaycriticalPaymentGateway#warmUp()
+	 */
+	public void warmUp() throws IOException, InterruptedException {
+		shared.warmUp();
+	}
+
+	/**
+	 * <p>
+	 * Close the Pool
+	 * </p>
+	 *
+	 * Closes the gateways of every tenant. Calls already in flight are allowed
+	 * to finish.
+	 */
+	@Override
+	public void close() {
+		shared.close();
+	}
+
+	private static final class Entry {
+		private final PaycriticalFairScheduler.Tenant tenant;
+		private final PaycriticalPaymentGateway gateway;
+
+		private Entry(PaycriticalFairScheduler.Tenant tenant, PaycriticalPaymentGateway gateway) {
+			this.tenant = tenant;
+			this.gateway = gateway;
+		}
+	}
+
+	/**
+	 * Builder for {@link PaycriticalGatewayPool}. Not thread-safe.
+	 */
+	public static final class Builder {
+		private final PaycriticalPaymentGateway.Builder gateway;
+		private int maxInFlight = 64;
+
+		private Builder(PaycriticalPaymentGateway.Builder gateway) {
+			this.gateway = Objects.requireNonNull(gateway);
+		}
+
+		/**
+		 * Calls all the tenants together may have in flight before they are
+		 * queued and shared by weight. Defaults to 64. With a concurrency limit,
+		 * keep it at or below the limit, so that calls queue here, fairly,
+		 * rather than in the limit's queue.
+		 */
+		public Builder maxInFlight(int maxInFlight) {
+			if (maxInFlight < 1) {
+				throw new IllegalArgumentException("The pool must allow at least one call in flight.");
+			}
+			this.maxInFlight = maxInFlight;
+			return this;
+		}
+
+		/**
+		 * @throws IllegalStateException The gateway settings have a status cache
+		 *                               or a journal.
+		 */
+		public PaycriticalGatewayPool build() {
+			return new PaycriticalGatewayPool(this);
+		}
+	}
+}
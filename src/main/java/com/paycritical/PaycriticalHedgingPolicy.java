@@ -0,0 +1,408 @@
+package com.paycritical;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.paycritical.metrics.HistogramSnapshot;
+import com.paycritical.metrics.LatencyHistogram;
+
+/**
+ * Hedging for the status lookups: getPaymentStatus, getAuthorizationDetails
+ * and getQRCodeStatus.
+ *
+ * When a lookup has not answered after the configured percentile of the
+ * recent latency of its endpoint, a second identical request is sent and the
+ * first response wins. The other request is cancelled and its response, if
+ * it still arrives, is read and discarded so the connection can be reused.
+ * A failed attempt only fails the call once no other attempt is pending; so
+ * does an {@link ApiOutcome.Failure} returned through
+ * {@link PaycriticalOutcomes}.
+ *
+ * The extra load is capped by a budget: every lookup earns a fraction of a
+ * hedge, and a hedge is only sent when a whole one has been earned. Instances
+ * are thread-safe and may be shared by several gateways.
+ */
+public final class PaycriticalHedgingPolicy {
+	// Budget amounts are kept in thousandths of a hedge
+	private static final long HEDGE_COST = 1000;
+	// Delays are recomputed from the histograms at most this often
+	private static final long REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+	// Lookups to observe before the percentile is trusted over the maximum delay
+	private static final long MIN_SAMPLES = 100;
+
+	private final double percentile;
+	private final long minDelayNanos;
+	private final long maxDelayNanos;
+	private final long windowNanos;
+	private final long budgetEarned;
+	private final long maxBudget;
+	private final AtomicLong budget = new AtomicLong();
+	private final EndpointLatency[] endpoints;
+	private final LongAdder hedges = new LongAdder();
+	private final LongAdder hedgeWins = new LongAdder();
+	private final LongAdder budgetExhausted = new LongAdder();
+
+	private PaycriticalHedgingPolicy(Builder builder) {
+		this.percentile = builder.percentile;
+		this.minDelayNanos = builder.minDelay.toNanos();
+		this.maxDelayNanos = builder.maxDelay.toNanos();
+		this.windowNanos = builder.window.toNanos();
+		this.budgetEarned = Math.round(builder.maxHedgeRatio * HEDGE_COST);
+		this.maxBudget = builder.maxBurst * HEDGE_COST;
+		this.budget.set(maxBudget);
+		this.endpoints = new EndpointLatency[PaycriticalEndpoint.values().length];
+		for (int i = 0; i < endpoints.length; i++) {
+			endpoints[i] = new EndpointLatency();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Create a Hedging Policy Builder
+	 * </p>
+	 *
+	 * @return A builder for a PaycriticalHedgingPolicy.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return The number of second requests sent.
+	 */
+	public long hedgeCount() {
+		return hedges.sum();
+	}
+
+	/**
+	 * @return The number of lookups answered by the second request.
+	 */
+	public long hedgeWinCount() {
+		return hedgeWins.sum();
+	}
+
+	/**
+	 * @return The number of second requests not sent because the budget was
+	 *         spent.
+	 */
+	public long budgetExhaustedCount() {
+		return budgetExhausted.sum();
+	}
+
+	/**
+	 * @param endpoint A status lookup endpoint.
+	 * @return The time after which a lookup to the endpoint is hedged now.
+	 */
+	public Duration currentDelay(PaycriticalEndpoint endpoint) {
+		return Duration.ofNanos(endpoints[endpoint.ordinal()].delayNanos());
+	}
+
+	/**
+	 * Runs a lookup, starting a second attempt if the first is slow.
+	 *
+	 * @param attempt  Sends one request; called once or twice.
+	 * @param executor The executor of the gateway, which sends the hedge.
+	 */
+	<T> CompletableFuture<T> execute(PaycriticalEndpoint endpoint, Supplier<CompletableFuture<T>> attempt,
+			Executor executor) {
+		var latency = endpoints[endpoint.ordinal()];
+		earnBudget();
+		long delay = latency.delayNanos();
+		long start = System.nanoTime();
+
+		var call = new HedgedCall<T>();
+		call.first = start(attempt);
+		call.first.whenComplete((value, error) -> {
+			cancelTimer(call);
+			// One sample per lookup, from its first attempt. One cancelled because
+			// the hedge won was at least that slow, so the slow tail still counts
+			latency.record(System.nanoTime() - start);
+			if (error != null) {
+				call.failed(error);
+			} else if (value instanceof ApiOutcome.Failure) {
+				call.failedWith(value);
+			} else if (call.succeeded(value)) {
+				cancel(call.second);
+			}
+		});
+
+		// Sent on the gateway executor, like the other stages of the call
+		call.timer = PaycriticalTimer.schedule(() -> executor.execute(() -> hedge(call, attempt)), delay);
+		if (call.first.isDone()) {
+			cancelTimer(call);
+		}
+
+		call.result.whenComplete((value, error) -> {
+			if (call.result.isCancelled()) {
+				cancelTimer(call);
+				cancel(call.first);
+				cancel(call.second);
+			}
+		});
+		return call.result;
+	}
+
+	private <T> void hedge(HedgedCall<T> call, Supplier<CompletableFuture<T>> attempt) {
+		if (call.result.isDone() || !call.join()) {
+			return;
+		}
+		if (!spendBudget()) {
+			budgetExhausted.increment();
+			call.leave();
+			return;
+		}
+		hedges.increment();
+		var hedge = start(attempt);
+		call.second = hedge;
+		// Not sampled: hedges only complete when they are fast, which would
+		// pull the delay down
+		hedge.whenComplete((value, error) -> {
+			if (error != null) {
+				call.failed(error);
+			} else if (value instanceof ApiOutcome.Failure) {
+				call.failedWith(value);
+			} else if (call.succeeded(value)) {
+				hedgeWins.increment();
+				cancel(call.first);
+			}
+		});
+		if (call.result.isDone()) {
+			cancel(hedge);
+		}
+	}
+
+	private static void cancelTimer(HedgedCall<?> call) {
+		var timer = call.timer;
+		if (timer != null) {
+			timer.cancel(false);
+		}
+	}
+
+	private static <T> CompletableFuture<T> start(Supplier<CompletableFuture<T>> attempt) {
+		try {
+			return attempt.get();
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private static void cancel(CompletableFuture<?> attempt) {
+		if (attempt != null) {
+			attempt.cancel(true);
+		}
+	}
+
+	private void earnBudget() {
+		for (;;) {
+			long current = budget.get();
+			if (current >= maxBudget || budget.compareAndSet(current, Math.min(maxBudget, current + budgetEarned))) {
+				return;
+			}
+		}
+	}
+
+	private boolean spendBudget() {
+		for (;;) {
+			long current = budget.get();
+			if (current < HEDGE_COST) {
+				return false;
+			}
+			if (budget.compareAndSet(current, current - HEDGE_COST)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * State of one hedged lookup. The first success decides it; a failure only
+	 * decides it once no other attempt is pending.
+	 */
+	private static final class HedgedCall<T> {
+		private final CompletableFuture<T> result = new CompletableFuture<>();
+		// Attempts sent or about to be, and not finished; 0 once decided
+		private final AtomicInteger pending = new AtomicInteger(1);
+		private volatile Throwable error;
+		// The error response of the last failed attempt, when it returned one
+		private volatile T failure;
+		private volatile CompletableFuture<T> first;
+		private volatile CompletableFuture<T> second;
+		// Sends the second attempt once the delay passed, cancelled once the
+		// first completes
+		private volatile ScheduledFuture<?> timer;
+
+		/**
+		 * Counts a second attempt in, unless the call was already decided.
+		 */
+		private boolean join() {
+			for (;;) {
+				int current = pending.get();
+				if (current == 0) {
+					return false;
+				}
+				if (pending.compareAndSet(current, current + 1)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * @return true if this success decided the call.
+		 */
+		private boolean succeeded(T value) {
+			pending.set(0);
+			return result.complete(value);
+		}
+
+		private void failed(Throwable failure) {
+			error = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause()
+					: failure;
+			this.failure = null;
+			leave();
+		}
+
+		private void failedWith(T failure) {
+			this.failure = failure;
+			error = null;
+			leave();
+		}
+
+		/**
+		 * Ends an attempt without a result, failing the call with the last error
+		 * if it was the only one left.
+		 */
+		private void leave() {
+			if (pending.decrementAndGet() == 0) {
+				if (error != null) {
+					result.completeExceptionally(error);
+				} else {
+					result.complete(failure);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Latency of one endpoint over the last one to two windows, kept in two
+	 * histograms that take turns being reset.
+	 */
+	private final class EndpointLatency {
+		private volatile LatencyHistogram current = new LatencyHistogram();
+		private volatile LatencyHistogram previous = new LatencyHistogram();
+		private final AtomicLong nextRefresh = new AtomicLong(System.nanoTime());
+		private volatile long rotateAt = System.nanoTime() + windowNanos;
+		private volatile long delayNanos = maxDelayNanos;
+
+		private void record(long nanos) {
+			current.record(nanos);
+		}
+
+		private long delayNanos() {
+			long now = System.nanoTime();
+			long refresh = nextRefresh.get();
+			if (now - refresh >= 0 && nextRefresh.compareAndSet(refresh, now + REFRESH_NANOS)) {
+				refresh(now);
+			}
+			return delayNanos;
+		}
+
+		// Only called by the thread that won the refresh
+		private void refresh(long now) {
+			if (now - rotateAt >= 0) {
+				previous = current;
+				current = new LatencyHistogram();
+				rotateAt = now + windowNanos;
+			}
+			HistogramSnapshot recent = previous.snapshot().merge(current.snapshot());
+			delayNanos = recent.count() < MIN_SAMPLES ? maxDelayNanos
+					: Math.max(minDelayNanos, Math.min(maxDelayNanos, recent.percentile(percentile)));
+		}
+	}
+
+	/**
+	 * Builder for {@link PaycriticalHedgingPolicy}. Not thread-safe.
+	 */
+	public static final class Builder {
+		private double percentile = 95;
+		private Duration minDelay = Duration.ofMillis(10);
+		private Duration maxDelay = Duration.ofSeconds(1);
+		private Duration window = Duration.ofSeconds(30);
+		private double maxHedgeRatio = 0.05;
+		private long maxBurst = 10;
+
+		private Builder() {
+		}
+
+		/**
+		 * Latency percentile after which a lookup is hedged. Defaults to 95, so
+		 * about one lookup in twenty is hedged when the budget allows.
+		 */
+		public Builder percentile(double percentile) {
+			if (percentile <= 0 || percentile >= 100) {
+				throw new IllegalArgumentException("The percentile must be between 0 and 100.");
+			}
+			this.percentile = percentile;
+			return this;
+		}
+
+		/**
+		 * Bounds of the hedging delay. The maximum is also used until enough
+		 * lookups have been observed. Defaults to 10 milliseconds and 1 second.
+		 */
+		public Builder delay(Duration min, Duration max) {
+			if (min.isNegative() || max.compareTo(min) < 0) {
+				throw new IllegalArgumentException("The maximum delay is shorter than the minimum.");
+			}
+			this.minDelay = min;
+			this.maxDelay = max;
+			return this;
+		}
+
+		/**
+		 * Period over which latency is observed; the percentile reflects the
+		 * last one to two periods. Defaults to 30 seconds.
+		 */
+		public Builder window(Duration window) {
+			if (window.isNegative() || window.isZero()) {
+				throw new IllegalArgumentException("The window must be positive.");
+			}
+			this.window = window;
+			return this;
+		}
+
+		/**
+		 * Maximum hedges as a fraction of the lookups, e.g. 0.05 allows 5% more
+		 * requests. Defaults to 0.05.
+		 */
+		public Builder maxHedgeRatio(double maxHedgeRatio) {
+			if (maxHedgeRatio < 0 || maxHedgeRatio > 1) {
+				throw new IllegalArgumentException("The hedge ratio must be between 0 and 1.");
+			}
+			this.maxHedgeRatio = maxHedgeRatio;
+			return this;
+		}
+
+		/**
+		 * Hedges that can be sent in a row once the budget has been saved up.
+		 * Defaults to 10.
+		 */
+		public Builder maxBurst(long maxBurst) {
+			if (maxBurst < 1) {
+				throw new IllegalArgumentException("The burst must allow at least one hedge.");
+			}
+			this.maxBurst = maxBurst;
+			return this;
+		}
+
+		public PaycriticalHedgingPolicy build() {
+			return new PaycriticalHedgingPolicy(this);
+		}
+	}
+}
@@ -0,0 +1,775 @@
+package com.paycritical;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.paycritical.exception.PaycriticalApiException;
+import com.paycritical.response.PaycriticalAuthorization;
+import com.paycritical.response.PaycriticalPaymentStatus;
+
+/**
+ * Write-ahead journal of the calls that move money: requestPayment,
+ * capturePaymentRequest and refundPaymentRequest.
+ *
+ * A gateway with a journal records each of these calls before sending it, and
+ * its outcome once the response arrives. A call that fails without a response,
+ * or with a 429, 500, 502, 503 or 504 that does not say whether it was
+ * applied, stays in doubt, as do the calls in flight when the process stops.
+ * On restart, {@link #recover(PaycriticalPaymentGateway)} settles the
+ * operations in doubt by looking up the payments they concern.
+ *
+ * The journal is a sequence of fixed size segment files in a directory,
+ * memory-mapped and only appended to. A call is sent once its record is
+ * synced to disk. The records of concurrent calls are synced together by a
+ * background thread, so a burst of calls costs one sync rather than one each.
+ * Outcomes are not waited for: one lost in a crash only leaves its operation
+ * in doubt. A segment is deleted once the operations it records, and those of
+ * the segments before it, are all settled.
+ *
+ * Instances are thread-safe. A directory is locked by the journal using it
+ * until the journal is closed, which the gateways using it leave to the
+ * application.
+ */
+public final class PaycriticalJournal implements AutoCloseable {
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String LOCK_FILE = "journal.lock";
+	// The payload length and its CRC32 precede every record
+	private static final int HEADER = 8;
+
+	private static final byte INTENT = 1;
+	private static final byte SUCCEEDED = 2;
+	private static final byte REJECTED = 3;
+	private static final byte SETTLED = 4;
+
+	private final Path directory;
+	private final int segmentSize;
+	private final long syncDelayNanos;
+	private final FileChannel lockChannel;
+	private final FileLock lock;
+	private final Thread syncer;
+	private final CRC32 crc = new CRC32();
+	private ByteBuffer scratch = ByteBuffer.allocate(256);
+
+	// Guarded by this
+	private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+	private final Map<Long, Operation> open = new LinkedHashMap<>();
+	private final List<Segment> unsynced = new ArrayList<>();
+	private List<Sync> syncs = new ArrayList<>();
+	private Segment current;
+	private long nextSequence;
+	private boolean closed;
+
+	private PaycriticalJournal(Builder builder) throws IOException {
+		this.directory = builder.directory;
+		this.segmentSize = builder.segmentSize;
+		this.syncDelayNanos = builder.syncDelay.toNanos();
+
+		Files.createDirectories(directory);
+		this.lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+		this.lock = lockChannel.tryLock();
+		if (lock == null) {
+			lockChannel.close();
+			throw new IOException("The journal in " + directory + " is used by another process.");
+		}
+		try {
+			recoverSegments();
+			current = Segment.create(directory, segments.isEmpty() ? 0 : segments.peekLast().index + 1,
+					segmentSize);
+			segments.add(current);
+			deleteSettledSegments();
+		} catch (IOException | RuntimeException e) {
+			lock.release();
+			lockChannel.close();
+			throw e;
+		}
+
+		this.syncer = new Thread(this::sync, "paycritical-journal-" + directory.getFileName());
+		syncer.setDaemon(true);
+		syncer.start();
+	}
+
+	/**
+	 * <p>
+	 * Create a Journal Builder
+	 * </p>
+	 *
+	 * @param directory The directory of the segment files, created if needed.
+	 * @return A builder for a PaycriticalJournal.
+	 */
+	public static Builder builder(Path directory) {
+		return new Builder(directory);
+	}
+
+	/**
+	 * @return The operations whose outcome is not known: those left in flight
+	 *         by an earlier process, and those of this one that failed without
+	 *         saying whether they were applied. In the order they were made.
+	 */
+	public synchronized List<Operation> inDoubt() {
+		var inDoubt = new ArrayList<Operation>();
+		for (var operation : open.values()) {
+			if (operation.inDoubt) {
+				inDoubt.add(operation);
+			}
+		}
+		return inDoubt;
+	}
+
+	/**
+	 * <p>
+	 * Recover
+	 * </p>
+	 *
+	 * Looks up the payment of each operation in doubt, and settles those the
+	 * lookup proves: an operation on a payment that does not exist, and a
+	 * capture whose authorization lists no capture of its amount, were not
+	 * applied. The others stay in doubt, with the details of the authorization
+	 * of a capture or the status of the payment of a refund, from which the
+	 * application tells whether they were applied before settling them with
+	 * {@link #settle(Operation)}. Payment requests cannot be looked up, the
+	 * payment ID being in their response, so they stay in doubt for the
+	 * application to settle by their order reference.
+	 *
+	 * @param gateway The gateway used for the lookups.
+	 * @return What was found for each operation in doubt.
+	 * @throws IOException             A lookup failed. The operations not
+	 *                                 settled yet stay in doubt.
+	 * @throws InterruptedException
+	 * @throws PaycriticalApiException A lookup was refused by the rate limiter
+	 *                                 or concurrency limit of the gateway.
+	 */
+	public List<Settlement> recover(PaycriticalPaymentGateway gateway)
+			throws IOException, InterruptedException, PaycriticalApiException {
+		var outcomes = gateway.outcomes();
+		var settlements = new ArrayList<Settlement>();
+		for (var operation : inDoubt()) {
+			Settlement settlement;
+			switch (operation.endpoint) {
+			case CAPTURE_PAYMENT: {
+				ApiOutcome<PaycriticalAuthorization> outcome = outcomes.getAuthorizationDetails(operation.paymentId);
+				var authorization = outcome.isSuccess() ? outcome.getValue() : null;
+				boolean notApplied = missing(outcome)
+						|| authorization != null && !captured(authorization, operation);
+				settlement = new Settlement(operation, authorization != null ? authorization.getStatus() : null,
+						authorization, notApplied);
+				break;
+			}
+			case REFUND_PAYMENT: {
+				ApiOutcome<PaycriticalPaymentStatus> outcome = outcomes.getPaymentStatus(operation.paymentId);
+				// The status of the payment does not say whether this refund was applied
+				settlement = new Settlement(operation, outcome.isSuccess() ? outcome.getValue().getStatus() : null,
+						null, missing(outcome));
+				break;
+			}
+			default:
+				settlement = new Settlement(operation, null, null, false);
+			}
+			if (settlement.isSettled()) {
+				settle(operation);
+			}
+			settlements.add(settlement);
+		}
+		return settlements;
+	}
+
+	// Whether the lookup found that the payment does not exist, which the API
+	// reports as a 400 or a 404
+	private static boolean missing(ApiOutcome<?> outcome) {
+		if (outcome.isSuccess()) {
+			return false;
+		}
+		int statusCode = outcome.getFailure().getStatusCode();
+		return statusCode == 400 || statusCode == 404;
+	}
+
+	// Whether the authorization lists a capture that may be the operation's
+	private static boolean captured(PaycriticalAuthorization authorization, Operation operation) {
+		var captures = authorization.getCaptures();
+		if (captures == null) {
+			return false;
+		}
+		for (var capture : captures) {
+			if (capture.getAmount() == null || capture.getAmount() == operation.amount) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Records that an operation in doubt was settled by the application, so it
+	 * is not reported again.
+	 *
+	 * @param operation An operation returned by {@link #inDoubt()}.
+	 * @throws IOException The record could not be written.
+	 */
+	public void settle(Operation operation) throws IOException {
+		complete(operation, SETTLED, null);
+	}
+
+	/**
+	 * <p>
+	 * Close the Journal
+	 * </p>
+	 *
+	 * Syncs the records written so far and releases the directory. Calls
+	 * journaled afterwards fail with an IllegalStateException.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notifyAll();
+		}
+		boolean interrupted = false;
+		while (syncer.isAlive()) {
+			try {
+				syncer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		try {
+			synchronized (this) {
+				for (var segment : unsynced) {
+					segment.buffer.force();
+				}
+				current.buffer.force();
+			}
+		} finally {
+			lock.release();
+			lockChannel.close();
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Records a call about to be made.
+	 *
+	 * @return A future completed with the operation once its record is synced,
+	 *         or failed if it could not be written.
+	 */
+	CompletableFuture<Operation> append(PaycriticalEndpoint endpoint, String paymentId, String orderRef,
+			String phoneNumber, double amount) {
+		var synced = new CompletableFuture<Operation>();
+		try {
+			synchronized (this) {
+				if (closed) {
+					throw new IllegalStateException("The journal has been closed.");
+				}
+				var operation = new Operation(nextSequence++, endpoint, System.currentTimeMillis(), paymentId,
+						orderRef, phoneNumber, amount);
+				write(operation.encode(scratch(operation)));
+				operation.segment = current;
+				current.open++;
+				open.put(operation.sequence, operation);
+				syncs.add(new Sync(operation, synced));
+				notifyAll();
+			}
+		} catch (IOException | RuntimeException e) {
+			synced.completeExceptionally(e);
+		}
+		return synced;
+	}
+
+	/**
+	 * Records that a call was applied.
+	 *
+	 * @param paymentId The payment created by the call, or null.
+	 */
+	void succeeded(Operation operation, String paymentId) throws IOException {
+		complete(operation, SUCCEEDED, paymentId);
+	}
+
+	/**
+	 * Records that a call was answered without being applied.
+	 */
+	void rejected(Operation operation) throws IOException {
+		complete(operation, REJECTED, null);
+	}
+
+	/**
+	 * Marks a call that failed without saying whether it was applied. Nothing
+	 * is written: the intent without an outcome is what leaves it in doubt.
+	 */
+	synchronized void failed(Operation operation) {
+		operation.inDoubt = true;
+	}
+
+	private synchronized void complete(Operation operation, byte type, String paymentId) throws IOException {
+		if (open.get(operation.sequence) != operation) {
+			// Settled already
+			return;
+		}
+		if (closed) {
+			throw new IllegalStateException("The journal has been closed.");
+		}
+		var buffer = scratch(paymentId);
+		buffer.put(type).putLong(operation.sequence);
+		putString(buffer, paymentId);
+		write(buffer);
+		open.remove(operation.sequence);
+		operation.segment.open--;
+		deleteSettledSegments();
+	}
+
+	private ByteBuffer scratch(Operation operation) {
+		return scratch(operation.paymentId, operation.orderRef, operation.phoneNumber,
+				operation.endpoint.name());
+	}
+
+	// A cleared scratch buffer large enough for a record with these strings
+	private ByteBuffer scratch(String... strings) {
+		int size = 64;
+		for (var string : strings) {
+			size += string == null ? 0 : string.length() * 3;
+		}
+		if (scratch.capacity() < size) {
+			scratch = ByteBuffer.allocate(Integer.highestOneBit(size) << 1);
+		}
+		return scratch.clear();
+	}
+
+	// Appends the payload in the buffer as a record, under the lock
+	private void write(ByteBuffer payload) throws IOException {
+		payload.flip();
+		int length = payload.remaining();
+		if (HEADER + length > segmentSize) {
+			throw new IllegalArgumentException("The record does not fit in a journal segment.");
+		}
+		if (current.position + HEADER + length > segmentSize) {
+			unsynced.add(current);
+			current = Segment.create(directory, current.index + 1, segmentSize);
+			segments.add(current);
+		}
+		crc.reset();
+		crc.update(payload.array(), 0, length);
+		var buffer = current.buffer;
+		int position = current.position;
+		buffer.duplicate().position(position + HEADER).put(payload);
+		buffer.putInt(position + 4, (int) crc.getValue());
+		// The length goes last, so a record is never seen before it is whole
+		buffer.putInt(position, length);
+		current.position = position + HEADER + length;
+	}
+
+	private void deleteSettledSegments() throws IOException {
+		while (segments.size() > 1 && segments.peekFirst().open == 0) {
+			var segment = segments.removeFirst();
+			unsynced.remove(segment);
+			Files.deleteIfExists(segment.file);
+		}
+	}
+
+	/**
+	 * Syncs the records appended so far whenever there are calls waiting for
+	 * theirs, until the journal is closed.
+	 */
+	private void sync() {
+		while (true) {
+			synchronized (this) {
+				while (syncs.isEmpty() && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// Only stopped by close
+					}
+				}
+				if (syncs.isEmpty()) {
+					return;
+				}
+			}
+			if (syncDelayNanos > 0) {
+				// Let more records join this sync
+				try {
+					TimeUnit.NANOSECONDS.sleep(syncDelayNanos);
+				} catch (InterruptedException e) {
+					// Sync now
+				}
+			}
+			List<Sync> batch;
+			List<Segment> segments;
+			MappedByteBuffer buffer;
+			synchronized (this) {
+				batch = syncs;
+				syncs = new ArrayList<>();
+				segments = new ArrayList<>(unsynced);
+				unsynced.clear();
+				buffer = current.buffer;
+			}
+			try {
+				for (var segment : segments) {
+					segment.buffer.force();
+				}
+				buffer.force();
+				for (var sync : batch) {
+					sync.future.complete(sync.operation);
+				}
+			} catch (RuntimeException e) {
+				// Mapped buffers report I/O errors as unchecked ones
+				var error = new IOException("The journal could not be synced.", e);
+				for (var sync : batch) {
+					sync.future.completeExceptionally(error);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the segments left by an earlier journal in the directory, keeping
+	 * the operations without an outcome as in doubt. A segment is read up to
+	 * its first incomplete or damaged record, which a crash may leave.
+	 */
+	private void recoverSegments() throws IOException {
+		var files = new ArrayList<Path>();
+		try (var stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			stream.forEach(files::add);
+		}
+		files.sort(null);
+		for (var file : files) {
+			var name = file.getFileName().toString();
+			long index;
+			try {
+				index = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			var segment = new Segment(index, file, null);
+			segments.add(segment);
+			ByteBuffer buffer;
+			try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			while (buffer.remaining() >= HEADER) {
+				int length = buffer.getInt();
+				int checksum = buffer.getInt();
+				if (length <= 0 || length > buffer.remaining()) {
+					break;
+				}
+				var payload = buffer.slice().limit(length);
+				crc.reset();
+				crc.update(payload.duplicate());
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				buffer.position(buffer.position() + length);
+				try {
+					read(payload, segment);
+				} catch (BufferUnderflowException | IllegalArgumentException e) {
+					throw new IOException("Invalid record in " + file + ".", e);
+				}
+			}
+		}
+	}
+
+	private void read(ByteBuffer payload, Segment segment) {
+		byte type = payload.get();
+		long sequence = payload.getLong();
+		nextSequence = Math.max(nextSequence, sequence + 1);
+		if (type == INTENT) {
+			var operation = Operation.decode(sequence, payload);
+			operation.segment = segment;
+			operation.inDoubt = true;
+			segment.open++;
+			open.put(sequence, operation);
+			return;
+		}
+		var operation = open.remove(sequence);
+		if (operation != null) {
+			operation.segment.open--;
+		}
+	}
+
+	private static void putString(ByteBuffer buffer, String value) {
+		if (value == null) {
+			buffer.putInt(-1);
+			return;
+		}
+		var bytes = value.getBytes(StandardCharsets.UTF_8);
+		buffer.putInt(bytes.length).put(bytes);
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		var bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A call recorded in the journal. Instances are immutable.
+	 */
+	public static final class Operation {
+		private final long sequence;
+		private final PaycriticalEndpoint endpoint;
+		private final long time;
+		private final String paymentId;
+		private final String orderRef;
+		private final String phoneNumber;
+		private final double amount;
+		// Guarded by the journal
+		private Segment segment;
+		private boolean inDoubt;
+
+		private Operation(long sequence, PaycriticalEndpoint endpoint, long time, String paymentId, String orderRef,
+				String phoneNumber, double amount) {
+			this.sequence = sequence;
+			this.endpoint = endpoint;
+			this.time = time;
+			this.paymentId = paymentId;
+			this.orderRef = orderRef;
+			this.phoneNumber = phoneNumber;
+			this.amount = amount;
+		}
+
+		private ByteBuffer encode(ByteBuffer buffer) {
+			buffer.put(INTENT).putLong(sequence);
+			putString(buffer, endpoint.name());
+			buffer.putLong(time).putDouble(amount);
+			putString(buffer, paymentId);
+			putString(buffer, orderRef);
+			putString(buffer, phoneNumber);
+			return buffer;
+		}
+
+		private static Operation decode(long sequence, ByteBuffer buffer) {
+			var endpoint = PaycriticalEndpoint.valueOf(getString(buffer));
+			long time = buffer.getLong();
+			double amount = buffer.getDouble();
+			return new Operation(sequence, endpoint, time, getString(buffer), getString(buffer), getString(buffer),
+					amount);
+		}
+
+		/**
+		 * @return The position of the operation in the journal, increasing with
+		 *         the order in which the operations were made.
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * @return The call: REQUEST_PAYMENT, CAPTURE_PAYMENT or REFUND_PAYMENT.
+		 */
+		public PaycriticalEndpoint getEndpoint() {
+			return endpoint;
+		}
+
+		/**
+		 * @return When the operation was recorded.
+		 */
+		public Instant getTime() {
+			return Instant.ofEpochMilli(time);
+		}
+
+		/**
+		 * @return The payment captured or refunded, or null for a payment
+		 *         request.
+		 */
+		public String getPaymentId() {
+			return paymentId;
+		}
+
+		/**
+		 * @return The order reference of a payment request, or null.
+		 */
+		public String getOrderRef() {
+			return orderRef;
+		}
+
+		/**
+		 * @return The phone number of a payment request, or null.
+		 */
+		public String getPhoneNumber() {
+			return phoneNumber;
+		}
+
+		/**
+		 * @return The amount requested, captured or refunded.
+		 */
+		public double getAmount() {
+			return amount;
+		}
+
+		@Override
+		public String toString() {
+			return "#" + sequence + " " + endpoint + " " + (paymentId != null ? paymentId : orderRef) + " " + amount;
+		}
+	}
+
+	/**
+	 * What {@link PaycriticalJournal#recover(PaycriticalPaymentGateway)} found
+	 * for an operation in doubt. Instances are immutable.
+	 */
+	public static final class Settlement {
+		private final Operation operation;
+		private final String status;
+		private final PaycriticalAuthorization authorization;
+		private final boolean settled;
+
+		private Settlement(Operation operation, String status, PaycriticalAuthorization authorization,
+				boolean settled) {
+			this.operation = operation;
+			this.status = status;
+			this.authorization = authorization;
+			this.settled = settled;
+		}
+
+		/**
+		 * @return The operation in doubt.
+		 */
+		public Operation getOperation() {
+			return operation;
+		}
+
+		/**
+		 * @return Whether the lookup proved the operation was not applied, so it
+		 *         is no longer in doubt. False for payment requests, for lookups
+		 *         that failed and for operations the application must settle.
+		 */
+		public boolean isSettled() {
+			return settled;
+		}
+
+		/**
+		 * @return The current status of the payment, or null if it does not
+		 *         exist or was not looked up.
+		 */
+		public String getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return The details of the authorization of a capture, whose captures
+		 *         and remaining amount tell whether it was applied, or null.
+		 */
+		public PaycriticalAuthorization getAuthorization() {
+			return authorization;
+		}
+
+		@Override
+		public String toString() {
+			return operation + (settled ? ": " + status : ": in doubt");
+		}
+	}
+
+	private static final class Sync {
+		final Operation operation;
+		final CompletableFuture<Operation> future;
+
+		Sync(Operation operation, CompletableFuture<Operation> future) {
+			this.operation = operation;
+			this.future = future;
+		}
+	}
+
+	/**
+	 * A segment file: mapped for writing if it is the current one or was
+	 * since this journal was opened, not mapped if it is left from an earlier
+	 * one.
+	 */
+	private static final class Segment {
+		final long index;
+		final Path file;
+		final MappedByteBuffer buffer;
+		int position;
+		// Operations recorded here that are not settled
+		int open;
+
+		Segment(long index, Path file, MappedByteBuffer buffer) {
+			this.index = index;
+			this.file = file;
+			this.buffer = buffer;
+		}
+
+		static Segment create(Path directory, long index, int size) throws IOException {
+			var file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+			try (var channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+					StandardOpenOption.WRITE)) {
+				var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				// Make the size of the new file durable, the records being synced
+				// through the mapping only
+				channel.force(true);
+				return new Segment(index, file, buffer);
+			}
+		}
+	}
+
+	/**
+	 * Builder for {@link PaycriticalJournal}. Not thread-safe.
+	 */
+	public static final class Builder {
+		private final Path directory;
+		private int segmentSize = 16 * 1024 * 1024;
+		private Duration syncDelay = Duration.ZERO;
+
+		private Builder(Path directory) {
+			this.directory = Objects.requireNonNull(directory);
+		}
+
+		/**
+		 * Size of each segment file in bytes. Defaults to 16 MiB.
+		 */
+		public Builder segmentSize(int segmentSize) {
+			if (segmentSize < 4096) {
+				throw new IllegalArgumentException("A segment must hold at least 4096 bytes.");
+			}
+			this.segmentSize = segmentSize;
+			return this;
+		}
+
+		/**
+		 * How long a sync waits for more records to join it, trading latency
+		 * for fewer syncs under load. Defaults to none: the records appended
+		 * while a sync runs are synced together by the next one.
+		 */
+		public Builder syncDelay(Duration syncDelay) {
+			if (syncDelay.isNegative()) {
+				throw new IllegalArgumentException("The sync delay cannot be negative.");
+			}
+			this.syncDelay = syncDelay;
+			return this;
+		}
+
+		/**
+		 * Opens the journal, reading the operations left in doubt by an earlier
+		 * one in the same directory.
+		 *
+		 * @return A new PaycriticalJournal.
+		 * @throws IOException The directory could not be read or is locked by
+		 *                     another journal.
+		 */
+		public PaycriticalJournal build() throws IOException {
+			return new PaycriticalJournal(this);
+		}
+	}
+}
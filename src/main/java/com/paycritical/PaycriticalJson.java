@@ -0,0 +1,127 @@
+package com.paycritical;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.paycritical.request.PaycriticalAmountRequest;
+import com.paycritical.request.PaycriticalPaymentIdRequest;
+import com.paycritical.request.PaycriticalPaymentRequest;
+import com.paycritical.request.PaycriticalQRCodeRequest;
+import com.paycritical.response.PaycriticalAuthorization;
+import com.paycritical.response.PaycriticalCapture;
+import com.paycritical.response.PaycriticalPayment;
+import com.paycritical.response.PaycriticalPaymentStatus;
+import com.paycritical.response.PaycriticalQRCode;
+import com.paycritical.response.PaycriticalQRCodeStatus;
+import com.paycritical.response.ValidationSummary;
+
+/**
+ * Shared jackson configuration used by every gateway.
+ *
+ * The mapper, readers and writers are immutable once built, so a single
+ * instance is safe to use from any number of threads. Readers and writers are
+ * resolved up front for every response and request class so no call pays for
+ * the serializer lookup.
+ */
+final class PaycriticalJson {
+	private final ObjectMapper mapper;
+	private final Map<Class<?>, ObjectReader> readers;
+	private final Map<Class<?>, ObjectWriter> writers;
+
+	PaycriticalJson() {
+		this.mapper = new ObjectMapper();
+		// Response streams are drained and closed by read() so connections can be
+		// reused
+		mapper.getFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+		var readers = new HashMap<Class<?>, ObjectReader>();
+		for (Class<?> type : new Class<?>[] { PaycriticalAuthorization.class, PaycriticalCapture.class,
+				PaycriticalPayment.class, PaycriticalPaymentStatus.class, PaycriticalQRCode.class,
+				PaycriticalQRCodeStatus.class, ValidationSummary.class }) {
+			readers.put(type, mapper.readerFor(type));
+		}
+		this.readers = readers;
+
+		var writers = new HashMap<Class<?>, ObjectWriter>();
+		for (Class<?> type : new Class<?>[] { PaycriticalAmountRequest.class, PaycriticalPaymentIdRequest.class,
+				PaycriticalPaymentRequest.class, PaycriticalQRCodeRequest.class }) {
+			writers.put(type, mapper.writerFor(type));
+		}
+		this.writers = writers;
+	}
+
+	/**
+	 * Returns the pre-resolved reader for the given response class.
+	 */
+	ObjectReader reader(Class<?> type) {
+		var reader = readers.get(type);
+		return reader != null ? reader : mapper.readerFor(type);
+	}
+
+	/**
+	 * Decodes a response body straight from the stream, without building a
+	 * String first. The stream is drained and closed.
+	 */
+	<T> T read(Class<T> type, InputStream body) throws IOException {
+		try (body) {
+			T value = reader(type).readValue(body);
+			body.transferTo(OutputStream.nullOutputStream());
+			return value;
+		}
+	}
+
+	/**
+	 * Serializes a request body to UTF-8 bytes with the pre-resolved writer for
+	 * its class. Jackson recycles its working buffers per thread, so the only
+	 * sizeable allocation is the returned array.
+	 */
+	byte[] write(Object request) throws JsonProcessingException {
+		var writer = writers.get(request.getClass());
+		return (writer != null ? writer : mapper.writerFor(request.getClass())).writeValueAsBytes(request);
+	}
+
+	/**
+	 * Encodes an instance of every request class and decodes a sample of every
+	 * response class, so the first calls do not pay for class loading and
+	 * serializer construction. Repeating the loop lets the JIT compiler compile
+	 * the encode and decode paths before the first burst of calls.
+	 *
+	 * @param iterations The number of times each class is encoded or decoded.
+	 */
+	void warmUp(int iterations) throws IOException {
+		var requests = new ArrayList<Object>(writers.size());
+		for (var type : writers.keySet()) {
+			requests.add(sample(type));
+		}
+		var responses = new HashMap<Class<?>, byte[]>();
+		for (var type : readers.keySet()) {
+			responses.put(type, mapper.writeValueAsBytes(sample(type)));
+		}
+		for (int i = 0; i < iterations; i++) {
+			for (var request : requests) {
+				write(request);
+			}
+			for (var response : responses.entrySet()) {
+				read(response.getKey(), new ByteArrayInputStream(response.getValue()));
+			}
+		}
+	}
+
+	private static Object sample(Class<?> type) {
+		try {
+			return type.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Can not create a sample " + type.getSimpleName() + ".", e);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.paycritical;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import com.paycritical.exception.PaycriticalApiException;
+import com.paycritical.response.PaycriticalAuthorization;
+import com.paycritical.response.PaycriticalPayment;
+import com.paycritical.response.PaycriticalPaymentStatus;
+import com.paycritical.response.PaycriticalQRCode;
+import com.paycritical.response.PaycriticalQRCodeStatus;
+
+/**
+ * The calls of a gateway, returning an {@link ApiOutcome} for every response
+ * of the API, as returned by {@link PaycriticalPaymentGateway#outcomes()}.
+ *
+ * An error response is a {@link ApiOutcome.Failure} holding its status code
+ * and, for a 400 response, the code and description of its validation
+ * summary. No exception is created for it, so failing calls cost about as
+ * much as successful ones. Calls that get no response still fail with an
+ * exception: an IOException for network errors and timeouts, and a
+ * PaycriticalApiException when a rate or concurrency limit refuses the call.
+ *
+ * The calls share the connections, limits, cache and settings of the gateway,
+ * and transient failures are retried as the retry policy of the gateway
+ * allows. Instances are thread-safe.
+ */
+public final class PaycriticalOutcomes {
+	private final PaycriticalPaymentGateway gateway;
+
+	PaycriticalOutcomes(PaycriticalPaymentGateway gateway) {
+		this.gateway = gateway;
+	}
+
+	/**
+	 * @see PaycriticalPaymentGateway#getPaymentStatus(String)
+	 */
+	public ApiOutcome<PaycriticalPaymentStatus> getPaymentStatus(String paymentId)
+			throws IOException, InterruptedException, PaycriticalApiException {
+		return PaycriticalPaymentGateway.await(getPaymentStatusAsync(paymentId));
+	}
+
+	public CompletableFuture<ApiOutcome<PaycriticalPaymentStatus>> getPaymentStatusAsync(String paymentId) {
+		return gateway.getPaymentStatus(paymentId,
+				PaycriticalPaymentGateway.outcomes(PaycriticalPaymentStatus.class, null));
+	}
+
+	/**
+	 * @see PaycriticalPaymentGateway#getAuthorizationDetails(String)
+	 */
+	public ApiOutcome<PaycriticalAuthorization> getAuthorizationDetails(String paymentId)
+			throws IOException, InterruptedException, PaycriticalApiException {
+		return PaycriticalPaymentGateway.await(getAuthorizationDetailsAsync(paymentId));
+	}
+
+	public CompletableFuture<ApiOutcome<PaycriticalAuthorization>> getAuthorizationDetailsAsync(String paymentId) {
+		return gateway.getAuthorizationDetails(paymentId,
+				PaycriticalPaymentGateway.outcomes(PaycriticalAuthorization.class, null));
+	}
+
+	/**
+	 * @see PaycriticalPaymentGateway#requestAuthorization(double, String, String)
+	 */
+	public ApiOutcome<PaycriticalPayment> requestAuthorization(double amount, String phoneNumber, String orderRef)
+			throws IOException, InterruptedException, PaycriticalApiException {
+		return PaycriticalPaymentGateway.await(requestAuthorizationAsync(amount, phoneNumber, orderRef));
+	}
+
+	public CompletableFuture<ApiOutcome<PaycriticalPayment>> requestAuthorizationAsync(double amount,
+			String phoneNumber, String orderRef) {
+		return gateway.requestAuthorization(amount, phoneNumber, orderRef,
+				PaycriticalPaymentGateway.outcomes(PaycriticalPayment.class, null));
+	}
+
+	/**
+	 * @see PaycriticalPaymentGateway#requestPayment(double, String, String)
+	 */
+	public ApiOutcome<PaycriticalPayment> requestPayment(double amount, String phoneNumber, String orderRef)
+			throws IOException, InterruptedException, PaycriticalApiException {
+		return PaycriticalPaymentGateway.await(requestPaymentAsync(amount, phoneNumber, orderRef));
+	}
+
+	public CompletableFuture<ApiOutcome<PaycriticalPayment>> requestPaymentAsync(double amount, String phoneNumber,
+			String orderRef) {
+		return gateway.requestPayment(amount, phoneNumber, orderRef,
+				PaycriticalPaymentGateway.outcomes(PaycriticalPayment.class, null));
+	}
+
+	/**
+	 * @see PaycriticalPaymentGateway#resendPayment(String)
+	 */
+	public ApiOutcome<Void> resendPayment(String paymentId)
+			throws IOException, InterruptedException, PaycriticalApiException {
+		return PaycriticalPaymentGateway.await(resendPaymentAsync(paymentId));
+	}
+
+	public CompletableFuture<ApiOutcome<Void>> resendPaymentAsync(String paymentId) {
+		return gateway.resendPayment(paymentId, PaycriticalPaymentGateway.outcomes(Void.class, null));
+	}
+
+	/**
+	 * @see PaycriticalPaymentGateway#requestQRCode(double, String)
+	 */
+	public ApiOutcome<PaycriticalQRCode> requestQRCode(double amount, String orderRef)
+			throws IOException, InterruptedException, PaycriticalApiException {
+		return PaycriticalPaymentGateway.await(requestQRCodeAsync(amount, orderRef));
+	}
+
+	public CompletableFuture<ApiOutcome<PaycriticalQRCode>> requestQRCodeAsync(double amount, String orderRef) {
+		return gateway.requestQRCode(amount, orderRef, PaycriticalPaymentGateway.outcomes(PaycriticalQRCode.class, null));
+	}
+
+	/**
+	 * @see PaycriticalPaymentGateway#getQRCodeStatus(String)
+	 */
+	public ApiOutcome<PaycriticalQRCodeStatus> getQRCodeStatus(String qrCodeId)
+			throws IOException, InterruptedException, PaycriticalApiException {
+		return PaycriticalPaymentGateway.await(getQRCodeStatusAsync(qrCodeId));
+	}
+
+	public CompletableFuture<ApiOutcome<PaycriticalQRCodeStatus>> getQRCodeStatusAsync(String qrCodeId) {
+		return gateway.getQRCodeStatus(qrCodeId,
+				PaycriticalPaymentGateway.outcomes(PaycriticalQRCodeStatus.class, PaycriticalQRCodeStatus::new));
+	}
+
+	/**
+	 * @see PaycriticalPaymentGateway#cancelPaymentRequest(String)
+	 */
+	public ApiOutcome<Void> cancelPaymentRequest(String paymentId)
+			throws IOException, InterruptedException, PaycriticalApiException {
+		return PaycriticalPaymentGateway.await(cancelPaymentRequestAsync(paymentId));
+	}
+
+	public CompletableFuture<ApiOutcome<Void>> cancelPaymentRequestAsync(String paymentId) {
+		return gateway.cancelPaymentRequest(paymentId, PaycriticalPaymentGateway.outcomes(Void.class, null));
+	}
+
+	/**
+	 * @see PaycriticalPaymentGateway#refundPaymentRequest(String, double)
+	 */
+	public ApiOutcome<Void> refundPaymentRequest(String paymentId, double amount)
+			throws IOException, InterruptedException, PaycriticalApiException {
+		return PaycriticalPaymentGateway.await(refundPaymentRequestAsync(paymentId, amount));
+	}
+
+	public CompletableFuture<ApiOutcome<Void>> refundPaymentRequestAsync(String paymentId, double amount) {
+		return gateway.refundPaymentRequest(paymentId, amount, PaycriticalPaymentGateway.outcomes(Void.class, null));
+	}
+
+	/**
+	 * @see PaycriticalPaymentGateway#capturePaymentRequest(String, double)
+	 */
+	public ApiOutcome<Void> capturePaymentRequest(String paymentId, double amount)
+			throws IOException, InterruptedException, PaycriticalApiException {
+		return PaycriticalPaymentGateway.await(capturePaymentRequestAsync(paymentId, amount));
+	}
+
+	public CompletableFuture<ApiOutcome<Void>> capturePaymentRequestAsync(String paymentId, double amount) {
+		return gateway.capturePaymentRequest(paymentId, amount, PaycriticalPaymentGateway.outcomes(Void.class, null));
+	}
+}
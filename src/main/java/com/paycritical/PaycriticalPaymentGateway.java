@@ -1,7 +1,13 @@
 package com.paycritical;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.paycritical.exception.*;
+import com.paycritical.metrics.PaycriticalCallEvent;
+import com.paycritical.metrics.PaycriticalCallListener;
+import com.paycritical.request.PaycriticalAmountRequest;
+import com.paycritical.request.PaycriticalPaymentIdRequest;
+import com.paycritical.request.PaycriticalPaymentRequest;
+import com.paycritical.request.PaycriticalQRCodeRequest;
 import com.paycritical.response.PaycriticalAuthorization;
 import com.paycritical.response.ValidationSummary;
 import com.paycritical.response.PaycriticalPayment;
@@ -9,24 +15,104 @@ import com.paycritical.response.PaycriticalPaymentStatus;
 import com.paycritical.response.PaycriticalQRCode;
 import com.paycritical.response.PaycriticalQRCodeStatus;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpClient.Version;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-
-import java.util.HashMap;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Ticket HTTP Request class. Implements all the API methods specified in:
  * https://tr05sbx.paycritical.com/swagger/ui/index
  * 
+ * A gateway owns long-lived HttpClients, one per configured connection, and
+ * shares one jackson configuration with every other gateway, so connections,
+ * TLS sessions and deserializers are reused across calls. Instances are thread-safe and are
+ * meant to be created once and shared; call {@link #close()} when the gateway
+ * is no longer needed.
+ * 
+ * Idle connections are closed by the JDK HttpClient after the number of
+ * seconds in the "jdk.httpclient.keepalive.timeout" system property, 1200 by
+ * default. The JDK reads it once, when the first HttpClient of the JVM is
+ * created, and it applies to every client, so set it for the whole
+ * application, e.g. with -Djdk.httpclient.keepalive.timeout=30 on the command
+ * line.
+ * 
+ * Every call is emitted as a "com.paycritical.ApiCall" Flight Recorder event
+ * while a recording has that event enabled.
+ * 
  * @version 1.0
  */
-public class PaycriticalPaymentGateway {
-	private String apiKey;
-	private String baseUrl;
+public class PaycriticalPaymentGateway implements AutoCloseable {
+	// Header identifying the attempts of one call that changes state, when retried
+	static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+	private static final PaycriticalJson JSON = new PaycriticalJson();
+	private static final AtomicInteger GATEWAY_COUNT = new AtomicInteger();
+
+	private final String apiKey;
+	private final String baseUrl;
+	private final PaycriticalTransport transport;
+	private final Executor executor;
+	private final ExecutorService ownedExecutor;
+	private final PaycriticalStatusCache statusCache;
+	private final PaycriticalJournal journal;
+	private final PaycriticalRecorder recorder;
+	private final PaycriticalCallListener callListener;
+	private final PaycriticalHedgingPolicy hedgingPolicy;
+	private final PaycriticalConcurrencyLimit concurrencyLimit;
+	private final PaycriticalRateLimiter rateLimiter;
+	private final PaycriticalRateLimiter.Priority priority;
+	private final PaycriticalRetryPolicy retryPolicy;
+	private final Duration timeout;
+	private final boolean stackTraces;
+	private final int warmUpStreams;
+	private final int warmUpIterations;
+	// Pings the idle connections, when keep-warm is enabled
+	private final ScheduledFuture<?> keepWarmTask;
+	// Idempotent GETs in flight by URI, when coalescing is enabled
+	private final ConcurrentHashMap<URI, Coalesced<?>> inFlightGets;
+	private final ConcurrentHashMap<URI, Coalesced<?>> inFlightOutcomes;
+	private final LongAdder coalescedCalls;
+	// The tenant of a pool whose calls this gateway makes, or null
+	private final PaycriticalFairScheduler.Tenant tenant;
+	// The gateway owning the resources, this one unless this is a view
+	private final PaycriticalPaymentGateway owner;
+	// Calls and exchanges of the owner not finished yet, which need its executor
+	private final AtomicInteger pending = new AtomicInteger();
+	private volatile boolean closed;
 
 	/**
 	 * <p>
@@ -40,8 +126,310 @@ public class PaycriticalPaymentGateway {
 	 *                "https://tr05sbx.paycritical.com"
 	 */
 	public PaycriticalPaymentGateway(String APIKey, String BaseUrl) {
-		this.apiKey = APIKey;
-		this.baseUrl = BaseUrl;
+		this(builder(APIKey, BaseUrl));
+	}
+
+	private PaycriticalPaymentGateway(Builder builder) {
+		this.apiKey = builder.apiKey;
+		this.baseUrl = builder.baseUrl;
+		this.statusCache = builder.statusCache;
+		this.journal = builder.journal;
+		this.recorder = builder.recorder;
+		this.callListener = builder.callListener;
+		this.hedgingPolicy = builder.hedgingPolicy;
+		this.concurrencyLimit = builder.concurrencyLimit;
+		this.rateLimiter = builder.rateLimiter;
+		this.priority = builder.priority;
+		this.retryPolicy = builder.retryPolicy;
+		this.timeout = builder.timeout;
+		this.stackTraces = builder.stackTraces;
+		this.warmUpStreams = builder.warmUpStreams;
+		this.warmUpIterations = builder.warmUpIterations;
+		this.inFlightGets = builder.coalesceRequests ? new ConcurrentHashMap<>() : null;
+		this.inFlightOutcomes = builder.coalesceRequests ? new ConcurrentHashMap<>() : null;
+		this.coalescedCalls = new LongAdder();
+		this.tenant = null;
+		this.owner = this;
+
+		Executor executor = builder.executor;
+		if (executor == null) {
+			int id = GATEWAY_COUNT.incrementAndGet();
+			var threadCount = new AtomicInteger();
+			this.ownedExecutor = Executors.newCachedThreadPool(runnable -> {
+				var thread = new Thread(runnable, "paycritical-" + id + "-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor = ownedExecutor;
+		} else {
+			this.ownedExecutor = null;
+		}
+
+		var clientBuilder = HttpClient.newBuilder().executor(executor).version(builder.protocol);
+		if (builder.connectTimeout != null) {
+			clientBuilder.connectTimeout(builder.connectTimeout);
+		}
+		this.transport = new PaycriticalTransport(clientBuilder, builder.connections, builder.maxStreamsPerConnection);
+		this.executor = executor;
+
+		if (builder.keepWarm != null) {
+			var ping = pingRequest();
+			long idleNanos = builder.keepWarm.toNanos();
+			var pinger = executor;
+			// Checked twice per interval, so no connection stays idle much longer
+			this.keepWarmTask = PaycriticalTimer.scheduleWithFixedDelay(
+					() -> pinger.execute(() -> transport.keepWarm(ping, idleNanos)), Math.max(1, idleNanos / 2));
+		} else {
+			this.keepWarmTask = null;
+		}
+	}
+
+	/**
+	 * A view of the gateway with another call timeout.
+	 */
+	private PaycriticalPaymentGateway(PaycriticalPaymentGateway gateway, Duration timeout) {
+		this(gateway, gateway.apiKey, timeout, gateway.tenant, gateway.inFlightGets, gateway.inFlightOutcomes,
+				gateway.coalescedCalls);
+	}
+
+	/**
+	 * A view of the gateway making the calls of a tenant of a pool, with the
+	 * tenant's API key. Coalescing is kept per tenant, so no tenant ever gets
+	 * a response sent with the key of another.
+	 */
+	private PaycriticalPaymentGateway(PaycriticalPaymentGateway gateway, String apiKey,
+			PaycriticalFairScheduler.Tenant tenant) {
+		this(gateway, apiKey, gateway.timeout, tenant, gateway.inFlightGets == null ? null : new ConcurrentHashMap<>(),
+				gateway.inFlightOutcomes == null ? null : new ConcurrentHashMap<>(), new LongAdder());
+	}
+
+	private PaycriticalPaymentGateway(PaycriticalPaymentGateway gateway, String apiKey, Duration timeout,
+			PaycriticalFairScheduler.Tenant tenant, ConcurrentHashMap<URI, Coalesced<?>> inFlightGets,
+			ConcurrentHashMap<URI, Coalesced<?>> inFlightOutcomes, LongAdder coalescedCalls) {
+		this.apiKey = apiKey;
+		this.baseUrl = gateway.baseUrl;
+		this.transport = gateway.transport;
+		this.executor = gateway.executor;
+		this.ownedExecutor = null;
+		this.statusCache = gateway.statusCache;
+		this.journal = gateway.journal;
+		this.recorder = gateway.recorder;
+		this.callListener = gateway.callListener;
+		this.hedgingPolicy = gateway.hedgingPolicy;
+		this.concurrencyLimit = gateway.concurrencyLimit;
+		this.rateLimiter = gateway.rateLimiter;
+		this.priority = gateway.priority;
+		this.retryPolicy = gateway.retryPolicy;
+		this.timeout = timeout;
+		this.stackTraces = gateway.stackTraces;
+		this.warmUpStreams = gateway.warmUpStreams;
+		this.warmUpIterations = gateway.warmUpIterations;
+		this.keepWarmTask = null;
+		this.inFlightGets = inFlightGets;
+		this.inFlightOutcomes = inFlightOutcomes;
+		this.coalescedCalls = coalescedCalls;
+		this.tenant = tenant;
+		this.owner = gateway.owner;
+	}
+
+	/**
+	 * <p>
+	 * Create a Gateway Builder
+	 * </p>
+	 * 
+	 * @param apiKey  API Authentication key, in the format: Basic <string>
+	 * @param baseUrl The base URL of the API.
+	 * @return A builder for a configured PaycriticalPaymentGateway.
+	 */
+	public static Builder builder(String apiKey, String baseUrl) {
+		return new Builder(apiKey, baseUrl);
+	}
+
+	/**
+	 * <p>
+	 * Close the Gateway
+	 * </p>
+	 * 
+	 * Stops accepting new calls and releases the worker threads created by this
+	 * gateway once the calls already in flight have finished; those calls
+	 * complete as usual. A caller supplied executor is left running. Closing a
+	 * view made by
+	 * {@link #withTimeout(Duration)}, or the gateway of a tenant of a
+	 * {@link PaycriticalGatewayPool}, has no effect.
+	 */
+	@Override
+	public void close() {
+		if (owner != this) {
+			// Views leave the resources to the gateway they were made from
+			return;
+		}
+		closed = true;
+		if (keepWarmTask != null) {
+			keepWarmTask.cancel(false);
+		}
+		// Otherwise the last call in flight shuts the executor down as it ends
+		if (ownedExecutor != null && pending.get() == 0) {
+			ownedExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * Counts a call as in flight until it completes, so the executor its
+	 * continuations run on is not shut down under it.
+	 * 
+	 * @throws IllegalStateException The gateway has been closed.
+	 */
+	private <T> CompletableFuture<T> tracked(Supplier<CompletableFuture<T>> call) {
+		enterOpen();
+		CompletableFuture<T> result;
+		try {
+			result = call.get();
+		} catch (RuntimeException e) {
+			exit();
+			throw e;
+		}
+		result.whenComplete((value, error) -> exit());
+		return result;
+	}
+
+	/**
+	 * Counts a call that is starting.
+	 * 
+	 * @throws IllegalStateException The gateway has been closed.
+	 */
+	private void enterOpen() {
+		enter();
+		if (owner.closed) {
+			exit();
+			throw new IllegalStateException("The gateway has been closed.");
+		}
+	}
+
+	private void enter() {
+		owner.pending.incrementAndGet();
+	}
+
+	/**
+	 * Ends a call or exchange, shutting the executor down if it was the last
+	 * one of a closed gateway. The closed flag is set before the count is read
+	 * by close(), and the count updated before the flag is read here, so one
+	 * of the two always sees the other.
+	 */
+	private void exit() {
+		if (owner.pending.decrementAndGet() == 0 && owner.closed && owner.ownedExecutor != null) {
+			owner.ownedExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Warm Up
+	 * </p>
+	 * 
+	 * Prepares the gateway for its first calls: opens every connection to the
+	 * base URL, with as many requests at once as configured by
+	 * {@link Builder#warmUpStreams(int)}, and runs the encoders and decoders of
+	 * every request and response type. Call it at startup, before the gateway
+	 * takes traffic. The connections are opened with HEAD requests without
+	 * credentials; any response will do.
+	 * 
+	 * @throws IOException          A connection could not be opened.
+	 * @throws InterruptedException
+	 */
+	public void warmUp() throws IOException, InterruptedException {
+		try {
+			await(warmUpAsync());
+		} catch (PaycriticalApiException e) {
+			// Warming up never reads an API response
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Warm Up Asynchronously
+	 * </p>
+	 * 
+	 * Non-blocking version of {@link #warmUp()}, bounded by the call timeout.
+	 * 
+	 * @return A future completed once the connections are open and the
+	 *         encoders and decoders have run.
+	 */
+	public CompletableFuture<Void> warmUpAsync() {
+		ensureOpen();
+		var json = new CompletableFuture<Void>();
+		// Counted until the pings and the encoders are done, not when bounded
+		return bounded(PaycriticalDeadline.after(timeout), tracked(() -> {
+			executor.execute(() -> {
+				try {
+					JSON.warmUp(warmUpIterations);
+					json.complete(null);
+				} catch (IOException | RuntimeException e) {
+					json.completeExceptionally(e);
+				}
+			});
+			var connections = transport.warmUp(pingRequest(), warmUpStreams);
+			return CompletableFuture.allOf(json, connections);
+		}));
+	}
+
+	/**
+	 * A request that only opens or keeps open a connection.
+	 */
+	private HttpRequest pingRequest() {
+		var request = HttpRequest.newBuilder().uri(URI.create(baseUrl + "/")).method("HEAD",
+				HttpRequest.BodyPublishers.noBody());
+		if (timeout != null) {
+			request.timeout(timeout);
+		}
+		return request.build();
+	}
+
+	/**
+	 * <p>
+	 * With Timeout
+	 * </p>
+	 * 
+	 * Returns a view of this gateway whose calls must complete within the given
+	 * time, e.g. {@code gateway.withTimeout(Duration.ofSeconds(2)).requestPayment(...)}.
+	 * The view shares the connections, limits, cache and settings of this
+	 * gateway and is closed with it.
+	 * 
+	 * @param timeout The time allowed per call, or null for no limit.
+	 * @return A gateway with the given call timeout.
+	 */
+	public PaycriticalPaymentGateway withTimeout(Duration timeout) {
+		return new PaycriticalPaymentGateway(this, timeout);
+	}
+
+	/**
+	 * A view of this gateway making the calls of a tenant of a pool.
+	 */
+	PaycriticalPaymentGateway forTenant(String apiKey, PaycriticalFairScheduler.Tenant tenant) {
+		return new PaycriticalPaymentGateway(this, apiKey, tenant);
+	}
+
+	/**
+	 * @return Whether the gateway keeps state by payment ID, in a status cache
+	 *         or a journal, which its tenant views could not keep apart.
+	 */
+	boolean keepsPaymentState() {
+		return statusCache != null || journal != null;
+	}
+
+	/**
+	 * <p>
+	 * Outcomes
+	 * </p>
+	 * 
+	 * Returns the calls of this gateway in a form that reports error responses
+	 * as an {@link ApiOutcome} instead of throwing an exception, for flows where
+	 * errors such as validation failures are frequent.
+	 * 
+	 * @return The calls of this gateway returning outcomes.
+	 */
+	public PaycriticalOutcomes outcomes() {
+		return new PaycriticalOutcomes(this);
 	}
 
 	/**
@@ -64,8 +452,38 @@ public class PaycriticalPaymentGateway {
 	public PaycriticalPaymentStatus getPaymentStatus(String paymentId) throws IOException, InterruptedException,
 			PaycriticalApiInternalServerErrorException, PaycriticalApiValidationException,
 			PaycriticalApiUnauthorizedException, PaycriticalApiForbiddenException, PaycriticalApiException {
-		// HTTPClient to make the GET request
-		HttpClient client = HttpClient.newHttpClient();
+		return await(getPaymentStatusAsync(paymentId));
+	}
+
+	/**
+	 * <p>
+	 * Get Payment Status Asynchronously
+	 * </p>
+	 * 
+	 * Non-blocking version of {@link #getPaymentStatus(String)}.
+	 * API errors complete the returned future exceptionally with the same
+	 * PaycriticalApiException types.
+	 * 
+	 * @param paymentId The payment ID to get the status from.
+	 * @return A future completed with a PaycriticalPaymentStatus object.
+	 */
+	public CompletableFuture<PaycriticalPaymentStatus> getPaymentStatusAsync(String paymentId) {
+		return getPaymentStatus(paymentId, values(PaycriticalPaymentStatus.class, null));
+	}
+
+	/**
+	 * Looks up the status of a payment.
+	 */
+	<R> CompletableFuture<R> getPaymentStatus(String paymentId, Decoder<PaycriticalPaymentStatus, R> decoder) {
+		ensureOpen();
+		if (statusCache != null) {
+			var cached = statusCache.getPaymentStatus(paymentId);
+			if (cached != null) {
+				recordCached(PaycriticalEndpoint.GET_PAYMENT_STATUS, paymentId);
+				return CompletableFuture.completedFuture(decoder.succeeded(cached));
+			}
+		}
+
 		// Build the GET request with the request builder
 		HttpRequest request = HttpRequest.newBuilder().uri(URI.create(baseUrl + "/api/payment/" + paymentId))
 				.setHeader("Content-Type", "application/json") // Request content type
@@ -74,13 +492,19 @@ public class PaycriticalPaymentGateway {
 				.GET() // Make GET request
 				.build(); // Build the request
 
-		// Capture the response resulting from the request
-		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-		ValidateResponse(response);
-
-		return new ObjectMapper().readValue(response.body(), PaycriticalPaymentStatus.class);
-
+		return coalesce(decoder, PaycriticalEndpoint.GET_PAYMENT_STATUS, paymentId, request, timeout -> {
+			if (statusCache == null) {
+				return lookup(PaycriticalEndpoint.GET_PAYMENT_STATUS, paymentId, request, decoder, timeout);
+			}
+			long version = statusCache.version(paymentId);
+			return lookup(PaycriticalEndpoint.GET_PAYMENT_STATUS, paymentId, request, decoder, timeout)
+					.thenApply(status -> {
+						if (!decoder.isFailure(status)) {
+							statusCache.putPaymentStatus(paymentId, decoder.value(status), version);
+						}
+						return status;
+					});
+		});
 	}
 
 	/**
@@ -103,8 +527,38 @@ public class PaycriticalPaymentGateway {
 	public PaycriticalAuthorization getAuthorizationDetails(String paymentId) throws IOException, InterruptedException,
 			PaycriticalApiInternalServerErrorException, PaycriticalApiValidationException,
 			PaycriticalApiUnauthorizedException, PaycriticalApiForbiddenException, PaycriticalApiException {
-		// HTTPClient to make the GET request
-		HttpClient client = HttpClient.newHttpClient();
+		return await(getAuthorizationDetailsAsync(paymentId));
+	}
+
+	/**
+	 * <p>
+	 * Get Authorization Details Asynchronously
+	 * </p>
+	 * 
+	 * Non-blocking version of {@link #getAuthorizationDetails(String)}.
+	 * API errors complete the returned future exceptionally with the same
+	 * PaycriticalApiException types.
+	 * 
+	 * @param paymentId The payment ID to get the status from.
+	 * @return A future completed with a PaycriticalAuthorization object.
+	 */
+	public CompletableFuture<PaycriticalAuthorization> getAuthorizationDetailsAsync(String paymentId) {
+		return getAuthorizationDetails(paymentId, values(PaycriticalAuthorization.class, null));
+	}
+
+	/**
+	 * Looks up the details of an authorization.
+	 */
+	<R> CompletableFuture<R> getAuthorizationDetails(String paymentId, Decoder<PaycriticalAuthorization, R> decoder) {
+		ensureOpen();
+		if (statusCache != null) {
+			var cached = statusCache.getAuthorization(paymentId);
+			if (cached != null) {
+				recordCached(PaycriticalEndpoint.GET_AUTHORIZATION_DETAILS, paymentId);
+				return CompletableFuture.completedFuture(decoder.succeeded(cached));
+			}
+		}
+
 		// Build the GET request with the request builder
 		HttpRequest request = HttpRequest.newBuilder()
 				.uri(URI.create(baseUrl + "/api/payment/" + paymentId + "/authorization"))
@@ -114,12 +568,19 @@ public class PaycriticalPaymentGateway {
 				.GET() // Make GET request
 				.build(); // Build the request
 
-		// Capture the response resulting from the request
-		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-		ValidateResponse(response);
-
-		return new ObjectMapper().readValue(response.body(), PaycriticalAuthorization.class);
+		return coalesce(decoder, PaycriticalEndpoint.GET_AUTHORIZATION_DETAILS, paymentId, request, timeout -> {
+			if (statusCache == null) {
+				return lookup(PaycriticalEndpoint.GET_AUTHORIZATION_DETAILS, paymentId, request, decoder, timeout);
+			}
+			long version = statusCache.version(paymentId);
+			return lookup(PaycriticalEndpoint.GET_AUTHORIZATION_DETAILS, paymentId, request, decoder, timeout)
+					.thenApply(authorization -> {
+						if (!decoder.isFailure(authorization)) {
+							statusCache.putAuthorization(paymentId, decoder.value(authorization), version);
+						}
+						return authorization;
+					});
+		});
 	}
 
 	/**
@@ -145,39 +606,47 @@ public class PaycriticalPaymentGateway {
 			throws IOException, InterruptedException, PaycriticalApiInternalServerErrorException,
 			PaycriticalApiValidationException, PaycriticalApiUnauthorizedException, PaycriticalApiForbiddenException,
 			PaycriticalApiException {
-		// Key - Value pairs in HashMap to be used with the jackson JSON parser
-		@SuppressWarnings("serial")
-		var values = new HashMap<String, String>() {
-			{
-				put("amount", Double.toString(amount));
-				put("orderRef", orderRef);
-				put("phoneNumber", phoneNumber);
-				put("transactionType", "Authorization");
-			}
-		};
-
-		// initialize an object mapper for the jackson JSON parser
-		var objectMapper = new ObjectMapper();
-		// Use the jackson JSON parser to get the JSON string corresponding to the
-		// values HashMap
-		String requestBody = objectMapper.writeValueAsString(values);
-
-		// HTTPClient to make the POST request
-		HttpClient client = HttpClient.newHttpClient();
+		return await(requestAuthorizationAsync(amount, phoneNumber, orderRef));
+	}
+
+	/**
+	 * <p>
+	 * Request Authorization Asynchronously
+	 * </p>
+	 * 
+	 * Non-blocking version of {@link #requestAuthorization(double, String, String)}.
+	 * API errors complete the returned future exceptionally with the same
+	 * PaycriticalApiException types.
+	 * 
+	 * @param amount          The payment amount to be requested.
+	 * @param orderRef        The internal order reference.
+	 * @param phoneNumber     The phone number to which the request is sent
+	 * @return A future completed with a PaycriticalPayment object.
+	 */
+	public CompletableFuture<PaycriticalPayment> requestAuthorizationAsync(double amount, String phoneNumber,
+			String orderRef) {
+		return requestAuthorization(amount, phoneNumber, orderRef, values(PaycriticalPayment.class, null));
+	}
+
+	/**
+	 * Requests an authorization.
+	 */
+	<R> CompletableFuture<R> requestAuthorization(double amount, String phoneNumber, String orderRef,
+			Decoder<PaycriticalPayment, R> decoder) {
+		ensureOpen();
+		var trace = trace(PaycriticalEndpoint.REQUEST_AUTHORIZATION, orderRef);
+		// Serialize the typed request body with its cached jackson writer
+		var requestBody = jsonBody(trace, new PaycriticalPaymentRequest(amount, orderRef, phoneNumber, "Authorization"));
+
 		// Build the POST request with the request builder
 		HttpRequest request = HttpRequest.newBuilder().uri(URI.create(baseUrl + "/api/payment")) 
 				.setHeader("Content-Type", "application/json") // Request content type
 				.setHeader("Accept", "application/json") // The accepted MIME type
 				.setHeader("Authorization", apiKey) // Authorization API key
-				.POST(HttpRequest.BodyPublishers.ofString(requestBody)) // Make POST request
+				.POST(requestBody) // Make POST request
 				.build(); // Build the request
 
-		// Capture the response resulting from the request
-		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-		ValidateResponse(response);
-
-		return new ObjectMapper().readValue(response.body(), PaycriticalPayment.class);
+		return send(PaycriticalEndpoint.REQUEST_AUTHORIZATION, orderRef, trace, request, decoder);
 	}
 
 	/**
@@ -202,39 +671,47 @@ public class PaycriticalPaymentGateway {
 	public PaycriticalPayment requestPayment(double amount, String phoneNumber, String orderRef) throws IOException,
 			InterruptedException, PaycriticalApiInternalServerErrorException, PaycriticalApiValidationException,
 			PaycriticalApiUnauthorizedException, PaycriticalApiForbiddenException, PaycriticalApiException {
-		// Key - Value pairs in HashMap to be used with the jackson JSON parser
-		@SuppressWarnings("serial")
-		var values = new HashMap<String, String>() {
-			{
-				put("amount", Double.toString(amount));
-				put("orderRef", orderRef);
-				put("phoneNumber", phoneNumber);
-				put("transactionType", "Capture");
-			}
-		};
-
-		// initialize an object mapper for the jackson JSON parser
-		var objectMapper = new ObjectMapper();
-		// Use the jackson JSON parser to get the JSON string corresponding to the
-		// values HashMap
-		String requestBody = objectMapper.writeValueAsString(values);
-
-		// HTTPClient to make the POST request
-		HttpClient client = HttpClient.newHttpClient();
+		return await(requestPaymentAsync(amount, phoneNumber, orderRef));
+	}
+
+	/**
+	 * <p>
+	 * Request Payment Asynchronously
+	 * </p>
+	 * 
+	 * Non-blocking version of {@link #requestPayment(double, String, String)}.
+	 * API errors complete the returned future exceptionally with the same
+	 * PaycriticalApiException types.
+	 * 
+	 * @param amount          The payment amount to be requested.
+	 * @param orderRef        The internal order reference.
+	 * @param phoneNumber     The phone number to which the request is sent
+	 * @return A future completed with a PaycriticalPayment object.
+	 */
+	public CompletableFuture<PaycriticalPayment> requestPaymentAsync(double amount, String phoneNumber, String orderRef) {
+		return requestPayment(amount, phoneNumber, orderRef, values(PaycriticalPayment.class, null));
+	}
+
+	/**
+	 * Requests a payment.
+	 */
+	<R> CompletableFuture<R> requestPayment(double amount, String phoneNumber, String orderRef,
+			Decoder<PaycriticalPayment, R> decoder) {
+		ensureOpen();
+		var trace = trace(PaycriticalEndpoint.REQUEST_PAYMENT, orderRef);
+		// Serialize the typed request body with its cached jackson writer
+		var requestBody = jsonBody(trace, new PaycriticalPaymentRequest(amount, orderRef, phoneNumber, "Capture"));
+
 		// Build the POST request with the request builder
 		HttpRequest request = HttpRequest.newBuilder().uri(URI.create(baseUrl + "/api/payment")) 
 				.setHeader("Content-Type", "application/json") // Request content type
 				.setHeader("Accept", "application/json") // The accepted MIME type
 				.setHeader("Authorization", apiKey) // Authorization API key
-				.POST(HttpRequest.BodyPublishers.ofString(requestBody)) // Make POST request
+				.POST(requestBody) // Make POST request
 				.build(); // Build the request
 
-		// Capture the response resulting from the request
-		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-		ValidateResponse(response);
-
-		return new ObjectMapper().readValue(response.body(), PaycriticalPayment.class);
+		return journaled(PaycriticalEndpoint.REQUEST_PAYMENT, null, orderRef, phoneNumber, amount, decoder,
+				() -> send(PaycriticalEndpoint.REQUEST_PAYMENT, orderRef, trace, request, decoder));
 	}
 
 	/**
@@ -257,31 +734,40 @@ public class PaycriticalPaymentGateway {
 	public void resendPayment(String paymentId) throws IOException, InterruptedException,
 			PaycriticalApiInternalServerErrorException, PaycriticalApiValidationException,
 			PaycriticalApiUnauthorizedException, PaycriticalApiForbiddenException, PaycriticalApiException {
-		// Key - Value pairs in HashMap to be used with the jackson JSON parser
-		@SuppressWarnings("serial")
-		var values = new HashMap<String, String>() {
-			{
-				put("paymentId", paymentId);
-			}
-		};
-
-		// initialize an object mapper for the jackson JSON parser
-		var objectMapper = new ObjectMapper();
-		// Use the jackson JSON parser to get the JSON string corresponding to the
-		// values HashMap
-		String requestBody = objectMapper.writeValueAsString(values);
-
-		// HTTPClient to make the POST request
-		HttpClient client = HttpClient.newHttpClient();
+		await(resendPaymentAsync(paymentId));
+	}
+
+	/**
+	 * <p>
+	 * Resend Payment Notification Asynchronously
+	 * </p>
+	 * 
+	 * Non-blocking version of {@link #resendPayment(String)}.
+	 * API errors complete the returned future exceptionally with the same
+	 * PaycriticalApiException types.
+	 * 
+	 * @param paymentId The payment ID of the payment to be resent.
+	 * @return A future completed when the request succeeds.
+	 */
+	public CompletableFuture<Void> resendPaymentAsync(String paymentId) {
+		return resendPayment(paymentId, values(Void.class, null));
+	}
+
+	/**
+	 * Resends a payment request.
+	 */
+	<R> CompletableFuture<R> resendPayment(String paymentId, Decoder<Void, R> decoder) {
+		ensureOpen();
+		var trace = trace(PaycriticalEndpoint.RESEND_PAYMENT, paymentId);
+		// Serialize the typed request body with its cached jackson writer
+		var requestBody = jsonBody(trace, new PaycriticalPaymentIdRequest(paymentId));
+
 		// Build the POST request with the request builder
 		HttpRequest request = HttpRequest.newBuilder().uri(URI.create(baseUrl + "/api/payment/resend"))
 				.setHeader("Content-Type", "application/json").setHeader("Accept", "application/json")
-				.setHeader("Authorization", apiKey).POST(HttpRequest.BodyPublishers.ofString(requestBody)).build();
-
-		// Capture the response resulting from the request
-		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+				.setHeader("Authorization", apiKey).POST(requestBody).build();
 
-		ValidateResponse(response);
+		return send(PaycriticalEndpoint.RESEND_PAYMENT, paymentId, trace, request, decoder);
 	}
 
 	/**
@@ -306,37 +792,45 @@ public class PaycriticalPaymentGateway {
 	public PaycriticalQRCode requestQRCode(double amount, String orderRef) throws IOException, InterruptedException,
 			PaycriticalApiInternalServerErrorException, PaycriticalApiValidationException,
 			PaycriticalApiUnauthorizedException, PaycriticalApiForbiddenException, PaycriticalApiException {
-		// Key - Value pairs in HashMap to be used with the jackson JSON parser
-		@SuppressWarnings("serial")
-		var values = new HashMap<String, String>() {
-			{
-				put("amount", Double.toString(amount));
-				put("orderRef", orderRef);
-			}
-		};
-
-		// initialize an object mapper for the jackson JSON parser
-		var objectMapper = new ObjectMapper();
-		// Use the jackson JSON parser to get the JSON string corresponding to the
-		// values HashMap
-		String requestBody = objectMapper.writeValueAsString(values);
-
-		// HTTPClient to make the POST request
-		HttpClient client = HttpClient.newHttpClient();
+		return await(requestQRCodeAsync(amount, orderRef));
+	}
+
+	/**
+	 * <p>
+	 * Request Qr Code Asynchronously
+	 * </p>
+	 * 
+	 * Non-blocking version of {@link #requestQRCode(double, String)}.
+	 * API errors complete the returned future exceptionally with the same
+	 * PaycriticalApiException types.
+	 * 
+	 * @param amount   The amount to be associated with the generated QR Code.
+	 * @param orderRef The internal order reference associated with the generated QR
+	 *                 Code.
+	 * @return A future completed with a PaycriticalQRCode object.
+	 */
+	public CompletableFuture<PaycriticalQRCode> requestQRCodeAsync(double amount, String orderRef) {
+		return requestQRCode(amount, orderRef, values(PaycriticalQRCode.class, null));
+	}
+
+	/**
+	 * Requests a QR code.
+	 */
+	<R> CompletableFuture<R> requestQRCode(double amount, String orderRef, Decoder<PaycriticalQRCode, R> decoder) {
+		ensureOpen();
+		var trace = trace(PaycriticalEndpoint.REQUEST_QR_CODE, orderRef);
+		// Serialize the typed request body with its cached jackson writer
+		var requestBody = jsonBody(trace, new PaycriticalQRCodeRequest(amount, orderRef));
+
 		// Build the POST request with the request builder
 		HttpRequest request = HttpRequest.newBuilder()
 				.uri(URI.create(baseUrl + "/api/qrcode"))
 				.setHeader("Content-Type", "application/json")
 				.setHeader("Accept", "application/json")
 				.setHeader("Authorization", apiKey)
-				.POST(HttpRequest.BodyPublishers.ofString(requestBody)).build();
-
-		// Capture the response resulting from the request
-		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-		ValidateResponse(response);
+				.POST(requestBody).build();
 
-		return new ObjectMapper().readValue(response.body(), PaycriticalQRCode.class);
+		return send(PaycriticalEndpoint.REQUEST_QR_CODE, orderRef, trace, request, decoder);
 	}
 
 	/**
@@ -361,10 +855,33 @@ public class PaycriticalPaymentGateway {
 	public PaycriticalQRCodeStatus getQRCodeStatus(String qrCodeId) throws IOException, InterruptedException,
 			PaycriticalApiInternalServerErrorException, PaycriticalApiValidationException,
 			PaycriticalApiUnauthorizedException, PaycriticalApiForbiddenException, PaycriticalApiException {
-		// HTTPClient to make the GET request
-		HttpClient client = HttpClient.newHttpClient();
+		return await(getQRCodeStatusAsync(qrCodeId));
+	}
+
+	/**
+	 * <p>
+	 * Get Qr Code Status Asynchronously
+	 * </p>
+	 * 
+	 * Non-blocking version of {@link #getQRCodeStatus(String)}.
+	 * API errors complete the returned future exceptionally with the same
+	 * PaycriticalApiException types.
+	 * 
+	 * @param qrCodeId The Id of the generated QR
+	 *                 Code.
+	 * @return A future completed with a PaycriticalQRCodeStatus object.
+	 */
+	public CompletableFuture<PaycriticalQRCodeStatus> getQRCodeStatusAsync(String qrCodeId) {
+		return getQRCodeStatus(qrCodeId, values(PaycriticalQRCodeStatus.class, PaycriticalQRCodeStatus::new));
+	}
+
+	/**
+	 * Looks up the status of a QR code.
+	 */
+	<R> CompletableFuture<R> getQRCodeStatus(String qrCodeId, Decoder<PaycriticalQRCodeStatus, R> decoder) {
+		ensureOpen();
 		// Build the GET request with the request builder
-		HttpRequest request = HttpRequest.newBuilder().version(Version.HTTP_1_1)
+		HttpRequest request = HttpRequest.newBuilder()
 				.uri(URI.create(baseUrl + "/api/qrCode/" + qrCodeId))
 				.setHeader("Content-Type", "application/json")
 				.setHeader("Accept", "application/json")
@@ -372,17 +889,8 @@ public class PaycriticalPaymentGateway {
 				.GET()
 				.build();
 
-		// Capture the response resulting from the request
-		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-		ValidateResponse(response);
-		
-		if (response.statusCode() == 204)
-        {
-            return new PaycriticalQRCodeStatus();
-        }
-
-		return new ObjectMapper().readValue(response.body(), PaycriticalQRCodeStatus.class);
+		return coalesce(decoder, PaycriticalEndpoint.GET_QR_CODE_STATUS, qrCodeId, request, timeout -> lookup(
+				PaycriticalEndpoint.GET_QR_CODE_STATUS, qrCodeId, request, decoder, timeout));
 	}
 
 	/**
@@ -405,31 +913,40 @@ public class PaycriticalPaymentGateway {
 	public void cancelPaymentRequest(String paymentId) throws IOException, InterruptedException,
 			PaycriticalApiInternalServerErrorException, PaycriticalApiValidationException,
 			PaycriticalApiUnauthorizedException, PaycriticalApiForbiddenException, PaycriticalApiException {
-		// Key - Value pairs in HashMap to be used with the jackson JSON parser
-		@SuppressWarnings("serial")
-		var values = new HashMap<String, String>() {
-			{
-				put("paymentId", paymentId);
-			}
-		};
-
-		// initialize an object mapper for the jackson JSON parser
-		var objectMapper = new ObjectMapper();
-		// Use the jackson JSON parser to get the JSON string corresponding to the
-		// values HashMap
-		String requestBody = objectMapper.writeValueAsString(values);
-
-		// HTTPClient to make the PUT request
-		HttpClient client = HttpClient.newHttpClient();
+		await(cancelPaymentRequestAsync(paymentId));
+	}
+
+	/**
+	 * <p>
+	 * Cancel Payment Asynchronously
+	 * </p>
+	 * 
+	 * Non-blocking version of {@link #cancelPaymentRequest(String)}.
+	 * API errors complete the returned future exceptionally with the same
+	 * PaycriticalApiException types.
+	 * 
+	 * @param paymentId The payment ID of the payment to be canceled.
+	 * @return A future completed when the request succeeds.
+	 */
+	public CompletableFuture<Void> cancelPaymentRequestAsync(String paymentId) {
+		return cancelPaymentRequest(paymentId, values(Void.class, null));
+	}
+
+	/**
+	 * Cancels a payment request.
+	 */
+	<R> CompletableFuture<R> cancelPaymentRequest(String paymentId, Decoder<Void, R> decoder) {
+		ensureOpen();
+		var trace = trace(PaycriticalEndpoint.CANCEL_PAYMENT, paymentId);
+		// Serialize the typed request body with its cached jackson writer
+		var requestBody = jsonBody(trace, new PaycriticalPaymentIdRequest(paymentId));
+
 		// Build the PUT request with the request builder
 		HttpRequest request = HttpRequest.newBuilder().uri(URI.create(baseUrl + "/api/payment/cancel"))
 				.setHeader("Content-Type", "application/json").setHeader("Accept", "application/json")
-				.setHeader("Authorization", apiKey).PUT(HttpRequest.BodyPublishers.ofString(requestBody)).build();
-
-		// Capture the response resulting from the request
-		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+				.setHeader("Authorization", apiKey).PUT(requestBody).build();
 
-		ValidateResponse(response);
+		return invalidating(paymentId, send(PaycriticalEndpoint.CANCEL_PAYMENT, paymentId, trace, request, decoder));
 	}
 
 	/**
@@ -453,41 +970,51 @@ public class PaycriticalPaymentGateway {
 	public void refundPaymentRequest(String paymentId, double amount) throws IOException, InterruptedException,
 			PaycriticalApiInternalServerErrorException, PaycriticalApiValidationException,
 			PaycriticalApiUnauthorizedException, PaycriticalApiForbiddenException, PaycriticalApiException {
-		// Key - Value pairs in HashMap to be used with the jackson JSON parser
-		@SuppressWarnings("serial")
-		var values = new HashMap<String, String>() {
-			{
-				put("paymentId", paymentId);
-				put("amount", Double.toString(amount));
-			}
-		};
-
-		// initialize an object mapper for the jackson JSON parser
-		var objectMapper = new ObjectMapper();
-		// Use the jackson JSON parser to get the JSON string corresponding to the
-		// values HashMap
-		String requestBody = objectMapper.writeValueAsString(values);
-
-		// HTTPClient to make the PUT request
-		HttpClient client = HttpClient.newHttpClient();
-		// Build the PUT request with the request builder
-		HttpRequest request = HttpRequest.newBuilder().uri(URI.create(baseUrl + "/api/payment/refund"))
-				.setHeader("Content-Type", "application/json").setHeader("Accept", "application/json")
-				.setHeader("Authorization", apiKey).PUT(HttpRequest.BodyPublishers.ofString(requestBody)).build();
-
-		// Capture the response resulting from the request
-		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-		ValidateResponse(response);
+		await(refundPaymentRequestAsync(paymentId, amount));
 	}
 
 	/**
 	 * <p>
-	 * Capture Payment
+	 * Refund Payment Asynchronously
 	 * </p>
 	 * 
-	 * Makes a PUT Request to the API. This PUT captures a payment using the url
-	 * "{BaseUrl}/api/payment/capture".
+	 * Non-blocking version of {@link #refundPaymentRequest(String, double)}.
+	 * API errors complete the returned future exceptionally with the same
+	 * PaycriticalApiException types.
+	 * 
+	 * @param paymentId The payment ID of the payment to be refunded.
+	 * @param amount    The amount to be refunded.
+	 * @return A future completed when the request succeeds.
+	 */
+	public CompletableFuture<Void> refundPaymentRequestAsync(String paymentId, double amount) {
+		return refundPaymentRequest(paymentId, amount, values(Void.class, null));
+	}
+
+	/**
+	 * Refunds a payment.
+	 */
+	<R> CompletableFuture<R> refundPaymentRequest(String paymentId, double amount, Decoder<Void, R> decoder) {
+		ensureOpen();
+		var trace = trace(PaycriticalEndpoint.REFUND_PAYMENT, paymentId);
+		// Serialize the typed request body with its cached jackson writer
+		var requestBody = jsonBody(trace, new PaycriticalAmountRequest(paymentId, amount));
+
+		// Build the PUT request with the request builder
+		HttpRequest request = HttpRequest.newBuilder().uri(URI.create(baseUrl + "/api/payment/refund"))
+				.setHeader("Content-Type", "application/json").setHeader("Accept", "application/json")
+				.setHeader("Authorization", apiKey).PUT(requestBody).build();
+
+		return invalidating(paymentId, journaled(PaycriticalEndpoint.REFUND_PAYMENT, paymentId, null, null, amount,
+				decoder, () -> send(PaycriticalEndpoint.REFUND_PAYMENT, paymentId, trace, request, decoder)));
+	}
+
+	/**
+	 * <p>
+	 * Capture Payment
+	 * </p>
+	 * 
+	 * Makes a PUT Request to the API. This PUT captures a payment using the url
+	 * "{BaseUrl}/api/payment/capture".
 	 * 
 	 * @param paymentId The payment ID of the payment to be captured.
 	 * @param amount    The amount to be captured.
@@ -502,64 +1029,1364 @@ public class PaycriticalPaymentGateway {
 	public void capturePaymentRequest(String paymentId, double amount) throws IOException, InterruptedException,
 			PaycriticalApiInternalServerErrorException, PaycriticalApiValidationException,
 			PaycriticalApiUnauthorizedException, PaycriticalApiForbiddenException, PaycriticalApiException {
-		// Key - Value pairs in HashMap to be used with the jackson JSON parser
-		@SuppressWarnings("serial")
-		var values = new HashMap<String, String>() {
-			{
-				put("paymentId", paymentId);
-				put("amount", Double.toString(amount));
-			}
-		};
-
-		// initialize an object mapper for the jackson JSON parser
-		var objectMapper = new ObjectMapper();
-		// Use the jackson JSON parser to get the JSON string corresponding to the
-		// values HashMap
-		String requestBody = objectMapper.writeValueAsString(values);
-
-		// HTTPClient to make the PUT request
-		HttpClient client = HttpClient.newHttpClient();
+		await(capturePaymentRequestAsync(paymentId, amount));
+	}
+
+	/**
+	 * <p>
+	 * Capture Payment Asynchronously
+	 * </p>
+	 * 
+	 * Non-blocking version of {@link #capturePaymentRequest(String, double)}.
+	 * API errors complete the returned future exceptionally with the same
+	 * PaycriticalApiException types.
+	 * 
+	 * @param paymentId The payment ID of the payment to be captured.
+	 * @param amount    The amount to be captured.
+	 * @return A future completed when the request succeeds.
+	 */
+	public CompletableFuture<Void> capturePaymentRequestAsync(String paymentId, double amount) {
+		return capturePaymentRequest(paymentId, amount, values(Void.class, null));
+	}
+
+	/**
+	 * Captures an authorized payment.
+	 */
+	<R> CompletableFuture<R> capturePaymentRequest(String paymentId, double amount, Decoder<Void, R> decoder) {
+		ensureOpen();
+		var trace = trace(PaycriticalEndpoint.CAPTURE_PAYMENT, paymentId);
+		// Serialize the typed request body with its cached jackson writer
+		var requestBody = jsonBody(trace, new PaycriticalAmountRequest(paymentId, amount));
+
 		// Build the PUT request with the request builder
 		HttpRequest request = HttpRequest.newBuilder().uri(URI.create(baseUrl + "/api/payment/capture"))
 				.setHeader("Content-Type", "application/json").setHeader("Accept", "application/json")
-				.setHeader("Authorization", apiKey).PUT(HttpRequest.BodyPublishers.ofString(requestBody)).build();
+				.setHeader("Authorization", apiKey).PUT(requestBody).build();
 
-		// Capture the response resulting from the request
-		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+		return invalidating(paymentId, journaled(PaycriticalEndpoint.CAPTURE_PAYMENT, paymentId, null, null, amount,
+				decoder, () -> send(PaycriticalEndpoint.CAPTURE_PAYMENT, paymentId, trace, request, decoder)));
+	}
 
-		ValidateResponse(response);
+	/**
+	 * Sends the request and validates and decodes the response on the gateway
+	 * executor, so the HttpClient I/O thread is never used for parsing.
+	 * 
+	 * Successful bodies are streamed straight into the pre-built jackson reader
+	 * for the target type; only error bodies are kept as text, for the
+	 * exception messages. With a rate limiter or a concurrency limit the
+	 * request is only sent once both let it through.
+	 * 
+	 * @param trace    The trace of the call, or null when it is not observed.
+	 * @param decoder  Turns the response into the result.
+	 * @param deadline The deadline of the call, or null. The request is sent
+	 *                 with the time left as its timeout.
+	 */
+	private <T> CompletableFuture<T> sendAsync(PaycriticalEndpoint endpoint, CallTrace trace, HttpRequest request,
+			Decoder<?, T> decoder, PaycriticalDeadline deadline) {
+		// Completed from a stage of its own rather than derived from the exchange,
+		// so a response is always consumed even when the caller cancels first
+		var result = new CompletableFuture<T>();
+		if (rateLimiter == null) {
+			schedule(endpoint, trace, request, decoder, deadline, result);
+		} else {
+			// Tokens first, so no concurrency slot is held while waiting for them
+			admit(rateLimiter.acquireAsync(apiKey, endpoint, priority, executor), trace, result,
+					tokens -> schedule(endpoint, trace, request, decoder, deadline, result), null);
+		}
+		return result;
 	}
 
-	private void ValidateResponse(HttpResponse<String> response)
-			throws PaycriticalApiInternalServerErrorException, PaycriticalApiValidationException,
-			PaycriticalApiUnauthorizedException, PaycriticalApiForbiddenException, PaycriticalApiException {
-		var statusCode = response.statusCode();
+	/**
+	 * Continues the call of a tenant of a pool once its fair share of the pool
+	 * lets it through. The slot is held until the call completes, and freed
+	 * before the result is, so the stats of the tenant already count the call
+	 * when its caller sees the result.
+	 */
+	private <T> void schedule(PaycriticalEndpoint endpoint, CallTrace trace, HttpRequest request,
+			Decoder<?, T> decoder, PaycriticalDeadline deadline, CompletableFuture<T> result) {
+		if (tenant == null) {
+			limitConcurrency(endpoint, trace, request, decoder, deadline, result);
+			return;
+		}
+		admit(tenant.acquire(), trace, result, slot -> {
+			var call = new CompletableFuture<T>();
+			call.whenComplete((value, error) -> {
+				slot.release();
+				if (error == null) {
+					result.complete(value);
+				} else {
+					result.completeExceptionally(error);
+				}
+			});
+			result.whenComplete((value, error) -> {
+				if (result.isCancelled()) {
+					call.cancel(true);
+				}
+			});
+			limitConcurrency(endpoint, trace, request, decoder, deadline, call);
+		}, null);
+	}
+
+	private <T> void limitConcurrency(PaycriticalEndpoint endpoint, CallTrace trace, HttpRequest request,
+			Decoder<?, T> decoder, PaycriticalDeadline deadline, CompletableFuture<T> result) {
+		if (concurrencyLimit == null) {
+			connect(trace, request, decoder, deadline, null, result);
+		} else {
+			admit(concurrencyLimit.acquire(endpoint, executor), trace, result,
+					permit -> connect(trace, request, decoder, deadline, permit, result), null);
+		}
+	}
+
+	/**
+	 * Continues a call once a connection under its stream limit is free.
+	 */
+	private <T> void connect(CallTrace trace, HttpRequest request, Decoder<?, T> decoder, PaycriticalDeadline deadline,
+			PaycriticalConcurrencyLimit.Permit permit, CompletableFuture<T> result) {
+		admit(transport.acquire(), trace, result,
+				connection -> exchange(trace, request, decoder, deadline, permit, connection, result),
+				permit == null ? null : permit::abandon);
+	}
+
+	/**
+	 * Continues a call once a limit lets it through, or fails it with the
+	 * reason it was refused. Cancelling the call stops waiting.
+	 * 
+	 * @param refused Frees what the call already holds if it is refused, or
+	 *                null.
+	 */
+	private static <T, P> void admit(CompletableFuture<P> admission, CallTrace trace, CompletableFuture<T> result,
+			Consumer<P> next, Runnable refused) {
+		admission.whenComplete((value, error) -> {
+			if (error != null) {
+				if (refused != null) {
+					refused.run();
+				}
+				finish(trace, result, null, error);
+			} else {
+				next.accept(value);
+			}
+		});
+		if (!admission.isDone()) {
+			result.whenComplete((value, error) -> {
+				if (result.isCancelled()) {
+					admission.cancel(true);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Sends the request and completes the result with the decoded response.
+	 * 
+	 * @param permit     The concurrency limit slot to free once the response
+	 *                   arrives, or null.
+	 * @param connection The connection to send on, freed once the response is
+	 *                   read.
+	 */
+	private <T> void exchange(CallTrace trace, HttpRequest request, Decoder<?, T> decoder,
+			PaycriticalDeadline deadline, PaycriticalConcurrencyLimit.Permit permit,
+			PaycriticalTransport.Connection connection, CompletableFuture<T> result) {
+		long remaining = deadline != null ? deadline.remainingNanos() : 1;
+		if (result.isDone() || remaining <= 0) {
+			// Cancelled, or out of time, while waiting for tokens or a slot
+			connection.release(null);
+			if (permit != null) {
+				permit.abandon();
+			}
+			finish(trace, result, null, result.isDone() ? new CancellationException("The call was cancelled.")
+					: new HttpTimeoutException("The call did not complete within " + deadline.timeout() + "."));
+			return;
+		}
+		if (deadline != null) {
+			request = copy(request).timeout(Duration.ofNanos(remaining)).build();
+		}
 
-		if (statusCode >= 200 && statusCode <= 299) {
+		boolean discard = decoder.discards();
+		CompletableFuture<HttpResponse<Object>> exchange;
+		// Outlives the call when it times out or is cancelled first
+		enter();
+		try {
+			if (trace == null) {
+				exchange = connection.client.sendAsync(request, info -> bodySubscriber(info, discard, null));
+			} else {
+				trace.sent(request, baseUrl);
+				var recording = trace.recorder != null ? trace : null;
+				exchange = connection.client.sendAsync(request, info -> {
+					trace.received(info);
+					return bodySubscriber(info, discard, recording);
+				});
+			}
+		} catch (RuntimeException e) {
+			exit();
+			connection.release(null);
+			if (permit != null) {
+				permit.abandon();
+			}
+			finish(trace, result, null, e);
 			return;
 		}
 
-		switch (statusCode) {
-		case 400:
-			var objectMapper = new ObjectMapper();
-			ValidationSummary error;
+		exchange.whenCompleteAsync((response, error) -> {
+			try {
+				complete(trace, decoder, permit, connection, result, response, error);
+			} finally {
+				exit();
+			}
+		}, executor);
+		// Aborts the exchange on JDKs whose HttpClient supports cancellation (16
+		// and later); older ones finish the exchange and the body is released
+		result.whenComplete((value, error) -> {
+			if (result.isCancelled()) {
+				exchange.cancel(true);
+			}
+		});
+	}
+
+	/**
+	 * Frees what the exchange held and completes the call with its decoded
+	 * response or its failure.
+	 */
+	private static <T> void complete(CallTrace trace, Decoder<?, T> decoder,
+			PaycriticalConcurrencyLimit.Permit permit, PaycriticalTransport.Connection connection,
+			CompletableFuture<T> result, HttpResponse<Object> response, Throwable error) {
+		if (permit != null) {
+			permit.release(overloaded(response, error));
+		}
+		if (error != null) {
+			connection.release(null);
+			finish(trace, result, null, error);
+		} else if (result.isDone()) {
+			release(response);
+			connection.release(response);
+			finish(trace, result, null, new CancellationException("The call was cancelled."));
+		} else {
+			if (response.body() instanceof InputStream) {
+				// A call cancelled or timed out while its body is read stops reading
+				var body = (InputStream) response.body();
+				result.whenComplete((value, failure) -> {
+					if (failure != null) {
+						closeQuietly(body);
+					}
+				});
+			}
+			long start = trace != null ? System.nanoTime() : 0;
+			T value = null;
+			Throwable failure = null;
+			try {
+				value = decode(response, decoder);
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+			// The body has been read, so the stream is closed
+			connection.release(response);
+			if (trace != null) {
+				trace.decodeNanos = System.nanoTime() - start;
+			}
+			finish(trace, result, value, failure);
+		}
+	}
+
+	/**
+	 * Whether an outcome says the API is overloaded: an I/O error such as a
+	 * timeout, a 5xx response or a 429 response.
+	 */
+	private static boolean overloaded(HttpResponse<Object> response, Throwable error) {
+		if (error != null) {
+			var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+			return !(cause instanceof CancellationException);
+		}
+		int statusCode = response.statusCode();
+		return statusCode >= 500 || statusCode == 429;
+	}
+
+	private static <T> void finish(CallTrace trace, CompletableFuture<T> result, T value, Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null) {
+			error = error.getCause();
+		}
+		// Observers first, so they have seen the call when the caller resumes
+		if (trace != null) {
+			trace.complete(error);
+		}
+		if (error == null) {
+			result.complete(value);
+		} else {
+			result.completeExceptionally(error);
+		}
+	}
+
+	/**
+	 * Reads the rest of an abandoned response so its connection can be reused.
+	 */
+	private static void release(HttpResponse<Object> response) {
+		if (response.body() instanceof InputStream) {
+			try (var body = (InputStream) response.body()) {
+				body.transferTo(OutputStream.nullOutputStream());
+			} catch (IOException e) {
+				// The connection is closed instead of reused
+			}
+		}
+	}
+
+	private static void closeQuietly(InputStream body) {
+		try {
+			body.close();
+		} catch (IOException e) {
+			// The connection is closed instead of reused
+		}
+	}
+
+	private static <B, R> R decode(HttpResponse<Object> response, Decoder<B, R> decoder) {
+		var body = response.body();
+		try {
+			if (!(body instanceof InputStream)) {
+				int statusCode = response.statusCode();
+				if (statusCode < 200 || statusCode > 299) {
+					// Error bodies are read as text
+					return decoder.failed(statusCode, (String) body, retryAfter(response));
+				}
+				// Successful bodies that were discarded
+				if (decoder.discards()) {
+					return decoder.succeeded(null);
+				}
+				if (decoder.noContent != null && statusCode == 204) {
+					return decoder.succeeded(decoder.noContent.get());
+				}
+				// Any other empty 204 body fails to decode, as it always has
+				return decoder.succeeded(JSON.read(decoder.type, InputStream.nullInputStream()));
+			}
+			return decoder.succeeded(JSON.read(decoder.type, (InputStream) body));
+		} catch (IOException | PaycriticalApiException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * The wait asked for by the Retry-After header of a response, given in
+	 * seconds or as a date, or null if there is none or it cannot be parsed.
+	 */
+	private static Duration retryAfter(HttpResponse<?> response) {
+		var value = response.headers().firstValue("Retry-After").orElse(null);
+		if (value == null) {
+			return null;
+		}
+		value = value.trim();
+		try {
+			if (!value.isEmpty() && Character.isDigit(value.charAt(0))) {
+				return Duration.ofSeconds(Long.parseLong(value));
+			}
+			var date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+			var wait = Duration.between(Instant.now(), date.toInstant());
+			return wait.isNegative() ? Duration.ZERO : wait;
+		} catch (NumberFormatException | DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Streams successful bodies that need decoding, discards the other
+	 * successful bodies and reads error bodies as text.
+	 * 
+	 * @param recording The trace of a call that is recorded, which buffers
+	 *                  every body to keep a copy, or null.
+	 */
+	@SuppressWarnings("unchecked")
+	private static HttpResponse.BodySubscriber<Object> bodySubscriber(HttpResponse.ResponseInfo info,
+			boolean discard, CallTrace recording) {
+		int statusCode = info.statusCode();
+		if (statusCode < 200 || statusCode > 299) {
+			if (recording != null) {
+				return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(), body -> {
+					recording.responseBody = body;
+					return new String(body, StandardCharsets.UTF_8);
+				});
+			}
+			return (HttpResponse.BodySubscriber<Object>) (HttpResponse.BodySubscriber<?>) HttpResponse.BodySubscribers
+					.ofString(StandardCharsets.UTF_8);
+		}
+		if (recording != null) {
+			return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(), body -> {
+				recording.responseBody = body;
+				return discard || statusCode == 204 ? null : new ByteArrayInputStream(body);
+			});
+		}
+		if (discard || statusCode == 204) {
+			return HttpResponse.BodySubscribers.replacing(null);
+		}
+		return (HttpResponse.BodySubscriber<Object>) (HttpResponse.BodySubscriber<?>) HttpResponse.BodySubscribers
+				.ofInputStream();
+	}
+
+	/**
+	 * Shares one in-flight call between concurrent identical GET requests.
+	 * The shared call runs without a timeout of its own: every caller waits
+	 * for its own copy within its own timeout, so callers with different
+	 * timeouts can share it, and cancelling or timing out one caller does not
+	 * affect the others. The call is cancelled once no caller waits for it.
+	 *
+	 * @param call Sends the lookup, given the timeout to apply to it.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> CompletableFuture<T> coalesce(Decoder<?, T> decoder, PaycriticalEndpoint endpoint, String resourceId,
+			HttpRequest request, Function<Duration, CompletableFuture<T>> call) {
+		if (inFlightGets == null) {
+			return call.apply(timeout);
+		}
+
+		// Calls only share results of the same kind
+		var inFlight = decoder.isOutcome() ? inFlightOutcomes : inFlightGets;
+		var uri = request.uri();
+		var shared = new Coalesced<T>();
+		for (;;) {
+			var existing = (Coalesced<T>) inFlight.putIfAbsent(uri, shared);
+			if (existing == null) {
+				break;
+			}
+			if (existing.join()) {
+				coalescedCalls.increment();
+				var copy = waitFor(inFlight, uri, existing);
+				if (!ApiCallEvent.isRecorded()) {
+					return copy;
+				}
+				var event = ApiCallEvent.start(endpoint, resourceId);
+				event.coalesced = true;
+				return copy.whenComplete((result, error) -> event.complete(error));
+			}
+			// Abandoned by all its callers, and about to leave the map
+			inFlight.remove(uri, existing);
+		}
+
+		CompletableFuture<T> response;
+		try {
+			response = call.apply(null);
+		} catch (RuntimeException e) {
+			response = CompletableFuture.failedFuture(e);
+		}
+		shared.response = response;
+		response.whenComplete((result, error) -> {
+			// Leave the map first so later callers start a fresh request
+			inFlight.remove(uri, shared);
+			if (error != null) {
+				shared.result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+						? error.getCause()
+						: error);
+			} else {
+				shared.result.complete(result);
+			}
+		});
+		return waitFor(inFlight, uri, shared);
+	}
+
+	/**
+	 * A copy of the shared call for one caller, bounded by the caller's
+	 * timeout. The last caller to time out or cancel cancels the call.
+	 */
+	private <T> CompletableFuture<T> waitFor(ConcurrentHashMap<URI, Coalesced<?>> inFlight, URI uri,
+			Coalesced<T> shared) {
+		var copy = shared.result.copy();
+		copy.whenComplete((result, error) -> {
+			if (copy.isCancelled() && shared.leave()) {
+				inFlight.remove(uri, shared);
+				shared.response.cancel(true);
+			}
+		});
+		return bounded(PaycriticalDeadline.after(timeout), copy);
+	}
+
+	/**
+	 * Sends a status lookup, hedged when a hedging policy is set and retried
+	 * when a retry policy is set. Every attempt is traced on its own.
+	 *
+	 * @param timeout The timeout of the lookup, or null for none.
+	 */
+	private <T> CompletableFuture<T> lookup(PaycriticalEndpoint endpoint, String resourceId, HttpRequest request,
+			Decoder<?, T> decoder, Duration timeout) {
+		var deadline = PaycriticalDeadline.after(timeout);
+		Supplier<CompletableFuture<T>> attempt = () -> sendAsync(endpoint, trace(endpoint, resourceId), request,
+				decoder, deadline);
+		Supplier<CompletableFuture<T>> hedged = hedgingPolicy == null ? attempt
+				: () -> hedgingPolicy.execute(endpoint, attempt, executor);
+		return bounded(deadline, tracked(
+				() -> retryPolicy == null ? hedged.get() : retryPolicy.execute(endpoint, hedged, deadline, executor)));
+	}
+
+	/**
+	 * Sends a call that changes state, retried when a retry policy is set.
+	 * Every attempt then carries the same Idempotency-Key header and the ones
+	 * after the first are traced on their own.
+	 */
+	private <T> CompletableFuture<T> send(PaycriticalEndpoint endpoint, String resourceId, CallTrace trace,
+			HttpRequest request, Decoder<?, T> decoder) {
+		var deadline = PaycriticalDeadline.after(timeout);
+		if (retryPolicy == null) {
+			return bounded(deadline, tracked(() -> sendAsync(endpoint, trace, request, decoder, deadline)));
+		}
+		var keyed = copy(request).header(IDEMPOTENCY_KEY_HEADER, UUID.randomUUID().toString()).build();
+		var attempts = new AtomicInteger();
+		return bounded(deadline, tracked(() -> retryPolicy.execute(endpoint, () -> sendAsync(endpoint,
+				attempts.getAndIncrement() == 0 ? trace : trace(endpoint, resourceId), keyed, decoder, deadline),
+				deadline, executor)));
+	}
+
+	/**
+	 * Fails the call with an HttpTimeoutException if it has not completed by
+	 * the deadline, cancelling whatever it is still waiting for.
+	 */
+	private static <T> CompletableFuture<T> bounded(PaycriticalDeadline deadline, CompletableFuture<T> call) {
+		if (deadline == null || call.isDone()) {
+			return call;
+		}
+		var result = new CompletableFuture<T>();
+		var timer = deadline.schedule(() -> {
+			if (result.completeExceptionally(
+					new HttpTimeoutException("The call did not complete within " + deadline.timeout() + "."))) {
+				call.cancel(true);
+			}
+		});
+		call.whenComplete((value, error) -> {
+			timer.cancel(false);
+			if (error == null) {
+				result.complete(value);
+			} else {
+				result.completeExceptionally(
+						error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+			}
+		});
+		result.whenComplete((value, error) -> {
+			if (result.isCancelled()) {
+				call.cancel(true);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @return A builder for a request like the given one.
+	 */
+	private static HttpRequest.Builder copy(HttpRequest request) {
+		var builder = HttpRequest.newBuilder(request.uri())
+				.method(request.method(), request.bodyPublisher().orElse(HttpRequest.BodyPublishers.noBody()));
+		request.headers().map().forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+		request.version().ifPresent(builder::version);
+		request.timeout().ifPresent(builder::timeout);
+		return builder;
+	}
+
+	/**
+	 * Starts observing a call when a listener is registered or a Flight
+	 * Recorder recording has the call event enabled.
+	 * 
+	 * @return The trace of the call, or null when nobody observes it.
+	 */
+	private CallTrace trace(PaycriticalEndpoint endpoint, String resourceId) {
+		boolean recorded = ApiCallEvent.isRecorded();
+		if (callListener == null && !recorded && recorder == null) {
+			return null;
+		}
+		return new CallTrace(endpoint, callListener, recorded ? ApiCallEvent.start(endpoint, resourceId) : null,
+				recorder);
+	}
+
+	private static void recordCached(PaycriticalEndpoint endpoint, String resourceId) {
+		if (ApiCallEvent.isRecorded()) {
+			var event = ApiCallEvent.start(endpoint, resourceId);
+			event.cached = true;
+			event.complete(null);
+		}
+	}
+
+	/**
+	 * Drops the cached status of a payment when a call that changes it starts
+	 * and again when it ends, whatever the outcome.
+	 */
+	private <T> CompletableFuture<T> invalidating(String paymentId, CompletableFuture<T> call) {
+		if (statusCache == null) {
+			return call;
+		}
+		statusCache.invalidate(paymentId);
+		return call.whenComplete((result, error) -> statusCache.invalidate(paymentId));
+	}
+
+	/**
+	 * Records the call in the journal, when there is one, and sends it once the
+	 * record is synced. Its outcome is recorded when the response says whether
+	 * it was applied; otherwise the operation is left in doubt. Cancelling the
+	 * returned future cancels the call.
+	 */
+	private <R> CompletableFuture<R> journaled(PaycriticalEndpoint endpoint, String paymentId, String orderRef,
+			String phoneNumber, double amount, Decoder<?, R> decoder, Supplier<CompletableFuture<R>> call) {
+		if (journal == null) {
+			return call.get();
+		}
+		var result = new CompletableFuture<R>();
+		// Counted until the record is synced and the call sent, which counts itself
+		enterOpen();
+		journal.append(endpoint, paymentId, orderRef, phoneNumber, amount).whenCompleteAsync((operation, error) -> {
 			try {
-				error = objectMapper.readValue(response.body(), ValidationSummary.class);
-			} catch (Exception e) {
-				error = new ValidationSummary();
-				error.setCode("400");
-				error.setDescription("The request is invalid.");
+				if (error != null) {
+					result.completeExceptionally(error);
+					return;
+				}
+				if (result.isDone()) {
+					// Cancelled before it was sent
+					record(operation, null, null, null);
+					return;
+				}
+				CompletableFuture<R> sent;
+				try {
+					sent = call.get();
+				} catch (RuntimeException e) {
+					record(operation, null, null, null);
+					result.completeExceptionally(e);
+					return;
+				}
+				result.whenComplete((value, cancellation) -> sent.cancel(true));
+				sent.whenComplete((value, failure) -> {
+					record(operation, decoder, value, failure);
+					if (failure != null) {
+						result.completeExceptionally(failure);
+					} else {
+						result.complete(value);
+					}
+				});
+			} finally {
+				exit();
+			}
+		}, executor);
+		return result;
+	}
+
+	/**
+	 * Records the outcome of a call, or that it was not made if the decoder is
+	 * null.
+	 */
+	private <R> void record(PaycriticalJournal.Operation operation, Decoder<?, R> decoder, R result,
+			Throwable error) {
+		try {
+			if (decoder == null) {
+				journal.rejected(operation);
+			} else if (error == null && result != null && decoder.isFailure(result)) {
+				if (((ApiOutcome<?>) result).getFailure().isTransient()) {
+					journal.failed(operation);
+				} else {
+					journal.rejected(operation);
+				}
+			} else if (error == null) {
+				var value = result != null ? decoder.value(result) : null;
+				journal.succeeded(operation,
+						value instanceof PaycriticalPayment ? ((PaycriticalPayment) value).getPaymentId() : null);
+			} else {
+				var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause()
+						: error;
+				if (cause instanceof PaycriticalApiException
+						&& !(cause instanceof PaycriticalApiInternalServerErrorException)
+						&& !(cause instanceof PaycriticalApiUnavailableException)) {
+					journal.rejected(operation);
+				} else {
+					journal.failed(operation);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// The outcome is lost, so the operation stays in doubt
+			journal.failed(operation);
+		}
+	}
+
+	/**
+	 * Waits for an asynchronous call and rethrows its failure with the checked
+	 * exception types of the blocking API.
+	 */
+	static <T> T await(CompletableFuture<T> future)
+			throws IOException, InterruptedException, PaycriticalApiException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			throw e;
+		} catch (ExecutionException e) {
+			var cause = e.getCause();
+			if (cause instanceof PaycriticalApiException) {
+				throw (PaycriticalApiException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private static HttpRequest.BodyPublisher jsonBody(CallTrace trace, Object request) {
+		long start = trace != null ? System.nanoTime() : 0;
+		byte[] body;
+		try {
+			body = JSON.write(request);
+		} catch (JsonProcessingException e) {
+			// The request classes are always serializable
+			throw new UncheckedIOException(e);
+		}
+		if (trace != null) {
+			trace.serializationNanos = System.nanoTime() - start;
+		}
+		return HttpRequest.BodyPublishers.ofByteArray(body);
+	}
+
+	/**
+	 * The error of a non-2xx response, with the code and description of the
+	 * ValidationSummary of a 400 response.
+	 */
+	static <T> ApiOutcome.Failure<T> failure(int statusCode, String body) {
+		return failure(statusCode, body, null);
+	}
+
+	private static <T> ApiOutcome.Failure<T> failure(int statusCode, String body, Duration retryAfter) {
+		if (statusCode != 400) {
+			return ApiOutcome.failure(statusCode, null, null, body, retryAfter);
+		}
+		ValidationSummary error;
+		try {
+			error = JSON.reader(ValidationSummary.class).readValue(body);
+		} catch (Exception e) {
+			error = new ValidationSummary();
+			error.setCode("400");
+			error.setDescription("The request is invalid.");
+		}
+		return ApiOutcome.failure(statusCode, error.getCode(), error.getDescription(), body);
+	}
+
+	/**
+	 * <p>
+	 * Connection Stats
+	 * </p>
+	 * 
+	 * @return The requests in flight and served so far on each connection of
+	 *         the gateway, and the protocol of their responses.
+	 */
+	public List<PaycriticalConnectionStats> connectionStats() {
+		return transport.stats();
+	}
+
+	/**
+	 * <p>
+	 * Coalesced Call Count
+	 * </p>
+	 * 
+	 * @return The number of status lookups that joined an identical request
+	 *         already in flight instead of sending their own.
+	 */
+	public long coalescedCallCount() {
+		return coalescedCalls.sum();
+	}
+
+	private void ensureOpen() {
+		if (owner.closed) {
+			throw new IllegalStateException("The gateway has been closed.");
+		}
+		if (tenant != null && tenant.isRemoved()) {
+			throw new IllegalStateException("The tenant " + tenant.id() + " has been removed from the pool.");
+		}
+	}
+
+	<B> Decoder<B, B> values(Class<B> type, Supplier<B> noContent) {
+		return new ValueDecoder<>(type, noContent, stackTraces);
+	}
+
+	static <B> Decoder<B, ApiOutcome<B>> outcomes(Class<B> type, Supplier<B> noContent) {
+		return new OutcomeDecoder<>(type, noContent);
+	}
+
+	/**
+	 * Turns the response of a call into its result.
+	 * 
+	 * @param <B> The type of the response body.
+	 * @param <R> The type of the result.
+	 */
+	abstract static class Decoder<B, R> {
+		final Class<B> type;
+		// Supplies the body of a 204 response, or null to decode it regardless
+		final Supplier<B> noContent;
+
+		private Decoder(Class<B> type, Supplier<B> noContent) {
+			this.type = type;
+			this.noContent = noContent;
+		}
+
+		/**
+		 * Whether the body is read at all.
+		 */
+		boolean discards() {
+			return type == Void.class;
+		}
+
+		abstract R succeeded(B value);
+
+		/**
+		 * @param body       The text of a non-2xx response.
+		 * @param retryAfter The wait the response asked for, or null.
+		 */
+		abstract R failed(int statusCode, String body, Duration retryAfter) throws PaycriticalApiException;
+
+		/**
+		 * Whether the result holds an error response.
+		 */
+		abstract boolean isFailure(R result);
+
+		/**
+		 * @return The body held by a successful result.
+		 */
+		abstract B value(R result);
+
+		abstract boolean isOutcome();
+	}
+
+	/**
+	 * Results the body itself and throws error responses as the matching
+	 * PaycriticalApiException.
+	 */
+	private static final class ValueDecoder<B> extends Decoder<B, B> {
+		private final boolean stackTraces;
+
+		private ValueDecoder(Class<B> type, Supplier<B> noContent, boolean stackTraces) {
+			super(type, noContent);
+			this.stackTraces = stackTraces;
+		}
+
+		@Override
+		B succeeded(B value) {
+			return value;
+		}
+
+		@Override
+		B failed(int statusCode, String body, Duration retryAfter) throws PaycriticalApiException {
+			throw failure(statusCode, body, retryAfter).toException(stackTraces);
+		}
+
+		@Override
+		boolean isFailure(B result) {
+			return false;
+		}
+
+		@Override
+		B value(B result) {
+			return result;
+		}
+
+		@Override
+		boolean isOutcome() {
+			return false;
+		}
+	}
+
+	/**
+	 * Results an ApiOutcome, so error responses create no exception.
+	 */
+	private static final class OutcomeDecoder<B> extends Decoder<B, ApiOutcome<B>> {
+		private OutcomeDecoder(Class<B> type, Supplier<B> noContent) {
+			super(type, noContent);
+		}
+
+		@Override
+		ApiOutcome<B> succeeded(B value) {
+			return ApiOutcome.success(value);
+		}
+
+		@Override
+		ApiOutcome<B> failed(int statusCode, String body, Duration retryAfter) {
+			return failure(statusCode, body, retryAfter);
+		}
+
+		@Override
+		boolean isFailure(ApiOutcome<B> result) {
+			return !result.isSuccess();
+		}
+
+		@Override
+		B value(ApiOutcome<B> result) {
+			return result.getValue();
+		}
+
+		@Override
+		boolean isOutcome() {
+			return true;
+		}
+	}
+
+	/**
+	 * A lookup shared by concurrent identical requests, with the number of
+	 * callers still waiting for it.
+	 */
+	private static final class Coalesced<T> {
+		private final CompletableFuture<T> result = new CompletableFuture<>();
+		// Callers waiting, 0 once the last one left and the lookup is cancelled
+		private final AtomicInteger waiting = new AtomicInteger(1);
+		// Set before the first caller gets its copy, so before the last leaves
+		private volatile CompletableFuture<T> response;
+
+		/**
+		 * Counts another caller in, unless every caller already left.
+		 */
+		private boolean join() {
+			for (;;) {
+				int current = waiting.get();
+				if (current == 0) {
+					return false;
+				}
+				if (waiting.compareAndSet(current, current + 1)) {
+					return true;
+				}
 			}
-			throw new PaycriticalApiValidationException(error.getCode(), error.getDescription(), "");
-		case 401:
-			throw new PaycriticalApiUnauthorizedException(response.body());
-		case 403:
-			throw new PaycriticalApiForbiddenException(response.body());
-		case 500:
-			throw new PaycriticalApiInternalServerErrorException(response.body());
-		default:
-			throw new PaycriticalApiException(response.body());
+		}
+
+		/**
+		 * @return true if the caller leaving was the last one.
+		 */
+		private boolean leave() {
+			return waiting.decrementAndGet() == 0;
 		}
 	}
 
+	/**
+	 * Timings of one call, filled in as it progresses and reported to the call
+	 * listener and to Flight Recorder. Each field is written before the stage
+	 * that reads it is triggered, so no synchronization is needed.
+	 */
+	private static final class CallTrace {
+		private final PaycriticalEndpoint endpoint;
+		private final PaycriticalCallListener listener;
+		private final ApiCallEvent event;
+		private final PaycriticalRecorder recorder;
+		private final long start = System.nanoTime();
+		private long serializationNanos;
+		private long requestBytes;
+		private long firstByteNanos = -1;
+		private long decodeNanos;
+		private int statusCode;
+		private long responseBytes = -1;
+		// Kept for the recorder only
+		private String method;
+		private String path;
+		private byte[] requestBody;
+		private byte[] responseBody;
+
+		private CallTrace(PaycriticalEndpoint endpoint, PaycriticalCallListener listener, ApiCallEvent event,
+				PaycriticalRecorder recorder) {
+			this.endpoint = endpoint;
+			this.listener = listener;
+			this.event = event;
+			this.recorder = recorder;
+		}
+
+		private void sent(HttpRequest request, String baseUrl) {
+			requestBytes = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(0L);
+			if (recorder != null) {
+				method = request.method();
+				var uri = request.uri().toString();
+				path = uri.startsWith(baseUrl) ? uri.substring(baseUrl.length()) : request.uri().getRawPath();
+				requestBody = body(request);
+			}
+		}
+
+		/**
+		 * @return The bytes of the request body, which the publishers of byte
+		 *         arrays hand over as soon as they are asked for.
+		 */
+		private static byte[] body(HttpRequest request) {
+			var publisher = request.bodyPublisher().orElse(null);
+			if (publisher == null || publisher.contentLength() == 0) {
+				return new byte[0];
+			}
+			var body = new ByteArrayOutputStream();
+			var published = new CompletableFuture<byte[]>();
+			publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+				@Override
+				public void onSubscribe(Flow.Subscription subscription) {
+					subscription.request(Long.MAX_VALUE);
+				}
+
+				@Override
+				public void onNext(ByteBuffer item) {
+					var bytes = new byte[item.remaining()];
+					item.get(bytes);
+					body.writeBytes(bytes);
+				}
+
+				@Override
+				public void onError(Throwable throwable) {
+					published.completeExceptionally(throwable);
+				}
+
+				@Override
+				public void onComplete() {
+					published.complete(body.toByteArray());
+				}
+			});
+			return published.join();
+		}
+
+		private void received(HttpResponse.ResponseInfo info) {
+			firstByteNanos = System.nanoTime() - start;
+			statusCode = info.statusCode();
+			responseBytes = info.headers().firstValueAsLong("Content-Length").orElse(-1);
+		}
+
+		private void complete(Throwable error) {
+			if (event != null) {
+				event.statusCode = statusCode;
+				event.requestBytes = requestBytes;
+				event.responseBytes = responseBytes;
+				event.serializationTime = serializationNanos;
+				event.timeToFirstByte = firstByteNanos;
+				event.deserializationTime = decodeNanos;
+				event.complete(error);
+			}
+			if (listener != null) {
+				try {
+					listener.onCall(new PaycriticalCallEvent(endpoint, statusCode, requestBytes, responseBytes,
+							System.nanoTime() - start, firstByteNanos, decodeNanos,
+							error == null ? null : error.getClass()));
+				} catch (RuntimeException e) {
+					// A failing listener must not fail the call
+				}
+			}
+			if (recorder != null && method != null) {
+				recorder.record(endpoint, method, path, requestBody, statusCode, responseBody, start, firstByteNanos,
+						System.nanoTime() - start, error);
+			}
+		}
+	}
+
+	/**
+	 * Builder for {@link PaycriticalPaymentGateway}. Not thread-safe.
+	 */
+	public static final class Builder {
+		private final String apiKey;
+		private final String baseUrl;
+		private Executor executor;
+		private Duration connectTimeout;
+		private PaycriticalStatusCache statusCache;
+		private PaycriticalJournal journal;
+		private PaycriticalRecorder recorder;
+		private boolean coalesceRequests;
+		private PaycriticalCallListener callListener;
+		private PaycriticalHedgingPolicy hedgingPolicy;
+		private PaycriticalConcurrencyLimit concurrencyLimit;
+		private PaycriticalRateLimiter rateLimiter;
+		private PaycriticalRateLimiter.Priority priority;
+		private PaycriticalRetryPolicy retryPolicy;
+		private Duration timeout = Duration.ofSeconds(30);
+		private Version protocol = Version.HTTP_2;
+		private int connections = 1;
+		private int maxStreamsPerConnection;
+		private boolean stackTraces = true;
+		private int warmUpStreams = 1;
+		private int warmUpIterations = 1;
+		private Duration keepWarm;
+
+		private Builder(String apiKey, String baseUrl) {
+			this.apiKey = apiKey;
+			this.baseUrl = baseUrl;
+		}
+
+		/**
+		 * Executor used by the HttpClient for its asynchronous tasks and by the
+		 * gateway to validate and decode responses. When not set
+		 * the gateway creates a cached pool of daemon threads and shuts it down on
+		 * {@link PaycriticalPaymentGateway#close()}.
+		 * 
+		 * @param executor The executor to use.
+		 * @return This builder.
+		 */
+		public Builder executor(Executor executor) {
+			this.executor = executor;
+			return this;
+		}
+
+		/**
+		 * Maximum time to wait for a connection to be established.
+		 * 
+		 * @param connectTimeout The connect timeout. Not set by default.
+		 * @return This builder.
+		 */
+		public Builder connectTimeout(Duration connectTimeout) {
+			this.connectTimeout = connectTimeout;
+			return this;
+		}
+
+		/**
+		 * Cache consulted by getPaymentStatus and getAuthorizationDetails. No
+		 * cache is used by default.
+		 * 
+		 * @param statusCache The cache to use, possibly shared with other gateways.
+		 * @return This builder.
+		 */
+		public Builder statusCache(PaycriticalStatusCache statusCache) {
+			this.statusCache = statusCache;
+			return this;
+		}
+
+		/**
+		 * Record requestPayment, capturePaymentRequest and refundPaymentRequest
+		 * calls in a write-ahead journal before sending them, so those in doubt
+		 * after a crash can be recovered. No journal is used by default.
+		 * 
+		 * @param journal The journal to use, possibly shared with other
+		 *                gateways. The gateway does not close it.
+		 * @return This builder.
+		 */
+		public Builder journal(PaycriticalJournal journal) {
+			this.journal = journal;
+			return this;
+		}
+
+		/**
+		 * Record every HTTP exchange, with its bodies and timings, e.g. to
+		 * replay the traffic later. Nothing is recorded by default.
+		 * 
+		 * @param recorder The recorder to use, possibly shared with other
+		 *                 gateways. The gateway does not close it.
+		 * @return This builder.
+		 */
+		public Builder recorder(PaycriticalRecorder recorder) {
+			this.recorder = recorder;
+			return this;
+		}
+
+		/**
+		 * Share one request between concurrent identical calls to
+		 * getPaymentStatus, getAuthorizationDetails and getQRCodeStatus. All the
+		 * callers receive the same decoded response, or the same exception, so
+		 * the response must be treated as read-only. Disabled by default.
+		 * 
+		 * @param coalesceRequests Whether to coalesce identical status lookups.
+		 * @return This builder.
+		 */
+		public Builder coalesceRequests(boolean coalesceRequests) {
+			this.coalesceRequests = coalesceRequests;
+			return this;
+		}
+
+		/**
+		 * Listener told the endpoint, status code, sizes and timings of every
+		 * HTTP call, e.g. a {@link com.paycritical.metrics.PaycriticalMetricsRecorder}.
+		 * Can be called several times to register several listeners. Calls are
+		 * not timed when no listener is registered.
+		 * 
+		 * @param callListener The listener to add.
+		 * @return This builder.
+		 */
+		public Builder callListener(PaycriticalCallListener callListener) {
+			Objects.requireNonNull(callListener);
+			var previous = this.callListener;
+			this.callListener = previous == null ? callListener : event -> {
+				try {
+					previous.onCall(event);
+				} finally {
+					callListener.onCall(event);
+				}
+			};
+			return this;
+		}
+
+		/**
+		 * Send a second request for a slow getPaymentStatus,
+		 * getAuthorizationDetails or getQRCodeStatus call and use the first
+		 * response. Disabled by default.
+		 * 
+		 * @param hedgingPolicy The policy deciding when to hedge, possibly shared
+		 *                      with other gateways.
+		 * @return This builder.
+		 */
+		public Builder hedging(PaycriticalHedgingPolicy hedgingPolicy) {
+			this.hedgingPolicy = hedgingPolicy;
+			return this;
+		}
+
+		/**
+		 * Limit the calls in flight, adapting the limit to the latency and errors
+		 * of the API. Calls over the limit wait or fail with a
+		 * PaycriticalConcurrencyLimitException, as configured. No limit by
+		 * default.
+		 * 
+		 * @param concurrencyLimit The limit to apply, possibly shared with other
+		 *                         gateways.
+		 * @return This builder.
+		 */
+		public Builder concurrencyLimit(PaycriticalConcurrencyLimit concurrencyLimit) {
+			this.concurrencyLimit = concurrencyLimit;
+			return this;
+		}
+
+		/**
+		 * Keep the calls within the request quota of the API key. Calls wait for
+		 * tokens without blocking a thread, or fail with a
+		 * PaycriticalRateLimitException once the maximum wait of the limiter
+		 * is exceeded. Give batch jobs a gateway of their own with the BATCH
+		 * priority, sharing the limiter, so they yield to live payments. No
+		 * rate limit by default.
+		 * 
+		 * @param rateLimiter The limiter to use, shared with the other gateways
+		 *                    using the same API key.
+		 * @param priority    The priority of the calls of this gateway.
+		 * @return This builder.
+		 */
+		public Builder rateLimiter(PaycriticalRateLimiter rateLimiter, PaycriticalRateLimiter.Priority priority) {
+			this.rateLimiter = rateLimiter;
+			this.priority = Objects.requireNonNull(priority);
+			return this;
+		}
+
+		/**
+		 * Send calls again after transient errors. Status lookups are always
+		 * safe to retry; the calls that change state are only retried as the
+		 * policy allows. Disabled by default.
+		 * 
+		 * @param retryPolicy The policy deciding when to retry, possibly shared
+		 *                    with other gateways.
+		 * @return This builder.
+		 */
+		public Builder retryPolicy(PaycriticalRetryPolicy retryPolicy) {
+			this.retryPolicy = retryPolicy;
+			return this;
+		}
+
+		/**
+		 * Time allowed per call, from the moment it is made until its response
+		 * is decoded: waiting for the rate and concurrency limits, connecting,
+		 * sending, waiting for the response, reading it and every retry or
+		 * hedge. A call out of time fails with an HttpTimeoutException and what
+		 * it was waiting for is cancelled. Use
+		 * {@link PaycriticalPaymentGateway#withTimeout(Duration)} for a different
+		 * timeout on some calls.
+		 * 
+		 * @param timeout The call timeout, or null for no limit. Defaults to 30
+		 *                seconds.
+		 * @return This builder.
+		 */
+		public Builder timeout(Duration timeout) {
+			this.timeout = timeout;
+			return this;
+		}
+
+		/**
+		 * Protocol to request. With HTTP_2, the default, requests are
+		 * multiplexed over one connection per host for each of the configured
+		 * connections, and a server that does not negotiate HTTP/2 is spoken to
+		 * over HTTP/1.1 keep-alive connections instead. With HTTP_1_1 requests
+		 * always use keep-alive connections, one per request in flight.
+		 * 
+		 * @param protocol The HTTP version to request.
+		 * @return This builder.
+		 */
+		public Builder protocol(Version protocol) {
+			this.protocol = Objects.requireNonNull(protocol);
+			return this;
+		}
+
+		/**
+		 * Number of long-lived HTTP/2 connections the requests are spread over,
+		 * each request going to the one with the fewest in flight. With HTTP/1.1
+		 * each of them is a separate keep-alive pool. Defaults to 1.
+		 * 
+		 * @param connections The number of connections.
+		 * @return This builder.
+		 */
+		public Builder connections(int connections) {
+			if (connections < 1) {
+				throw new IllegalArgumentException("At least one connection is required.");
+			}
+			this.connections = connections;
+			return this;
+		}
+
+		/**
+		 * Maximum requests in flight on one connection, e.g. the concurrent
+		 * streams the server allows. Requests over the limit of every
+		 * connection wait for one to finish. No limit by default.
+		 * 
+		 * @param maxStreams The concurrent requests per connection.
+		 * @return This builder.
+		 */
+		public Builder maxStreamsPerConnection(int maxStreams) {
+			if (maxStreams < 1) {
+				throw new IllegalArgumentException("At least one stream per connection is required.");
+			}
+			this.maxStreamsPerConnection = maxStreams;
+			return this;
+		}
+
+		/**
+		 * Whether the PaycriticalApiExceptions thrown for error responses fill in
+		 * their stack trace. They are always thrown from the same place in the
+		 * gateway, so the trace tells little, and filling it in is most of the
+		 * cost of a failed call once the response has arrived. Disable it when
+		 * many calls fail, e.g. with validation errors, or use
+		 * {@link PaycriticalPaymentGateway#outcomes()}. Enabled by default.
+		 * 
+		 * @param stackTraces Whether to fill in the stack trace.
+		 * @return This builder.
+		 */
+		public Builder stackTraces(boolean stackTraces) {
+			this.stackTraces = stackTraces;
+			return this;
+		}
+
+		/**
+		 * Requests sent at once on each connection by
+		 * {@link PaycriticalPaymentGateway#warmUp()}. With HTTP/1.1 each of them
+		 * opens a keep-alive socket, so set it to the calls expected in flight
+		 * per connection. Defaults to 1.
+		 * 
+		 * @param streams The concurrent warm-up requests per connection.
+		 * @return This builder.
+		 */
+		public Builder warmUpStreams(int streams) {
+			if (streams < 1) {
+				throw new IllegalArgumentException("At least one warm-up request per connection is required.");
+			}
+			this.warmUpStreams = streams;
+			return this;
+		}
+
+		/**
+		 * Times {@link PaycriticalPaymentGateway#warmUp()} encodes and decodes
+		 * every request and response type. Once is enough to load and build the
+		 * serializers; some thousands let the JIT compiler compile them before
+		 * the first calls. Defaults to 1.
+		 * 
+		 * @param iterations The number of encode and decode rounds.
+		 * @return This builder.
+		 */
+		public Builder warmUpIterations(int iterations) {
+			if (iterations < 1) {
+				throw new IllegalArgumentException("At least one warm-up iteration is required.");
+			}
+			this.warmUpIterations = iterations;
+			return this;
+		}
+
+		/**
+		 * Ping connections that have been idle for the given time with a HEAD
+		 * request, so neither the client nor a proxy closes them between bursts
+		 * of calls. Set it below the shortest idle timeout on the way to the API.
+		 * Connections never used are left alone. Disabled by default.
+		 * 
+		 * @param idle The idle time after which a connection is pinged, or null.
+		 * @return This builder.
+		 */
+		public Builder keepWarm(Duration idle) {
+			if (idle != null && (idle.isNegative() || idle.isZero())) {
+				throw new IllegalArgumentException("The keep-warm interval must be positive.");
+			}
+			this.keepWarm = idle;
+			return this;
+		}
+
+		public PaycriticalPaymentGateway build() {
+			return new PaycriticalPaymentGateway(this);
+		}
+	}
 }
@@ -0,0 +1,149 @@
+package com.paycritical;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+
+/**
+ * The state of one payment as read from a {@link PaycriticalPaymentStore}.
+ *
+ * A state is filled in place by {@link PaycriticalPaymentStore#read}, so one
+ * instance can be reused for any number of lookups without allocating.
+ * Instances are not thread-safe.
+ */
+public final class PaycriticalPaymentState {
+	/** Amounts and expirations that are not known. */
+	public static final long NONE = Long.MIN_VALUE;
+
+	// The format of the expirations returned by the API
+	private static final DateTimeFormatter EXPIRATION_FORMAT = DateTimeFormatter
+			.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSS");
+
+	long mostSignificantBits;
+	long leastSignificantBits;
+	String status;
+	String transactionType;
+	boolean authorization;
+	String authorizationStatus;
+	long expiration = NONE;
+	long remainingAmount = NONE;
+	long capturedAmount = NONE;
+	int captureCount;
+
+	/**
+	 * @return The payment ID.
+	 */
+	public UUID getPaymentId() {
+		return new UUID(mostSignificantBits, leastSignificantBits);
+	}
+
+	/**
+	 * @return The status of the payment, or null if none was stored.
+	 */
+	public String getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return The transaction type of the payment, or null if none was stored.
+	 */
+	public String getTransactionType() {
+		return transactionType;
+	}
+
+	/**
+	 * @return Whether details of the authorization were stored.
+	 */
+	public boolean hasAuthorization() {
+		return authorization;
+	}
+
+	/**
+	 * @return The status of the authorization, or null.
+	 */
+	public String getAuthorizationStatus() {
+		return authorizationStatus;
+	}
+
+	/**
+	 * @return The expiration of the authorization in milliseconds since the
+	 *         epoch, a local time without an offset being read as UTC, or
+	 *         {@link #NONE}.
+	 */
+	public long getExpirationMillis() {
+		return expiration;
+	}
+
+	/**
+	 * @return The amount left to capture, in hundredths, or {@link #NONE}.
+	 */
+	public long getRemainingAmountMinor() {
+		return remainingAmount;
+	}
+
+	/**
+	 * @return The sum of the captures of the authorization, in hundredths, or
+	 *         {@link #NONE}.
+	 */
+	public long getCapturedAmountMinor() {
+		return capturedAmount;
+	}
+
+	/**
+	 * @return The number of captures of the authorization.
+	 */
+	public int getCaptureCount() {
+		return captureCount;
+	}
+
+	static long minor(Double amount) {
+		return amount == null ? NONE : Math.round(amount * 100);
+	}
+
+	static Double major(long minor) {
+		return minor == NONE ? null : minor / 100.0;
+	}
+
+	/**
+	 * Reads an ISO expiration, with or without an offset or zone. Digits past
+	 * the millisecond are dropped.
+	 */
+	static long millis(String expiration) {
+		if (expiration == null) {
+			return NONE;
+		}
+		try {
+			var parsed = DateTimeFormatter.ISO_DATE_TIME.parseBest(expiration, ZonedDateTime::from,
+					LocalDateTime::from);
+			var instant = parsed instanceof ZonedDateTime ? ((ZonedDateTime) parsed).toInstant()
+					: ((LocalDateTime) parsed).toInstant(ZoneOffset.UTC);
+			return instant.toEpochMilli();
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Invalid expiration \"" + expiration + "\".", e);
+		}
+	}
+
+	/**
+	 * Writes an expiration as the API does, the UTC local time to the
+	 * millisecond. Lossy: an expiration read with an offset or another
+	 * precision does not come back as the same string.
+	 */
+	static String expiration(long millis) {
+		return millis == NONE ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC)
+				.format(EXPIRATION_FORMAT);
+	}
+
+	void clear() {
+		status = null;
+		transactionType = null;
+		authorization = false;
+		authorizationStatus = null;
+		expiration = NONE;
+		remainingAmount = NONE;
+		capturedAmount = NONE;
+		captureCount = 0;
+	}
+}
@@ -0,0 +1,475 @@
+package com.paycritical;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+import com.paycritical.response.PaycriticalAuthorization;
+import com.paycritical.response.PaycriticalCapture;
+import com.paycritical.response.PaycriticalPaymentStatus;
+
+/**
+ * Compact in-memory index of the state of many payments, keyed by payment ID.
+ *
+ * Payments are held in parallel primitive arrays with open addressing rather
+ * than as response objects in a map: the payment ID is stored as the two longs
+ * of its UUID, statuses and transaction types as one byte codes, amounts as
+ * hundredths and the expiration as epoch milliseconds, about 50 bytes per
+ * slot. Captures are summed up to their total and their count.
+ *
+ * Looking up a payment with {@link #read} fills a reusable
+ * {@link PaycriticalPaymentState} without allocating; {@link #getPaymentStatus}
+ * and {@link #getAuthorization} rebuild response objects.
+ *
+ * Instances are thread-safe. Reads are lock-free unless they race a write.
+ */
+public final class PaycriticalPaymentStore {
+	private static final float LOAD_FACTOR = 0.75f;
+	// Distinct statuses and transaction types, the code 0 standing for none
+	private static final int MAX_CODES = 255;
+
+	private static final byte STATUS = 1;
+	private static final byte AUTHORIZATION = 2;
+
+	private final StampedLock lock = new StampedLock();
+	private final Map<String, Byte> codes = new HashMap<>();
+	// Written under the write lock, replaced when it grows
+	private String[] names = new String[] { null };
+	private Table table;
+	private int size;
+
+	private PaycriticalPaymentStore(Builder builder) {
+		this.table = new Table(capacity(builder.expectedSize));
+	}
+
+	/**
+	 * <p>
+	 * Create a Store Builder
+	 * </p>
+	 *
+	 * @return A builder for a PaycriticalPaymentStore.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Stores the status of a payment, keeping the details of its authorization.
+	 *
+	 * @param paymentId The payment ID, a UUID.
+	 * @param status    The status returned by getPaymentStatus.
+	 */
+	public void putPaymentStatus(String paymentId, PaycriticalPaymentStatus status) {
+		long msb = bits(paymentId, 0);
+		long lsb = bits(paymentId, 19);
+		long stamp = lock.writeLock();
+		try {
+			byte statusCode = code(status.getStatus());
+			byte typeCode = code(status.getTransactionType());
+			int slot = insert(msb, lsb);
+			var table = this.table;
+			table.flags[slot] |= STATUS;
+			table.status[slot] = statusCode;
+			table.transactionType[slot] = typeCode;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Stores the details of the authorization of a payment, keeping its status.
+	 *
+	 * @param paymentId     The payment ID, a UUID.
+	 * @param authorization The details returned by getAuthorizationDetails.
+	 */
+	public void putAuthorization(String paymentId, PaycriticalAuthorization authorization) {
+		long msb = bits(paymentId, 0);
+		long lsb = bits(paymentId, 19);
+		long expiration = PaycriticalPaymentState.millis(authorization.getExpiration());
+		long remaining = PaycriticalPaymentState.minor(authorization.getRemainingAmount());
+		long captured = PaycriticalPaymentState.NONE;
+		int count = 0;
+		List<PaycriticalCapture> captures = authorization.getCaptures();
+		if (captures != null) {
+			captured = 0;
+			for (var capture : captures) {
+				captured += capture.getAmount() == null ? 0 : PaycriticalPaymentState.minor(capture.getAmount());
+			}
+			count = captures.size();
+		}
+		long stamp = lock.writeLock();
+		try {
+			byte statusCode = code(authorization.getStatus());
+			int slot = insert(msb, lsb);
+			var table = this.table;
+			table.flags[slot] |= AUTHORIZATION;
+			table.authorizationStatus[slot] = statusCode;
+			table.expiration[slot] = expiration;
+			table.remainingAmount[slot] = remaining;
+			table.capturedAmount[slot] = captured;
+			table.captureCount[slot] = count;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @param paymentId The payment ID, a UUID.
+	 * @return Whether the payment was stored.
+	 */
+	public boolean remove(String paymentId) {
+		long msb = bits(paymentId, 0);
+		long lsb = bits(paymentId, 19);
+		long stamp = lock.writeLock();
+		try {
+			var table = this.table;
+			int slot = table.find(msb, lsb);
+			if (slot < 0) {
+				return false;
+			}
+			table.delete(slot);
+			size--;
+			return true;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Looks up a payment without allocating.
+	 *
+	 * @param paymentId The payment ID, a UUID.
+	 * @param state     Filled with the state of the payment if it is stored.
+	 * @return Whether the payment is stored.
+	 */
+	public boolean read(String paymentId, PaycriticalPaymentState state) {
+		long msb = bits(paymentId, 0);
+		long lsb = bits(paymentId, 19);
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			boolean found = read(msb, lsb, state);
+			if (lock.validate(stamp)) {
+				return found;
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return read(msb, lsb, state);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @param paymentId The payment ID, a UUID.
+	 * @return The stored status of the payment, or null.
+	 */
+	public PaycriticalPaymentStatus getPaymentStatus(String paymentId) {
+		var state = new PaycriticalPaymentState();
+		if (!read(paymentId, state) || state.status == null && state.transactionType == null) {
+			return null;
+		}
+		var status = new PaycriticalPaymentStatus();
+		status.setStatus(state.status);
+		status.setTransactionType(state.transactionType);
+		return status;
+	}
+
+	/**
+	 * @param paymentId The payment ID, a UUID.
+	 * @return The stored details of the authorization of the payment, or null.
+	 *         The captures are not stored, so the list of captures is null. The
+	 *         expiration is stored in milliseconds and written back in UTC with
+	 *         three decimals, so it only matches the string of the API when that
+	 *         had the same form.
+	 */
+	public PaycriticalAuthorization getAuthorization(String paymentId) {
+		var state = new PaycriticalPaymentState();
+		if (!read(paymentId, state) || !state.authorization) {
+			return null;
+		}
+		var authorization = new PaycriticalAuthorization();
+		authorization.setStatus(state.authorizationStatus);
+		authorization.setExpiration(PaycriticalPaymentState.expiration(state.expiration));
+		authorization.setRemainingAmount(PaycriticalPaymentState.major(state.remainingAmount));
+		return authorization;
+	}
+
+	/**
+	 * @return The number of payments stored.
+	 */
+	public int size() {
+		long stamp = lock.readLock();
+		try {
+			return size;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @return The bytes taken by the arrays of the store, not counting the
+	 *         statuses and transaction types it has seen.
+	 */
+	public long footprint() {
+		long stamp = lock.readLock();
+		try {
+			return table.footprint();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	// Reads the table as it is, validated or locked by the caller
+	private boolean read(long msb, long lsb, PaycriticalPaymentState state) {
+		var table = this.table;
+		var names = this.names;
+		state.clear();
+		state.mostSignificantBits = msb;
+		state.leastSignificantBits = lsb;
+		int slot = table.find(msb, lsb);
+		if (slot < 0) {
+			return false;
+		}
+		byte flags = table.flags[slot];
+		if ((flags & STATUS) != 0) {
+			state.status = name(names, table.status[slot]);
+			state.transactionType = name(names, table.transactionType[slot]);
+		}
+		if ((flags & AUTHORIZATION) != 0) {
+			state.authorization = true;
+			state.authorizationStatus = name(names, table.authorizationStatus[slot]);
+			state.expiration = table.expiration[slot];
+			state.remainingAmount = table.remainingAmount[slot];
+			state.capturedAmount = table.capturedAmount[slot];
+			state.captureCount = table.captureCount[slot];
+		}
+		return true;
+	}
+
+	private static String name(String[] names, byte code) {
+		int index = code & 0xFF;
+		// An optimistic read may see a code added after the names it read
+		return index < names.length ? names[index] : null;
+	}
+
+	private byte code(String name) {
+		if (name == null) {
+			return 0;
+		}
+		Byte code = codes.get(name);
+		if (code != null) {
+			return code;
+		}
+		if (codes.size() == MAX_CODES) {
+			throw new IllegalStateException("The store holds at most " + MAX_CODES
+					+ " distinct statuses and transaction types.");
+		}
+		var names = Arrays.copyOf(this.names, this.names.length + 1);
+		names[names.length - 1] = name;
+		this.names = names;
+		code = (byte) (names.length - 1);
+		codes.put(name, code);
+		return code;
+	}
+
+	// Returns the slot of the payment, adding it if needed; under the write lock
+	private int insert(long msb, long lsb) {
+		int slot = table.find(msb, lsb);
+		if (slot >= 0) {
+			return slot;
+		}
+		if (size + 1 > table.threshold) {
+			var larger = new Table(table.flags.length * 2);
+			table.copyTo(larger);
+			table = larger;
+		}
+		size++;
+		return table.add(msb, lsb);
+	}
+
+	private static int capacity(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(2, (int) Math.ceil(expectedSize / LOAD_FACTOR)) - 1) << 1;
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("The store cannot hold " + expectedSize + " payments.");
+		}
+		return capacity;
+	}
+
+	/**
+	 * @return 16 hexadecimal digits of a UUID, skipping its dashes, from an
+	 *         index of 0 for the most significant bits or 19 for the least.
+	 */
+	static long bits(String uuid, int from) {
+		if (uuid.length() != 36 || uuid.charAt(8) != '-' || uuid.charAt(13) != '-' || uuid.charAt(18) != '-'
+				|| uuid.charAt(23) != '-') {
+			throw new IllegalArgumentException("Invalid payment ID \"" + uuid + "\".");
+		}
+		long bits = 0;
+		for (int i = from, digits = 0; digits < 16; i++) {
+			char c = uuid.charAt(i);
+			if (c == '-') {
+				continue;
+			}
+			digits++;
+			int digit = Character.digit(c, 16);
+			if (digit < 0) {
+				throw new IllegalArgumentException("Invalid payment ID \"" + uuid + "\".");
+			}
+			bits = bits << 4 | digit;
+		}
+		return bits;
+	}
+
+	/**
+	 * The arrays of a store, a slot of each holding one payment. Collisions are
+	 * resolved by linear probing, and removals shift back the payments after
+	 * them so no tombstones are needed.
+	 */
+	private static final class Table {
+		final int mask;
+		final int threshold;
+		final long[] mostSignificantBits;
+		final long[] leastSignificantBits;
+		// 0 for a free slot
+		final byte[] flags;
+		final byte[] status;
+		final byte[] transactionType;
+		final byte[] authorizationStatus;
+		final long[] expiration;
+		final long[] remainingAmount;
+		final long[] capturedAmount;
+		final int[] captureCount;
+
+		Table(int capacity) {
+			mask = capacity - 1;
+			threshold = (int) (capacity * LOAD_FACTOR);
+			mostSignificantBits = new long[capacity];
+			leastSignificantBits = new long[capacity];
+			flags = new byte[capacity];
+			status = new byte[capacity];
+			transactionType = new byte[capacity];
+			authorizationStatus = new byte[capacity];
+			expiration = new long[capacity];
+			remainingAmount = new long[capacity];
+			capturedAmount = new long[capacity];
+			captureCount = new int[capacity];
+		}
+
+		static int hash(long msb, long lsb) {
+			long h = (msb ^ Long.rotateLeft(lsb, 32)) * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ h >>> 32);
+		}
+
+		int find(long msb, long lsb) {
+			int slot = hash(msb, lsb) & mask;
+			// Bounded so an optimistic read racing a write cannot loop forever
+			for (int probes = 0; probes <= mask; probes++, slot = slot + 1 & mask) {
+				if (flags[slot] == 0) {
+					return -1;
+				}
+				if (mostSignificantBits[slot] == msb && leastSignificantBits[slot] == lsb) {
+					return slot;
+				}
+			}
+			return -1;
+		}
+
+		int add(long msb, long lsb) {
+			int slot = hash(msb, lsb) & mask;
+			while (flags[slot] != 0) {
+				slot = slot + 1 & mask;
+			}
+			mostSignificantBits[slot] = msb;
+			leastSignificantBits[slot] = lsb;
+			expiration[slot] = PaycriticalPaymentState.NONE;
+			remainingAmount[slot] = PaycriticalPaymentState.NONE;
+			capturedAmount[slot] = PaycriticalPaymentState.NONE;
+			return slot;
+		}
+
+		void delete(int slot) {
+			int free = slot;
+			for (int next = slot + 1 & mask; flags[next] != 0; next = next + 1 & mask) {
+				int home = hash(mostSignificantBits[next], leastSignificantBits[next]) & mask;
+				// Move the payment back unless its home lies after the free slot
+				if ((next - home & mask) >= (next - free & mask)) {
+					move(next, free);
+					free = next;
+				}
+			}
+			flags[free] = 0;
+			status[free] = 0;
+			transactionType[free] = 0;
+			authorizationStatus[free] = 0;
+			captureCount[free] = 0;
+		}
+
+		private void move(int from, int to) {
+			mostSignificantBits[to] = mostSignificantBits[from];
+			leastSignificantBits[to] = leastSignificantBits[from];
+			flags[to] = flags[from];
+			status[to] = status[from];
+			transactionType[to] = transactionType[from];
+			authorizationStatus[to] = authorizationStatus[from];
+			expiration[to] = expiration[from];
+			remainingAmount[to] = remainingAmount[from];
+			capturedAmount[to] = capturedAmount[from];
+			captureCount[to] = captureCount[from];
+		}
+
+		void copyTo(Table larger) {
+			for (int slot = 0; slot <= mask; slot++) {
+				if (flags[slot] == 0) {
+					continue;
+				}
+				int to = larger.add(mostSignificantBits[slot], leastSignificantBits[slot]);
+				larger.flags[to] = flags[slot];
+				larger.status[to] = status[slot];
+				larger.transactionType[to] = transactionType[slot];
+				larger.authorizationStatus[to] = authorizationStatus[slot];
+				larger.expiration[to] = expiration[slot];
+				larger.remainingAmount[to] = remainingAmount[slot];
+				larger.capturedAmount[to] = capturedAmount[slot];
+				larger.captureCount[to] = captureCount[slot];
+			}
+		}
+
+		long footprint() {
+			long capacity = mask + 1L;
+			// Four byte codes, five longs and an int per slot
+			return capacity * (4 + 5 * Long.BYTES + Integer.BYTES);
+		}
+	}
+
+	/**
+	 * Builder for {@link PaycriticalPaymentStore}. Not thread-safe.
+	 */
+	public static final class Builder {
+		private int expectedSize = 1024;
+
+		private Builder() {
+		}
+
+		/**
+		 * Number of payments the store is sized for, growing past it as needed.
+		 * Defaults to 1024.
+		 */
+		public Builder expectedSize(int expectedSize) {
+			if (expectedSize < 0) {
+				throw new IllegalArgumentException("The expected size cannot be negative.");
+			}
+			this.expectedSize = expectedSize;
+			return this;
+		}
+
+		/**
+		 * @return A new PaycriticalPaymentStore.
+		 */
+		public PaycriticalPaymentStore build() {
+			return new PaycriticalPaymentStore(this);
+		}
+	}
+}
@@ -0,0 +1,431 @@
+package com.paycritical;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.paycritical.exception.PaycriticalRateLimitException;
+
+/**
+ * Client side token buckets, one per API key, keeping the calls of every
+ * gateway using a key within the request quota of its merchant account.
+ *
+ * Each call takes the weight of its endpoint in tokens, 1 unless configured.
+ * Interactive calls, e.g. from a point of sale, wait in line for tokens that
+ * will be refilled. Batch calls never take tokens ahead of time and leave a
+ * reserve in the bucket, so a batch job uses spare quota only and live
+ * traffic does not wait behind it.
+ *
+ * A bucket is a single atomic time stamp updated by compare and set, so
+ * acquiring never locks. Instances are thread-safe and are meant to be shared
+ * by every gateway of the application.
+ */
+public final class PaycriticalRateLimiter {
+	/**
+	 * How a call competes for the tokens of its API key.
+	 */
+	public enum Priority {
+		/**
+		 * Takes any token and may wait for the next ones, ahead of batch calls.
+		 */
+		INTERACTIVE,
+		/**
+		 * Only takes tokens beyond the reserve, retrying until they are spare.
+		 */
+		BATCH
+	}
+
+	private final Rate defaultRate;
+	private final Map<String, Rate> rates;
+	private final int[] weights;
+	private final double batchReserve;
+	private final Duration maxWait;
+	private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+	private final LongAdder rejected = new LongAdder();
+
+	private PaycriticalRateLimiter(Builder builder) {
+		this.defaultRate = builder.defaultRate;
+		this.rates = new HashMap<>(builder.rates);
+		this.weights = builder.weights.clone();
+		this.batchReserve = builder.batchReserve;
+		this.maxWait = builder.maxWait;
+	}
+
+	/**
+	 * <p>
+	 * Create a Rate Limiter Builder
+	 * </p>
+	 *
+	 * @param permitsPerSecond Tokens refilled per second for every API key.
+	 * @param burst            Tokens a bucket holds when full.
+	 * @return A builder for a PaycriticalRateLimiter.
+	 */
+	public static Builder builder(double permitsPerSecond, int burst) {
+		return new Builder(new Rate(permitsPerSecond, burst));
+	}
+
+	/**
+	 * <p>
+	 * Acquire
+	 * </p>
+	 *
+	 * Waits until the tokens for a call to the endpoint are taken.
+	 *
+	 * @param apiKey   The API key the call is made with.
+	 * @param endpoint The endpoint called.
+	 * @param priority The priority of the call.
+	 * @throws InterruptedException
+	 * @throws PaycriticalRateLimitException The tokens would not be available
+	 *                                       within the maximum wait.
+	 */
+	public void acquire(String apiKey, PaycriticalEndpoint endpoint, Priority priority)
+			throws InterruptedException, PaycriticalRateLimitException {
+		// Nothing is chained to the tokens, so the timer thread may complete them
+		var tokens = acquireAsync(apiKey, endpoint, priority, Runnable::run);
+		try {
+			tokens.get();
+		} catch (InterruptedException e) {
+			tokens.cancel(true);
+			throw e;
+		} catch (ExecutionException e) {
+			throw (PaycriticalRateLimitException) e.getCause();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Try Acquire
+	 * </p>
+	 *
+	 * Takes the tokens for a call to the endpoint if they are available now.
+	 *
+	 * @param apiKey   The API key the call is made with.
+	 * @param endpoint The endpoint called.
+	 * @param priority The priority of the call.
+	 * @return true if the tokens were taken.
+	 */
+	public boolean tryAcquire(String apiKey, PaycriticalEndpoint endpoint, Priority priority) {
+		var bucket = bucket(apiKey);
+		int weight = weights[endpoint.ordinal()];
+		return (priority == Priority.INTERACTIVE ? bucket.reserve(weight, 0) : bucket.tryTake(weight)) == 0;
+	}
+
+	/**
+	 * <p>
+	 * Acquire Asynchronously
+	 * </p>
+	 *
+	 * Non-blocking version of
+	 * {@link #acquire(String, PaycriticalEndpoint, Priority)}. The future fails
+	 * with a PaycriticalRateLimitException if the tokens would not be available
+	 * within the maximum wait. Cancelling it before it completes gives the
+	 * tokens back. A future that has to wait completes on the common pool.
+	 *
+	 * @param apiKey   The API key the call is made with.
+	 * @param endpoint The endpoint called.
+	 * @param priority The priority of the call.
+	 * @return A future completed once the tokens are taken.
+	 */
+	public CompletableFuture<Void> acquireAsync(String apiKey, PaycriticalEndpoint endpoint, Priority priority) {
+		return acquireAsync(apiKey, endpoint, priority, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * <p>
+	 * Acquire Asynchronously
+	 * </p>
+	 *
+	 * Like {@link #acquireAsync(String, PaycriticalEndpoint, Priority)}, with a
+	 * future that completes on the executor when it has to wait.
+	 *
+	 * @param apiKey   The API key the call is made with.
+	 * @param endpoint The endpoint called.
+	 * @param priority The priority of the call.
+	 * @param executor Completes the future once the tokens are refilled, e.g.
+	 *                 the executor of the gateway making the call.
+	 * @return A future completed once the tokens are taken.
+	 */
+	public CompletableFuture<Void> acquireAsync(String apiKey, PaycriticalEndpoint endpoint, Priority priority,
+			Executor executor) {
+		var bucket = bucket(apiKey);
+		int weight = weights[endpoint.ordinal()];
+		long maxWaitNanos = maxWait != null ? maxWait.toNanos() : Long.MAX_VALUE;
+
+		if (priority == Priority.INTERACTIVE) {
+			long wait = bucket.reserve(weight, maxWaitNanos);
+			if (wait == 0) {
+				return CompletableFuture.completedFuture(null);
+			}
+			if (wait < 0) {
+				return reject();
+			}
+			var tokens = new CompletableFuture<Void>();
+			// The timer thread only hands the call off to the executor
+			var timer = PaycriticalTimer.schedule(() -> executor.execute(() -> tokens.complete(null)), wait);
+			tokens.whenComplete((result, error) -> {
+				if (error instanceof CancellationException) {
+					timer.cancel(false);
+					bucket.giveBack(weight);
+				}
+			});
+			return tokens;
+		}
+
+		long wait = bucket.tryTake(weight);
+		if (wait == 0) {
+			return CompletableFuture.completedFuture(null);
+		}
+		if (wait > maxWaitNanos) {
+			return reject();
+		}
+		var call = new BatchCall(bucket, weight, System.nanoTime() + maxWaitNanos, executor);
+		call.tokens.whenComplete((result, error) -> {
+			if (call.tokens.isCancelled()) {
+				call.timer.cancel(false);
+			}
+		});
+		retryBatch(call, wait);
+		return call.tokens;
+	}
+
+	/**
+	 * @param apiKey An API key.
+	 * @return The tokens in the bucket of the key now, negative when interactive
+	 *         calls are waiting for tokens.
+	 */
+	public double availableTokens(String apiKey) {
+		return bucket(apiKey).available();
+	}
+
+	/**
+	 * @return The number of acquisitions failed because the tokens would not
+	 *         be available within the maximum wait.
+	 */
+	public long rejectedCount() {
+		return rejected.sum();
+	}
+
+	private Bucket bucket(String apiKey) {
+		var bucket = buckets.get(apiKey);
+		return bucket != null ? bucket
+				: buckets.computeIfAbsent(apiKey, key -> new Bucket(rates.getOrDefault(key, defaultRate), batchReserve));
+	}
+
+	private CompletableFuture<Void> reject() {
+		rejected.increment();
+		return CompletableFuture.failedFuture(rejection());
+	}
+
+	private PaycriticalRateLimitException rejection() {
+		return new PaycriticalRateLimitException(
+				"The request quota of the API key would not allow the call within " + maxWait + ".");
+	}
+
+	/**
+	 * Tries again to take spare tokens for a batch call once they should be
+	 * there. Interactive calls may take them first, in which case it waits again.
+	 */
+	private void retryBatch(BatchCall call, long wait) {
+		call.timer = PaycriticalTimer.schedule(() -> call.executor.execute(() -> {
+			if (call.tokens.isDone()) {
+				return;
+			}
+			long next = call.bucket.tryTake(call.weight);
+			if (next == 0) {
+				if (!call.tokens.complete(null)) {
+					call.bucket.giveBack(call.weight);
+				}
+			} else if (maxWait != null && System.nanoTime() + next - call.deadline > 0) {
+				rejected.increment();
+				call.tokens.completeExceptionally(rejection());
+			} else {
+				retryBatch(call, next);
+			}
+		}), wait);
+		// Cancelled before the timer was set
+		if (call.tokens.isDone()) {
+			call.timer.cancel(false);
+		}
+	}
+
+	/**
+	 * A batch call waiting for spare tokens.
+	 */
+	private static final class BatchCall {
+		private final CompletableFuture<Void> tokens = new CompletableFuture<>();
+		private final Bucket bucket;
+		private final int weight;
+		private final long deadline;
+		private final Executor executor;
+		// Tries again once the tokens should be spare, cancelled with the tokens
+		private volatile ScheduledFuture<?> timer;
+
+		private BatchCall(Bucket bucket, int weight, long deadline, Executor executor) {
+			this.bucket = bucket;
+			this.weight = weight;
+			this.deadline = deadline;
+			this.executor = executor;
+		}
+	}
+
+	/**
+	 * Token bucket of one API key. Instead of a token count it keeps the time
+	 * at which the tokens handed out so far are paid back; the bucket is full
+	 * once that is a burst's worth of time in the past.
+	 */
+	private static final class Bucket {
+		private final long tokenNanos;
+		private final long burstNanos;
+		private final long reserveNanos;
+		private final AtomicLong paidUntil;
+
+		private Bucket(Rate rate, double batchReserve) {
+			this.tokenNanos = (long) (1e9 / rate.permitsPerSecond);
+			this.burstNanos = tokenNanos * rate.burst;
+			this.reserveNanos = (long) (burstNanos * batchReserve);
+			this.paidUntil = new AtomicLong(System.nanoTime() - burstNanos);
+		}
+
+		/**
+		 * Takes the tokens now or ahead of time, waiting in line.
+		 *
+		 * @return 0 if taken now, the nanoseconds until they are refilled if taken
+		 *         ahead of time, or -1 if that would be longer than the maximum wait.
+		 */
+		private long reserve(int weight, long maxWaitNanos) {
+			for (;;) {
+				long now = System.nanoTime();
+				long current = paidUntil.get();
+				long next = Math.max(current, now - burstNanos) + weight * tokenNanos;
+				long wait = Math.max(0, next - now);
+				if (wait > maxWaitNanos) {
+					return -1;
+				}
+				if (paidUntil.compareAndSet(current, next)) {
+					return wait;
+				}
+			}
+		}
+
+		/**
+		 * Takes the tokens if they are there now, leaving the batch reserve.
+		 *
+		 * @return 0 if taken, otherwise the nanoseconds until they should be.
+		 */
+		private long tryTake(int weight) {
+			// A call heavier than the bucket beyond its reserve waits for a full bucket
+			long needed = Math.min(weight * tokenNanos + reserveNanos, burstNanos);
+			for (;;) {
+				long now = System.nanoTime();
+				long current = paidUntil.get();
+				long start = Math.max(current, now - burstNanos);
+				long ready = start + needed - now;
+				if (ready > 0) {
+					return ready;
+				}
+				if (paidUntil.compareAndSet(current, start + weight * tokenNanos)) {
+					return 0;
+				}
+			}
+		}
+
+		private void giveBack(int weight) {
+			paidUntil.addAndGet(-weight * tokenNanos);
+		}
+
+		private double available() {
+			long now = System.nanoTime();
+			return (double) (now - Math.max(paidUntil.get(), now - burstNanos)) / tokenNanos;
+		}
+	}
+
+	private static final class Rate {
+		private final double permitsPerSecond;
+		private final int burst;
+
+		private Rate(double permitsPerSecond, int burst) {
+			if (permitsPerSecond <= 0 || burst < 1) {
+				throw new IllegalArgumentException("The rate must be positive and the burst at least 1.");
+			}
+			this.permitsPerSecond = permitsPerSecond;
+			this.burst = burst;
+		}
+	}
+
+	/**
+	 * Builder for {@link PaycriticalRateLimiter}. Not thread-safe.
+	 */
+	public static final class Builder {
+		private final Rate defaultRate;
+		private final Map<String, Rate> rates = new HashMap<>();
+		private final int[] weights = new int[PaycriticalEndpoint.values().length];
+		private double batchReserve = 0.2;
+		private Duration maxWait;
+
+		private Builder(Rate defaultRate) {
+			this.defaultRate = defaultRate;
+			Arrays.fill(weights, 1);
+		}
+
+		/**
+		 * Quota of one API key, instead of the default one.
+		 *
+		 * @param apiKey           The API key, as passed to the gateway.
+		 * @param permitsPerSecond Tokens refilled per second.
+		 * @param burst            Tokens the bucket holds when full.
+		 */
+		public Builder rate(String apiKey, double permitsPerSecond, int burst) {
+			rates.put(Objects.requireNonNull(apiKey), new Rate(permitsPerSecond, burst));
+			return this;
+		}
+
+		/**
+		 * Tokens taken by a call to the endpoint. Defaults to 1 for every
+		 * endpoint.
+		 */
+		public Builder weight(PaycriticalEndpoint endpoint, int weight) {
+			if (weight < 1) {
+				throw new IllegalArgumentException("The weight must be at least 1.");
+			}
+			weights[endpoint.ordinal()] = weight;
+			return this;
+		}
+
+		/**
+		 * Fraction of a full bucket that batch calls leave for interactive ones.
+		 * Defaults to 0.2.
+		 */
+		public Builder batchReserve(double batchReserve) {
+			if (batchReserve < 0 || batchReserve >= 1) {
+				throw new IllegalArgumentException("The batch reserve must be at least 0 and less than 1.");
+			}
+			this.batchReserve = batchReserve;
+			return this;
+		}
+
+		/**
+		 * Longest a call may wait for tokens before failing with a
+		 * PaycriticalRateLimitException. By default calls wait as long as it
+		 * takes.
+		 */
+		public Builder maxWait(Duration maxWait) {
+			this.maxWait = maxWait;
+			return this;
+		}
+
+		public PaycriticalRateLimiter build() {
+			return new PaycriticalRateLimiter(this);
+		}
+	}
+}
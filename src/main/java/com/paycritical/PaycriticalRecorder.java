@@ -0,0 +1,249 @@
+package com.paycritical;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records the HTTP exchanges of the gateways using it to a file, for
+ * {@link #read(Path)} to load them back, e.g. to replay production traffic
+ * against a stub of the API.
+ *
+ * Each exchange is stored with its endpoint, request body, status code,
+ * response body and timings. Numbers are written as variable length
+ * integers, start times as the delta from the previous exchange, and the
+ * whole file is compressed with gzip. A gateway that records buffers its
+ * response bodies rather than streaming them into the decoder. Headers, and
+ * so the API key, are not recorded; bodies are, phone numbers included.
+ *
+ * A recording is complete once the recorder is closed. Until then the
+ * exchanges are written out every 64 exchanges, and with the first exchange
+ * recorded a second or more after the last write, so one that was not closed
+ * is read up to the last exchange written out. Instances are thread-safe and
+ * may be shared by several gateways.
+ */
+public final class PaycriticalRecorder implements AutoCloseable {
+	private static final int MAGIC = 0x50435243;
+	private static final int VERSION = 1;
+	private static final PaycriticalEndpoint[] ENDPOINTS = PaycriticalEndpoint.values();
+	private static final int FLUSH_EXCHANGES = 64;
+	private static final long FLUSH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final DataOutputStream out;
+	private final long origin = System.nanoTime();
+	private long previousStart;
+	private long exchanges;
+	private long lastFlush = origin;
+	private IOException failure;
+	private boolean closed;
+
+	private PaycriticalRecorder(OutputStream out) throws IOException {
+		// Flushing completes the compressed blocks, so they can be read back
+		this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(out, 64 * 1024, true)));
+		this.out.writeInt(MAGIC);
+		this.out.writeByte(VERSION);
+		// Endpoints are referred to by their index in this table, so a recording
+		// stays readable if endpoints are added
+		writeVarLong(ENDPOINTS.length);
+		for (var endpoint : ENDPOINTS) {
+			this.out.writeUTF(endpoint.name());
+		}
+	}
+
+	/**
+	 * <p>
+	 * Create a Recorder
+	 * </p>
+	 *
+	 * @param file The file to record to, replaced if it exists.
+	 * @return A recorder to pass to {@link PaycriticalPaymentGateway.Builder#recorder}.
+	 * @throws IOException The file could not be created.
+	 */
+	public static PaycriticalRecorder create(Path file) throws IOException {
+		return new PaycriticalRecorder(Files.newOutputStream(file));
+	}
+
+	/**
+	 * Reads every exchange of a recording, in the order they started.
+	 *
+	 * @param file A file written by a PaycriticalRecorder.
+	 * @return The exchanges.
+	 * @throws IOException The file could not be read or is not a recording.
+	 */
+	public static List<RecordedExchange> read(Path file) throws IOException {
+		try (var in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file), 64 * 1024)))) {
+			if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+				throw new IOException(file + " is not a recording.");
+			}
+			int endpointCount = (int) readVarLong(in);
+			var endpoints = new PaycriticalEndpoint[endpointCount];
+			for (int i = 0; i < endpointCount; i++) {
+				var name = in.readUTF();
+				try {
+					endpoints[i] = PaycriticalEndpoint.valueOf(name);
+				} catch (IllegalArgumentException e) {
+					// An endpoint this version does not know, whose exchanges are skipped
+				}
+			}
+
+			var exchanges = new ArrayList<RecordedExchange>();
+			long start = 0;
+			while (true) {
+				try {
+					if (in.readByte() == 0) {
+						break;
+					}
+					var endpoint = endpoints[(int) readVarLong(in)];
+					long delta = readVarLong(in);
+					start += delta >>> 1 ^ -(delta & 1);
+					long timeToFirstByte = readVarLong(in) - 1;
+					long duration = readVarLong(in);
+					var method = in.readUTF();
+					var path = in.readUTF();
+					var requestBody = readBytes(in);
+					int statusCode = (int) readVarLong(in);
+					var responseBody = readBytes(in);
+					var error = in.readBoolean() ? in.readUTF() : null;
+					if (endpoint != null) {
+						exchanges.add(new RecordedExchange(endpoint, method, path, requestBody, statusCode,
+								responseBody, start, timeToFirstByte, duration, error));
+					}
+				} catch (EOFException e) {
+					// Not closed: the exchanges written out so far
+					break;
+				}
+			}
+			// Recorded as they ended
+			exchanges.sort(Comparator.comparingLong(RecordedExchange::getStartNanos));
+			return exchanges;
+		}
+	}
+
+	/**
+	 * @return The number of exchanges recorded so far.
+	 */
+	public synchronized long exchanges() {
+		return exchanges;
+	}
+
+	/**
+	 * <p>
+	 * Close the Recorder
+	 * </p>
+	 *
+	 * Completes the file. Exchanges ending afterwards are not recorded.
+	 *
+	 * @throws IOException Writing the file failed, now or while recording.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (failure == null) {
+				out.writeByte(0);
+			}
+		} finally {
+			out.close();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Records an exchange. A failure to write stops the recording, without
+	 * failing the call, and is reported by {@link #close()}.
+	 *
+	 * @param start When the exchange started, from System.nanoTime().
+	 */
+	synchronized void record(PaycriticalEndpoint endpoint, String method, String path, byte[] requestBody,
+			int statusCode, byte[] responseBody, long start, long timeToFirstByteNanos, long durationNanos,
+			Throwable error) {
+		if (closed || failure != null) {
+			return;
+		}
+		long offset = start - origin;
+		// Exchanges are recorded as they end, so the delta may be negative
+		long delta = offset - previousStart;
+		try {
+			out.writeByte(1);
+			writeVarLong(endpoint.ordinal());
+			writeVarLong(delta << 1 ^ delta >> 63);
+			writeVarLong(Math.max(-1, timeToFirstByteNanos) + 1);
+			writeVarLong(Math.max(0, durationNanos));
+			out.writeUTF(method);
+			out.writeUTF(path);
+			writeBytes(requestBody);
+			writeVarLong(statusCode);
+			writeBytes(responseBody);
+			out.writeBoolean(error != null);
+			if (error != null) {
+				out.writeUTF(error.getClass().getName());
+			}
+			previousStart = offset;
+			exchanges++;
+			long now = System.nanoTime();
+			if (exchanges % FLUSH_EXCHANGES == 0 || now - lastFlush >= FLUSH_NANOS) {
+				out.flush();
+				lastFlush = now;
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	private void writeBytes(byte[] bytes) throws IOException {
+		if (bytes == null) {
+			writeVarLong(0);
+			return;
+		}
+		writeVarLong(bytes.length);
+		out.write(bytes);
+	}
+
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		var bytes = new byte[(int) readVarLong(in)];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private static long readVarLong(InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Invalid number in the recording.");
+	}
+}
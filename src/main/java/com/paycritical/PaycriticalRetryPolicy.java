@@ -0,0 +1,315 @@
+package com.paycritical;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.paycritical.exception.PaycriticalApiInternalServerErrorException;
+import com.paycritical.exception.PaycriticalApiUnavailableException;
+
+/**
+ * Retries for calls that failed with a transient error.
+ *
+ * The status lookups change nothing, so they are retried after an I/O error,
+ * a 500 or a {@link PaycriticalApiUnavailableException}. The other calls could
+ * charge or refund twice if the first attempt reached the API, so by default
+ * they are only retried when the connection could not be opened and the
+ * request was certainly not sent. Every attempt of such a call carries the
+ * same Idempotency-Key header; when the API deduplicates on it, enable
+ * {@link Builder#idempotentWrites(boolean)} to retry them like lookups.
+ *
+ * Calls made through {@link PaycriticalOutcomes} are retried the same way
+ * after a {@link ApiOutcome.Failure} with one of those status codes.
+ *
+ * Attempts are spaced with decorrelated jitter: each delay is drawn between
+ * the base delay and three times the previous one, up to a cap, and is
+ * stretched to the wait asked for by the Retry-After header of the response,
+ * if any. A retry whose wait would outlast the call's timeout is not sent. A
+ * budget caps the retries at a fraction of the calls, so an outage does not
+ * multiply the load on the API. Instances are thread-safe and may be shared
+ * by several gateways.
+ */
+public final class PaycriticalRetryPolicy {
+	// Budget amounts are kept in thousandths of a retry
+	private static final long RETRY_COST = 1000;
+
+	private final int maxAttempts;
+	private final long baseDelayNanos;
+	private final long maxDelayNanos;
+	private final long budgetEarned;
+	private final long maxBudget;
+	private final boolean idempotentWrites;
+	private final AtomicLong budget = new AtomicLong();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder budgetExhausted = new LongAdder();
+
+	private PaycriticalRetryPolicy(Builder builder) {
+		this.maxAttempts = builder.maxAttempts;
+		this.baseDelayNanos = builder.baseDelay.toNanos();
+		this.maxDelayNanos = builder.maxDelay.toNanos();
+		this.budgetEarned = Math.round(builder.maxRetryRatio * RETRY_COST);
+		this.maxBudget = builder.maxBurst * RETRY_COST;
+		this.idempotentWrites = builder.idempotentWrites;
+		this.budget.set(maxBudget);
+	}
+
+	/**
+	 * <p>
+	 * Create a Retry Policy Builder
+	 * </p>
+	 *
+	 * @return A builder for a PaycriticalRetryPolicy.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return The number of attempts sent after a failed one.
+	 */
+	public long retryCount() {
+		return retries.sum();
+	}
+
+	/**
+	 * @return The number of retries not sent because the budget was spent.
+	 */
+	public long budgetExhaustedCount() {
+		return budgetExhausted.sum();
+	}
+
+	/**
+	 * Whether a call to the endpoint that failed with the error may be sent
+	 * again.
+	 */
+	boolean isRetryable(PaycriticalEndpoint endpoint, Throwable error) {
+		for (var cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof ConnectException || cause instanceof HttpConnectTimeoutException) {
+				return true;
+			}
+		}
+		if (!endpoint.isRead() && !idempotentWrites) {
+			return false;
+		}
+		return error instanceof IOException || error instanceof PaycriticalApiInternalServerErrorException
+				|| error instanceof PaycriticalApiUnavailableException;
+	}
+
+	/**
+	 * Whether a call to the endpoint that returned the error response may be
+	 * sent again.
+	 */
+	boolean isRetryable(PaycriticalEndpoint endpoint, ApiOutcome.Failure<?> failure) {
+		return (endpoint.isRead() || idempotentWrites) && failure.isTransient();
+	}
+
+	/**
+	 * Runs a call, sending it again after a retryable failure while attempts,
+	 * budget and time are left. Cancelling the returned future cancels the
+	 * current attempt and stops the retries.
+	 *
+	 * @param attempt  Sends one request; called once per attempt.
+	 * @param deadline The deadline of the call, or null. No retry is sent that
+	 *                 could not start before it.
+	 * @param executor The executor of the gateway, which sends the retries.
+	 */
+	<T> CompletableFuture<T> execute(PaycriticalEndpoint endpoint, Supplier<CompletableFuture<T>> attempt,
+			PaycriticalDeadline deadline, Executor executor) {
+		earnBudget();
+		var result = new CompletableFuture<T>();
+		var current = new AtomicReference<CompletableFuture<T>>();
+		attempt(endpoint, attempt, deadline, executor, result, current, 1, baseDelayNanos);
+		result.whenComplete((value, error) -> {
+			var pending = current.get();
+			if (result.isCancelled() && pending != null) {
+				pending.cancel(true);
+			}
+		});
+		return result;
+	}
+
+	private <T> void attempt(PaycriticalEndpoint endpoint, Supplier<CompletableFuture<T>> attempt,
+			PaycriticalDeadline deadline, Executor executor, CompletableFuture<T> result,
+			AtomicReference<CompletableFuture<T>> current, int number, long previousDelay) {
+		CompletableFuture<T> future;
+		try {
+			future = attempt.get();
+		} catch (RuntimeException e) {
+			future = CompletableFuture.failedFuture(e);
+		}
+		current.set(future);
+		future.whenComplete((value, error) -> {
+			Throwable cause = null;
+			if (error == null) {
+				if (!(value instanceof ApiOutcome.Failure)
+						|| !isRetryable(endpoint, (ApiOutcome.Failure<?>) value)) {
+					result.complete(value);
+					return;
+				}
+			} else {
+				cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+				if (!isRetryable(endpoint, cause)) {
+					result.completeExceptionally(cause);
+					return;
+				}
+			}
+			if (result.isDone() || number >= maxAttempts) {
+				complete(result, value, cause);
+				return;
+			}
+			long delay = nextDelay(previousDelay);
+			// Never sooner than the API asked for
+			long wait = Math.max(delay, retryAfterNanos(value, cause));
+			if (deadline != null && deadline.remainingNanos() <= wait) {
+				complete(result, value, cause);
+				return;
+			}
+			if (!spendBudget()) {
+				budgetExhausted.increment();
+				complete(result, value, cause);
+				return;
+			}
+			retries.increment();
+			// The timer thread only hands the retry off to the gateway executor
+			var timer = PaycriticalTimer.schedule(() -> executor.execute(() -> {
+				if (!result.isDone()) {
+					attempt(endpoint, attempt, deadline, executor, result, current, number + 1, delay);
+				}
+			}), wait);
+			result.whenComplete((unused, failure) -> timer.cancel(false));
+		});
+	}
+
+	/**
+	 * @return The wait asked for by the Retry-After header of the failed
+	 *         attempt, in nanoseconds, or 0.
+	 */
+	private static long retryAfterNanos(Object value, Throwable error) {
+		Duration retryAfter = null;
+		if (value instanceof ApiOutcome.Failure) {
+			retryAfter = ((ApiOutcome.Failure<?>) value).getRetryAfter();
+		} else if (error instanceof PaycriticalApiUnavailableException) {
+			retryAfter = ((PaycriticalApiUnavailableException) error).getRetryAfter();
+		}
+		return retryAfter != null ? retryAfter.toNanos() : 0;
+	}
+
+	/**
+	 * Ends a call with the outcome of its last attempt: an error response
+	 * returned as a value, or an exception.
+	 */
+	private static <T> void complete(CompletableFuture<T> result, T value, Throwable error) {
+		if (error == null) {
+			result.complete(value);
+		} else {
+			result.completeExceptionally(error);
+		}
+	}
+
+	/**
+	 * Decorrelated jitter: a random delay between the base delay and three times
+	 * the previous delay, capped.
+	 */
+	long nextDelay(long previousDelay) {
+		long bound = Math.max(baseDelayNanos + 1, Math.min(maxDelayNanos, previousDelay * 3));
+		return Math.min(maxDelayNanos, ThreadLocalRandom.current().nextLong(baseDelayNanos, bound));
+	}
+
+	private void earnBudget() {
+		for (;;) {
+			long current = budget.get();
+			if (current >= maxBudget || budget.compareAndSet(current, Math.min(maxBudget, current + budgetEarned))) {
+				return;
+			}
+		}
+	}
+
+	private boolean spendBudget() {
+		for (;;) {
+			long current = budget.get();
+			if (current < RETRY_COST) {
+				return false;
+			}
+			if (budget.compareAndSet(current, current - RETRY_COST)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Builder for {@link PaycriticalRetryPolicy}. Not thread-safe.
+	 */
+	public static final class Builder {
+		private int maxAttempts = 3;
+		private Duration baseDelay = Duration.ofMillis(50);
+		private Duration maxDelay = Duration.ofSeconds(2);
+		private double maxRetryRatio = 0.1;
+		private long maxBurst = 10;
+		private boolean idempotentWrites;
+
+		private Builder() {
+		}
+
+		/**
+		 * Attempts per call, the first one included. Defaults to 3.
+		 */
+		public Builder maxAttempts(int maxAttempts) {
+			if (maxAttempts < 1) {
+				throw new IllegalArgumentException("At least one attempt is required.");
+			}
+			this.maxAttempts = maxAttempts;
+			return this;
+		}
+
+		/**
+		 * Bounds of the delay before a retry. Defaults to 50 milliseconds and 2
+		 * seconds.
+		 */
+		public Builder backoff(Duration base, Duration max) {
+			if (base.isNegative() || base.isZero() || max.compareTo(base) < 0) {
+				throw new IllegalArgumentException("The base delay must be positive and at most the maximum.");
+			}
+			this.baseDelay = base;
+			this.maxDelay = max;
+			return this;
+		}
+
+		/**
+		 * Maximum retries as a fraction of the calls, e.g. 0.1 allows 10% more
+		 * requests, and the retries that can be sent in a row once the budget has
+		 * been saved up. Defaults to 0.1 and 10.
+		 */
+		public Builder retryBudget(double maxRetryRatio, long maxBurst) {
+			if (maxRetryRatio < 0 || maxBurst < 1) {
+				throw new IllegalArgumentException("The ratio can not be negative and the burst must be at least 1.");
+			}
+			this.maxRetryRatio = maxRetryRatio;
+			this.maxBurst = maxBurst;
+			return this;
+		}
+
+		/**
+		 * Retry payments, captures, refunds and the other calls that change
+		 * state after any transient error, not only when the request was not
+		 * sent. Only enable this if the API deduplicates requests on their
+		 * Idempotency-Key header. Disabled by default.
+		 */
+		public Builder idempotentWrites(boolean idempotentWrites) {
+			this.idempotentWrites = idempotentWrites;
+			return this;
+		}
+
+		public PaycriticalRetryPolicy build() {
+			return new PaycriticalRetryPolicy(this);
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package com.paycritical;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.paycritical.response.PaycriticalAuthorization;
+import com.paycritical.response.PaycriticalPaymentStatus;
+
+/**
+ * Bounded cache for getPaymentStatus and getAuthorizationDetails.
+ *
+ * Responses with a pending status are kept for a short TTL. Responses with a
+ * terminal status never expire and only leave the cache when it is full. A
+ * gateway using the cache drops the entries of a payment whenever it
+ * captures, refunds or cancels that payment.
+ *
+ * Cached responses are shared between callers and must be treated as
+ * read-only. Instances are thread-safe and may be shared by several gateways.
+ */
+public final class PaycriticalStatusCache {
+	private static final int VERSION_STRIPES = 1024;
+
+	private final Cache<Key, Entry> entries;
+	private final long ttlNanos;
+	private final Predicate<String> terminal;
+	// Bumped by every invalidation of the payments of a stripe, so responses
+	// read before it are not stored. Payments colliding in a stripe only
+	// rarely drop each other's responses, without a version kept per payment.
+	private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+
+	private PaycriticalStatusCache(Builder builder) {
+		this.entries = CacheBuilder.newBuilder().maximumSize(builder.maxEntries).recordStats().build();
+		this.ttlNanos = builder.ttl.toNanos();
+		this.terminal = builder.terminal;
+	}
+
+	/**
+	 * <p>
+	 * Create a Cache Builder
+	 * </p>
+	 *
+	 * @return A builder for a PaycriticalStatusCache.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Drops every cached response of a payment.
+	 *
+	 * @param paymentId The payment ID to invalidate.
+	 */
+	public void invalidate(String paymentId) {
+		versions.incrementAndGet(stripe(paymentId));
+		entries.invalidate(new Key(paymentId, false));
+		entries.invalidate(new Key(paymentId, true));
+	}
+
+	public void invalidateAll() {
+		for (int i = 0; i < VERSION_STRIPES; i++) {
+			versions.incrementAndGet(i);
+		}
+		entries.invalidateAll();
+	}
+
+	public long hitCount() {
+		return hits.sum();
+	}
+
+	public long missCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return Entries evicted because the cache was full or their TTL elapsed.
+	 */
+	public long evictionCount() {
+		return entries.stats().evictionCount() + expirations.sum();
+	}
+
+	public long size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return The version to pass when storing a response of the payment read
+	 *         from now on.
+	 */
+	long version(String paymentId) {
+		return versions.get(stripe(paymentId));
+	}
+
+	private static int stripe(String paymentId) {
+		int hash = paymentId.hashCode();
+		return (hash ^ (hash >>> 16)) & (VERSION_STRIPES - 1);
+	}
+
+	PaycriticalPaymentStatus getPaymentStatus(String paymentId) {
+		return (PaycriticalPaymentStatus) get(new Key(paymentId, false));
+	}
+
+	PaycriticalAuthorization getAuthorization(String paymentId) {
+		return (PaycriticalAuthorization) get(new Key(paymentId, true));
+	}
+
+	/**
+	 * Stores a response unless the payment was invalidated since
+	 * {@link #version(String)} returned the given value.
+	 */
+	void putPaymentStatus(String paymentId, PaycriticalPaymentStatus status, long readVersion) {
+		put(new Key(paymentId, false), status, status.getStatus(), readVersion);
+	}
+
+	void putAuthorization(String paymentId, PaycriticalAuthorization authorization, long readVersion) {
+		put(new Key(paymentId, true), authorization, authorization.getStatus(), readVersion);
+	}
+
+	private Object get(Key key) {
+		var entry = entries.getIfPresent(key);
+		if (entry != null && entry.expiresAt != 0 && System.nanoTime() - entry.expiresAt > 0) {
+			if (entries.asMap().remove(key, entry)) {
+				expirations.increment();
+			}
+			entry = null;
+		}
+
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return entry.value;
+	}
+
+	private void put(Key key, Object value, String status, long readVersion) {
+		int stripe = stripe(key.paymentId);
+		// Zero marks an entry that never expires
+		long expiresAt = status != null && terminal.test(status) ? 0 : (System.nanoTime() + ttlNanos) | 1;
+		// Checked under the lock of the key: an invalidation either bumps the
+		// version before, or removes the entry after it is stored
+		entries.asMap().compute(key,
+				(unused, current) -> versions.get(stripe) == readVersion ? new Entry(value, expiresAt) : current);
+	}
+
+	private static final class Key {
+		private final String paymentId;
+		private final boolean authorization;
+
+		private Key(String paymentId, boolean authorization) {
+			this.paymentId = paymentId;
+			this.authorization = authorization;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			var key = (Key) other;
+			return authorization == key.authorization && paymentId.equals(key.paymentId);
+		}
+
+		@Override
+		public int hashCode() {
+			return paymentId.hashCode() * 31 + (authorization ? 1 : 0);
+		}
+	}
+
+	private static final class Entry {
+		private final Object value;
+		private final long expiresAt;
+
+		private Entry(Object value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * Builder for {@link PaycriticalStatusCache}. Not thread-safe.
+	 */
+	public static final class Builder {
+		// Statuses after which a payment no longer changes on its own
+		private static final Set<String> TERMINAL_STATUSES = Set.of("Completed", "Cancelled", "Canceled",
+				"RejectedByUser", "Expired", "Refunded");
+
+		private long maxEntries = 10_000;
+		private Duration ttl = Duration.ofSeconds(2);
+		private Predicate<String> terminal = TERMINAL_STATUSES::contains;
+
+		private Builder() {
+		}
+
+		/**
+		 * Maximum number of cached responses. Defaults to 10000.
+		 */
+		public Builder maxEntries(long maxEntries) {
+			if (maxEntries < 1) {
+				throw new IllegalArgumentException("The cache must hold at least one entry.");
+			}
+			this.maxEntries = maxEntries;
+			return this;
+		}
+
+		/**
+		 * How long a response with a pending status is served from the cache.
+		 * Defaults to 2 seconds.
+		 */
+		public Builder ttl(Duration ttl) {
+			this.ttl = Objects.requireNonNull(ttl);
+			return this;
+		}
+
+		/**
+		 * Statuses kept until evicted by size. Defaults to Completed, Cancelled,
+		 * RejectedByUser, Expired and Refunded.
+		 */
+		public Builder terminalStatuses(Predicate<String> terminal) {
+			this.terminal = Objects.requireNonNull(terminal);
+			return this;
+		}
+
+		public PaycriticalStatusCache build() {
+			return new PaycriticalStatusCache(this);
+		}
+	}
+}
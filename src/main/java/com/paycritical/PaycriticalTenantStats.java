@@ -0,0 +1,76 @@
+package com.paycritical;
+
+import com.paycritical.metrics.HistogramSnapshot;
+
+/**
+ * Snapshot of the calls of one tenant of a pool, as returned by
+ * {@link PaycriticalGatewayPool#tenantStats()}.
+ *
+ * Only calls sent to the API are counted; responses served from a cache or
+ * shared with a concurrent identical call are not.
+ */
+public final class PaycriticalTenantStats {
+	private final String tenantId;
+	private final int weight;
+	private final int inFlight;
+	private final int queued;
+	private final long calls;
+	private final HistogramSnapshot latency;
+
+	public PaycriticalTenantStats(String tenantId, int weight, int inFlight, int queued, long calls,
+			HistogramSnapshot latency) {
+		this.tenantId = tenantId;
+		this.weight = weight;
+		this.inFlight = inFlight;
+		this.queued = queued;
+		this.calls = calls;
+		this.latency = latency;
+	}
+
+	public String getTenantId() {
+		return tenantId;
+	}
+
+	/**
+	 * @return The share of the pool the tenant gets, relative to the weights of
+	 *         the other tenants.
+	 */
+	public int getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @return The calls of the tenant holding a slot of the pool.
+	 */
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return The calls of the tenant waiting for a slot of the pool.
+	 */
+	public int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * @return The calls of the tenant completed, whatever their outcome.
+	 */
+	public long getCalls() {
+		return calls;
+	}
+
+	/**
+	 * @return The time the completed calls took, from asking for a slot to
+	 *         completing, in nanoseconds.
+	 */
+	public HistogramSnapshot getLatency() {
+		return latency;
+	}
+
+	@Override
+	public String toString() {
+		return "tenant " + tenantId + ": weight=" + weight + " inFlight=" + inFlight + " queued=" + queued
+				+ " calls=" + calls + " latency=[" + latency + "]";
+	}
+}
@@ -0,0 +1,36 @@
+package com.paycritical;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One daemon timer thread for the call deadlines and connection pings of
+ * every gateway. Cancelled tasks are removed at once, so the timers of calls
+ * that complete in time leave nothing queued. Tasks run on the timer thread,
+ * so they must only hand work off.
+ */
+final class PaycriticalTimer {
+	private static final ScheduledThreadPoolExecutor TIMER;
+	static {
+		var count = new AtomicInteger();
+		TIMER = new ScheduledThreadPoolExecutor(1, runnable -> {
+			var thread = new Thread(runnable, "paycritical-timer-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		TIMER.setRemoveOnCancelPolicy(true);
+	}
+
+	private PaycriticalTimer() {
+	}
+
+	static ScheduledFuture<?> schedule(Runnable task, long delayNanos) {
+		return TIMER.schedule(task, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+	}
+
+	static ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long delayNanos) {
+		return TIMER.scheduleWithFixedDelay(task, delayNanos, delayNanos, TimeUnit.NANOSECONDS);
+	}
+}
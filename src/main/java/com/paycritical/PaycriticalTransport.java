@@ -0,0 +1,205 @@
+package com.paycritical;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The HTTP clients of a gateway and the requests in flight on each.
+ *
+ * The JDK client keeps a single HTTP/2 connection per host and multiplexes
+ * every request over it, so a gateway spreads its requests over several
+ * clients to use several connections. Each request goes to the connection
+ * with the fewest in flight. When every connection carries the maximum
+ * number of streams, requests wait for one to finish, as servers refuse
+ * streams over the limit they advertise. With HTTP/1.1 each client keeps its
+ * own pool of keep-alive sockets.
+ *
+ * Connections can be opened ahead of the first call and pinged while idle, so
+ * neither the client nor a proxy on the way closes them between bursts.
+ */
+final class PaycriticalTransport {
+	private final Connection[] connections;
+	private final int maxStreams;
+	// Requests waiting for a connection under its stream limit
+	private final ArrayDeque<CompletableFuture<Connection>> queue = new ArrayDeque<>();
+
+	/**
+	 * @param clientBuilder Builds the client of each connection.
+	 * @param count         The number of connections.
+	 * @param maxStreams    The requests in flight per connection, or 0 for no
+	 *                      limit.
+	 */
+	PaycriticalTransport(HttpClient.Builder clientBuilder, int count, int maxStreams) {
+		this.connections = new Connection[count];
+		for (int i = 0; i < count; i++) {
+			connections[i] = new Connection(i, clientBuilder.build());
+		}
+		this.maxStreams = maxStreams;
+	}
+
+	/**
+	 * Takes a stream on the least busy connection. The future completes once
+	 * one is free; cancelling it gives up the place in the queue.
+	 */
+	CompletableFuture<Connection> acquire() {
+		CompletableFuture<Connection> waiter;
+		synchronized (this) {
+			var connection = leastBusy();
+			if (connection != null) {
+				connection.open();
+				return CompletableFuture.completedFuture(connection);
+			}
+			waiter = new CompletableFuture<>();
+			queue.add(waiter);
+		}
+		waiter.whenComplete((connection, error) -> {
+			if (waiter.isCancelled()) {
+				synchronized (this) {
+					queue.remove(waiter);
+				}
+			}
+		});
+		return waiter;
+	}
+
+	/**
+	 * Opens the connections by sending the request on each of them, the given
+	 * number of times at once. With HTTP/1.1 every concurrent request opens a
+	 * socket of its own.
+	 *
+	 * @return A future completed once every response has arrived, or failed
+	 *         with the first I/O error.
+	 */
+	CompletableFuture<Void> warmUp(HttpRequest request, int streams) {
+		var responses = new ArrayList<CompletableFuture<?>>();
+		for (var connection : connections) {
+			for (int i = 0; i < streams; i++) {
+				responses.add(connection.ping(request));
+			}
+		}
+		return CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0]));
+	}
+
+	/**
+	 * Sends the request on each connection that has been used but has had
+	 * nothing in flight for the given time, so it is not closed as idle.
+	 */
+	void keepWarm(HttpRequest request, long idleNanos) {
+		long now = System.nanoTime();
+		var idle = new ArrayList<Connection>();
+		synchronized (this) {
+			for (var connection : connections) {
+				if (connection.lastUsed != 0 && connection.active == 0 && now - connection.lastUsed >= idleNanos) {
+					idle.add(connection);
+				}
+			}
+		}
+		for (var connection : idle) {
+			// A failed ping leaves a closed connection that the next call reopens
+			connection.ping(request);
+		}
+	}
+
+	/**
+	 * @return The use of each connection.
+	 */
+	synchronized List<PaycriticalConnectionStats> stats() {
+		var stats = new ArrayList<PaycriticalConnectionStats>(connections.length);
+		for (var connection : connections) {
+			stats.add(new PaycriticalConnectionStats(connection.index, connection.active, connection.peak,
+					connection.requests, connection.http2Responses, connection.http11Responses));
+		}
+		return stats;
+	}
+
+	// Called with the lock held
+	private Connection leastBusy() {
+		Connection best = null;
+		for (var connection : connections) {
+			if ((maxStreams == 0 || connection.active < maxStreams) && (best == null || connection.active < best.active)) {
+				best = connection;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * One client and the streams in flight on it. The counters are guarded by
+	 * the transport lock.
+	 */
+	final class Connection {
+		private final int index;
+		final HttpClient client;
+		private int active;
+		private int peak;
+		private long requests;
+		private long http2Responses;
+		private long http11Responses;
+		// When a request was last sent, 0 if never
+		private long lastUsed;
+
+		private Connection(int index, HttpClient client) {
+			this.index = index;
+			this.client = client;
+		}
+
+		// Called with the lock held
+		private void open() {
+			active++;
+			requests++;
+			peak = Math.max(peak, active);
+			lastUsed = System.nanoTime();
+		}
+
+		/**
+		 * Sends a request outside the stream accounting, discarding the response.
+		 */
+		private CompletableFuture<HttpResponse<Void>> ping(HttpRequest request) {
+			touch();
+			return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+					.whenComplete((response, error) -> touch());
+		}
+
+		private void touch() {
+			synchronized (PaycriticalTransport.this) {
+				lastUsed = System.nanoTime();
+			}
+		}
+
+		/**
+		 * Frees the stream, handing it to the next request waiting if any.
+		 *
+		 * @param response The response received, or null if the request failed or
+		 *                 was never sent.
+		 */
+		void release(HttpResponse<?> response) {
+			CompletableFuture<Connection> next;
+			synchronized (PaycriticalTransport.this) {
+				if (response != null) {
+					if (response.version() == Version.HTTP_2) {
+						http2Responses++;
+					} else {
+						http11Responses++;
+					}
+				}
+				next = queue.poll();
+				if (next == null) {
+					active--;
+					return;
+				}
+				// The stream goes straight to the waiting request
+				requests++;
+				lastUsed = System.nanoTime();
+			}
+			if (!next.complete(this)) {
+				release(null);
+			}
+		}
+	}
+}
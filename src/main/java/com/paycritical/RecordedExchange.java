@@ -0,0 +1,117 @@
+package com.paycritical;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One HTTP exchange of a gateway, as recorded by a {@link PaycriticalRecorder}.
+ * Instances are immutable; the body arrays must not be modified.
+ */
+public final class RecordedExchange {
+	private final PaycriticalEndpoint endpoint;
+	private final String method;
+	private final String path;
+	private final byte[] requestBody;
+	private final int statusCode;
+	private final byte[] responseBody;
+	private final long startNanos;
+	private final long timeToFirstByteNanos;
+	private final long durationNanos;
+	private final String error;
+
+	RecordedExchange(PaycriticalEndpoint endpoint, String method, String path, byte[] requestBody, int statusCode,
+			byte[] responseBody, long startNanos, long timeToFirstByteNanos, long durationNanos, String error) {
+		this.endpoint = endpoint;
+		this.method = method;
+		this.path = path;
+		this.requestBody = requestBody;
+		this.statusCode = statusCode;
+		this.responseBody = responseBody;
+		this.startNanos = startNanos;
+		this.timeToFirstByteNanos = timeToFirstByteNanos;
+		this.durationNanos = durationNanos;
+		this.error = error;
+	}
+
+	public PaycriticalEndpoint getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * @return The HTTP method, e.g. GET.
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return The path and query of the request, relative to the base URL of
+	 *         the gateway, e.g. /api/payment/{paymentId}.
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return The request body, empty for a GET.
+	 */
+	public byte[] getRequestBody() {
+		return requestBody;
+	}
+
+	/**
+	 * @return The request body as text.
+	 */
+	public String getRequestText() {
+		return new String(requestBody, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return The HTTP status code, or 0 if no response was received.
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return The response body, empty if there was none.
+	 */
+	public byte[] getResponseBody() {
+		return responseBody;
+	}
+
+	/**
+	 * @return When the call started, in nanoseconds since the recording
+	 *         started.
+	 */
+	public long getStartNanos() {
+		return startNanos;
+	}
+
+	/**
+	 * @return The time from the start of the call to receiving the response
+	 *         headers, or -1 if no response was received.
+	 */
+	public long getTimeToFirstByteNanos() {
+		return timeToFirstByteNanos;
+	}
+
+	/**
+	 * @return The time from the start to the end of the call.
+	 */
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * @return The class name of the exception the call failed with, or null.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return method + " " + path + " " + (statusCode != 0 ? statusCode : error) + " in "
+				+ durationNanos / 1000 + "us";
+	}
+}
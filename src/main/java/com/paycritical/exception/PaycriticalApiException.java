@@ -6,4 +6,13 @@ public class PaycriticalApiException extends Exception {
 	public PaycriticalApiException(String message) {
 		super(message);
 	}
+
+	/**
+	 * @param writableStackTrace Whether to fill in the stack trace. An exception
+	 *                           without one is much cheaper to create, which
+	 *                           matters when many calls fail.
+	 */
+	public PaycriticalApiException(String message, boolean writableStackTrace) {
+		super(message, null, true, writableStackTrace);
+	}
 }
@@ -6,4 +6,8 @@ public class PaycriticalApiForbiddenException extends PaycriticalApiException {
 	public PaycriticalApiForbiddenException(String message) {
 		super(message);
 	}
+
+	public PaycriticalApiForbiddenException(String message, boolean writableStackTrace) {
+		super(message, writableStackTrace);
+	}
 }
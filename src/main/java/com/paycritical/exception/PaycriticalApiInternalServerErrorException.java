@@ -6,4 +6,8 @@ public class PaycriticalApiInternalServerErrorException extends PaycriticalApiEx
 	public PaycriticalApiInternalServerErrorException(String message) {
 		super(message);
 	}
+
+	public PaycriticalApiInternalServerErrorException(String message, boolean writableStackTrace) {
+		super(message, writableStackTrace);
+	}
 }
\ No newline at end of file
@@ -6,4 +6,8 @@ public class PaycriticalApiNoContentException extends PaycriticalApiException {
 	public PaycriticalApiNoContentException(String message) {
 		super(message);
 	}
+
+	public PaycriticalApiNoContentException(String message, boolean writableStackTrace) {
+		super(message, writableStackTrace);
+	}
 }
\ No newline at end of file
@@ -6,4 +6,8 @@ public class PaycriticalApiUnauthorizedException extends PaycriticalApiException
 	public PaycriticalApiUnauthorizedException(String message) {
 		super(message);
 	}
+
+	public PaycriticalApiUnauthorizedException(String message, boolean writableStackTrace) {
+		super(message, writableStackTrace);
+	}
 }
\ No newline at end of file
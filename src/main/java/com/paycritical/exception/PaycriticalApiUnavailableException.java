@@ -0,0 +1,38 @@
+package com.paycritical.exception;
+
+import java.time.Duration;
+
+/**
+ * The API, or a proxy in front of it, could not take the request at the
+ * moment: a 429, 502, 503 or 504 response.
+ */
+public class PaycriticalApiUnavailableException extends PaycriticalApiException {
+	private static final long serialVersionUID = 8474009310917153702L;
+
+	private final Duration retryAfter;
+
+	public PaycriticalApiUnavailableException(String message) {
+		this(message, null, true);
+	}
+
+	public PaycriticalApiUnavailableException(String message, boolean writableStackTrace) {
+		this(message, null, writableStackTrace);
+	}
+
+	/**
+	 * @param retryAfter How long the response asked to wait before trying
+	 *                   again, or null.
+	 */
+	public PaycriticalApiUnavailableException(String message, Duration retryAfter, boolean writableStackTrace) {
+		super(message, writableStackTrace);
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * @return How long the API asked to wait before trying again, from the
+	 *         Retry-After header of the response, or null if it did not say.
+	 */
+	public Duration getRetryAfter() {
+		return retryAfter;
+	}
+}
@@ -14,6 +14,13 @@ public class PaycriticalApiValidationException extends PaycriticalApiException {
 		this.description = description;
 	}
 
+	public PaycriticalApiValidationException(String code, String description, String message,
+			boolean writableStackTrace) {
+		super(message, writableStackTrace);
+		this.code = code;
+		this.description = description;
+	}
+
 	public String getCode() {
 		return code;
 	}
@@ -0,0 +1,17 @@
+package com.paycritical.exception;
+
+/**
+ * Thrown without sending the request when the concurrency limit of the gateway
+ * is reached and the call could not wait for a free slot.
+ */
+public class PaycriticalConcurrencyLimitException extends PaycriticalApiException {
+	private static final long serialVersionUID = 3187530846239409316L;
+
+	public PaycriticalConcurrencyLimitException(String message) {
+		super(message);
+	}
+
+	public PaycriticalConcurrencyLimitException(String message, boolean writableStackTrace) {
+		super(message, writableStackTrace);
+	}
+}
@@ -0,0 +1,17 @@
+package com.paycritical.exception;
+
+/**
+ * Thrown without sending the request when the request quota of the API key
+ * would not allow it within the maximum wait of the rate limiter.
+ */
+public class PaycriticalRateLimitException extends PaycriticalApiException {
+	private static final long serialVersionUID = -2281546300941526513L;
+
+	public PaycriticalRateLimitException(String message) {
+		super(message);
+	}
+
+	public PaycriticalRateLimitException(String message, boolean writableStackTrace) {
+		super(message, writableStackTrace);
+	}
+}
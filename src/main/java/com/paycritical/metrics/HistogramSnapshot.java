@@ -0,0 +1,97 @@
+package com.paycritical.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Immutable copy of a {@link LatencyHistogram}.
+ */
+public final class HistogramSnapshot {
+	private final long[] counts;
+	private final long count;
+	private final long sum;
+	private final long max;
+
+	HistogramSnapshot(long[] counts, long sum, long max) {
+		this.counts = counts;
+		this.count = Arrays.stream(counts).sum();
+		this.sum = sum;
+		this.max = max;
+	}
+
+	/**
+	 * @return The number of recorded values.
+	 */
+	public long count() {
+		return count;
+	}
+
+	/**
+	 * @return The sum of the recorded values, in nanoseconds.
+	 */
+	public long sum() {
+		return sum;
+	}
+
+	/**
+	 * @return The largest recorded value, in nanoseconds.
+	 */
+	public long max() {
+		return max;
+	}
+
+	/**
+	 * @return The mean of the recorded values, in nanoseconds, or 0 if none
+	 *         were recorded.
+	 */
+	public double mean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * @param percentile Between 0 and 100, e.g. 99.9.
+	 * @return The value below which the given percentage of the recorded
+	 *         values fall, within about 3%, in nanoseconds. 0 if no values were
+	 *         recorded.
+	 */
+	public long percentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("The percentile must be between 0 and 100.");
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				// The middle of the bucket, never above the largest value seen
+				long low = LatencyHistogram.lowerBound(i);
+				long high = i + 1 < counts.length ? LatencyHistogram.lowerBound(i + 1) - 1 : low;
+				return Math.min(max, low + (high - low) / 2);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * @return A snapshot holding the values of both snapshots.
+	 */
+	public HistogramSnapshot merge(HistogramSnapshot other) {
+		var merged = counts.clone();
+		for (int i = 0; i < merged.length; i++) {
+			merged[i] += other.counts[i];
+		}
+		return new HistogramSnapshot(merged, sum + other.sum, Math.max(max, other.max));
+	}
+
+	long[] counts() {
+		return counts;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.0fns p50=%dns p99=%dns p99.9=%dns max=%dns", count, mean(),
+				percentile(50), percentile(99), percentile(99.9), max);
+	}
+}
@@ -0,0 +1,87 @@
+package com.paycritical.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of durations in nanoseconds.
+ *
+ * Every power of two is split into 32 linear buckets, so a recorded value is
+ * known to within about 3% whatever its magnitude, in a fixed 9.5 KB of
+ * counters. Values above about 36 minutes are counted in the last bucket.
+ * Recording is a few atomic increments with no allocation and is safe from
+ * any number of threads. Snapshots of several histograms can be merged.
+ */
+public final class LatencyHistogram {
+	static final int SUB_BUCKET_BITS = 5;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// Highest power of two with its own buckets, 2^41 ns being about 36 minutes
+	static final int MAX_EXPONENT = 40;
+	static final int LENGTH = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(LENGTH);
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * @param nanos A duration; negative values are counted as 0.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(index(value));
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Adds every value of a snapshot, e.g. to merge the histograms of several
+	 * gateways.
+	 */
+	public void add(HistogramSnapshot snapshot) {
+		var other = snapshot.counts();
+		for (int i = 0; i < LENGTH; i++) {
+			if (other[i] != 0) {
+				counts.addAndGet(i, other[i]);
+			}
+		}
+		sum.add(snapshot.sum());
+		max.accumulate(snapshot.max());
+	}
+
+	/**
+	 * Copies the current counts. Values recorded while the copy is taken may
+	 * or may not be included.
+	 */
+	public HistogramSnapshot snapshot() {
+		var copy = new long[LENGTH];
+		for (int i = 0; i < LENGTH; i++) {
+			copy[i] = counts.get(i);
+		}
+		return new HistogramSnapshot(copy, sum.sum(), max.get());
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) {
+			return LENGTH - 1;
+		}
+		int shift = exponent - SUB_BUCKET_BITS;
+		return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return The smallest value counted in the bucket.
+	 */
+	static long lowerBound(int index) {
+		int bucket = index >>> SUB_BUCKET_BITS;
+		int subBucket = index & (SUB_BUCKETS - 1);
+		if (bucket == 0) {
+			return subBucket;
+		}
+		return (long) (SUB_BUCKETS + subBucket) << (bucket - 1);
+	}
+}
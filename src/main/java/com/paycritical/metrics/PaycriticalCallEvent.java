@@ -0,0 +1,96 @@
+package com.paycritical.metrics;
+
+import com.paycritical.PaycriticalEndpoint;
+
+/**
+ * Outcome and timings of one HTTP call made by the gateway.
+ *
+ * Times are in nanoseconds from the moment the request was handed to the
+ * HttpClient. The JDK HttpClient does not report when the connection was
+ * established, so connection setup, when a new connection was needed, is
+ * part of the time to first byte.
+ */
+public final class PaycriticalCallEvent {
+	private final PaycriticalEndpoint endpoint;
+	private final int statusCode;
+	private final long requestBytes;
+	private final long responseBytes;
+	private final long durationNanos;
+	private final long timeToFirstByteNanos;
+	private final long decodeNanos;
+	private final Class<? extends Throwable> exceptionClass;
+
+	public PaycriticalCallEvent(PaycriticalEndpoint endpoint, int statusCode, long requestBytes, long responseBytes,
+			long durationNanos, long timeToFirstByteNanos, long decodeNanos,
+			Class<? extends Throwable> exceptionClass) {
+		this.endpoint = endpoint;
+		this.statusCode = statusCode;
+		this.requestBytes = requestBytes;
+		this.responseBytes = responseBytes;
+		this.durationNanos = durationNanos;
+		this.timeToFirstByteNanos = timeToFirstByteNanos;
+		this.decodeNanos = decodeNanos;
+		this.exceptionClass = exceptionClass;
+	}
+
+	public PaycriticalEndpoint getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * @return The HTTP status code, or 0 if no response was received.
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return The size of the request body.
+	 */
+	public long getRequestBytes() {
+		return requestBytes;
+	}
+
+	/**
+	 * @return The Content-Length of the response, or -1 if it was not sent or
+	 *         no response was received.
+	 */
+	public long getResponseBytes() {
+		return responseBytes;
+	}
+
+	/**
+	 * @return The time until the call completed, decoding included.
+	 */
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * @return The time until the response headers were received, or -1 if no
+	 *         response was received.
+	 */
+	public long getTimeToFirstByteNanos() {
+		return timeToFirstByteNanos;
+	}
+
+	/**
+	 * @return The time spent validating and decoding the response, building the
+	 *         API exception included.
+	 */
+	public long getDecodeNanos() {
+		return decodeNanos;
+	}
+
+	/**
+	 * @return The class of the exception the call failed with, or null if it
+	 *         succeeded.
+	 */
+	public Class<? extends Throwable> getExceptionClass() {
+		return exceptionClass;
+	}
+
+	public boolean isSuccess() {
+		return exceptionClass == null;
+	}
+}
@@ -0,0 +1,14 @@
+package com.paycritical.metrics;
+
+/**
+ * Receives an event for every HTTP call made by a gateway.
+ *
+ * Calls answered from the status cache, or joined to an identical call
+ * already in flight, make no HTTP call and produce no event. Listeners run on
+ * the gateway executor as each call completes, so they must be thread-safe
+ * and quick. Exceptions thrown by a listener are ignored.
+ */
+@FunctionalInterface
+public interface PaycriticalCallListener {
+	void onCall(PaycriticalCallEvent event);
+}
@@ -0,0 +1,101 @@
+package com.paycritical.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.paycritical.PaycriticalEndpoint;
+
+/**
+ * Call listener keeping latency histograms and counters per endpoint.
+ *
+ * Register it with {@link com.paycritical.PaycriticalPaymentGateway.Builder#callListener}
+ * and read snapshots at any time. Recording takes no locks and allocates
+ * nothing once an exception class has been seen. One recorder may be shared
+ * by several gateways.
+ */
+public final class PaycriticalMetricsRecorder implements PaycriticalCallListener {
+	private final EndpointMetrics[] endpoints;
+
+	public PaycriticalMetricsRecorder() {
+		var values = PaycriticalEndpoint.values();
+		this.endpoints = new EndpointMetrics[values.length];
+		for (int i = 0; i < values.length; i++) {
+			endpoints[i] = new EndpointMetrics();
+		}
+	}
+
+	@Override
+	public void onCall(PaycriticalCallEvent event) {
+		var metrics = endpoints[event.getEndpoint().ordinal()];
+		metrics.latency.record(event.getDurationNanos());
+		if (event.getTimeToFirstByteNanos() >= 0) {
+			metrics.timeToFirstByte.record(event.getTimeToFirstByteNanos());
+			metrics.decode.record(event.getDecodeNanos());
+		}
+		metrics.bytesSent.add(event.getRequestBytes());
+		if (event.getResponseBytes() > 0) {
+			metrics.bytesReceived.add(event.getResponseBytes());
+		}
+		if (event.getExceptionClass() != null) {
+			metrics.exceptions.computeIfAbsent(event.getExceptionClass(), type -> new LongAdder()).increment();
+		}
+	}
+
+	/**
+	 * @return The duration of the calls to the endpoint, from sending the
+	 *         request to the decoded response or the exception.
+	 */
+	public HistogramSnapshot latency(PaycriticalEndpoint endpoint) {
+		return endpoints[endpoint.ordinal()].latency.snapshot();
+	}
+
+	/**
+	 * @return The time until the response headers were received, for the calls
+	 *         that received a response.
+	 */
+	public HistogramSnapshot timeToFirstByte(PaycriticalEndpoint endpoint) {
+		return endpoints[endpoint.ordinal()].timeToFirstByte.snapshot();
+	}
+
+	/**
+	 * @return The time spent validating and decoding responses.
+	 */
+	public HistogramSnapshot decodeTime(PaycriticalEndpoint endpoint) {
+		return endpoints[endpoint.ordinal()].decode.snapshot();
+	}
+
+	/**
+	 * @return The total size of the request bodies sent.
+	 */
+	public long bytesSent(PaycriticalEndpoint endpoint) {
+		return endpoints[endpoint.ordinal()].bytesSent.sum();
+	}
+
+	/**
+	 * @return The total Content-Length of the responses received.
+	 */
+	public long bytesReceived(PaycriticalEndpoint endpoint) {
+		return endpoints[endpoint.ordinal()].bytesReceived.sum();
+	}
+
+	/**
+	 * @return How many calls failed with each exception class, API exceptions
+	 *         and transport failures alike.
+	 */
+	public Map<Class<? extends Throwable>, Long> exceptionCounts(PaycriticalEndpoint endpoint) {
+		var counts = new HashMap<Class<? extends Throwable>, Long>();
+		endpoints[endpoint.ordinal()].exceptions.forEach((type, count) -> counts.put(type, count.sum()));
+		return counts;
+	}
+
+	private static final class EndpointMetrics {
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+		private final LatencyHistogram decode = new LatencyHistogram();
+		private final LongAdder bytesSent = new LongAdder();
+		private final LongAdder bytesReceived = new LongAdder();
+		private final ConcurrentHashMap<Class<? extends Throwable>, LongAdder> exceptions = new ConcurrentHashMap<>();
+	}
+}
@@ -0,0 +1,194 @@
+package com.paycritical.polling;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+
+import com.paycritical.PaycriticalPaymentGateway;
+import com.paycritical.response.PaycriticalPayment;
+import com.paycritical.response.PaycriticalPaymentStatus;
+
+/**
+ * Follows requested payments until the customer approves or rejects them.
+ *
+ * Every tracked payment is polled through one shared timer thread, with a
+ * global cap on concurrent status requests and on requests per second, so the
+ * polling cost stays bounded however many payments are pending. Each payment
+ * backs off on its own while its status is unchanged.
+ *
+ * Instances are thread-safe. Close the tracker to stop polling and cancel the
+ * pending handles; the gateway is not closed.
+ */
+public final class PaycriticalPaymentTracker implements AutoCloseable {
+	private final StatusPoller<PaycriticalPaymentStatus> poller;
+
+	private PaycriticalPaymentTracker(PaycriticalPaymentGateway gateway, Predicate<String> terminal,
+			PollingSettings settings) {
+		this.poller = new StatusPoller<>("paycritical-payment-tracker", gateway::getPaymentStatusAsync,
+				PaycriticalPaymentStatus::getStatus, terminal, PaycriticalQRCodePoller.REQUESTED, settings);
+	}
+
+	/**
+	 * <p>
+	 * Create a Tracker Builder
+	 * </p>
+	 *
+	 * @param gateway The gateway used to query the payment status.
+	 * @return A builder for a PaycriticalPaymentTracker.
+	 */
+	public static Builder builder(PaycriticalPaymentGateway gateway) {
+		return new Builder(gateway);
+	}
+
+	/**
+	 * <p>
+	 * Track Payment
+	 * </p>
+	 *
+	 * @param payment The payment returned by requestPayment or
+	 *                requestAuthorization.
+	 * @return A handle resolved when the payment reaches a terminal status.
+	 */
+	public PaymentHandle track(PaycriticalPayment payment) {
+		return new PaymentHandle(payment.getPaymentId(), payment.getStatus(), poller);
+	}
+
+	/**
+	 * <p>
+	 * Track Payment Id
+	 * </p>
+	 *
+	 * @param paymentId The payment ID to follow.
+	 * @return A handle resolved when the payment reaches a terminal status.
+	 */
+	public PaymentHandle track(String paymentId) {
+		return new PaymentHandle(paymentId, PaycriticalQRCodePoller.REQUESTED, poller);
+	}
+
+	/**
+	 * @return The number of payments currently being tracked.
+	 */
+	public int pendingCount() {
+		return poller.size();
+	}
+
+	/**
+	 * @return The number of status requests currently in flight.
+	 */
+	public int inFlightRequests() {
+		return poller.inFlight();
+	}
+
+	@Override
+	public void close() {
+		poller.close();
+	}
+
+	/**
+	 * Builder for {@link PaycriticalPaymentTracker}. Not thread-safe.
+	 */
+	public static final class Builder {
+		private final PaycriticalPaymentGateway gateway;
+		private final PollingSettings settings = new PollingSettings();
+		private Predicate<String> terminal = status -> !PaycriticalQRCodePoller.REQUESTED.equals(status);
+
+		private Builder(PaycriticalPaymentGateway gateway) {
+			this.gateway = gateway;
+		}
+
+		/**
+		 * Statuses that end the tracking. By default every status other than
+		 * "Requested" is terminal.
+		 */
+		public Builder terminalStatuses(Predicate<String> terminal) {
+			this.terminal = Objects.requireNonNull(terminal);
+			return this;
+		}
+
+		/**
+		 * Delay before the first poll of a new payment. Defaults to 1 second.
+		 */
+		public Builder initialDelay(Duration initialDelay) {
+			settings.initialDelayNanos = initialDelay.toNanos();
+			return this;
+		}
+
+		/**
+		 * Bounds of the per-payment polling interval. A payment starts at the
+		 * minimum and backs off towards the maximum while its status is unchanged.
+		 * Defaults to 1 and 15 seconds.
+		 */
+		public Builder interval(Duration min, Duration max) {
+			settings.interval(min, max);
+			return this;
+		}
+
+		/**
+		 * Factor applied to a payment's interval after each unchanged poll.
+		 * Defaults to 1.5.
+		 */
+		public Builder backoffMultiplier(double multiplier) {
+			settings.backoffMultiplier(multiplier);
+			return this;
+		}
+
+		/**
+		 * Maximum number of status requests in flight across all payments.
+		 * Defaults to 64.
+		 */
+		public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+			settings.maxConcurrentRequests(maxConcurrentRequests);
+			return this;
+		}
+
+		/**
+		 * Maximum status requests per second across all payments. Unlimited by
+		 * default.
+		 */
+		public Builder maxRequestsPerSecond(double maxRequestsPerSecond) {
+			settings.maxRequestsPerSecond = maxRequestsPerSecond;
+			return this;
+		}
+
+		/**
+		 * Number of consecutive transport or server errors tolerated for one
+		 * payment before its handle fails. Defaults to 10.
+		 */
+		public Builder maxConsecutiveErrors(int maxConsecutiveErrors) {
+			settings.maxConsecutiveErrors = maxConsecutiveErrors;
+			return this;
+		}
+
+		/**
+		 * Time after which a payment still pending fails with a TimeoutException.
+		 * Unlimited by default.
+		 */
+		public Builder maxDuration(Duration maxDuration) {
+			settings.maxDurationNanos = maxDuration.toNanos();
+			return this;
+		}
+
+		/**
+		 * Executor sending the polls, and running the listeners of statuses known
+		 * at once, e.g. from the status cache. Defaults to the common pool; pass
+		 * the executor of the gateway to keep all the work on it.
+		 */
+		public Builder executor(Executor executor) {
+			settings.executor(executor);
+			return this;
+		}
+
+		/**
+		 * Precision of the timer wheel. Defaults to 100 milliseconds.
+		 */
+		public Builder tickDuration(Duration tickDuration) {
+			settings.tickNanos = tickDuration.toNanos();
+			return this;
+		}
+
+		public PaycriticalPaymentTracker build() {
+			return new PaycriticalPaymentTracker(gateway, terminal, settings);
+		}
+	}
+}
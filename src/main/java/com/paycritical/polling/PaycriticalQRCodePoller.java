@@ -0,0 +1,203 @@
+package com.paycritical.polling;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.paycritical.PaycriticalPaymentGateway;
+import com.paycritical.response.PaycriticalQRCodeStatus;
+
+/**
+ * Polls the status of many QR codes through one shared scheduler.
+ *
+ * Register a qrCodeId and receive a future that completes with the first
+ * status other than "Requested". All codes share one timer thread and a
+ * global cap on concurrent requests, and each code backs off on its own while
+ * it stays "Requested". Registering a code that is already polled joins the
+ * existing registration, so a code is never polled twice at the same time.
+ *
+ * Instances are thread-safe. Close the poller to stop polling and cancel the
+ * pending registrations; the gateway is not closed.
+ */
+public final class PaycriticalQRCodePoller implements AutoCloseable {
+	// Status returned while the QR code has not been paid
+	static final String REQUESTED = "Requested";
+
+	private final StatusPoller<PaycriticalQRCodeStatus> poller;
+
+	private PaycriticalQRCodePoller(PaycriticalPaymentGateway gateway, PollingSettings settings) {
+		this.poller = new StatusPoller<>("paycritical-qrcode-poller", gateway::getQRCodeStatusAsync,
+				PaycriticalQRCodeStatus::getStatus, status -> !REQUESTED.equals(status), REQUESTED, settings);
+	}
+
+	/**
+	 * <p>
+	 * Create a Poller Builder
+	 * </p>
+	 *
+	 * @param gateway The gateway used to query the QR code status.
+	 * @return A builder for a PaycriticalQRCodePoller.
+	 */
+	public static Builder builder(PaycriticalPaymentGateway gateway) {
+		return new Builder(gateway);
+	}
+
+	/**
+	 * <p>
+	 * Register QR Code
+	 * </p>
+	 *
+	 * @param qrCodeId The Id of the generated QR Code.
+	 * @return A future completed with the first terminal PaycriticalQRCodeStatus.
+	 *         It completes exceptionally with the API exception when the status
+	 *         cannot be read, or with a TimeoutException when the configured
+	 *         maximum duration elapses.
+	 */
+	public CompletableFuture<PaycriticalQRCodeStatus> register(String qrCodeId) {
+		return poller.register(qrCodeId, null);
+	}
+
+	/**
+	 * <p>
+	 * Register QR Code With Listener
+	 * </p>
+	 *
+	 * @param qrCodeId The Id of the generated QR Code.
+	 * @param listener Called on every status transition of the QR code.
+	 * @return A future completed with the first terminal PaycriticalQRCodeStatus.
+	 */
+	public CompletableFuture<PaycriticalQRCodeStatus> register(String qrCodeId,
+			StatusChangeListener<PaycriticalQRCodeStatus> listener) {
+		return poller.register(qrCodeId, listener);
+	}
+
+	/**
+	 * <p>
+	 * Unregister QR Code
+	 * </p>
+	 *
+	 * Stops polling the QR code and cancels its future.
+	 *
+	 * @param qrCodeId The Id of the generated QR Code.
+	 * @return true if the QR code was being polled.
+	 */
+	public boolean unregister(String qrCodeId) {
+		return poller.unregister(qrCodeId);
+	}
+
+	/**
+	 * @return The number of QR codes currently being polled.
+	 */
+	public int pendingCount() {
+		return poller.size();
+	}
+
+	/**
+	 * @return The number of status requests currently in flight.
+	 */
+	public int inFlightRequests() {
+		return poller.inFlight();
+	}
+
+	@Override
+	public void close() {
+		poller.close();
+	}
+
+	/**
+	 * Builder for {@link PaycriticalQRCodePoller}. Not thread-safe.
+	 */
+	public static final class Builder {
+		private final PaycriticalPaymentGateway gateway;
+		private final PollingSettings settings = new PollingSettings();
+
+		private Builder(PaycriticalPaymentGateway gateway) {
+			this.gateway = gateway;
+		}
+
+		/**
+		 * Delay before the first poll of a new code. Defaults to 1 second.
+		 */
+		public Builder initialDelay(Duration initialDelay) {
+			settings.initialDelayNanos = initialDelay.toNanos();
+			return this;
+		}
+
+		/**
+		 * Bounds of the per-code polling interval. A code starts at the minimum
+		 * and backs off towards the maximum while its status is unchanged.
+		 * Defaults to 1 and 15 seconds.
+		 */
+		public Builder interval(Duration min, Duration max) {
+			settings.interval(min, max);
+			return this;
+		}
+
+		/**
+		 * Factor applied to a code's interval after each unchanged poll. Defaults
+		 * to 1.5.
+		 */
+		public Builder backoffMultiplier(double multiplier) {
+			settings.backoffMultiplier(multiplier);
+			return this;
+		}
+
+		/**
+		 * Maximum number of status requests in flight across all codes. Defaults
+		 * to 64.
+		 */
+		public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+			settings.maxConcurrentRequests(maxConcurrentRequests);
+			return this;
+		}
+
+		/**
+		 * Maximum status requests per second across all codes. Unlimited by
+		 * default.
+		 */
+		public Builder maxRequestsPerSecond(double maxRequestsPerSecond) {
+			settings.maxRequestsPerSecond = maxRequestsPerSecond;
+			return this;
+		}
+
+		/**
+		 * Number of consecutive transport or server errors tolerated for one code
+		 * before its future fails. Defaults to 10.
+		 */
+		public Builder maxConsecutiveErrors(int maxConsecutiveErrors) {
+			settings.maxConsecutiveErrors = maxConsecutiveErrors;
+			return this;
+		}
+
+		/**
+		 * Time after which a code still pending fails with a TimeoutException.
+		 * Unlimited by default.
+		 */
+		public Builder maxDuration(Duration maxDuration) {
+			settings.maxDurationNanos = maxDuration.toNanos();
+			return this;
+		}
+
+		/**
+		 * Executor sending the polls, and running the listeners of statuses known
+		 * at once, e.g. from the status cache. Defaults to the common pool; pass
+		 * the executor of the gateway to keep all the work on it.
+		 */
+		public Builder executor(Executor executor) {
+			settings.executor(executor);
+			return this;
+		}
+
+		/**
+		 * Precision of the timer wheel. Defaults to 100 milliseconds.
+		 */
+		public Builder tickDuration(Duration tickDuration) {
+			settings.tickNanos = tickDuration.toNanos();
+			return this;
+		}
+
+		public PaycriticalQRCodePoller build() {
+			return new PaycriticalQRCodePoller(gateway, settings);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package com.paycritical.polling;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.paycritical.exception.PaycriticalApiException;
+import com.paycritical.response.PaycriticalPaymentStatus;
+
+/**
+ * Tracks one payment until it reaches a terminal status.
+ *
+ * Handles are created by {@link PaycriticalPaymentTracker#track(String)} and
+ * are thread-safe. Handles for the same payment share one registration.
+ */
+public final class PaymentHandle {
+	private final String paymentId;
+	private final StatusPoller<PaycriticalPaymentStatus> poller;
+	private final CompletableFuture<PaycriticalPaymentStatus> terminal;
+	private volatile String status;
+
+	PaymentHandle(String paymentId, String status, StatusPoller<PaycriticalPaymentStatus> poller) {
+		this.paymentId = paymentId;
+		this.status = status;
+		this.poller = poller;
+		this.terminal = poller.register(paymentId, (id, previous, current) -> this.status = current.getStatus());
+		this.terminal.thenAccept(current -> this.status = current.getStatus());
+	}
+
+	public String getPaymentId() {
+		return paymentId;
+	}
+
+	/**
+	 * @return The last status observed for the payment.
+	 */
+	public String getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return A future completed with the terminal PaycriticalPaymentStatus.
+	 */
+	public CompletableFuture<PaycriticalPaymentStatus> terminal() {
+		return terminal;
+	}
+
+	public boolean isTerminal() {
+		return terminal.isDone();
+	}
+
+	/**
+	 * <p>
+	 * Await Terminal Status
+	 * </p>
+	 *
+	 * Blocks until the payment reaches a terminal status.
+	 *
+	 * @param timeout Maximum time to wait.
+	 * @return The terminal PaycriticalPaymentStatus.
+	 * @throws TimeoutException     The payment is still pending after the timeout.
+	 * @throws InterruptedException
+	 * @throws IOException          The status could not be read.
+	 * @throws PaycriticalApiException The API rejected the status lookup.
+	 */
+	public PaycriticalPaymentStatus awaitTerminal(Duration timeout)
+			throws TimeoutException, InterruptedException, IOException, PaycriticalApiException {
+		try {
+			return terminal.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+		} catch (ExecutionException e) {
+			var cause = e.getCause();
+			if (cause instanceof PaycriticalApiException) {
+				throw (PaycriticalApiException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof TimeoutException) {
+				throw (TimeoutException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Listen For Status Changes
+	 * </p>
+	 *
+	 * Adds a listener called on every later status transition. Nothing is
+	 * called if the payment is already terminal.
+	 *
+	 * @param listener The listener to add.
+	 * @return This handle.
+	 */
+	public PaymentHandle onStatusChange(StatusChangeListener<PaycriticalPaymentStatus> listener) {
+		if (!terminal.isDone()) {
+			poller.addListener(paymentId, listener);
+		}
+		return this;
+	}
+
+	/**
+	 * Stops tracking the payment. Every handle of the payment is cancelled; the
+	 * payment itself is not.
+	 */
+	public void cancel() {
+		poller.unregister(paymentId);
+	}
+}
@@ -0,0 +1,48 @@
+package com.paycritical.polling;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tuning shared by the poller builders.
+ */
+final class PollingSettings {
+	long tickNanos = Duration.ofMillis(100).toNanos();
+	long initialDelayNanos = Duration.ofSeconds(1).toNanos();
+	long minIntervalNanos = Duration.ofSeconds(1).toNanos();
+	long maxIntervalNanos = Duration.ofSeconds(15).toNanos();
+	double backoffMultiplier = 1.5;
+	int maxConcurrentRequests = 64;
+	int maxConsecutiveErrors = 10;
+	long maxDurationNanos;
+	double maxRequestsPerSecond;
+	Executor executor = ForkJoinPool.commonPool();
+
+	void interval(Duration min, Duration max) {
+		if (min.isNegative() || min.isZero() || max.compareTo(min) < 0) {
+			throw new IllegalArgumentException("Intervals must be positive and min <= max.");
+		}
+		this.minIntervalNanos = min.toNanos();
+		this.maxIntervalNanos = max.toNanos();
+	}
+
+	void backoffMultiplier(double multiplier) {
+		if (multiplier < 1) {
+			throw new IllegalArgumentException("The backoff multiplier must be at least 1.");
+		}
+		this.backoffMultiplier = multiplier;
+	}
+
+	void executor(Executor executor) {
+		this.executor = Objects.requireNonNull(executor);
+	}
+
+	void maxConcurrentRequests(int max) {
+		if (max < 1) {
+			throw new IllegalArgumentException("At least one concurrent request is required.");
+		}
+		this.maxConcurrentRequests = max;
+	}
+}
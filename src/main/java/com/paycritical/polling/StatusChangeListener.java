@@ -0,0 +1,22 @@
+package com.paycritical.polling;
+
+/**
+ * Receives the status transitions observed by a poller.
+ *
+ * Listeners are only called when the status actually changes. They run on the
+ * thread completing the status request, the gateway executor, or on the
+ * executor of the poller when the status was known at once, e.g. from the
+ * status cache. Either way they hold up other polls, so they should return
+ * quickly.
+ *
+ * @param <T> The polled response type.
+ */
+@FunctionalInterface
+public interface StatusChangeListener<T> {
+	/**
+	 * @param id             The polled QR code or payment ID.
+	 * @param previousStatus The status observed before this change.
+	 * @param current        The response carrying the new status.
+	 */
+	void onStatusChange(String id, String previousStatus, T current);
+}
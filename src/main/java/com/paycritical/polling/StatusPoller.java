@@ -0,0 +1,364 @@
+package com.paycritical.polling;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import com.paycritical.exception.PaycriticalApiException;
+import com.paycritical.exception.PaycriticalApiInternalServerErrorException;
+import com.paycritical.exception.PaycriticalApiUnavailableException;
+import com.paycritical.exception.PaycriticalConcurrencyLimitException;
+import com.paycritical.exception.PaycriticalRateLimitException;
+
+/**
+ * Polling engine shared by the public pollers.
+ *
+ * Every registered ID is a timer on one wheel. When a timer fires the ID joins
+ * a ready queue that is drained under a global cap on concurrent requests and,
+ * optionally, on requests per second. Polls that come due together are sent
+ * from the same drain, so the request rate stays bounded however many IDs are
+ * registered. The drain runs on the executor of the settings, one at a time,
+ * and polls answered at once, e.g. from the status cache, are handled in its
+ * loop rather than by draining again from their callback.
+ * Each ID backs off on its own while its status stays the same, and the
+ * registration completes once a terminal status is seen.
+ *
+ * @param <T> The polled response type.
+ */
+final class StatusPoller<T> implements AutoCloseable {
+	private final TimerWheel wheel;
+	private final Function<String, CompletableFuture<T>> fetch;
+	private final Function<T, String> statusOf;
+	private final Predicate<String> terminal;
+	private final String initialStatus;
+	private final PollingSettings settings;
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+	private final Queue<Entry> ready = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	// Earliest time the next request may start when a rate is configured
+	private final AtomicLong nextPermit = new AtomicLong(System.nanoTime());
+	private final AtomicBoolean drainScheduled = new AtomicBoolean();
+	// Drains requested since the running one started, 0 when none runs
+	private final AtomicInteger drainRequests = new AtomicInteger();
+	private final long permitNanos;
+	private final long burstNanos;
+	private volatile boolean closed;
+
+	StatusPoller(String name, Function<String, CompletableFuture<T>> fetch, Function<T, String> statusOf,
+			Predicate<String> terminal, String initialStatus, PollingSettings settings) {
+		this.fetch = fetch;
+		this.statusOf = statusOf;
+		this.terminal = terminal;
+		this.initialStatus = initialStatus;
+		this.settings = settings;
+		if (settings.maxRequestsPerSecond > 0) {
+			this.permitNanos = (long) (1e9 / settings.maxRequestsPerSecond);
+			this.burstNanos = permitNanos * Math.max(1, (long) (settings.maxRequestsPerSecond / 10));
+		} else {
+			this.permitNanos = 0;
+			this.burstNanos = 0;
+		}
+		this.wheel = new TimerWheel(name, settings.tickNanos, TimeUnit.NANOSECONDS, 512);
+	}
+
+	/**
+	 * Starts polling an ID, or joins the registration already polling it.
+	 */
+	CompletableFuture<T> register(String id, StatusChangeListener<T> listener) {
+		Objects.requireNonNull(id, "id");
+		if (closed) {
+			throw new IllegalStateException("The poller has been closed.");
+		}
+
+		var entry = entries.computeIfAbsent(id, Entry::new);
+		if (listener != null) {
+			entry.listeners.add(listener);
+		}
+		if (entry.scheduled.compareAndSet(false, true)) {
+			schedule(entry, settings.initialDelayNanos);
+		}
+		return entry.future;
+	}
+
+	/**
+	 * Adds a listener to an ID that is still being polled.
+	 *
+	 * @return false if the ID is not, or no longer, registered.
+	 */
+	boolean addListener(String id, StatusChangeListener<T> listener) {
+		var entry = entries.get(id);
+		if (entry == null) {
+			return false;
+		}
+		entry.listeners.add(listener);
+		return !entry.future.isDone();
+	}
+
+	/**
+	 * Stops polling an ID and cancels its registration.
+	 *
+	 * @return true if the ID was being polled.
+	 */
+	boolean unregister(String id) {
+		var entry = entries.remove(id);
+		if (entry == null) {
+			return false;
+		}
+		entry.cancelTimer();
+		entry.future.cancel(false);
+		return true;
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	int inFlight() {
+		return inFlight.get();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		wheel.close();
+		for (var id : List.copyOf(entries.keySet())) {
+			var entry = entries.remove(id);
+			if (entry != null) {
+				entry.cancelTimer();
+				entry.future.completeExceptionally(new CancellationException("The poller has been closed."));
+			}
+		}
+	}
+
+	private void schedule(Entry entry, long delayNanos) {
+		if (closed) {
+			return;
+		}
+		// Spread polls by up to 10% so IDs registered together do not stay in step
+		long jitter = delayNanos / 10;
+		long delay = jitter > 0 ? delayNanos - jitter + ThreadLocalRandom.current().nextLong(2 * jitter) : delayNanos;
+		entry.timeout = wheel.schedule(() -> {
+			ready.add(entry);
+			drain();
+		}, delay, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Requests a drain of the ready queue. Only the first request hands a drain
+	 * off to the executor; the others make the running drain loop once more.
+	 */
+	private void drain() {
+		if (drainRequests.getAndIncrement() == 0) {
+			settings.executor.execute(this::drainLoop);
+		}
+	}
+
+	private void drainLoop() {
+		int requests = drainRequests.get();
+		do {
+			drainReady();
+			requests = drainRequests.addAndGet(-requests);
+		} while (requests != 0);
+	}
+
+	private void drainReady() {
+		while (!ready.isEmpty()) {
+			int current = inFlight.get();
+			if (current >= settings.maxConcurrentRequests) {
+				return;
+			}
+			if (!inFlight.compareAndSet(current, current + 1)) {
+				continue;
+			}
+			long wait = acquirePermit();
+			if (wait > 0) {
+				inFlight.decrementAndGet();
+				scheduleDrain(wait);
+				return;
+			}
+			var entry = ready.poll();
+			if (entry == null) {
+				inFlight.decrementAndGet();
+				continue;
+			}
+			poll(entry);
+		}
+	}
+
+	/**
+	 * Takes one request permit from the rate limit.
+	 *
+	 * @return 0 if a request may start now, otherwise the nanoseconds to wait.
+	 */
+	private long acquirePermit() {
+		if (permitNanos == 0) {
+			return 0;
+		}
+		for (;;) {
+			long now = System.nanoTime();
+			long next = nextPermit.get();
+			if (next - now > burstNanos) {
+				return next - now - burstNanos;
+			}
+			if (nextPermit.compareAndSet(next, Math.max(next, now) + permitNanos)) {
+				return 0;
+			}
+		}
+	}
+
+	private void scheduleDrain(long delayNanos) {
+		if (!closed && drainScheduled.compareAndSet(false, true)) {
+			wheel.schedule(() -> {
+				drainScheduled.set(false);
+				drain();
+			}, delayNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void poll(Entry entry) {
+		// Registrations cancelled by the caller leave on their next poll
+		if (entry.future.isDone()) {
+			finish(entry);
+			inFlight.decrementAndGet();
+			return;
+		}
+
+		CompletableFuture<T> response;
+		try {
+			response = fetch.apply(entry.id);
+		} catch (RuntimeException e) {
+			response = CompletableFuture.failedFuture(e);
+		}
+		response.whenComplete((result, error) -> {
+			inFlight.decrementAndGet();
+			try {
+				if (error != null) {
+					onError(entry, error instanceof CompletionException && error.getCause() != null
+							? error.getCause()
+							: error);
+				} else {
+					onResult(entry, result);
+				}
+			} finally {
+				drain();
+			}
+		});
+	}
+
+	private void onResult(Entry entry, T result) {
+		entry.errors = 0;
+		var status = statusOf.apply(result);
+		var previous = entry.status;
+		boolean changed = !Objects.equals(previous, status);
+		if (changed) {
+			entry.status = status;
+			for (var listener : entry.listeners) {
+				try {
+					listener.onStatusChange(entry.id, previous, result);
+				} catch (RuntimeException e) {
+					// A failing listener must not stop the other listeners or the poll
+				}
+			}
+		}
+
+		if (terminal.test(status)) {
+			finish(entry);
+			entry.future.complete(result);
+			return;
+		}
+		if (expired(entry)) {
+			return;
+		}
+
+		entry.intervalNanos = changed ? settings.minIntervalNanos
+				: Math.min(settings.maxIntervalNanos, (long) (entry.intervalNanos * settings.backoffMultiplier));
+		schedule(entry, entry.intervalNanos);
+	}
+
+	private void onError(Entry entry, Throwable error) {
+		// Refused by a limit of the gateway without being sent, so tried again
+		// later without counting as an error of the API
+		boolean refused = error instanceof PaycriticalConcurrencyLimitException
+				|| error instanceof PaycriticalRateLimitException;
+		// Otherwise only server errors, an API unavailable for now and transport
+		// failures are worth another attempt
+		boolean retryable = refused || !(error instanceof PaycriticalApiException)
+				|| error instanceof PaycriticalApiInternalServerErrorException
+				|| error instanceof PaycriticalApiUnavailableException;
+		if (!retryable || error instanceof IllegalStateException
+				|| !refused && ++entry.errors > settings.maxConsecutiveErrors) {
+			finish(entry);
+			entry.future.completeExceptionally(error);
+			return;
+		}
+		if (expired(entry)) {
+			return;
+		}
+
+		entry.intervalNanos = Math.min(settings.maxIntervalNanos,
+				(long) (entry.intervalNanos * settings.backoffMultiplier));
+		long delay = entry.intervalNanos;
+		if (error instanceof PaycriticalApiUnavailableException) {
+			// Not polled again before the API said it would take requests, even
+			// with the jitter taken off
+			var retryAfter = ((PaycriticalApiUnavailableException) error).getRetryAfter();
+			if (retryAfter != null) {
+				delay = Math.max(delay, retryAfter.toNanos() + retryAfter.toNanos() / 9);
+			}
+		}
+		schedule(entry, delay);
+	}
+
+	private boolean expired(Entry entry) {
+		if (settings.maxDurationNanos <= 0 || System.nanoTime() - entry.registeredAt < settings.maxDurationNanos) {
+			return false;
+		}
+		finish(entry);
+		entry.future.completeExceptionally(new TimeoutException("No terminal status for " + entry.id + " after "
+				+ TimeUnit.NANOSECONDS.toMillis(settings.maxDurationNanos) + " ms."));
+		return true;
+	}
+
+	private void finish(Entry entry) {
+		entries.remove(entry.id, entry);
+		entry.cancelTimer();
+	}
+
+	private final class Entry {
+		private final String id;
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+		private final List<StatusChangeListener<T>> listeners = new CopyOnWriteArrayList<>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private final long registeredAt = System.nanoTime();
+		// Only touched by the single poll in flight for this entry
+		private volatile String status = initialStatus;
+		private long intervalNanos = settings.minIntervalNanos;
+		private int errors;
+		private volatile TimerWheel.Timeout timeout;
+
+		private Entry(String id) {
+			this.id = id;
+		}
+
+		private void cancelTimer() {
+			var current = timeout;
+			if (current != null) {
+				current.cancel();
+			}
+		}
+	}
+}
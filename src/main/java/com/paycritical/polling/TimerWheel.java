@@ -0,0 +1,161 @@
+package com.paycritical.polling;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel driven by a single daemon thread.
+ *
+ * Scheduling and cancelling are O(1) and lock-free, which keeps the cost of
+ * tracking many thousands of timers flat. Timers fire with a precision of one
+ * tick. Tasks run on the wheel thread, so they must only hand work off.
+ */
+final class TimerWheel implements AutoCloseable {
+	private final long tickNanos;
+	private final int mask;
+	private final Timeout[] buckets;
+	private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+	private final Thread worker;
+	private final long startTime;
+	private volatile boolean stopped;
+
+	// Only touched by the worker thread
+	private long tick;
+
+	TimerWheel(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		this.tickNanos = Math.max(1, unit.toNanos(tickDuration));
+		int size = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+		this.mask = size - 1;
+		this.buckets = new Timeout[size];
+		this.startTime = System.nanoTime();
+		this.worker = new Thread(this::run, name);
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	/**
+	 * Schedules a task to run once after the given delay.
+	 *
+	 * @return A handle that can cancel the task before it runs.
+	 */
+	Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if (stopped) {
+			throw new IllegalStateException("The timer has been stopped.");
+		}
+		var timeout = new Timeout(task, System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay)));
+		pending.add(timeout);
+		return timeout;
+	}
+
+	@Override
+	public void close() {
+		stopped = true;
+		LockSupport.unpark(worker);
+	}
+
+	private void run() {
+		while (!stopped) {
+			long deadline = tickNanos * (tick + 1);
+			long sleep;
+			while ((sleep = deadline - (System.nanoTime() - startTime)) > 0 && !stopped) {
+				LockSupport.parkNanos(this, sleep);
+			}
+			if (stopped) {
+				break;
+			}
+
+			transferPending();
+			expire((int) (tick & mask));
+			tick++;
+		}
+		pending.clear();
+	}
+
+	private void transferPending() {
+		Timeout timeout;
+		while ((timeout = pending.poll()) != null) {
+			if (timeout.isCancelled()) {
+				continue;
+			}
+			long due = timeout.deadline / tickNanos;
+			timeout.remainingRounds = (due - tick) / buckets.length;
+			// Timers already overdue go into the current bucket
+			int index = (int) (Math.max(due, tick) & mask);
+			timeout.next = buckets[index];
+			buckets[index] = timeout;
+		}
+	}
+
+	private void expire(int index) {
+		Timeout previous = null;
+		Timeout timeout = buckets[index];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			boolean remove = timeout.isCancelled();
+			if (!remove && timeout.remainingRounds <= 0) {
+				remove = true;
+				timeout.expire();
+			} else if (!remove) {
+				timeout.remainingRounds--;
+			}
+
+			if (remove) {
+				if (previous == null) {
+					buckets[index] = next;
+				} else {
+					previous.next = next;
+				}
+				timeout.next = null;
+			} else {
+				previous = timeout;
+			}
+			timeout = next;
+		}
+	}
+
+	/**
+	 * Handle to a scheduled task.
+	 */
+	static final class Timeout {
+		private static final int WAITING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+		private long remainingRounds;
+		private Timeout next;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * @return true if the task was cancelled before it ran.
+		 */
+		boolean cancel() {
+			return state.compareAndSet(WAITING, CANCELLED);
+		}
+
+		boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		private void expire() {
+			if (state.compareAndSet(WAITING, EXPIRED)) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					// A failing task must not stop the wheel
+					var thread = Thread.currentThread();
+					thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+				}
+			}
+		}
+	}
+}
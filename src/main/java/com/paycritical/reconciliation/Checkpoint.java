@@ -0,0 +1,102 @@
+package com.paycritical.reconciliation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+/**
+ * Progress of a run: the number of records, from the start of the input, that
+ * have all been reconciled. Records complete out of order, so the ones done
+ * past that point are remembered until the records before them are done.
+ *
+ * The count is saved to a file, replaced atomically, so a run that stops
+ * resumes after the records it had finished.
+ */
+final class Checkpoint {
+	// Compact the bits of the completed records once this many are behind
+	private static final int COMPACT_BITS = 4096;
+
+	private final Path file;
+	private long done;
+	private long saved;
+	// Records completed from index base on
+	private long base;
+	private BitSet completed = new BitSet();
+
+	private Checkpoint(Path file, long done) {
+		this.file = file;
+		this.done = done;
+		this.saved = done;
+		this.base = done;
+	}
+
+	/**
+	 * @param file The checkpoint file, or null to keep the progress in memory.
+	 * @return The progress saved in the file, or none if it does not exist.
+	 */
+	static Checkpoint open(Path file) throws IOException {
+		if (file == null || !Files.exists(file)) {
+			return new Checkpoint(file, 0);
+		}
+		var content = Files.readString(file, StandardCharsets.UTF_8).trim();
+		try {
+			return new Checkpoint(file, Long.parseLong(content));
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid checkpoint \"" + content + "\" in " + file + ".", e);
+		}
+	}
+
+	/**
+	 * @return The number of records at the start of the input that are done.
+	 */
+	synchronized long done() {
+		return done;
+	}
+
+	synchronized void complete(long index) {
+		completed.set((int) (index - base));
+		if (index != done) {
+			return;
+		}
+		done = base + completed.nextClearBit((int) (done - base));
+		if (done - base >= COMPACT_BITS) {
+			completed = completed.get((int) (done - base), Math.max(completed.length(), (int) (done - base)));
+			base = done;
+		}
+	}
+
+	/**
+	 * @return The number of records done since the progress was last saved.
+	 */
+	synchronized long unsaved() {
+		return done - saved;
+	}
+
+	void save() throws IOException {
+		long done;
+		synchronized (this) {
+			done = this.done;
+			if (file == null || done == saved) {
+				return;
+			}
+		}
+		var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.writeString(temporary, Long.toString(done), StandardCharsets.UTF_8);
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		synchronized (this) {
+			saved = done;
+		}
+	}
+
+	/**
+	 * Forgets the progress once the whole input is done.
+	 */
+	void delete() throws IOException {
+		if (file != null) {
+			Files.deleteIfExists(file);
+		}
+	}
+}
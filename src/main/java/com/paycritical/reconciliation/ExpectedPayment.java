@@ -0,0 +1,131 @@
+package com.paycritical.reconciliation;
+
+/**
+ * What our records say about one payment, to be checked against the API.
+ *
+ * Every expectation is optional: a null value is not checked. The captured
+ * and remaining amounts are only checked for authorizations, and cost a
+ * second lookup per payment. Instances are immutable.
+ */
+public final class ExpectedPayment {
+	private final String paymentId;
+	private final String orderRef;
+	private final String status;
+	private final Double capturedAmount;
+	private final Double remainingAmount;
+	// Why the line of a file holding the payment could not be parsed, or null
+	private final String parseError;
+
+	/**
+	 * @param paymentId       The payment ID to look up.
+	 * @param orderRef        The internal order reference, reported with
+	 *                        mismatches, or null.
+	 * @param status          The expected status, e.g. "Completed", or null.
+	 * @param capturedAmount  The expected sum of the captures of an
+	 *                        authorization, or null.
+	 * @param remainingAmount The expected amount left to capture of an
+	 *                        authorization, or null.
+	 */
+	public ExpectedPayment(String paymentId, String orderRef, String status, Double capturedAmount,
+			Double remainingAmount) {
+		this(paymentId, orderRef, status, capturedAmount, remainingAmount, null);
+	}
+
+	private ExpectedPayment(String paymentId, String orderRef, String status, Double capturedAmount,
+			Double remainingAmount, String parseError) {
+		this.paymentId = paymentId;
+		this.orderRef = orderRef;
+		this.status = status;
+		this.capturedAmount = capturedAmount;
+		this.remainingAmount = remainingAmount;
+		this.parseError = parseError;
+	}
+
+	/**
+	 * <p>
+	 * Parse Expected Payment
+	 * </p>
+	 *
+	 * Reads one line of a reconciliation file, with the comma separated fields
+	 * paymentId,orderRef,status,capturedAmount,remainingAmount. Trailing fields
+	 * can be left out and empty fields are not checked.
+	 *
+	 * @param line The line to parse.
+	 * @return The expectations on the line.
+	 * @throws IllegalArgumentException The line has too many fields or an
+	 *                                  amount is not a number.
+	 */
+	public static ExpectedPayment parse(String line) {
+		var fields = line.split(",", -1);
+		if (fields.length > 5) {
+			throw new IllegalArgumentException("Too many fields in \"" + line + "\".");
+		}
+		try {
+			return new ExpectedPayment(field(fields, 0), field(fields, 1), field(fields, 2), amount(fields, 3),
+					amount(fields, 4));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid amount in \"" + line + "\".", e);
+		}
+	}
+
+	/**
+	 * A line of a reconciliation file that could not be parsed, identified by
+	 * its first two fields, to be reported instead of reconciled.
+	 */
+	static ExpectedPayment invalid(String line, String parseError) {
+		var fields = line.split(",", -1);
+		return new ExpectedPayment(field(fields, 0), field(fields, 1), null, null, null, parseError);
+	}
+
+	private static String field(String[] fields, int index) {
+		if (index >= fields.length) {
+			return null;
+		}
+		var field = fields[index].trim();
+		return field.isEmpty() ? null : field;
+	}
+
+	private static Double amount(String[] fields, int index) {
+		var field = field(fields, index);
+		return field == null ? null : Double.valueOf(field);
+	}
+
+	public String getPaymentId() {
+		return paymentId;
+	}
+
+	public String getOrderRef() {
+		return orderRef;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public Double getCapturedAmount() {
+		return capturedAmount;
+	}
+
+	public Double getRemainingAmount() {
+		return remainingAmount;
+	}
+
+	/**
+	 * @return Why the line holding the payment could not be parsed, or null.
+	 */
+	String parseError() {
+		return parseError;
+	}
+
+	/**
+	 * Whether the authorization details must be looked up.
+	 */
+	boolean checksAuthorization() {
+		return capturedAmount != null || remainingAmount != null;
+	}
+
+	@Override
+	public String toString() {
+		return paymentId + (orderRef != null ? " (" + orderRef + ")" : "");
+	}
+}
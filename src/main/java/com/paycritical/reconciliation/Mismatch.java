@@ -0,0 +1,109 @@
+package com.paycritical.reconciliation;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A payment whose state in the API differs from what was expected, or that
+ * could not be looked up. Instances are immutable.
+ */
+public final class Mismatch {
+	/**
+	 * What differs.
+	 */
+	public enum Kind {
+		/** The status is not the expected one. */
+		STATUS,
+		/** The captures of the authorization do not add up to the expected amount. */
+		CAPTURED_AMOUNT,
+		/** The amount left to capture is not the expected one. */
+		REMAINING_AMOUNT,
+		/** The payment could not be looked up; see {@link Mismatch#getError()}. */
+		ERROR
+	}
+
+	private final ExpectedPayment expected;
+	private final Set<Kind> kinds;
+	private final String status;
+	private final Double capturedAmount;
+	private final Double remainingAmount;
+	private final String error;
+
+	Mismatch(ExpectedPayment expected, EnumSet<Kind> kinds, String status, Double capturedAmount,
+			Double remainingAmount, String error) {
+		this.expected = expected;
+		this.kinds = Collections.unmodifiableSet(kinds);
+		this.status = status;
+		this.capturedAmount = capturedAmount;
+		this.remainingAmount = remainingAmount;
+		this.error = error;
+	}
+
+	static Mismatch error(ExpectedPayment expected, String error) {
+		return new Mismatch(expected, EnumSet.of(Kind.ERROR), null, null, null, error);
+	}
+
+	/**
+	 * @return The expectations that were checked.
+	 */
+	public ExpectedPayment getExpected() {
+		return expected;
+	}
+
+	/**
+	 * @return What differs; never empty.
+	 */
+	public Set<Kind> getKinds() {
+		return kinds;
+	}
+
+	/**
+	 * @return The status returned by the API, or null if it was not looked up.
+	 */
+	public String getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return The sum of the captures of the authorization, or null if its
+	 *         details were not looked up.
+	 */
+	public Double getCapturedAmount() {
+		return capturedAmount;
+	}
+
+	/**
+	 * @return The amount left to capture, or null if the details of the
+	 *         authorization were not looked up.
+	 */
+	public Double getRemainingAmount() {
+		return remainingAmount;
+	}
+
+	/**
+	 * @return Why the payment could not be looked up, or null.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		if (error != null) {
+			return expected + ": " + error;
+		}
+		var text = new StringBuilder().append(expected).append(':');
+		if (kinds.contains(Kind.STATUS)) {
+			text.append(" status ").append(status).append(" expected ").append(expected.getStatus());
+		}
+		if (kinds.contains(Kind.CAPTURED_AMOUNT)) {
+			text.append(" captured ").append(capturedAmount).append(" expected ").append(expected.getCapturedAmount());
+		}
+		if (kinds.contains(Kind.REMAINING_AMOUNT)) {
+			text.append(" remaining ").append(remainingAmount).append(" expected ")
+					.append(expected.getRemainingAmount());
+		}
+		return text.toString();
+	}
+}
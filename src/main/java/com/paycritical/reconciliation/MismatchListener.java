@@ -0,0 +1,20 @@
+package com.paycritical.reconciliation;
+
+import java.io.IOException;
+
+/**
+ * Receives the mismatches of a reconciliation run as they are found.
+ *
+ * Calls are made one at a time, in the order the lookups complete, from the
+ * gateway executor. A payment only counts as reconciled once its mismatch has
+ * been accepted, so a run resumed from a checkpoint may report again the
+ * mismatches found shortly before it stopped.
+ */
+@FunctionalInterface
+public interface MismatchListener {
+	/**
+	 * @param mismatch The payment that differs.
+	 * @throws IOException Stops the run, which fails with this exception.
+	 */
+	void onMismatch(Mismatch mismatch) throws IOException;
+}
@@ -0,0 +1,435 @@
+package com.paycritical.reconciliation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.paycritical.ApiOutcome;
+import com.paycritical.PaycriticalOutcomes;
+import com.paycritical.PaycriticalPaymentGateway;
+import com.paycritical.response.PaycriticalAuthorization;
+import com.paycritical.response.PaycriticalCapture;
+import com.paycritical.response.PaycriticalPaymentStatus;
+
+/**
+ * Checks a stream of payments against the API: their status and, for
+ * authorizations, the captured and remaining amounts.
+ *
+ * The expected payments are read one at a time, from an iterator or a file,
+ * and looked up with a bounded number of calls in flight, so any number of
+ * payments can be reconciled in constant memory. Lookups go through the
+ * outcome API of the gateway, so the payments that fail cost no exception,
+ * and through its rate limiter, concurrency limit and retry policy when it has
+ * them. Mismatches are handed to a listener as soon as they are found.
+ *
+ * With a checkpoint file the run saves how far it got, and a run that
+ * stopped, for whatever reason, resumes where it left off when started again
+ * on the same input. The file is deleted once the whole input is reconciled.
+ *
+ * Instances are thread-safe. Without a checkpoint file several runs can share
+ * one; with one, a single run at a time may use it, as the runs would
+ * overwrite each other's progress.
+ */
+public final class PaycriticalReconciler {
+	private final PaycriticalOutcomes outcomes;
+	private final int maxConcurrentRequests;
+	private final double amountTolerance;
+	private final Path checkpointFile;
+	private final long checkpointInterval;
+	// Whether a run is using the checkpoint file
+	private final AtomicBoolean checkpointInUse = new AtomicBoolean();
+
+	private PaycriticalReconciler(Builder builder) {
+		this.outcomes = builder.gateway.outcomes();
+		this.maxConcurrentRequests = builder.maxConcurrentRequests;
+		this.amountTolerance = builder.amountTolerance;
+		this.checkpointFile = builder.checkpointFile;
+		this.checkpointInterval = builder.checkpointInterval;
+	}
+
+	/**
+	 * <p>
+	 * Create a Reconciler Builder
+	 * </p>
+	 *
+	 * @param gateway The gateway used to look up the payments.
+	 * @return A builder for a PaycriticalReconciler.
+	 */
+	public static Builder builder(PaycriticalPaymentGateway gateway) {
+		return new Builder(gateway);
+	}
+
+	/**
+	 * <p>
+	 * Reconcile File
+	 * </p>
+	 *
+	 * Reconciles the payments of a file with one payment per line, in the
+	 * format read by {@link ExpectedPayment#parse(String)}. Blank lines and
+	 * lines starting with # are skipped. A line that can not be parsed is
+	 * reported as an error, like a payment that could not be looked up.
+	 *
+	 * @param file     The file to read, in UTF-8.
+	 * @param listener Receives the mismatches.
+	 * @return The counts of the run.
+	 * @throws IOException           The file could not be read, the checkpoint
+	 *                               could not be saved or the listener failed.
+	 * @throws InterruptedException
+	 * @throws IllegalStateException Another run is using the checkpoint file.
+	 */
+	public ReconciliationSummary run(Path file, MismatchListener listener) throws IOException, InterruptedException {
+		try (var reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			return run(new FileIterator(reader), listener);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Reconcile Payments
+	 * </p>
+	 *
+	 * Reconciles the payments in the order of the iterator, which is only
+	 * advanced when a call can be sent. Returns once every payment has been
+	 * looked up and its mismatch, if any, reported. When resuming from a
+	 * checkpoint, the payments reconciled by the earlier run are skipped, so
+	 * the iterator must return them in the same order.
+	 *
+	 * @param expected The payments to reconcile.
+	 * @param listener Receives the mismatches.
+	 * @return The counts of the run.
+	 * @throws IOException           The checkpoint could not be read or saved,
+	 *                               or the listener failed.
+	 * @throws InterruptedException
+	 * @throws IllegalStateException Another run is using the checkpoint file.
+	 */
+	public ReconciliationSummary run(Iterator<ExpectedPayment> expected, MismatchListener listener)
+			throws IOException, InterruptedException {
+		if (checkpointFile == null) {
+			return reconcileAll(expected, listener);
+		}
+		if (!checkpointInUse.compareAndSet(false, true)) {
+			throw new IllegalStateException("Another run is using the checkpoint " + checkpointFile + ".");
+		}
+		try {
+			return reconcileAll(expected, listener);
+		} finally {
+			checkpointInUse.set(false);
+		}
+	}
+
+	private ReconciliationSummary reconcileAll(Iterator<ExpectedPayment> expected, MismatchListener listener)
+			throws IOException, InterruptedException {
+		var checkpoint = Checkpoint.open(checkpointFile);
+		long index = 0;
+		for (long skip = checkpoint.done(); index < skip && expected.hasNext(); index++) {
+			expected.next();
+		}
+		var run = new Run(listener, checkpoint, index);
+
+		boolean interrupted = false;
+		try {
+			while (run.failure == null && expected.hasNext()) {
+				var payment = expected.next();
+				run.permits.acquire();
+				if (run.failure != null) {
+					run.permits.release();
+					break;
+				}
+				reconcile(payment, index++, run);
+				if (checkpoint.unsaved() >= checkpointInterval) {
+					checkpoint.save();
+				}
+			}
+		} catch (InterruptedException e) {
+			interrupted = true;
+			throw e;
+		} finally {
+			if (interrupted) {
+				// The lookups in flight are done again when the run resumes
+				run.stop();
+			} else {
+				run.permits.acquireUninterruptibly(maxConcurrentRequests);
+			}
+			checkpoint.save();
+		}
+
+		if (run.failure != null) {
+			throw run.failure;
+		}
+		checkpoint.delete();
+		return run.summary();
+	}
+
+	private void reconcile(ExpectedPayment expected, long index, Run run) {
+		if (expected.parseError() != null) {
+			run.finish(index, Mismatch.error(expected, expected.parseError()));
+			return;
+		}
+		if (expected.getPaymentId() == null) {
+			run.finish(index, Mismatch.error(expected, "No payment ID."));
+			return;
+		}
+		CompletableFuture<ApiOutcome<PaycriticalPaymentStatus>> status;
+		CompletableFuture<ApiOutcome<PaycriticalAuthorization>> authorization;
+		try {
+			status = outcomes.getPaymentStatusAsync(expected.getPaymentId());
+			authorization = expected.checksAuthorization()
+					? outcomes.getAuthorizationDetailsAsync(expected.getPaymentId())
+					: CompletableFuture.completedFuture(null);
+		} catch (RuntimeException e) {
+			run.finish(index, Mismatch.error(expected, e.toString()));
+			return;
+		}
+		status.thenCombine(authorization, (paymentStatus, details) -> compare(expected, paymentStatus, details))
+				.exceptionally(error -> Mismatch.error(expected,
+						(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error)
+								.toString()))
+				.thenAccept(mismatch -> run.finish(index, mismatch));
+	}
+
+	/**
+	 * @return The differences, or null if the payment is as expected.
+	 */
+	private Mismatch compare(ExpectedPayment expected, ApiOutcome<PaycriticalPaymentStatus> status,
+			ApiOutcome<PaycriticalAuthorization> authorization) {
+		if (!status.isSuccess()) {
+			return Mismatch.error(expected, describe(status.getFailure()));
+		}
+		var kinds = EnumSet.noneOf(Mismatch.Kind.class);
+		var actualStatus = status.getValue().getStatus();
+		if (expected.getStatus() != null && !expected.getStatus().equals(actualStatus)) {
+			kinds.add(Mismatch.Kind.STATUS);
+		}
+
+		Double captured = null;
+		Double remaining = null;
+		if (authorization != null) {
+			if (!authorization.isSuccess()) {
+				return Mismatch.error(expected, describe(authorization.getFailure()));
+			}
+			var details = authorization.getValue();
+			captured = capturedAmount(details);
+			remaining = details.getRemainingAmount();
+			if (expected.getCapturedAmount() != null && differs(expected.getCapturedAmount(), captured)) {
+				kinds.add(Mismatch.Kind.CAPTURED_AMOUNT);
+			}
+			if (expected.getRemainingAmount() != null && differs(expected.getRemainingAmount(), remaining)) {
+				kinds.add(Mismatch.Kind.REMAINING_AMOUNT);
+			}
+		}
+		return kinds.isEmpty() ? null : new Mismatch(expected, kinds, actualStatus, captured, remaining, null);
+	}
+
+	private static double capturedAmount(PaycriticalAuthorization details) {
+		double total = 0;
+		if (details.getCaptures() != null) {
+			for (PaycriticalCapture capture : details.getCaptures()) {
+				if (capture.getAmount() != null) {
+					total += capture.getAmount();
+				}
+			}
+		}
+		return total;
+	}
+
+	private boolean differs(double expected, Double actual) {
+		return actual == null || Math.abs(expected - actual) > amountTolerance;
+	}
+
+	private static String describe(ApiOutcome.Failure<?> failure) {
+		if (failure.getCode() != null) {
+			return failure.getStatusCode() + " " + failure.getCode() + ": " + failure.getDescription();
+		}
+		return failure.getStatusCode() + " " + failure.getMessage();
+	}
+
+	/**
+	 * State of one call to run.
+	 */
+	private final class Run {
+		private final MismatchListener listener;
+		private final Checkpoint checkpoint;
+		private final long skipped;
+		private final Semaphore permits = new Semaphore(maxConcurrentRequests);
+		// Guarded by this run
+		private long checked;
+		private long mismatched;
+		private long errors;
+		private boolean stopped;
+		private volatile IOException failure;
+
+		private Run(MismatchListener listener, Checkpoint checkpoint, long skipped) {
+			this.listener = listener;
+			this.checkpoint = checkpoint;
+			this.skipped = skipped;
+		}
+
+		/**
+		 * Reports the outcome of one payment and frees its place.
+		 */
+		private void finish(long index, Mismatch mismatch) {
+			try {
+				synchronized (this) {
+					if (stopped) {
+						return;
+					}
+					if (mismatch != null) {
+						try {
+							listener.onMismatch(mismatch);
+						} catch (IOException e) {
+							fail(e);
+							return;
+						} catch (RuntimeException e) {
+							fail(new IOException("The mismatch listener failed.", e));
+							return;
+						}
+						mismatched++;
+						if (mismatch.getKinds().contains(Mismatch.Kind.ERROR)) {
+							errors++;
+						}
+					}
+					checked++;
+				}
+				checkpoint.complete(index);
+			} finally {
+				permits.release();
+			}
+		}
+
+		// Called with the lock held
+		private void fail(IOException e) {
+			failure = e;
+			stopped = true;
+		}
+
+		private synchronized void stop() {
+			stopped = true;
+		}
+
+		private synchronized ReconciliationSummary summary() {
+			return new ReconciliationSummary(skipped, checked, mismatched, errors);
+		}
+	}
+
+	/**
+	 * Reads the expected payments of a file as they are needed.
+	 */
+	private static final class FileIterator implements Iterator<ExpectedPayment> {
+		private final BufferedReader reader;
+		private String line;
+
+		private FileIterator(BufferedReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public boolean hasNext() {
+			try {
+				while (line == null) {
+					var next = reader.readLine();
+					if (next == null) {
+						return false;
+					}
+					if (!next.isBlank() && !next.startsWith("#")) {
+						line = next;
+					}
+				}
+				return true;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public ExpectedPayment next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			ExpectedPayment payment;
+			try {
+				payment = ExpectedPayment.parse(line);
+			} catch (IllegalArgumentException e) {
+				// Reported with the others, so runs resuming from a checkpoint get past it
+				payment = ExpectedPayment.invalid(line, e.getMessage());
+			}
+			line = null;
+			return payment;
+		}
+	}
+
+	/**
+	 * Builder for {@link PaycriticalReconciler}. Not thread-safe.
+	 */
+	public static final class Builder {
+		private final PaycriticalPaymentGateway gateway;
+		private int maxConcurrentRequests = 64;
+		private double amountTolerance = 0.005;
+		private Path checkpointFile;
+		private long checkpointInterval = 1000;
+
+		private Builder(PaycriticalPaymentGateway gateway) {
+			this.gateway = gateway;
+		}
+
+		/**
+		 * Maximum payments looked up at once. An authorization whose amounts are
+		 * checked takes two calls. Defaults to 64.
+		 */
+		public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+			if (maxConcurrentRequests < 1) {
+				throw new IllegalArgumentException("At least one concurrent request is required.");
+			}
+			this.maxConcurrentRequests = maxConcurrentRequests;
+			return this;
+		}
+
+		/**
+		 * Largest difference between an expected and an actual amount that is
+		 * not a mismatch. Defaults to 0.005, half a cent.
+		 */
+		public Builder amountTolerance(double amountTolerance) {
+			if (amountTolerance < 0) {
+				throw new IllegalArgumentException("The tolerance can not be negative.");
+			}
+			this.amountTolerance = amountTolerance;
+			return this;
+		}
+
+		/**
+		 * File saving how far a run got, so that it can resume there. No
+		 * checkpoint by default.
+		 */
+		public Builder checkpoint(Path checkpointFile) {
+			this.checkpointFile = checkpointFile;
+			return this;
+		}
+
+		/**
+		 * Payments reconciled between two saves of the checkpoint. Defaults to
+		 * 1000.
+		 */
+		public Builder checkpointInterval(long checkpointInterval) {
+			if (checkpointInterval < 1) {
+				throw new IllegalArgumentException("The checkpoint interval must be at least 1.");
+			}
+			this.checkpointInterval = checkpointInterval;
+			return this;
+		}
+
+		public PaycriticalReconciler build() {
+			return new PaycriticalReconciler(this);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.paycritical.reconciliation;
+
+/**
+ * Counts of a completed reconciliation run. Instances are immutable.
+ */
+public final class ReconciliationSummary {
+	private final long skipped;
+	private final long checked;
+	private final long mismatched;
+	private final long errors;
+
+	ReconciliationSummary(long skipped, long checked, long mismatched, long errors) {
+		this.skipped = skipped;
+		this.checked = checked;
+		this.mismatched = mismatched;
+		this.errors = errors;
+	}
+
+	/**
+	 * @return The payments skipped because an earlier run had reconciled them.
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return The payments reconciled by this run.
+	 */
+	public long getChecked() {
+		return checked;
+	}
+
+	/**
+	 * @return The payments reported as mismatches, errors included.
+	 */
+	public long getMismatched() {
+		return mismatched;
+	}
+
+	/**
+	 * @return The payments that could not be looked up.
+	 */
+	public long getErrors() {
+		return errors;
+	}
+
+	@Override
+	public String toString() {
+		return "skipped=" + skipped + " checked=" + checked + " mismatched=" + mismatched + " errors=" + errors;
+	}
+}
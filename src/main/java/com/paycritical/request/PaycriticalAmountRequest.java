@@ -0,0 +1,36 @@
+package com.paycritical.request;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Body of the capture and refund requests.
+ */
+@JsonPropertyOrder({ "paymentId", "amount" })
+public class PaycriticalAmountRequest {
+	private String paymentId;
+	private double amount;
+
+	public PaycriticalAmountRequest() {
+	}
+
+	public PaycriticalAmountRequest(String paymentId, double amount) {
+		this.paymentId = paymentId;
+		this.amount = amount;
+	}
+
+	public String getPaymentId() {
+		return paymentId;
+	}
+	public void setPaymentId(String paymentId) {
+		this.paymentId = paymentId;
+	}
+	// The API receives amounts as strings
+	@JsonFormat(shape = JsonFormat.Shape.STRING)
+	public double getAmount() {
+		return amount;
+	}
+	public void setAmount(double amount) {
+		this.amount = amount;
+	}
+}
@@ -0,0 +1,22 @@
+package com.paycritical.request;
+
+/**
+ * Body of the cancel and resend requests.
+ */
+public class PaycriticalPaymentIdRequest {
+	private String paymentId;
+
+	public PaycriticalPaymentIdRequest() {
+	}
+
+	public PaycriticalPaymentIdRequest(String paymentId) {
+		this.paymentId = paymentId;
+	}
+
+	public String getPaymentId() {
+		return paymentId;
+	}
+	public void setPaymentId(String paymentId) {
+		this.paymentId = paymentId;
+	}
+}
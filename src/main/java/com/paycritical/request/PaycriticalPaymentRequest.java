@@ -0,0 +1,52 @@
+package com.paycritical.request;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Body of the payment and authorization requests sent to /api/payment.
+ */
+@JsonPropertyOrder({ "amount", "orderRef", "phoneNumber", "transactionType" })
+public class PaycriticalPaymentRequest {
+	private double amount;
+	private String orderRef;
+	private String phoneNumber;
+	private String transactionType;
+
+	public PaycriticalPaymentRequest() {
+	}
+
+	public PaycriticalPaymentRequest(double amount, String orderRef, String phoneNumber, String transactionType) {
+		this.amount = amount;
+		this.orderRef = orderRef;
+		this.phoneNumber = phoneNumber;
+		this.transactionType = transactionType;
+	}
+
+	// The API receives amounts as strings
+	@JsonFormat(shape = JsonFormat.Shape.STRING)
+	public double getAmount() {
+		return amount;
+	}
+	public void setAmount(double amount) {
+		this.amount = amount;
+	}
+	public String getOrderRef() {
+		return orderRef;
+	}
+	public void setOrderRef(String orderRef) {
+		this.orderRef = orderRef;
+	}
+	public String getPhoneNumber() {
+		return phoneNumber;
+	}
+	public void setPhoneNumber(String phoneNumber) {
+		this.phoneNumber = phoneNumber;
+	}
+	public String getTransactionType() {
+		return transactionType;
+	}
+	public void setTransactionType(String transactionType) {
+		this.transactionType = transactionType;
+	}
+}
@@ -0,0 +1,36 @@
+package com.paycritical.request;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Body of the QR code requests sent to /api/qrcode.
+ */
+@JsonPropertyOrder({ "amount", "orderRef" })
+public class PaycriticalQRCodeRequest {
+	private double amount;
+	private String orderRef;
+
+	public PaycriticalQRCodeRequest() {
+	}
+
+	public PaycriticalQRCodeRequest(double amount, String orderRef) {
+		this.amount = amount;
+		this.orderRef = orderRef;
+	}
+
+	// The API receives amounts as strings
+	@JsonFormat(shape = JsonFormat.Shape.STRING)
+	public double getAmount() {
+		return amount;
+	}
+	public void setAmount(double amount) {
+		this.amount = amount;
+	}
+	public String getOrderRef() {
+		return orderRef;
+	}
+	public void setOrderRef(String orderRef) {
+		this.orderRef = orderRef;
+	}
+}
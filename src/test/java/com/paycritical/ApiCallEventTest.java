@@ -0,0 +1,57 @@
+package com.paycritical;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.paycritical.simulator.LatencyDistribution;
+import com.paycritical.simulator.PaycriticalSimulator;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class ApiCallEventTest {
+
+	@Test
+	public void callsAreRecordedWhenTheEventIsEnabled() throws Exception {
+		var file = Files.createTempFile("paycritical", ".jfr");
+		try (var simulator = PaycriticalSimulator.builder()
+				.customerResponseTime(LatencyDistribution.fixed(Duration.ofDays(1))).start();
+				var gateway = PaycriticalPaymentGateway.builder("Basic test", simulator.baseUrl())
+						.statusCache(PaycriticalStatusCache.builder().build()).build()) {
+			var payment = gateway.requestPayment(1.25, "+351911111111", "order-1");
+			simulator.approve(payment.getPaymentId());
+
+			try (var recording = new Recording()) {
+				recording.enable("com.paycritical.ApiCall").withThreshold(Duration.ZERO);
+				recording.start();
+				gateway.getPaymentStatus(payment.getPaymentId());
+				gateway.getPaymentStatus(payment.getPaymentId());
+				recording.stop();
+				recording.dump(file);
+			}
+
+			List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+					.filter(event -> event.getEventType().getName().equals("com.paycritical.ApiCall"))
+					.collect(Collectors.toList());
+			assertEquals(2, events.size());
+
+			// The completed status is pinned in the cache, so only the first call is sent
+			var sent = events.stream().filter(event -> !event.getBoolean("cached")).findFirst().get();
+			assertEquals("GET_PAYMENT_STATUS", sent.getString("endpoint"));
+			assertEquals(payment.getPaymentId(), sent.getString("resourceId"));
+			assertEquals(200, sent.getInt("statusCode"));
+			assertTrue(sent.getLong("timeToFirstByte") > 0);
+			assertEquals(1, events.stream().filter(event -> event.getBoolean("cached")).count());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.paycritical;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import com.paycritical.exception.PaycriticalConcurrencyLimitException;
+
+public class PaycriticalConcurrencyLimitTest {
+
+	@Test
+	public void callsOverTheLimitFailWithoutAQueue() throws Exception {
+		var limit = PaycriticalConcurrencyLimit.builder().writeLimit(1, 1).build();
+		var first = limit.acquire(PaycriticalEndpoint.CAPTURE_PAYMENT, Runnable::run).get();
+
+		var second = limit.acquire(PaycriticalEndpoint.REFUND_PAYMENT, Runnable::run);
+		try {
+			second.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof PaycriticalConcurrencyLimitException);
+		}
+		// Lookups have a limit of their own
+		assertTrue(limit.acquire(PaycriticalEndpoint.GET_PAYMENT_STATUS, Runnable::run).isDone());
+
+		first.release(false);
+		assertTrue(limit.acquire(PaycriticalEndpoint.REFUND_PAYMENT, Runnable::run).isDone());
+		assertEquals(1, limit.rejectedCount());
+	}
+
+	@Test
+	public void queuedCallsGetTheReleasedSlot() throws Exception {
+		var limit = PaycriticalConcurrencyLimit.builder().writeLimit(1, 1).queue(1, Duration.ofMillis(50)).build();
+		var first = limit.acquire(PaycriticalEndpoint.REQUEST_PAYMENT, Runnable::run).get();
+		var queued = limit.acquire(PaycriticalEndpoint.REQUEST_PAYMENT, Runnable::run);
+		assertFalse(queued.isDone());
+
+		first.release(false);
+		assertTrue(queued.isDone());
+
+		// Waits too long, as the slot is never released
+		var timedOut = limit.acquire(PaycriticalEndpoint.REQUEST_PAYMENT, Runnable::run);
+		try {
+			timedOut.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof PaycriticalConcurrencyLimitException);
+		}
+	}
+
+	@Test
+	public void overloadShrinksTheLimitOncePerRoundTrip() throws Exception {
+		var limit = PaycriticalConcurrencyLimit.builder().readLimit(20, 200).backoffRatio(0.5).build();
+		var before = limit.acquire(PaycriticalEndpoint.GET_PAYMENT_STATUS, Runnable::run).get();
+		var failed = limit.acquire(PaycriticalEndpoint.GET_PAYMENT_STATUS, Runnable::run).get();
+		Thread.sleep(1);
+
+		failed.release(true);
+		assertEquals(10, limit.readLimit());
+		// Sent before the decrease
+		before.release(true);
+		assertEquals(10, limit.readLimit());
+
+		Thread.sleep(1);
+		limit.acquire(PaycriticalEndpoint.GET_PAYMENT_STATUS, Runnable::run).get().release(true);
+		assertEquals(5, limit.readLimit());
+	}
+}
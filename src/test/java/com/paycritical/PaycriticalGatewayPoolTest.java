@@ -0,0 +1,78 @@
+package com.paycritical;
+
+import static com.paycritical.simulator.PaycriticalSimulatorRule.API_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.paycritical.exception.PaycriticalApiUnauthorizedException;
+import com.paycritical.simulator.LatencyDistribution;
+import com.paycritical.simulator.PaycriticalSimulatorRule;
+
+public class PaycriticalGatewayPoolTest {
+	@Rule
+	public final PaycriticalSimulatorRule api = new PaycriticalSimulatorRule(
+			PaycriticalSimulatorRule.builder().latency(LatencyDistribution.fixed(Duration.ofMillis(20))));
+
+	@Test
+	public void tenantsSendTheirOwnKeyOverSharedConnections() throws Exception {
+		try (var pool = PaycriticalGatewayPool
+				.builder(PaycriticalPaymentGateway.builder(null, api.simulator().baseUrl())).build()) {
+			var merchant = pool.addTenant("merchant", API_KEY, 1);
+			var other = pool.addTenant("other", "Basic b3RoZXI6b3RoZXI=", 1);
+
+			var payment = merchant.requestPayment(1.25, "+351911111111", "order-1");
+			assertEquals("Requested", merchant.getPaymentStatus(payment.getPaymentId()).getStatus());
+			try {
+				other.getPaymentStatus(payment.getPaymentId());
+				fail("The key of the other tenant was accepted.");
+			} catch (PaycriticalApiUnauthorizedException e) {
+				// Expected
+			}
+			assertEquals(1, pool.connectionStats().size());
+			assertEquals(2, pool.tenantStats("merchant").getCalls());
+			assertEquals(1, pool.tenantStats("other").getCalls());
+
+			assertTrue(pool.removeTenant("other"));
+			try {
+				other.getPaymentStatus(payment.getPaymentId());
+				fail("The gateway of a removed tenant made a call.");
+			} catch (IllegalStateException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void aBatchDoesNotStarveTheOtherTenants() throws Exception {
+		try (var pool = PaycriticalGatewayPool
+				.builder(PaycriticalPaymentGateway.builder(null, api.simulator().baseUrl())).maxInFlight(2).build()) {
+			var batch = pool.addTenant("batch", API_KEY, 1);
+			var interactive = pool.addTenant("interactive", API_KEY, 1);
+
+			var calls = new ArrayList<CompletableFuture<?>>();
+			for (int i = 0; i < 40; i++) {
+				calls.add(batch.requestPaymentAsync(1.25, "+351911111111", "batch-" + i));
+			}
+			assertEquals(38, pool.tenantStats("batch").getQueued());
+
+			interactive.requestPayment(1.25, "+351911111111", "order-1");
+			// Sent as soon as a slot freed up, ahead of the batch's queue
+			assertTrue(pool.tenantStats("batch").getCalls() <= 4);
+			assertEquals(1, pool.tenantStats("interactive").getCalls());
+
+			CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).get();
+			var stats = pool.tenantStats("batch");
+			assertEquals(40, stats.getCalls());
+			assertEquals(0, stats.getInFlight());
+			assertTrue(stats.getLatency().max() > stats.getLatency().percentile(1));
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package com.paycritical;
+
+import static com.paycritical.simulator.PaycriticalSimulatorRule.API_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.paycritical.simulator.LatencyDistribution;
+import com.paycritical.simulator.PaycriticalSimulator;
+
+public class PaycriticalHedgingPolicyTest {
+
+	@Test
+	public void slowLookupsAreHedged() throws Exception {
+		// Every tenth response takes half a second, so a hedge is always fast
+		var responses = new AtomicInteger();
+		LatencyDistribution bimodal = random -> responses.incrementAndGet() % 10 == 0 ? 500_000_000 : 1_000_000;
+		var hedging = PaycriticalHedgingPolicy.builder().delay(Duration.ofMillis(5), Duration.ofMillis(50))
+				.maxHedgeRatio(1).build();
+		try (var slow = PaycriticalSimulator.builder().latency(bimodal)
+				.customerResponseTime(LatencyDistribution.fixed(Duration.ofDays(1))).start();
+				var hedged = PaycriticalPaymentGateway.builder(API_KEY, slow.baseUrl()).hedging(hedging).build()) {
+			var paymentId = hedged.requestPayment(1.25, "+351911111111", "order-6").getPaymentId();
+			long slowest = 0;
+			for (int i = 0; i < 50; i++) {
+				long start = System.nanoTime();
+				assertEquals("Requested", hedged.getPaymentStatus(paymentId).getStatus());
+				slowest = Math.max(slowest, System.nanoTime() - start);
+			}
+
+			assertTrue(hedging.hedgeWinCount() >= 4);
+			assertTrue(slowest < 400_000_000);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsWindowsThatAreNotPositive() {
+		PaycriticalHedgingPolicy.builder().window(Duration.ZERO);
+	}
+}
@@ -0,0 +1,121 @@
+package com.paycritical;
+
+import static com.paycritical.simulator.PaycriticalSimulatorRule.API_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.paycritical.simulator.PaycriticalSimulatorRule;
+
+public class PaycriticalJournalTest {
+	@Rule
+	public final PaycriticalSimulatorRule api = new PaycriticalSimulatorRule();
+
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("journal");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (var files = Files.list(directory)) {
+			for (var file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	private long segments() throws IOException {
+		try (var files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().endsWith(".log")).count();
+		}
+	}
+
+	@Test
+	public void answeredCallsLeaveNothingInDoubt() throws Exception {
+		try (var journal = PaycriticalJournal.builder(directory).segmentSize(4096).build();
+				var gateway = PaycriticalPaymentGateway.builder(API_KEY, api.simulator().baseUrl()).journal(journal)
+						.build()) {
+			var calls = new ArrayList<CompletableFuture<?>>();
+			for (int i = 0; i < 100; i++) {
+				calls.add(gateway.requestPaymentAsync(1.25, "+351911111111", "order-" + i)
+						.thenCompose(payment -> {
+							api.simulator().approve(payment.getPaymentId());
+							return gateway.refundPaymentRequestAsync(payment.getPaymentId(), 0.25);
+						}));
+			}
+			// Rejected by the API, so not in doubt either
+			calls.add(gateway.outcomes().capturePaymentRequestAsync(UUID.randomUUID().toString(), 1));
+			CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).get();
+
+			assertTrue(journal.inDoubt().isEmpty());
+			// Every segment but the current one was settled
+			assertEquals(1, segments());
+		}
+
+		try (var journal = PaycriticalJournal.builder(directory).build()) {
+			assertTrue(journal.inDoubt().isEmpty());
+			assertEquals(1, segments());
+		}
+	}
+
+	@Test
+	public void callsLeftInFlightAreRecovered() throws Exception {
+		var paymentId = UUID.randomUUID().toString();
+		var refundedId = api.gateway().requestPayment(1.25, "+351911111111", "order-2").getPaymentId();
+		try (var journal = PaycriticalJournal.builder(directory).build()) {
+			journal.append(PaycriticalEndpoint.CAPTURE_PAYMENT, paymentId, null, null, 0.5).get();
+			journal.append(PaycriticalEndpoint.REQUEST_PAYMENT, null, "order-1", "+351911111111", 1.25).get();
+			journal.append(PaycriticalEndpoint.REFUND_PAYMENT, refundedId, null, null, 0.25).get();
+			// The process stops before the responses arrive
+		}
+
+		try (var journal = PaycriticalJournal.builder(directory).build()) {
+			var inDoubt = journal.inDoubt();
+			assertEquals(3, inDoubt.size());
+			assertEquals(PaycriticalEndpoint.CAPTURE_PAYMENT, inDoubt.get(0).getEndpoint());
+			assertEquals(paymentId, inDoubt.get(0).getPaymentId());
+			assertEquals(0.5, inDoubt.get(0).getAmount(), 0);
+			assertEquals("order-1", inDoubt.get(1).getOrderRef());
+
+			var settlements = journal.recover(api.gateway());
+			// The payment does not exist, so the capture was not applied
+			assertTrue(settlements.get(0).isSettled());
+			assertNull(settlements.get(0).getStatus());
+			// Payment requests cannot be looked up
+			assertFalse(settlements.get(1).isSettled());
+			// The status of the payment does not tell whether the refund was applied
+			assertFalse(settlements.get(2).isSettled());
+			assertEquals("Requested", settlements.get(2).getStatus());
+		}
+
+		try (var journal = PaycriticalJournal.builder(directory).build()) {
+			var inDoubt = journal.inDoubt();
+			assertEquals(2, inDoubt.size());
+			for (var operation : inDoubt) {
+				journal.settle(operation);
+			}
+			assertTrue(journal.inDoubt().isEmpty());
+		}
+
+		try (var journal = PaycriticalJournal.builder(directory).build()) {
+			assertTrue(journal.inDoubt().isEmpty());
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package com.paycritical;
+
+import static com.paycritical.simulator.PaycriticalSimulatorRule.API_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.paycritical.exception.PaycriticalApiUnauthorizedException;
+import com.paycritical.exception.PaycriticalApiUnavailableException;
+import com.paycritical.exception.PaycriticalApiValidationException;
+import com.paycritical.metrics.PaycriticalMetricsRecorder;
+import com.paycritical.simulator.LatencyDistribution;
+import com.paycritical.simulator.PaycriticalSimulator;
+import com.paycritical.simulator.PaycriticalSimulatorRule;
+
+public class PaycriticalPaymentGatewayTest {
+	@Rule
+	public final PaycriticalSimulatorRule api = new PaycriticalSimulatorRule();
+
+	@Test
+	public void callsAreRecordedPerEndpoint() throws Exception {
+		var recorder = new PaycriticalMetricsRecorder();
+		try (var recorded = PaycriticalPaymentGateway.builder(API_KEY, api.simulator().baseUrl()).callListener(recorder)
+				.build()) {
+			var payment = recorded.requestPayment(1.25, "+351911111111", "order-5");
+			recorded.getPaymentStatus(payment.getPaymentId());
+			recorded.getPaymentStatus(payment.getPaymentId());
+			try {
+				recorded.capturePaymentRequest(payment.getPaymentId(), 1);
+				fail();
+			} catch (PaycriticalApiValidationException e) {
+				// Expected, payments are not authorizations
+			}
+		}
+
+		assertEquals(1, recorder.latency(PaycriticalEndpoint.REQUEST_PAYMENT).count());
+		assertEquals(2, recorder.latency(PaycriticalEndpoint.GET_PAYMENT_STATUS).count());
+		assertTrue(recorder.bytesSent(PaycriticalEndpoint.REQUEST_PAYMENT) > 0);
+		assertTrue(recorder.bytesReceived(PaycriticalEndpoint.GET_PAYMENT_STATUS) > 0);
+		assertEquals(Long.valueOf(1), recorder.exceptionCounts(PaycriticalEndpoint.CAPTURE_PAYMENT)
+				.get(PaycriticalApiValidationException.class));
+	}
+
+	@Test
+	public void unavailableResponsesSayWhenToRetry() throws Exception {
+		try (var unavailable = PaycriticalSimulator.builder().errorRate(503, 1).start();
+				var busy = new PaycriticalPaymentGateway(API_KEY, unavailable.baseUrl())) {
+			var failure = busy.outcomes().getPaymentStatus("unknown").getFailure();
+			assertEquals(503, failure.getStatusCode());
+			assertEquals(Duration.ofSeconds(1), failure.getRetryAfter());
+			try {
+				busy.getPaymentStatus("unknown");
+				fail();
+			} catch (PaycriticalApiUnavailableException e) {
+				assertEquals(Duration.ofSeconds(1), e.getRetryAfter());
+			}
+		}
+	}
+
+	@Test
+	public void callsFailOnceTheirTimeoutHasPassed() throws Exception {
+		try (var slow = PaycriticalSimulator.builder().latency(LatencyDistribution.fixed(Duration.ofMillis(500)))
+				.start();
+				var bounded = PaycriticalPaymentGateway.builder(API_KEY, slow.baseUrl()).timeout(Duration.ofSeconds(5))
+						.build()) {
+			long start = System.nanoTime();
+			try {
+				bounded.withTimeout(Duration.ofMillis(100)).getPaymentStatus("unknown");
+				fail();
+			} catch (HttpTimeoutException e) {
+				assertTrue(System.nanoTime() - start < 400_000_000);
+			}
+
+			// The default timeout leaves enough time
+			try {
+				bounded.getPaymentStatus("unknown");
+				fail();
+			} catch (PaycriticalApiValidationException e) {
+				assertEquals("PaymentNotFound", e.getCode());
+			}
+		}
+	}
+
+	@Test
+	public void coalescedCallsKeepTheirOwnTimeout() throws Exception {
+		try (var slow = PaycriticalSimulator.builder().latency(LatencyDistribution.fixed(Duration.ofMillis(300)))
+				.start();
+				var coalescing = PaycriticalPaymentGateway.builder(API_KEY, slow.baseUrl()).coalesceRequests(true)
+						.timeout(Duration.ofSeconds(5)).build()) {
+			var hurried = coalescing.withTimeout(Duration.ofMillis(100));
+			// A short timeout joining the lookup of a long one, then the reverse
+			var longFirst = coalescing.getPaymentStatusAsync("unknown");
+			assertFails(hurried.getPaymentStatusAsync("unknown"), HttpTimeoutException.class);
+			assertFails(longFirst, PaycriticalApiValidationException.class);
+			var shortFirst = hurried.getPaymentStatusAsync("unknown");
+			var longJoining = coalescing.getPaymentStatusAsync("unknown");
+			assertFails(shortFirst, HttpTimeoutException.class);
+			assertFails(longJoining, PaycriticalApiValidationException.class);
+			assertEquals(2, coalescing.coalescedCallCount());
+
+			// Once its only caller cancelled it, the lookup is not joined
+			coalescing.getPaymentStatusAsync("unknown").cancel(true);
+			try {
+				coalescing.getPaymentStatus("unknown");
+				fail();
+			} catch (PaycriticalApiValidationException e) {
+				assertEquals(2, coalescing.coalescedCallCount());
+			}
+		}
+	}
+
+	private static void assertFails(CompletableFuture<?> call, Class<? extends Exception> type) throws Exception {
+		try {
+			call.get(5, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(type.isInstance(e.getCause()));
+		}
+	}
+
+	@Test
+	public void callsInFlightFinishWhenTheGatewayIsClosed() throws Exception {
+		var limit = PaycriticalConcurrencyLimit.builder().readLimit(1, 1).queue(4, null).build();
+		try (var slow = PaycriticalSimulator.builder().latency(LatencyDistribution.fixed(Duration.ofMillis(300)))
+				.start()) {
+			var closing = PaycriticalPaymentGateway.builder(API_KEY, slow.baseUrl()).concurrencyLimit(limit).build();
+			var first = closing.getPaymentStatusAsync("unknown");
+			// Queued for the permit of the first
+			var second = closing.getPaymentStatusAsync("unknown");
+			closing.close();
+
+			for (var call : List.of(first, second)) {
+				try {
+					call.get(5, TimeUnit.SECONDS);
+					fail();
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause() instanceof PaycriticalApiValidationException);
+				}
+			}
+			try {
+				closing.getPaymentStatusAsync("unknown");
+				fail();
+			} catch (IllegalStateException e) {
+				// Closed
+			}
+			assertEquals(0, limit.rejectedCount());
+		}
+	}
+
+	@Test
+	public void requestsAreSpreadOverConnectionsWithinTheirStreamLimit() throws Exception {
+		try (var slow = PaycriticalSimulator.builder().latency(LatencyDistribution.fixed(Duration.ofMillis(50)))
+				.start();
+				var spread = PaycriticalPaymentGateway.builder(API_KEY, slow.baseUrl()).connections(2)
+						.maxStreamsPerConnection(1).build()) {
+			var calls = new ArrayList<CompletableFuture<?>>();
+			for (int i = 0; i < 6; i++) {
+				calls.add(spread.getPaymentStatusAsync("unknown-" + i).exceptionally(error -> null));
+			}
+			CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).get();
+
+			var stats = spread.connectionStats();
+			assertEquals(2, stats.size());
+			long requests = 0;
+			long http11Responses = 0;
+			for (var connection : stats) {
+				assertEquals(0, connection.getActiveStreams());
+				assertEquals(1, connection.getPeakStreams());
+				requests += connection.getRequests();
+				http11Responses += connection.getHttp11Responses();
+			}
+			assertEquals(6, requests);
+			// The simulator only speaks HTTP/1.1
+			assertEquals(6, http11Responses);
+		}
+	}
+
+	@Test
+	public void warmUpOpensConnectionsThatAreKeptWarmWhileIdle() throws Exception {
+		try (var warm = PaycriticalPaymentGateway.builder(API_KEY, api.simulator().baseUrl()).connections(2)
+				.warmUpStreams(3).warmUpIterations(100).keepWarm(Duration.ofMillis(50)).build()) {
+			warm.warmUp();
+			// Three requests on each connection, and maybe pings if it took a while
+			assertTrue(api.simulator().requestCount() >= 6);
+
+			assertEquals("Requested", warm.requestPayment(1, "+351911111111", "order-5").getStatus());
+			long afterCall = api.simulator().requestCount();
+			Thread.sleep(300);
+			// Both connections were pinged several times while idle
+			assertTrue(api.simulator().requestCount() >= afterCall + 4);
+		}
+	}
+
+	@Test
+	public void errorResponsesAreReturnedAsOutcomes() throws Exception {
+		var outcomes = api.gateway().outcomes();
+		var invalid = outcomes.requestPayment(1.25, "", "order-8");
+		assertFalse(invalid.isSuccess());
+		assertEquals(400, invalid.getFailure().getStatusCode());
+		assertEquals("PhoneNumberInvalid", invalid.getFailure().getCode());
+
+		var payment = outcomes.requestPayment(1.25, "+351911111111", "order-9");
+		assertTrue(payment.isSuccess());
+		assertEquals("Requested", outcomes.getPaymentStatus(payment.getValue().getPaymentId()).getValue().getStatus());
+
+		try (var unauthorized = new PaycriticalPaymentGateway("Basic wrong", api.simulator().baseUrl())) {
+			var failure = unauthorized.outcomes().getQRCodeStatus("unknown").getFailure();
+			assertEquals(401, failure.getStatusCode());
+			assertTrue(failure.toException() instanceof PaycriticalApiUnauthorizedException);
+		}
+	}
+
+	@Test
+	public void exceptionsCanBeCreatedWithoutStackTraces() throws Exception {
+		try (var cheap = PaycriticalPaymentGateway.builder(API_KEY, api.simulator().baseUrl()).stackTraces(false)
+				.build()) {
+			cheap.requestPayment(1.25, "", "order-10");
+			fail();
+		} catch (PaycriticalApiValidationException e) {
+			assertEquals("PhoneNumberInvalid", e.getCode());
+			assertEquals(0, e.getStackTrace().length);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.paycritical;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.paycritical.response.PaycriticalAuthorization;
+import com.paycritical.response.PaycriticalCapture;
+import com.paycritical.response.PaycriticalPaymentStatus;
+
+public class PaycriticalPaymentStoreTest {
+
+	private static PaycriticalPaymentStatus status(String value, String transactionType) {
+		var status = new PaycriticalPaymentStatus();
+		status.setStatus(value);
+		status.setTransactionType(transactionType);
+		return status;
+	}
+
+	private static PaycriticalCapture capture(double amount) {
+		var capture = new PaycriticalCapture();
+		capture.setAmount(amount);
+		return capture;
+	}
+
+	@Test
+	public void statusAndAuthorizationAreReadBack() {
+		var store = PaycriticalPaymentStore.builder().build();
+		var paymentId = "6d419e63-6c0d-4331-bbe6-e80586d6299c";
+		var authorization = new PaycriticalAuthorization();
+		authorization.setStatus("Completed");
+		authorization.setExpiration("2021-09-25T14:10:43.017");
+		authorization.setRemainingAmount(1.23);
+		authorization.setCaptures(List.of(capture(0.5), capture(0.25), capture(0.1)));
+
+		store.putPaymentStatus(paymentId, status("Completed", "Authorization"));
+		store.putAuthorization(paymentId, authorization);
+
+		var state = new PaycriticalPaymentState();
+		assertTrue(store.read(paymentId, state));
+		assertEquals(UUID.fromString(paymentId), state.getPaymentId());
+		assertEquals("Completed", state.getStatus());
+		assertEquals("Authorization", state.getTransactionType());
+		assertTrue(state.hasAuthorization());
+		assertEquals(123, state.getRemainingAmountMinor());
+		assertEquals(85, state.getCapturedAmountMinor());
+		assertEquals(3, state.getCaptureCount());
+
+		var status = store.getPaymentStatus(paymentId.toUpperCase());
+		assertEquals("Completed", status.getStatus());
+		assertEquals("Authorization", status.getTransactionType());
+		var details = store.getAuthorization(paymentId);
+		assertEquals("2021-09-25T14:10:43.017", details.getExpiration());
+		assertEquals(1.23, details.getRemainingAmount(), 0);
+		assertNull(details.getCaptures());
+
+		assertFalse(store.read("c14af8ec-d2f4-4d9d-a351-2ce119cb9bb9", state));
+		assertNull(state.getStatus());
+	}
+
+	@Test
+	public void expirationsWithAnOffsetOrAnotherPrecisionAreReadAsInstants() {
+		var store = PaycriticalPaymentStore.builder().build();
+		var paymentId = "6d419e63-6c0d-4331-bbe6-e80586d6299c";
+		var authorization = new PaycriticalAuthorization();
+		authorization.setExpiration("2021-09-25T15:10:43.017+01:00");
+		store.putAuthorization(paymentId, authorization);
+		assertEquals("2021-09-25T14:10:43.017", store.getAuthorization(paymentId).getExpiration());
+
+		// Written back to the millisecond
+		authorization.setExpiration("2021-09-25T14:10:43");
+		store.putAuthorization(paymentId, authorization);
+		assertEquals("2021-09-25T14:10:43.000", store.getAuthorization(paymentId).getExpiration());
+		authorization.setExpiration("2021-09-25T14:10:43.017654");
+		store.putAuthorization(paymentId, authorization);
+		assertEquals("2021-09-25T14:10:43.017", store.getAuthorization(paymentId).getExpiration());
+	}
+
+	@Test
+	public void matchesAMapThroughGrowthAndRemovals() {
+		var store = PaycriticalPaymentStore.builder().expectedSize(4).build();
+		var expected = new HashMap<String, String>();
+		var ids = new ArrayList<String>();
+		var random = new Random(42);
+		var statuses = new String[] { "Requested", "Completed", "Cancelled", "Expired" };
+		for (int i = 0; i < 20_000; i++) {
+			if (ids.isEmpty() || random.nextInt(3) > 0) {
+				var id = UUID.randomUUID().toString();
+				var value = statuses[random.nextInt(statuses.length)];
+				ids.add(id);
+				expected.put(id, value);
+				store.putPaymentStatus(id, status(value, "Capture"));
+			} else {
+				var id = ids.remove(random.nextInt(ids.size()));
+				assertTrue(store.remove(id));
+				assertFalse(store.remove(id));
+				expected.remove(id);
+			}
+		}
+
+		assertEquals(expected.size(), store.size());
+		var state = new PaycriticalPaymentState();
+		for (var entry : expected.entrySet()) {
+			assertTrue(store.read(entry.getKey(), state));
+			assertEquals(entry.getValue(), state.getStatus());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsPaymentIdsThatAreNotUuids() {
+		PaycriticalPaymentStore.builder().build().read("LQ50EWPO", new PaycriticalPaymentState());
+	}
+}
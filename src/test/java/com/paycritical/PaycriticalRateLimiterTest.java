@@ -0,0 +1,64 @@
+package com.paycritical;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.paycritical.PaycriticalRateLimiter.Priority;
+import com.paycritical.exception.PaycriticalRateLimitException;
+
+public class PaycriticalRateLimiterTest {
+	private static final String KEY = "Basic a2V5OmtleQ==";
+
+	@Test
+	public void callsOverTheQuotaFailOnceTheWaitIsTooLong() throws Exception {
+		var limiter = PaycriticalRateLimiter.builder(1, 2).maxWait(Duration.ofMillis(100)).build();
+		assertTrue(limiter.tryAcquire(KEY, PaycriticalEndpoint.REQUEST_PAYMENT, Priority.INTERACTIVE));
+		assertTrue(limiter.tryAcquire(KEY, PaycriticalEndpoint.REQUEST_PAYMENT, Priority.INTERACTIVE));
+		assertFalse(limiter.tryAcquire(KEY, PaycriticalEndpoint.REQUEST_PAYMENT, Priority.INTERACTIVE));
+
+		try {
+			limiter.acquireAsync(KEY, PaycriticalEndpoint.REQUEST_PAYMENT, Priority.INTERACTIVE).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof PaycriticalRateLimitException);
+		}
+		assertEquals(1, limiter.rejectedCount());
+		// Every API key has a bucket of its own
+		assertTrue(limiter.tryAcquire("Basic b3RoZXI6b3RoZXI=", PaycriticalEndpoint.REQUEST_PAYMENT,
+				Priority.INTERACTIVE));
+	}
+
+	@Test
+	public void interactiveCallsWaitForTheRefill() throws Exception {
+		var limiter = PaycriticalRateLimiter.builder(50, 1).build();
+		limiter.acquire(KEY, PaycriticalEndpoint.GET_PAYMENT_STATUS, Priority.INTERACTIVE);
+
+		long start = System.nanoTime();
+		var second = limiter.acquireAsync(KEY, PaycriticalEndpoint.GET_PAYMENT_STATUS, Priority.INTERACTIVE);
+		assertFalse(second.isDone());
+		second.get(1, TimeUnit.SECONDS);
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(15));
+	}
+
+	@Test
+	public void batchCallsLeaveTheReserveAndWeightsAreTaken() {
+		var limiter = PaycriticalRateLimiter.builder(1, 10).batchReserve(0.4)
+				.weight(PaycriticalEndpoint.REQUEST_PAYMENT, 3).build();
+		assertTrue(limiter.tryAcquire(KEY, PaycriticalEndpoint.REQUEST_PAYMENT, Priority.BATCH));
+		assertTrue(limiter.tryAcquire(KEY, PaycriticalEndpoint.REQUEST_PAYMENT, Priority.BATCH));
+		// 4 tokens left, all of them reserved for interactive calls
+		assertFalse(limiter.tryAcquire(KEY, PaycriticalEndpoint.GET_PAYMENT_STATUS, Priority.BATCH));
+
+		assertTrue(limiter.tryAcquire(KEY, PaycriticalEndpoint.REQUEST_PAYMENT, Priority.INTERACTIVE));
+		assertTrue(limiter.tryAcquire(KEY, PaycriticalEndpoint.GET_PAYMENT_STATUS, Priority.INTERACTIVE));
+		assertFalse(limiter.tryAcquire(KEY, PaycriticalEndpoint.GET_PAYMENT_STATUS, Priority.INTERACTIVE));
+	}
+}
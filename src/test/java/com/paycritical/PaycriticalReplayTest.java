@@ -0,0 +1,97 @@
+package com.paycritical;
+
+import static com.paycritical.simulator.PaycriticalSimulatorRule.API_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import com.paycritical.simulator.PaycriticalReplay;
+import com.paycritical.simulator.PaycriticalSimulatorRule;
+import com.paycritical.simulator.ReplayReport;
+import com.paycritical.simulator.ReplayStub;
+
+public class PaycriticalReplayTest {
+	@Test
+	public void recordedTrafficReplaysAgainstTheStub() throws Exception {
+		var file = Files.createTempFile("traffic", ".rec");
+		var reportFile = Files.createTempFile("replay", ".tsv");
+		try {
+			// The capture is recorded without injected errors, so its response is
+			// always the 400 of an unknown payment
+			try (var simulator = PaycriticalSimulatorRule.builder().errorRate(503, 0.2).start();
+					var reliable = PaycriticalSimulatorRule.builder().start();
+					var recorder = PaycriticalRecorder.create(file);
+					var gateway = PaycriticalPaymentGateway.builder(API_KEY, simulator.baseUrl()).recorder(recorder)
+							.build();
+					var captures = PaycriticalPaymentGateway.builder(API_KEY, reliable.baseUrl()).recorder(recorder)
+							.build()) {
+				var calls = new ArrayList<CompletableFuture<?>>();
+				for (int i = 0; i < 50; i++) {
+					calls.add(gateway.outcomes().requestPaymentAsync(1.25, "+351911111111", "order-" + i)
+							.thenCompose(payment -> payment.isSuccess()
+									? gateway.outcomes().getPaymentStatusAsync(payment.getValue().getPaymentId())
+									: CompletableFuture.completedFuture(null)));
+				}
+				calls.add(captures.outcomes().capturePaymentRequestAsync(UUID.randomUUID().toString(), 1));
+				CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).get();
+			}
+
+			var exchanges = PaycriticalRecorder.read(file);
+			assertTrue(exchanges.size() > 50);
+			var exchange = exchanges.get(0);
+			assertEquals("POST", exchange.getMethod());
+			assertEquals("/api/payment", exchange.getPath());
+			assertTrue(exchange.getRequestText().contains("order-"));
+
+			var report = PaycriticalReplay.builder(exchanges).speed(Double.POSITIVE_INFINITY).latencyScale(0).build()
+					.run(baseUrl -> new PaycriticalPaymentGateway(API_KEY, baseUrl));
+			assertEquals(exchanges.size(), report.getAll().getCount());
+			assertEquals(0, report.getAll().getMismatches());
+			assertEquals(1, report.getEndpoints().get("CAPTURE_PAYMENT").getCount());
+
+			report.save(reportFile);
+			var loaded = ReplayReport.load(reportFile);
+			assertEquals(report.getDurationNanos(), loaded.getDurationNanos());
+			assertEquals(report.getAll().getP99Nanos(), loaded.getAll().getP99Nanos());
+			assertTrue(loaded.compare(report).contains("CAPTURE_PAYMENT"));
+
+			// Each recorded response is used once
+			var capture = exchanges.stream()
+					.filter(recorded -> recorded.getEndpoint() == PaycriticalEndpoint.CAPTURE_PAYMENT).findFirst().get();
+			var paymentId = capture.getRequestText().replaceAll(".*\"paymentId\":\"([^\"]+)\".*", "$1");
+			try (var stub = ReplayStub.builder(List.of(capture)).start();
+					var gateway = new PaycriticalPaymentGateway(API_KEY, stub.baseUrl())) {
+				assertEquals(400, gateway.outcomes().capturePaymentRequest(paymentId, 1).getFailure().getStatusCode());
+				assertEquals(0, stub.missCount());
+				assertEquals(404, gateway.outcomes().capturePaymentRequest(paymentId, 1).getFailure().getStatusCode());
+				assertEquals(1, stub.missCount());
+			}
+		} finally {
+			Files.delete(file);
+			Files.delete(reportFile);
+		}
+	}
+
+	@Test
+	public void recordingIsReadableBeforeItIsClosed() throws Exception {
+		var file = Files.createTempFile("traffic", ".rec");
+		try (var recorder = PaycriticalRecorder.create(file)) {
+			for (int i = 0; i < 64; i++) {
+				recorder.record(PaycriticalEndpoint.GET_PAYMENT_STATUS, "GET", "/api/payment/p" + i, null, 200,
+						new byte[] { '{', '}' }, System.nanoTime(), 1_000, 2_000, null);
+			}
+			var exchanges = PaycriticalRecorder.read(file);
+			assertEquals(64, exchanges.size());
+			assertEquals("/api/payment/p63", exchanges.get(63).getPath());
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
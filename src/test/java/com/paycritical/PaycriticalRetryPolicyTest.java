@@ -0,0 +1,108 @@
+package com.paycritical;
+
+import static com.paycritical.simulator.PaycriticalSimulatorRule.API_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.time.Duration;
+
+import org.junit.Test;
+
+import com.paycritical.exception.PaycriticalApiInternalServerErrorException;
+import com.paycritical.exception.PaycriticalApiUnavailableException;
+import com.paycritical.exception.PaycriticalApiValidationException;
+import com.paycritical.simulator.PaycriticalSimulator;
+
+public class PaycriticalRetryPolicyTest {
+
+	@Test
+	public void writesAreOnlyRetriedWhenNotSent() {
+		var policy = PaycriticalRetryPolicy.builder().build();
+		var reset = new IOException("Connection reset");
+		var serverError = new PaycriticalApiInternalServerErrorException("eventId");
+
+		assertTrue(policy.isRetryable(PaycriticalEndpoint.GET_PAYMENT_STATUS, reset));
+		assertTrue(policy.isRetryable(PaycriticalEndpoint.GET_PAYMENT_STATUS, serverError));
+		assertFalse(policy.isRetryable(PaycriticalEndpoint.GET_PAYMENT_STATUS,
+				new PaycriticalApiValidationException("PaymentNotFound", "Not found", "")));
+
+		assertFalse(policy.isRetryable(PaycriticalEndpoint.REQUEST_PAYMENT, reset));
+		assertFalse(policy.isRetryable(PaycriticalEndpoint.CAPTURE_PAYMENT, serverError));
+		assertTrue(policy.isRetryable(PaycriticalEndpoint.REQUEST_PAYMENT,
+				new IOException(new ConnectException("Connection refused"))));
+
+		var idempotent = PaycriticalRetryPolicy.builder().idempotentWrites(true).build();
+		assertTrue(idempotent.isRetryable(PaycriticalEndpoint.CAPTURE_PAYMENT, serverError));
+	}
+
+	@Test
+	public void delaysAreJitteredWithinTheBounds() {
+		long base = Duration.ofMillis(10).toNanos();
+		long max = Duration.ofMillis(100).toNanos();
+		var policy = PaycriticalRetryPolicy.builder().backoff(Duration.ofNanos(base), Duration.ofNanos(max)).build();
+		long delay = base;
+		for (int i = 0; i < 1000; i++) {
+			long next = policy.nextDelay(delay);
+			assertTrue(next >= base && next <= max && next <= Math.max(base, delay * 3));
+			delay = next;
+		}
+	}
+
+	@Test
+	public void transientErrorsAreRetriedForLookupsOnly() throws Exception {
+		var retries = PaycriticalRetryPolicy.builder().maxAttempts(20)
+				.backoff(Duration.ofMillis(1), Duration.ofMillis(5)).retryBudget(1, 100).build();
+		try (var flaky = PaycriticalSimulator.builder().errorRate(503, 0.5).retryAfter(null).start();
+				var retried = PaycriticalPaymentGateway.builder(API_KEY, flaky.baseUrl()).retryPolicy(retries)
+						.build()) {
+			for (int i = 0; i < 10; i++) {
+				try {
+					retried.getPaymentStatus("unknown");
+					fail();
+				} catch (PaycriticalApiValidationException e) {
+					// Answered by the simulator once an attempt was not failed
+					assertEquals("PaymentNotFound", e.getCode());
+				}
+			}
+			for (int i = 0; i < 10; i++) {
+				// Error responses returned as outcomes are retried alike
+				assertEquals("PaymentNotFound", retried.outcomes().getPaymentStatus("unknown").getFailure().getCode());
+			}
+			assertTrue(retries.retryCount() > 0);
+		}
+
+		try (var failing = PaycriticalSimulator.builder().errorRate(503, 1).start();
+				var retried = PaycriticalPaymentGateway.builder(API_KEY, failing.baseUrl()).retryPolicy(retries)
+						.build()) {
+			retried.requestPayment(1.25, "+351911111111", "order-7");
+			fail();
+		} catch (PaycriticalApiUnavailableException e) {
+			// Not sent again, as it may have been processed
+		}
+	}
+
+	@Test
+	public void retriesWaitAsLongAsTheApiAsked() throws Exception {
+		var retries = PaycriticalRetryPolicy.builder().maxAttempts(2)
+				.backoff(Duration.ofMillis(1), Duration.ofMillis(5)).build();
+		try (var unavailable = PaycriticalSimulator.builder().errorRate(503, 1).start();
+				var retried = PaycriticalPaymentGateway.builder(API_KEY, unavailable.baseUrl()).retryPolicy(retries)
+						.timeout(Duration.ofSeconds(5)).build()) {
+			long start = System.nanoTime();
+			assertEquals(503, retried.outcomes().getPaymentStatus("unknown").getFailure().getStatusCode());
+			assertTrue(System.nanoTime() - start >= Duration.ofSeconds(1).toNanos());
+			assertEquals(1, retries.retryCount());
+
+			// Not retried when the wait would outlast the timeout
+			start = System.nanoTime();
+			assertEquals(503, retried.withTimeout(Duration.ofMillis(500)).outcomes().getPaymentStatus("unknown")
+					.getFailure().getStatusCode());
+			assertTrue(System.nanoTime() - start < Duration.ofMillis(500).toNanos());
+			assertEquals(1, retries.retryCount());
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.paycritical;
+
+import static com.paycritical.simulator.PaycriticalSimulatorRule.API_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.paycritical.exception.PaycriticalApiInternalServerErrorException;
+import com.paycritical.exception.PaycriticalApiUnauthorizedException;
+import com.paycritical.exception.PaycriticalApiValidationException;
+import com.paycritical.simulator.PaycriticalSimulator;
+import com.paycritical.simulator.PaycriticalSimulatorRule;
+
+public class PaycriticalSimulatorTest {
+	@Rule
+	public final PaycriticalSimulatorRule api = new PaycriticalSimulatorRule();
+
+	@Test
+	public void paymentIsCompletedOnceApprovedAndRefundable() throws Exception {
+		var payment = api.gateway().requestPayment(1.25, "+351911111111", "order-1");
+		assertEquals("Requested", payment.getStatus());
+		assertEquals("Requested", api.gateway().getPaymentStatus(payment.getPaymentId()).getStatus());
+
+		assertTrue(api.simulator().approve(payment.getPaymentId()));
+		assertEquals("Completed", api.gateway().getPaymentStatus(payment.getPaymentId()).getStatus());
+
+		api.gateway().refundPaymentRequest(payment.getPaymentId(), 1.25);
+		assertEquals("Refunded", api.gateway().getPaymentStatus(payment.getPaymentId()).getStatus());
+	}
+
+	@Test
+	public void authorizationIsCapturedUpToItsAmount() throws Exception {
+		var authorization = api.gateway().requestAuthorization(2, "+351911111111", "order-2");
+		api.simulator().approve(authorization.getPaymentId());
+
+		api.gateway().capturePaymentRequest(authorization.getPaymentId(), 0.5);
+		var details = api.gateway().getAuthorizationDetails(authorization.getPaymentId());
+		assertEquals(1.5, details.getRemainingAmount(), 0);
+		assertEquals(1, details.getCaptures().size());
+
+		try {
+			api.gateway().capturePaymentRequest(authorization.getPaymentId(), 1.75);
+			fail();
+		} catch (PaycriticalApiValidationException e) {
+			assertEquals("AmountExceeded", e.getCode());
+		}
+	}
+
+	@Test
+	public void onlyPendingPaymentsCanBeCancelled() throws Exception {
+		var payment = api.gateway().requestPayment(1.25, "+351911111111", "order-3");
+		api.gateway().cancelPaymentRequest(payment.getPaymentId());
+		assertEquals("Cancelled", api.gateway().getPaymentStatus(payment.getPaymentId()).getStatus());
+
+		try {
+			api.gateway().cancelPaymentRequest(payment.getPaymentId());
+			fail();
+		} catch (PaycriticalApiValidationException e) {
+			assertEquals("InvalidPaymentState", e.getCode());
+		}
+	}
+
+	@Test
+	public void injectedErrorsAndApiKeyAreMappedToExceptions() throws Exception {
+		try (var failing = PaycriticalSimulator.builder().errorRate(500, 1).start();
+				var failingGateway = new PaycriticalPaymentGateway(API_KEY, failing.baseUrl())) {
+			try {
+				failingGateway.getPaymentStatus("unknown");
+				fail();
+			} catch (PaycriticalApiInternalServerErrorException e) {
+				assertEquals(1, failing.injectedErrorCount());
+			}
+		}
+
+		try (var unauthorized = new PaycriticalPaymentGateway("Basic wrong", api.simulator().baseUrl())) {
+			unauthorized.requestQRCode(1, "order-4");
+			fail();
+		} catch (PaycriticalApiUnauthorizedException e) {
+			// Expected
+		}
+	}
+}
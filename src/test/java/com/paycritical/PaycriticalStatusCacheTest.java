@@ -0,0 +1,81 @@
+package com.paycritical;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+import com.paycritical.response.PaycriticalAuthorization;
+import com.paycritical.response.PaycriticalPaymentStatus;
+
+public class PaycriticalStatusCacheTest {
+
+	private static PaycriticalPaymentStatus status(String value) {
+		var status = new PaycriticalPaymentStatus();
+		status.setStatus(value);
+		return status;
+	}
+
+	@Test
+	public void pendingStatusExpiresAfterTtl() throws InterruptedException {
+		var cache = PaycriticalStatusCache.builder().ttl(Duration.ofMillis(20)).build();
+		var requested = status("Requested");
+
+		cache.putPaymentStatus("p1", requested, cache.version("p1"));
+		assertSame(requested, cache.getPaymentStatus("p1"));
+
+		Thread.sleep(40);
+		assertNull(cache.getPaymentStatus("p1"));
+		assertEquals(1, cache.hitCount());
+		assertEquals(1, cache.missCount());
+		assertEquals(1, cache.evictionCount());
+	}
+
+	@Test
+	public void terminalStatusIsPinned() throws InterruptedException {
+		var cache = PaycriticalStatusCache.builder().ttl(Duration.ofMillis(1)).build();
+		var completed = status("Completed");
+
+		cache.putPaymentStatus("p1", completed, cache.version("p1"));
+		Thread.sleep(10);
+		assertSame(completed, cache.getPaymentStatus("p1"));
+	}
+
+	@Test
+	public void invalidationDropsBothResponsesAndStaleReads() {
+		var cache = PaycriticalStatusCache.builder().build();
+		var authorization = new PaycriticalAuthorization();
+		authorization.setStatus("Completed");
+
+		cache.putPaymentStatus("p1", status("Completed"), cache.version("p1"));
+		cache.putAuthorization("p1", authorization, cache.version("p1"));
+		long readBeforeCapture = cache.version("p1");
+		long otherRead = cache.version("p2");
+		cache.invalidate("p1");
+
+		assertNull(cache.getPaymentStatus("p1"));
+		assertNull(cache.getAuthorization("p1"));
+
+		// A response read before the invalidation must not be stored
+		cache.putPaymentStatus("p1", status("Completed"), readBeforeCapture);
+		assertNull(cache.getPaymentStatus("p1"));
+
+		// Nor does it drop the responses of other payments read meanwhile
+		var other = status("Completed");
+		cache.putPaymentStatus("p2", other, otherRead);
+		assertSame(other, cache.getPaymentStatus("p2"));
+	}
+
+	@Test
+	public void sizeIsBounded() {
+		var cache = PaycriticalStatusCache.builder().maxEntries(2).build();
+		for (int i = 0; i < 5; i++) {
+			cache.putPaymentStatus("p" + i, status("Completed"), cache.version("p" + i));
+		}
+		assertEquals(2, cache.size());
+		assertEquals(3, cache.evictionCount());
+	}
+}
@@ -0,0 +1,61 @@
+package com.paycritical.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	private static void assertWithin(long expected, long actual, double relativeError) {
+		assertTrue(actual + " is not within " + relativeError + " of " + expected,
+				Math.abs(actual - expected) <= expected * relativeError);
+	}
+
+	@Test
+	public void bucketsCoverEveryValueInOrder() {
+		assertEquals(0, LatencyHistogram.index(0));
+		assertEquals(31, LatencyHistogram.index(31));
+		for (int i = 1; i < LatencyHistogram.LENGTH; i++) {
+			long low = LatencyHistogram.lowerBound(i);
+			assertEquals(i, LatencyHistogram.index(low));
+			assertEquals(i - 1, LatencyHistogram.index(low - 1));
+		}
+		assertEquals(LatencyHistogram.LENGTH - 1, LatencyHistogram.index(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void percentilesAreWithinThreePercent() {
+		var histogram = new LatencyHistogram();
+		for (long micros = 1; micros <= 10_000; micros++) {
+			histogram.record(micros * 1_000);
+		}
+		var snapshot = histogram.snapshot();
+
+		assertEquals(10_000, snapshot.count());
+		assertEquals(10_000_000, snapshot.max());
+		assertWithin(5_000_000, snapshot.percentile(50), 0.03);
+		assertWithin(9_900_000, snapshot.percentile(99), 0.03);
+		assertWithin(5_000_500, (long) snapshot.mean(), 0.001);
+	}
+
+	@Test
+	public void snapshotsMerge() {
+		var fast = new LatencyHistogram();
+		var slow = new LatencyHistogram();
+		for (int i = 0; i < 90; i++) {
+			fast.record(1_000_000);
+		}
+		for (int i = 0; i < 10; i++) {
+			slow.record(100_000_000);
+		}
+
+		var merged = fast.snapshot().merge(slow.snapshot());
+		assertEquals(100, merged.count());
+		assertWithin(1_000_000, merged.percentile(90), 0.03);
+		assertWithin(100_000_000, merged.percentile(91), 0.03);
+
+		fast.add(slow.snapshot());
+		assertEquals(merged.percentile(95), fast.snapshot().percentile(95));
+	}
+}
@@ -0,0 +1,104 @@
+package com.paycritical.polling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import com.paycritical.exception.PaycriticalApiUnavailableException;
+import com.paycritical.exception.PaycriticalConcurrencyLimitException;
+import com.paycritical.exception.PaycriticalRateLimitException;
+
+public class StatusPollerTest {
+
+	private static PollingSettings settings() {
+		var settings = new PollingSettings();
+		settings.tickNanos = Duration.ofMillis(1).toNanos();
+		settings.initialDelayNanos = Duration.ofMillis(1).toNanos();
+		settings.interval(Duration.ofMillis(1), Duration.ofMillis(5));
+		settings.maxConsecutiveErrors = 2;
+		return settings;
+	}
+
+	private static StatusPoller<String> poller(Function<String, CompletableFuture<String>> fetch,
+			PollingSettings settings) {
+		return new StatusPoller<>("test-poller", fetch, status -> status, "Completed"::equals, "Requested",
+				settings);
+	}
+
+	@Test
+	public void pollsRefusedByTheGatewayAreRetriedWithoutCountingAsErrors() throws Exception {
+		var polls = new AtomicInteger();
+		try (var poller = poller(id -> {
+			int poll = polls.incrementAndGet();
+			if (poll > 6) {
+				return CompletableFuture.completedFuture("Completed");
+			}
+			// Batch polls shed by the rate limiter alike
+			return CompletableFuture.failedFuture(poll % 2 == 0 ? new PaycriticalRateLimitException("Over quota.")
+					: new PaycriticalConcurrencyLimitException("Too many calls."));
+		}, settings())) {
+			assertEquals("Completed", poller.register("p1", null).get(5, TimeUnit.SECONDS));
+			assertEquals(7, polls.get());
+		}
+	}
+
+	@Test
+	public void unavailableApiIsPolledAgainOnceItsRetryAfterPassed() throws Exception {
+		var polls = new AtomicInteger();
+		var failedAt = new AtomicLong();
+		var polledAgainAt = new AtomicLong();
+		try (var poller = poller(id -> {
+			if (polls.incrementAndGet() == 1) {
+				failedAt.set(System.nanoTime());
+				return CompletableFuture.failedFuture(
+						new PaycriticalApiUnavailableException("Service Unavailable", Duration.ofMillis(200), false));
+			}
+			polledAgainAt.set(System.nanoTime());
+			return CompletableFuture.completedFuture("Completed");
+		}, settings())) {
+			assertEquals("Completed", poller.register("p1", null).get(5, TimeUnit.SECONDS));
+			assertEquals(2, polls.get());
+			assertTrue(polledAgainAt.get() - failedAt.get() >= Duration.ofMillis(200).toNanos());
+		}
+	}
+
+	@Test
+	public void pollsAnsweredAtOnceAreDrainedInALoopOnTheExecutor() throws Exception {
+		var executor = Executors.newSingleThreadExecutor();
+		var settings = settings();
+		settings.executor(executor);
+		// Every code comes due in the same tick
+		settings.initialDelayNanos = Duration.ofMillis(200).toNanos();
+		var maxDepth = new AtomicInteger();
+		var onWheel = new AtomicBoolean();
+		try (var poller = poller(id -> {
+			maxDepth.accumulateAndGet(Thread.currentThread().getStackTrace().length, Math::max);
+			onWheel.compareAndSet(false, Thread.currentThread().getName().equals("test-poller"));
+			// As a status cache hit would be
+			return CompletableFuture.completedFuture("Completed");
+		}, settings)) {
+			var registrations = new ArrayList<CompletableFuture<String>>();
+			for (int i = 0; i < 10_000; i++) {
+				registrations.add(poller.register("p" + i, null));
+			}
+			CompletableFuture.allOf(registrations.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+			assertEquals(0, poller.inFlight());
+			assertFalse(onWheel.get());
+			assertTrue("Stack depth " + maxDepth.get(), maxDepth.get() < 100);
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
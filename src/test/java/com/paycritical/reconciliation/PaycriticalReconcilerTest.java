@@ -0,0 +1,133 @@
+package com.paycritical.reconciliation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.paycritical.simulator.PaycriticalSimulatorRule;
+
+public class PaycriticalReconcilerTest {
+	@Rule
+	public final PaycriticalSimulatorRule api = new PaycriticalSimulatorRule();
+
+	@Test
+	public void mismatchesAreReportedWithWhatDiffers() throws Exception {
+		var completed = api.gateway().requestPayment(1, "+351911111111", "order-1").getPaymentId();
+		api.simulator().approve(completed);
+		var pending = api.gateway().requestPayment(1, "+351911111111", "order-2").getPaymentId();
+		var authorization = api.gateway().requestAuthorization(2, "+351911111111", "order-3").getPaymentId();
+		api.simulator().approve(authorization);
+		api.gateway().capturePaymentRequest(authorization, 0.5);
+
+		var file = Files.createTempFile("reconciliation", ".csv");
+		try {
+			Files.write(file, List.of("# paymentId,orderRef,status,capturedAmount,remainingAmount",
+					completed + ",order-1,Completed", pending + ",order-2,Completed", "",
+					authorization + ",order-3,,0.5,1.5", authorization + ",order-3,,2", "unknown,order-4",
+					completed + ",order-5,Completed,none"));
+			var mismatches = new ConcurrentHashMap<String, Mismatch>();
+			var summary = PaycriticalReconciler.builder(api.gateway()).build().run(file,
+					mismatch -> mismatches.put(mismatch.getExpected().getOrderRef(), mismatch));
+
+			assertEquals(6, summary.getChecked());
+			assertEquals(4, summary.getMismatched());
+			assertEquals(2, summary.getErrors());
+			assertEquals("Requested", mismatches.get("order-2").getStatus());
+			assertTrue(mismatches.get("order-3").getKinds().contains(Mismatch.Kind.CAPTURED_AMOUNT));
+			assertEquals(0.5, mismatches.get("order-3").getCapturedAmount(), 0);
+			assertTrue(mismatches.get("order-4").getKinds().contains(Mismatch.Kind.ERROR));
+			// Not looked up, as the line is malformed
+			assertTrue(mismatches.get("order-5").getError().startsWith("Invalid amount"));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void runResumesFromItsCheckpoint() throws Exception {
+		var expected = new ArrayList<ExpectedPayment>();
+		for (int i = 0; i < 50; i++) {
+			var paymentId = api.gateway().requestPayment(1, "+351911111111", "order-" + i).getPaymentId();
+			expected.add(new ExpectedPayment(paymentId, "order-" + i, "Requested", null, null));
+		}
+		var checkpoint = Files.createTempFile("reconciliation", ".checkpoint");
+		Files.delete(checkpoint);
+		var reconciler = PaycriticalReconciler.builder(api.gateway()).maxConcurrentRequests(8).checkpoint(checkpoint)
+				.checkpointInterval(5).build();
+
+		// The input fails after 30 payments, as if the job had died
+		var failing = expected.iterator();
+		try {
+			reconciler.run(new Iterator<ExpectedPayment>() {
+				private int count;
+
+				@Override
+				public boolean hasNext() {
+					if (count == 30) {
+						throw new IllegalStateException("Stopped");
+					}
+					return failing.hasNext();
+				}
+
+				@Override
+				public ExpectedPayment next() {
+					count++;
+					return failing.next();
+				}
+			}, mismatch -> fail());
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("30", Files.readString(checkpoint));
+		}
+
+		long requests = api.simulator().requestCount();
+		var summary = reconciler.run(expected.iterator(), mismatch -> fail());
+		assertEquals(30, summary.getSkipped());
+		assertEquals(20, summary.getChecked());
+		assertEquals(20, api.simulator().requestCount() - requests);
+		assertFalse(Files.exists(checkpoint));
+	}
+
+	@Test
+	public void onlyOneRunAtATimeUsesTheCheckpoint() throws Exception {
+		var checkpoint = Files.createTempFile("reconciliation", ".checkpoint");
+		Files.delete(checkpoint);
+		var reconciler = PaycriticalReconciler.builder(api.gateway()).checkpoint(checkpoint).build();
+		var nested = new boolean[1];
+
+		// A second run started while the first reads its input
+		reconciler.run(new Iterator<ExpectedPayment>() {
+			@Override
+			public boolean hasNext() {
+				try {
+					reconciler.run(List.<ExpectedPayment>of().iterator(), mismatch -> fail());
+					fail();
+				} catch (IllegalStateException e) {
+					nested[0] = true;
+				} catch (Exception e) {
+					throw new AssertionError(e);
+				}
+				return false;
+			}
+
+			@Override
+			public ExpectedPayment next() {
+				throw new AssertionError();
+			}
+		}, mismatch -> fail());
+
+		assertTrue(nested[0]);
+		// Free again once the first run is over
+		assertEquals(0, reconciler.run(List.<ExpectedPayment>of().iterator(), mismatch -> fail()).getChecked());
+	}
+}
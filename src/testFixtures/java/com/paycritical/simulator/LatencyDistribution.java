@@ -0,0 +1,83 @@
+package com.paycritical.simulator;
+
+import java.time.Duration;
+import java.util.Random;
+
+/**
+ * Distribution of a simulated delay, such as the server's response time or
+ * the time a customer takes to answer a payment request.
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+	/**
+	 * @param random The random source of the calling thread.
+	 * @return The next delay in nanoseconds, never negative.
+	 */
+	long sampleNanos(Random random);
+
+	/**
+	 * @return A distribution without any delay.
+	 */
+	static LatencyDistribution none() {
+		return random -> 0;
+	}
+
+	/**
+	 * @param delay The delay of every sample.
+	 * @return A distribution that always returns the same delay.
+	 */
+	static LatencyDistribution fixed(Duration delay) {
+		long nanos = requireNonNegative(delay);
+		return random -> nanos;
+	}
+
+	/**
+	 * @param min The shortest delay.
+	 * @param max The longest delay.
+	 * @return A distribution spread evenly between min and max.
+	 */
+	static LatencyDistribution uniform(Duration min, Duration max) {
+		long low = requireNonNegative(min);
+		long high = requireNonNegative(max);
+		if (high < low) {
+			throw new IllegalArgumentException("The maximum delay is shorter than the minimum.");
+		}
+		return random -> low + (long) (random.nextDouble() * (high - low));
+	}
+
+	/**
+	 * @param mean The mean delay.
+	 * @return An exponential distribution, as between independent arrivals.
+	 */
+	static LatencyDistribution exponential(Duration mean) {
+		long nanos = requireNonNegative(mean);
+		return random -> (long) (-Math.log(1 - random.nextDouble()) * nanos);
+	}
+
+	/**
+	 * Long-tailed distribution typical of network services.
+	 *
+	 * @param median The median delay.
+	 * @param p99    The 99th percentile delay.
+	 * @return A log-normal distribution with the given median and 99th
+	 *         percentile.
+	 */
+	static LatencyDistribution logNormal(Duration median, Duration p99) {
+		long medianNanos = requireNonNegative(median);
+		long p99Nanos = requireNonNegative(p99);
+		if (medianNanos == 0 || p99Nanos < medianNanos) {
+			throw new IllegalArgumentException("The 99th percentile must be at least the median, which must be positive.");
+		}
+		double mu = Math.log(medianNanos);
+		// 2.326 is the 99th percentile of the standard normal distribution
+		double sigma = Math.log((double) p99Nanos / medianNanos) / 2.3263478740408408;
+		return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+	}
+
+	private static long requireNonNegative(Duration delay) {
+		if (delay.isNegative()) {
+			throw new IllegalArgumentException("The delay cannot be negative.");
+		}
+		return delay.toNanos();
+	}
+}
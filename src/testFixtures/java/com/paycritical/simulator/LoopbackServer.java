@@ -0,0 +1,104 @@
+package com.paycritical.simulator;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP server on a loopback port shared by the simulator and the replay stub,
+ * with a pool of daemon threads handling the requests and a timer writing the
+ * delayed responses.
+ *
+ * The JDK server writes headers and body separately, so without TCP_NODELAY
+ * every response with a body waits for the client's delayed ACK. That is a
+ * setting of the whole JVM, which the Gradle tasks running the fixtures pass
+ * as -Dsun.net.httpserver.nodelay=true; other runners should do the same.
+ */
+final class LoopbackServer implements AutoCloseable {
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final ScheduledExecutorService timer;
+
+	/**
+	 * Starts the server.
+	 *
+	 * @param name    Prefix of the names of its threads.
+	 * @param port    The port to listen on, or 0 for any free one.
+	 * @param backlog Connections waiting to be accepted.
+	 * @param threads Threads handling the requests.
+	 * @param handler Handles every request.
+	 */
+	LoopbackServer(String name, int port, int backlog, int threads, HttpHandler handler) throws IOException {
+		var threadCount = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+			var thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			var thread = new Thread(runnable, name + "-timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), backlog);
+		server.setExecutor(executor);
+		server.createContext("/", handler);
+		server.start();
+	}
+
+	/**
+	 * @return The base URL to give the gateway, e.g. http://127.0.0.1:40123
+	 */
+	String baseUrl() {
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Runs a task on the request threads once the delay has passed, rather
+	 * than holding a thread while waiting.
+	 */
+	void schedule(Runnable task, long delayNanos) {
+		timer.schedule(() -> executor.execute(task), delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		timer.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Writes a response and closes the exchange. 200 and 400 bodies are sent
+	 * as JSON, the others as text.
+	 *
+	 * @param body The body, or null or empty for none.
+	 */
+	static void send(HttpExchange exchange, int statusCode, byte[] body) {
+		try {
+			if (body == null || body.length == 0) {
+				exchange.sendResponseHeaders(statusCode, -1);
+			} else {
+				exchange.getResponseHeaders().set("Content-Type",
+						statusCode == 200 || statusCode == 400 ? "application/json; charset=utf-8"
+								: "text/plain; charset=utf-8");
+				exchange.sendResponseHeaders(statusCode, body.length);
+				exchange.getResponseBody().write(body);
+			}
+		} catch (IOException e) {
+			// The client went away; nothing left to answer
+		} finally {
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,307 @@
+package com.paycritical.simulator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paycritical.ApiOutcome;
+import com.paycritical.PaycriticalEndpoint;
+import com.paycritical.PaycriticalOutcomes;
+import com.paycritical.PaycriticalPaymentGateway;
+import com.paycritical.PaycriticalRecorder;
+import com.paycritical.RecordedExchange;
+import com.paycritical.metrics.LatencyHistogram;
+import com.paycritical.request.PaycriticalAmountRequest;
+import com.paycritical.request.PaycriticalPaymentIdRequest;
+import com.paycritical.request.PaycriticalPaymentRequest;
+import com.paycritical.request.PaycriticalQRCodeRequest;
+
+/**
+ * Replays a recording made with a {@link PaycriticalRecorder} through a
+ * gateway talking to a {@link ReplayStub}, measuring the throughput and
+ * latency of the gateway.
+ *
+ * Every recorded exchange is turned back into the gateway call that made it,
+ * started at its recorded time divided by the speed. Latencies are measured
+ * from when the call was due rather than from when it was sent, so a gateway
+ * falling behind the recorded rate shows it in its latencies. Retries and
+ * hedges were recorded as exchanges of their own and are replayed as calls
+ * of their own, so the gateway replaying should not retry or hedge.
+ *
+ * To compare two SDK builds, replay the same recording with each, saving
+ * their reports, then compare the reports:
+ *
+ * <pre>
+ * gradle replay -PreplayArgs="run traffic.rec baseline.tsv"
+ * gradle replay -PreplayArgs="run traffic.rec candidate.tsv"
+ * gradle replay -PreplayArgs="compare baseline.tsv candidate.tsv"
+ * </pre>
+ */
+public final class PaycriticalReplay {
+	private final List<RecordedExchange> exchanges;
+	private final double speed;
+	private final double latencyScale;
+	private final ObjectMapper mapper = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	private PaycriticalReplay(Builder builder) {
+		this.exchanges = builder.exchanges;
+		this.speed = builder.speed;
+		this.latencyScale = builder.latencyScale;
+	}
+
+	/**
+	 * <p>
+	 * Create a Replay Builder
+	 * </p>
+	 *
+	 * @param exchanges The exchanges to replay, as read by
+	 *                  {@link PaycriticalRecorder#read(Path)}.
+	 * @return A builder for a PaycriticalReplay.
+	 */
+	public static Builder builder(List<RecordedExchange> exchanges) {
+		return new Builder(exchanges);
+	}
+
+	/**
+	 * <p>
+	 * Replay the Recording
+	 * </p>
+	 *
+	 * Starts a stub answering with the recorded responses, replays every
+	 * exchange through a gateway created for it and waits for every call to
+	 * complete.
+	 *
+	 * @param gateways Creates the gateway to replay with from the base URL of
+	 *                 the stub; the gateway is closed once the replay is done.
+	 * @return The throughput and latencies of the gateway.
+	 * @throws IOException          The stub could not be started.
+	 * @throws InterruptedException The replay was interrupted.
+	 */
+	public ReplayReport run(Function<String, PaycriticalPaymentGateway> gateways)
+			throws IOException, InterruptedException {
+		var latencies = new EnumMap<PaycriticalEndpoint, LatencyHistogram>(PaycriticalEndpoint.class);
+		var mismatches = new EnumMap<PaycriticalEndpoint, LongAdder>(PaycriticalEndpoint.class);
+		for (var endpoint : PaycriticalEndpoint.values()) {
+			latencies.put(endpoint, new LatencyHistogram());
+			mismatches.put(endpoint, new LongAdder());
+		}
+
+		long origin;
+		long end;
+		try (var stub = ReplayStub.builder(exchanges).latencyScale(latencyScale).start();
+				var gateway = gateways.apply(stub.baseUrl())) {
+			var outcomes = gateway.outcomes();
+			var calls = new ArrayList<CompletableFuture<?>>(exchanges.size());
+			long first = exchanges.isEmpty() ? 0 : exchanges.get(0).getStartNanos();
+			origin = System.nanoTime();
+			for (var exchange : exchanges) {
+				long due = Double.isInfinite(speed) ? System.nanoTime()
+						: origin + (long) ((exchange.getStartNanos() - first) / speed);
+				for (long wait; (wait = due - System.nanoTime()) > 0;) {
+					LockSupport.parkNanos(wait);
+				}
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				var endpoint = exchange.getEndpoint();
+				calls.add(call(outcomes, exchange).handle((outcome, error) -> {
+					latencies.get(endpoint).record(System.nanoTime() - due);
+					if (!matches(exchange, outcome, error)) {
+						mismatches.get(endpoint).increment();
+					}
+					return null;
+				}));
+			}
+			try {
+				CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).get();
+			} catch (ExecutionException e) {
+				// Failures were counted as they completed
+			}
+			end = System.nanoTime();
+		}
+
+		var all = new LatencyHistogram();
+		long allMismatches = 0;
+		var endpoints = new LinkedHashMap<String, ReplayReport.Stats>();
+		endpoints.put(ReplayReport.ALL, null);
+		for (var endpoint : PaycriticalEndpoint.values()) {
+			var snapshot = latencies.get(endpoint).snapshot();
+			if (snapshot.count() == 0) {
+				continue;
+			}
+			long endpointMismatches = mismatches.get(endpoint).sum();
+			all.add(snapshot);
+			allMismatches += endpointMismatches;
+			endpoints.put(endpoint.name(), new ReplayReport.Stats(snapshot, endpointMismatches));
+		}
+		endpoints.put(ReplayReport.ALL, new ReplayReport.Stats(all.snapshot(), allMismatches));
+		return new ReplayReport(end - origin, endpoints);
+	}
+
+	/**
+	 * Makes the gateway call that made a recorded exchange.
+	 */
+	private CompletableFuture<? extends ApiOutcome<?>> call(PaycriticalOutcomes outcomes, RecordedExchange exchange) {
+		try {
+			switch (exchange.getEndpoint()) {
+			case GET_PAYMENT_STATUS:
+				return outcomes.getPaymentStatusAsync(pathId(exchange));
+			case GET_AUTHORIZATION_DETAILS:
+				return outcomes.getAuthorizationDetailsAsync(pathId(exchange));
+			case GET_QR_CODE_STATUS:
+				return outcomes.getQRCodeStatusAsync(pathId(exchange));
+			case REQUEST_AUTHORIZATION: {
+				var request = body(exchange, PaycriticalPaymentRequest.class);
+				return outcomes.requestAuthorizationAsync(request.getAmount(), request.getPhoneNumber(),
+						request.getOrderRef());
+			}
+			case REQUEST_PAYMENT: {
+				var request = body(exchange, PaycriticalPaymentRequest.class);
+				return outcomes.requestPaymentAsync(request.getAmount(), request.getPhoneNumber(),
+						request.getOrderRef());
+			}
+			case RESEND_PAYMENT:
+				return outcomes.resendPaymentAsync(body(exchange, PaycriticalPaymentIdRequest.class).getPaymentId());
+			case REQUEST_QR_CODE: {
+				var request = body(exchange, PaycriticalQRCodeRequest.class);
+				return outcomes.requestQRCodeAsync(request.getAmount(), request.getOrderRef());
+			}
+			case CANCEL_PAYMENT:
+				return outcomes
+						.cancelPaymentRequestAsync(body(exchange, PaycriticalPaymentIdRequest.class).getPaymentId());
+			case REFUND_PAYMENT: {
+				var request = body(exchange, PaycriticalAmountRequest.class);
+				return outcomes.refundPaymentRequestAsync(request.getPaymentId(), request.getAmount());
+			}
+			case CAPTURE_PAYMENT: {
+				var request = body(exchange, PaycriticalAmountRequest.class);
+				return outcomes.capturePaymentRequestAsync(request.getPaymentId(), request.getAmount());
+			}
+			default:
+				throw new IllegalArgumentException("Cannot replay " + exchange.getEndpoint() + ".");
+			}
+		} catch (IOException | RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * @return The id in a path such as /api/payment/{paymentId}/authorization.
+	 */
+	private static String pathId(RecordedExchange exchange) {
+		var segments = exchange.getPath().split("/");
+		if (segments.length < 4) {
+			throw new IllegalArgumentException("No id in " + exchange.getPath() + ".");
+		}
+		return segments[3];
+	}
+
+	private <T> T body(RecordedExchange exchange, Class<T> type) throws IOException {
+		return mapper.readValue(exchange.getRequestBody(), type);
+	}
+
+	/**
+	 * @return Whether a call ended as its recorded exchange did: with the same
+	 *         status code, a success for any 2xx, or without a response.
+	 */
+	private static boolean matches(RecordedExchange exchange, ApiOutcome<?> outcome, Throwable error) {
+		int recorded = exchange.getStatusCode();
+		if (error != null) {
+			return recorded == 0;
+		}
+		if (outcome.isSuccess()) {
+			return recorded >= 200 && recorded < 300;
+		}
+		return outcome.getFailure().getStatusCode() == recorded;
+	}
+
+	/**
+	 * Replays a recording with a gateway of this build, or compares two saved
+	 * reports.
+	 *
+	 * <pre>
+	 * run &lt;recording&gt; &lt;report&gt; [speed] [latency scale]
+	 * compare &lt;baseline report&gt; &lt;candidate report&gt;
+	 * </pre>
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length >= 3 && "run".equals(args[0])) {
+			var builder = builder(PaycriticalRecorder.read(Paths.get(args[1])));
+			if (args.length > 3) {
+				builder.speed(Double.parseDouble(args[3]));
+			}
+			if (args.length > 4) {
+				builder.latencyScale(Double.parseDouble(args[4]));
+			}
+			// Headers are not recorded and the stub does not check the key
+			var report = builder.build().run(baseUrl -> new PaycriticalPaymentGateway("replay", baseUrl));
+			report.save(Paths.get(args[2]));
+			System.out.print(report);
+		} else if (args.length == 3 && "compare".equals(args[0])) {
+			var baseline = ReplayReport.load(Paths.get(args[1]));
+			var candidate = ReplayReport.load(Paths.get(args[2]));
+			System.out.print(candidate.compare(baseline));
+		} else {
+			System.err.println("Usage: run <recording> <report> [speed] [latency scale]");
+			System.err.println("       compare <baseline report> <candidate report>");
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * Builder for {@link PaycriticalReplay}. Not thread-safe.
+	 */
+	public static final class Builder {
+		private final List<RecordedExchange> exchanges;
+		private double speed = 1;
+		private double latencyScale = 1;
+
+		private Builder(List<RecordedExchange> exchanges) {
+			this.exchanges = Objects.requireNonNull(exchanges);
+		}
+
+		/**
+		 * Rate of the replay relative to the recording, e.g. 2 to start the
+		 * calls twice as fast, or {@link Double#POSITIVE_INFINITY} to start
+		 * them all at once. Defaults to 1.
+		 */
+		public Builder speed(double speed) {
+			if (!(speed > 0)) {
+				throw new IllegalArgumentException("The speed must be positive.");
+			}
+			this.speed = speed;
+			return this;
+		}
+
+		/**
+		 * Factor applied to the recorded response times of the API, 0 for the
+		 * stub to answer at once and measure the gateway alone. Defaults to 1.
+		 *
+		 * @see ReplayStub.Builder#latencyScale(double)
+		 */
+		public Builder latencyScale(double latencyScale) {
+			if (!(latencyScale >= 0)) {
+				throw new IllegalArgumentException("The latency scale cannot be negative.");
+			}
+			this.latencyScale = latencyScale;
+			return this;
+		}
+
+		public PaycriticalReplay build() {
+			return new PaycriticalReplay(this);
+		}
+	}
+}
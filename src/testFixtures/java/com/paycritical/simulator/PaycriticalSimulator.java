@@ -0,0 +1,625 @@
+package com.paycritical.simulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paycritical.request.PaycriticalAmountRequest;
+import com.paycritical.request.PaycriticalPaymentIdRequest;
+import com.paycritical.request.PaycriticalPaymentRequest;
+import com.paycritical.request.PaycriticalQRCodeRequest;
+import com.paycritical.response.PaycriticalAuthorization;
+import com.paycritical.response.PaycriticalCapture;
+import com.paycritical.response.PaycriticalPayment;
+import com.paycritical.response.PaycriticalPaymentStatus;
+import com.paycritical.response.PaycriticalQRCode;
+import com.paycritical.response.PaycriticalQRCodeStatus;
+import com.paycritical.response.ValidationSummary;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Embedded simulator of the Paycritical API for tests, load tests and
+ * benchmarks.
+ *
+ * It serves every endpoint the gateway calls on a loopback port and keeps
+ * the payments it creates in memory:
+ * <ul>
+ * <li>Payment requests stay Requested until the simulated customer answers
+ * them, then become Completed or RejectedByUser, or Expired if nobody
+ * answered in time. Pending requests can be cancelled.</li>
+ * <li>Completed authorizations can be captured up to their amount, and
+ * completed captures refunded up to theirs.</li>
+ * <li>QR codes stay Requested until they are paid, rejected or expired.</li>
+ * </ul>
+ * Tests can answer a payment or QR code at once with {@link #approve(String)}
+ * and {@link #reject(String)}.
+ *
+ * Every response can be delayed by a latency distribution, and a share of the
+ * requests can be answered with an injected status code instead; injected 429
+ * and 503 responses ask to retry after a second by default. Delayed
+ * responses are written from a timer rather than by a sleeping thread, so
+ * the simulator sustains thousands of requests per second whatever the
+ * latency.
+ */
+public final class PaycriticalSimulator implements AutoCloseable {
+	private static final DateTimeFormatter EXPIRATION_FORMAT = DateTimeFormatter
+			.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+	private static final char[] HUMAN_ID_CHARACTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
+
+	private final LoopbackServer server;
+	private final ObjectMapper mapper;
+	private final String apiKey;
+	private final LatencyDistribution latency;
+	private final LatencyDistribution customerResponseTime;
+	private final double approvalRate;
+	private final long paymentExpirationNanos;
+	private final Duration authorizationValidity;
+	private final int[] injectedStatusCodes;
+	private final double[] injectedRates;
+	private final Duration retryAfter;
+	private final ConcurrentHashMap<String, SimulatedPayment> payments = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, SimulatedPayment> qrCodes = new ConcurrentHashMap<>();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder injectedErrors = new LongAdder();
+
+	private PaycriticalSimulator(Builder builder) throws IOException {
+		this.apiKey = builder.apiKey;
+		this.latency = builder.latency;
+		this.customerResponseTime = builder.customerResponseTime;
+		this.approvalRate = builder.approvalRate;
+		this.paymentExpirationNanos = builder.paymentExpiration.toNanos();
+		this.authorizationValidity = builder.authorizationValidity;
+		this.injectedStatusCodes = builder.injectedStatusCodes.stream().mapToInt(Integer::intValue).toArray();
+		this.injectedRates = builder.injectedRates.stream().mapToDouble(Double::doubleValue).toArray();
+		this.retryAfter = builder.retryAfter;
+		this.mapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL)
+				.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+		this.server = new LoopbackServer("paycritical-simulator", builder.port, builder.backlog, builder.threads,
+				this::handle);
+	}
+
+	/**
+	 * <p>
+	 * Create a Simulator Builder
+	 * </p>
+	 *
+	 * @return A builder for a PaycriticalSimulator.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return The base URL to give the gateway, e.g. http://127.0.0.1:40123
+	 */
+	public String baseUrl() {
+		return server.baseUrl();
+	}
+
+	/**
+	 * Makes the customer approve a pending payment or QR code now.
+	 *
+	 * @param id A payment ID or QR code ID.
+	 * @return false if it is unknown or no longer pending.
+	 */
+	public boolean approve(String id) {
+		return answer(id, true);
+	}
+
+	/**
+	 * Makes the customer reject a pending payment or QR code now.
+	 *
+	 * @param id A payment ID or QR code ID.
+	 * @return false if it is unknown or no longer pending.
+	 */
+	public boolean reject(String id) {
+		return answer(id, false);
+	}
+
+	/**
+	 * @return The number of requests received.
+	 */
+	public long requestCount() {
+		return requests.sum();
+	}
+
+	/**
+	 * @return The number of requests answered with an injected status code.
+	 */
+	public long injectedErrorCount() {
+		return injectedErrors.sum();
+	}
+
+	@Override
+	public void close() {
+		server.close();
+	}
+
+	private boolean answer(String id, boolean approve) {
+		var payment = payments.get(id);
+		if (payment == null) {
+			payment = qrCodes.get(id);
+		}
+		if (payment == null) {
+			return false;
+		}
+		synchronized (payment) {
+			return payment.answer(approve, System.nanoTime());
+		}
+	}
+
+	private void handle(HttpExchange exchange) {
+		requests.increment();
+		Response response;
+		// Closing the request body drains whatever was not read
+		try (InputStream body = exchange.getRequestBody()) {
+			response = route(exchange, body);
+		} catch (IOException e) {
+			response = validationError("InvalidRequest", "The request body is not valid JSON.");
+		} catch (RuntimeException e) {
+			response = new Response(500, e.toString().getBytes(StandardCharsets.UTF_8));
+		}
+
+		long delay = latency.sampleNanos(ThreadLocalRandom.current());
+		if (delay <= 0) {
+			send(exchange, response);
+			return;
+		}
+		var delayed = response;
+		server.schedule(() -> send(exchange, delayed), delay);
+	}
+
+	private Response route(HttpExchange exchange, InputStream body) throws IOException {
+		// Answered by the web server in front of the API, e.g. keep-alive pings
+		if ("HEAD".equals(exchange.getRequestMethod())) {
+			return new Response(200, null);
+		}
+		var authorization = exchange.getRequestHeaders().getFirst("Authorization");
+		if (authorization == null || (apiKey != null && !apiKey.equals(authorization))) {
+			return text(401, "The API key is missing or invalid.");
+		}
+		var injected = injectedStatusCode();
+		if (injected != 0) {
+			injectedErrors.increment();
+			if (injected == 400) {
+				return validationError("SimulatedError", "Injected by the simulator.");
+			}
+			return injected == 204 ? new Response(204, null) : text(injected, "Injected by the simulator.");
+		}
+
+		var method = exchange.getRequestMethod();
+		var path = exchange.getRequestURI().getPath();
+		if ("POST".equals(method)) {
+			switch (path) {
+			case "/api/payment":
+				return createPayment(mapper.readValue(body, PaycriticalPaymentRequest.class));
+			case "/api/payment/resend":
+				return resend(mapper.readValue(body, PaycriticalPaymentIdRequest.class));
+			case "/api/qrcode":
+				return createQRCode(mapper.readValue(body, PaycriticalQRCodeRequest.class));
+			}
+		} else if ("PUT".equals(method)) {
+			switch (path) {
+			case "/api/payment/cancel":
+				return cancel(mapper.readValue(body, PaycriticalPaymentIdRequest.class));
+			case "/api/payment/refund":
+				return refund(mapper.readValue(body, PaycriticalAmountRequest.class));
+			case "/api/payment/capture":
+				return capture(mapper.readValue(body, PaycriticalAmountRequest.class));
+			}
+		} else if ("GET".equals(method)) {
+			if (path.startsWith("/api/qrCode/")) {
+				return qrCodeStatus(path.substring("/api/qrCode/".length()));
+			}
+			if (path.startsWith("/api/payment/")) {
+				var id = path.substring("/api/payment/".length());
+				if (id.endsWith("/authorization")) {
+					return authorization(id.substring(0, id.length() - "/authorization".length()));
+				}
+				return paymentStatus(id);
+			}
+		}
+		return text(404, "No endpoint for " + method + " " + path + ".");
+	}
+
+	private int injectedStatusCode() {
+		if (injectedRates.length == 0) {
+			return 0;
+		}
+		double draw = ThreadLocalRandom.current().nextDouble();
+		for (int i = 0; i < injectedRates.length; i++) {
+			draw -= injectedRates[i];
+			if (draw < 0) {
+				return injectedStatusCodes[i];
+			}
+		}
+		return 0;
+	}
+
+	private Response createPayment(PaycriticalPaymentRequest request) throws IOException {
+		var type = request.getTransactionType();
+		if (!SimulatedPayment.CAPTURE.equals(type) && !SimulatedPayment.AUTHORIZATION.equals(type)) {
+			return validationError("InvalidTransactionType", "The transaction type must be Capture or Authorization.");
+		}
+		if (request.getPhoneNumber() == null || request.getPhoneNumber().isBlank()) {
+			return validationError("PhoneNumberInvalid", "The phone number is not valid.");
+		}
+		if (request.getAmount() <= 0) {
+			return validationError("AmountInvalid", "The amount must be positive.");
+		}
+
+		var payment = newPayment(type, request.getAmount());
+		payments.put(payment.id, payment);
+
+		var response = new PaycriticalPayment();
+		response.setPaymentId(payment.id);
+		response.setPaymentHumanId(payment.humanId);
+		response.setStatus(SimulatedPayment.REQUESTED);
+		return json(response);
+	}
+
+	private Response createQRCode(PaycriticalQRCodeRequest request) throws IOException {
+		if (request.getAmount() <= 0) {
+			return validationError("AmountInvalid", "The amount must be positive.");
+		}
+		var qrCodeId = UUID.randomUUID().toString();
+		var payment = newPayment(SimulatedPayment.CAPTURE, request.getAmount());
+		qrCodes.put(qrCodeId, payment);
+		payments.put(payment.id, payment);
+
+		var response = new PaycriticalQRCode();
+		response.setQrCodeId(qrCodeId);
+		return json(response);
+	}
+
+	private Response paymentStatus(String paymentId) throws IOException {
+		var payment = payments.get(paymentId);
+		if (payment == null) {
+			return notFound();
+		}
+		var response = new PaycriticalPaymentStatus();
+		synchronized (payment) {
+			response.setStatus(payment.status(System.nanoTime()));
+		}
+		response.setTransactionType(payment.transactionType);
+		return json(response);
+	}
+
+	private Response authorization(String paymentId) throws IOException {
+		var payment = payments.get(paymentId);
+		if (payment == null || !SimulatedPayment.AUTHORIZATION.equals(payment.transactionType)) {
+			return notFound();
+		}
+		var response = new PaycriticalAuthorization();
+		response.setExpiration(payment.authorizationExpiration);
+		synchronized (payment) {
+			response.setStatus(payment.status(System.nanoTime()));
+			response.setRemainingAmount(payment.remainingCents() / 100.0);
+			response.setCaptures(new ArrayList<>(payment.captures()));
+		}
+		return json(response);
+	}
+
+	private Response qrCodeStatus(String qrCodeId) throws IOException {
+		var payment = qrCodes.get(qrCodeId);
+		if (payment == null) {
+			return notFound();
+		}
+		var response = new PaycriticalQRCodeStatus();
+		String status;
+		synchronized (payment) {
+			status = payment.status(System.nanoTime());
+		}
+		response.setStatus(status);
+		if (!SimulatedPayment.REQUESTED.equals(status)) {
+			response.setPaymentId(payment.id);
+			response.setPaymentHumanId(payment.humanId);
+		}
+		return json(response);
+	}
+
+	private Response resend(PaycriticalPaymentIdRequest request) throws IOException {
+		var payment = payments.get(request.getPaymentId());
+		if (payment == null) {
+			return notFound();
+		}
+		synchronized (payment) {
+			if (!SimulatedPayment.REQUESTED.equals(payment.status(System.nanoTime()))) {
+				return invalidState();
+			}
+		}
+		return new Response(200, null);
+	}
+
+	private Response cancel(PaycriticalPaymentIdRequest request) throws IOException {
+		var payment = payments.get(request.getPaymentId());
+		if (payment == null) {
+			return notFound();
+		}
+		synchronized (payment) {
+			if (!payment.cancel(System.nanoTime())) {
+				return invalidState();
+			}
+		}
+		return new Response(200, null);
+	}
+
+	private Response capture(PaycriticalAmountRequest request) throws IOException {
+		var authorization = payments.get(request.getPaymentId());
+		if (authorization == null || !SimulatedPayment.AUTHORIZATION.equals(authorization.transactionType)) {
+			return notFound();
+		}
+		long cents = Math.round(request.getAmount() * 100);
+		if (cents <= 0) {
+			return validationError("AmountInvalid", "The amount must be positive.");
+		}
+
+		synchronized (authorization) {
+			if (!SimulatedPayment.COMPLETED.equals(authorization.status(System.nanoTime()))) {
+				return invalidState();
+			}
+			if (cents > authorization.remainingCents()) {
+				return validationError("AmountExceeded", "The amount exceeds the amount left to capture.");
+			}
+			var payment = new SimulatedPayment(UUID.randomUUID().toString(), humanId(), SimulatedPayment.CAPTURE,
+					cents, 0, 0, true, null);
+			payment.complete();
+			payments.put(payment.id, payment);
+
+			var capture = new PaycriticalCapture();
+			capture.setPaymentId(payment.id);
+			capture.setPaymentHumanId(payment.humanId);
+			capture.setAmount(cents / 100.0);
+			authorization.capture(capture, cents);
+		}
+		return new Response(200, null);
+	}
+
+	private Response refund(PaycriticalAmountRequest request) throws IOException {
+		var payment = payments.get(request.getPaymentId());
+		if (payment == null || !SimulatedPayment.CAPTURE.equals(payment.transactionType)) {
+			return notFound();
+		}
+		long cents = Math.round(request.getAmount() * 100);
+		if (cents <= 0) {
+			return validationError("AmountInvalid", "The amount must be positive.");
+		}
+
+		synchronized (payment) {
+			if (!SimulatedPayment.COMPLETED.equals(payment.status(System.nanoTime()))) {
+				return invalidState();
+			}
+			if (cents > payment.remainingCents()) {
+				return validationError("AmountExceeded", "The amount exceeds the amount left to refund.");
+			}
+			payment.refund(cents);
+		}
+		return new Response(200, null);
+	}
+
+	private SimulatedPayment newPayment(String type, double amount) {
+		var random = ThreadLocalRandom.current();
+		long now = System.nanoTime();
+		var expiration = SimulatedPayment.AUTHORIZATION.equals(type)
+				? LocalDateTime.now(ZoneOffset.UTC).plus(authorizationValidity).format(EXPIRATION_FORMAT)
+				: null;
+		return new SimulatedPayment(UUID.randomUUID().toString(), humanId(), type, Math.round(amount * 100),
+				now + paymentExpirationNanos, now + customerResponseTime.sampleNanos(random),
+				random.nextDouble() < approvalRate, expiration);
+	}
+
+	private static String humanId() {
+		var random = ThreadLocalRandom.current();
+		var id = new char[8];
+		for (int i = 0; i < id.length; i++) {
+			id[i] = HUMAN_ID_CHARACTERS[random.nextInt(HUMAN_ID_CHARACTERS.length)];
+		}
+		return new String(id);
+	}
+
+	private Response json(Object body) throws IOException {
+		return new Response(200, mapper.writeValueAsBytes(body));
+	}
+
+	private Response validationError(String code, String description) {
+		var summary = new ValidationSummary();
+		summary.setCode(code);
+		summary.setDescription(description);
+		try {
+			return new Response(400, mapper.writeValueAsBytes(summary));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Response notFound() {
+		return validationError("PaymentNotFound", "The payment does not exist.");
+	}
+
+	private Response invalidState() {
+		return validationError("InvalidPaymentState", "The payment does not allow this operation in its current status.");
+	}
+
+	private static Response text(int statusCode, String body) {
+		return new Response(statusCode, body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void send(HttpExchange exchange, Response response) {
+		if (response.body != null && retryAfter != null
+				&& (response.statusCode == 429 || response.statusCode == 503)) {
+			exchange.getResponseHeaders().set("Retry-After", Long.toString(retryAfter.toSeconds()));
+		}
+		LoopbackServer.send(exchange, response.statusCode, response.body);
+	}
+
+	private static final class Response {
+		private final int statusCode;
+		private final byte[] body;
+
+		private Response(int statusCode, byte[] body) {
+			this.statusCode = statusCode;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * Builder for {@link PaycriticalSimulator}. Not thread-safe.
+	 */
+	public static final class Builder {
+		private int port;
+		private int backlog = 1024;
+		private int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+		private String apiKey;
+		private LatencyDistribution latency = LatencyDistribution.none();
+		private LatencyDistribution customerResponseTime = LatencyDistribution.uniform(Duration.ofSeconds(1),
+				Duration.ofSeconds(5));
+		private double approvalRate = 0.9;
+		private Duration paymentExpiration = Duration.ofMinutes(4);
+		private Duration authorizationValidity = Duration.ofDays(7);
+		private final List<Integer> injectedStatusCodes = new ArrayList<>();
+		private final List<Double> injectedRates = new ArrayList<>();
+		private Duration retryAfter = Duration.ofSeconds(1);
+
+		private Builder() {
+		}
+
+		/**
+		 * Loopback port to listen on. Defaults to 0, a free port.
+		 */
+		public Builder port(int port) {
+			this.port = port;
+			return this;
+		}
+
+		/**
+		 * Number of threads handling requests. Defaults to twice the number of
+		 * processors, and at least 4.
+		 */
+		public Builder threads(int threads) {
+			if (threads < 1) {
+				throw new IllegalArgumentException("The simulator needs at least one thread.");
+			}
+			this.threads = threads;
+			return this;
+		}
+
+		/**
+		 * Length of the queue of connections waiting to be accepted. Defaults to
+		 * 1024.
+		 */
+		public Builder backlog(int backlog) {
+			this.backlog = backlog;
+			return this;
+		}
+
+		/**
+		 * Only accept this Authorization header, and answer 401 to any other. By
+		 * default any API key is accepted.
+		 */
+		public Builder apiKey(String apiKey) {
+			this.apiKey = apiKey;
+			return this;
+		}
+
+		/**
+		 * Delay added to every response. None by default.
+		 */
+		public Builder latency(LatencyDistribution latency) {
+			this.latency = Objects.requireNonNull(latency);
+			return this;
+		}
+
+		/**
+		 * Time the simulated customer takes to answer a payment request or pay a
+		 * QR code. Defaults to between 1 and 5 seconds.
+		 */
+		public Builder customerResponseTime(LatencyDistribution customerResponseTime) {
+			this.customerResponseTime = Objects.requireNonNull(customerResponseTime);
+			return this;
+		}
+
+		/**
+		 * Share of the answered requests the customer approves; the rest are
+		 * rejected. Defaults to 0.9.
+		 */
+		public Builder approvalRate(double approvalRate) {
+			if (approvalRate < 0 || approvalRate > 1) {
+				throw new IllegalArgumentException("The approval rate must be between 0 and 1.");
+			}
+			this.approvalRate = approvalRate;
+			return this;
+		}
+
+		/**
+		 * Time after which an unanswered payment request or QR code expires.
+		 * Defaults to 4 minutes.
+		 */
+		public Builder paymentExpiration(Duration paymentExpiration) {
+			this.paymentExpiration = Objects.requireNonNull(paymentExpiration);
+			return this;
+		}
+
+		/**
+		 * Validity reported for completed authorizations. Defaults to 7 days.
+		 */
+		public Builder authorizationValidity(Duration authorizationValidity) {
+			this.authorizationValidity = Objects.requireNonNull(authorizationValidity);
+			return this;
+		}
+
+		/**
+		 * Answers a share of the requests with the given status code instead of
+		 * processing them, e.g. errorRate(500, 0.01) fails 1% of the requests.
+		 * A 400 carries a ValidationSummary body and a 204 no body. Can be
+		 * called for several status codes; their rates must not add up to more
+		 * than 1.
+		 */
+		public Builder errorRate(int statusCode, double rate) {
+			if (statusCode < 200 || statusCode > 599) {
+				throw new IllegalArgumentException("Invalid HTTP status code " + statusCode + ".");
+			}
+			double total = injectedRates.stream().mapToDouble(Double::doubleValue).sum() + rate;
+			if (rate < 0 || total > 1) {
+				throw new IllegalArgumentException("The error rates must add up to between 0 and 1.");
+			}
+			injectedStatusCodes.add(statusCode);
+			injectedRates.add(rate);
+			return this;
+		}
+
+		/**
+		 * Wait asked for by the Retry-After header of injected 429 and 503
+		 * responses, in whole seconds, or null to send no header. Defaults to 1
+		 * second.
+		 */
+		public Builder retryAfter(Duration retryAfter) {
+			this.retryAfter = retryAfter;
+			return this;
+		}
+
+		/**
+		 * Starts the simulator.
+		 *
+		 * @return The running simulator.
+		 * @throws IOException If the port cannot be bound.
+		 */
+		public PaycriticalSimulator start() throws IOException {
+			return new PaycriticalSimulator(this);
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package com.paycritical.simulator;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Objects;
+
+import org.junit.rules.ExternalResource;
+
+import com.paycritical.PaycriticalPaymentGateway;
+
+/**
+ * JUnit rule starting a {@link PaycriticalSimulator} before each test, and
+ * closing it and its gateway after.
+ *
+ * By default the simulated customers never answer, so payments stay requested
+ * until the test approves them.
+ */
+public final class PaycriticalSimulatorRule extends ExternalResource {
+	/**
+	 * API key the simulators of the rule accept, and their gateways send.
+	 */
+	public static final String API_KEY = "Basic c2ltdWxhdG9yOnNpbXVsYXRvcg==";
+
+	private final PaycriticalSimulator.Builder builder;
+	private PaycriticalSimulator simulator;
+	private PaycriticalPaymentGateway gateway;
+
+	/**
+	 * Rule for a simulator whose customers never answer.
+	 */
+	public PaycriticalSimulatorRule() {
+		this(builder().customerResponseTime(LatencyDistribution.fixed(Duration.ofDays(1))));
+	}
+
+	/**
+	 * Rule for the simulator the builder starts.
+	 */
+	public PaycriticalSimulatorRule(PaycriticalSimulator.Builder builder) {
+		this.builder = Objects.requireNonNull(builder);
+	}
+
+	/**
+	 * @return A simulator builder only accepting {@link #API_KEY}.
+	 */
+	public static PaycriticalSimulator.Builder builder() {
+		return PaycriticalSimulator.builder().apiKey(API_KEY);
+	}
+
+	@Override
+	protected void before() throws IOException {
+		simulator = builder.start();
+	}
+
+	@Override
+	protected void after() {
+		if (gateway != null) {
+			gateway.close();
+		}
+		simulator.close();
+	}
+
+	/**
+	 * @return The simulator of the running test.
+	 */
+	public PaycriticalSimulator simulator() {
+		return simulator;
+	}
+
+	/**
+	 * @return A gateway calling the simulator with {@link #API_KEY}, created on
+	 *         first use.
+	 */
+	public PaycriticalPaymentGateway gateway() {
+		if (gateway == null) {
+			gateway = new PaycriticalPaymentGateway(API_KEY, simulator.baseUrl());
+		}
+		return gateway;
+	}
+}
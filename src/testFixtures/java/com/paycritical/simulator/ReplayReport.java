@@ -0,0 +1,224 @@
+package com.paycritical.simulator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.paycritical.metrics.HistogramSnapshot;
+
+/**
+ * Throughput and latency of a replay, overall and per endpoint, as measured
+ * by {@link PaycriticalReplay}.
+ *
+ * Reports are saved as tab separated text, so that the report of one SDK
+ * build can be compared with the report of another.
+ */
+public final class ReplayReport {
+	/** Name of the statistics of every exchange, whatever its endpoint. */
+	public static final String ALL = "ALL";
+
+	private static final String HEADER = "endpoint\tcount\tmismatches\tmean_ns\tp50_ns\tp90_ns\tp99_ns\tmax_ns";
+
+	private final long durationNanos;
+	private final Map<String, Stats> endpoints;
+
+	ReplayReport(long durationNanos, Map<String, Stats> endpoints) {
+		this.durationNanos = durationNanos;
+		this.endpoints = Collections.unmodifiableMap(new LinkedHashMap<>(endpoints));
+	}
+
+	/**
+	 * @return The time from the first call being started to the last one
+	 *         completing.
+	 */
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * @return The calls completed per second.
+	 */
+	public double getThroughput() {
+		var all = endpoints.get(ALL);
+		return all == null || durationNanos <= 0 ? 0 : all.getCount() * 1e9 / durationNanos;
+	}
+
+	/**
+	 * @return The statistics per endpoint name, starting with {@link #ALL}.
+	 */
+	public Map<String, Stats> getEndpoints() {
+		return endpoints;
+	}
+
+	/**
+	 * @return The statistics of every exchange.
+	 */
+	public Stats getAll() {
+		return endpoints.get(ALL);
+	}
+
+	/**
+	 * Writes the report as tab separated text.
+	 *
+	 * @throws IOException The file could not be written.
+	 */
+	public void save(Path file) throws IOException {
+		var lines = new ArrayList<String>();
+		lines.add("duration_ns\t" + durationNanos);
+		lines.add(HEADER);
+		for (var entry : endpoints.entrySet()) {
+			var stats = entry.getValue();
+			lines.add(String.join("\t", entry.getKey(), Long.toString(stats.count), Long.toString(stats.mismatches),
+					Long.toString(stats.meanNanos), Long.toString(stats.p50Nanos), Long.toString(stats.p90Nanos),
+					Long.toString(stats.p99Nanos), Long.toString(stats.maxNanos)));
+		}
+		Files.write(file, lines, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads a report written by {@link #save(Path)}.
+	 *
+	 * @throws IOException The file could not be read or is not a report.
+	 */
+	public static ReplayReport load(Path file) throws IOException {
+		var lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		if (lines.size() < 2 || !lines.get(0).startsWith("duration_ns\t") || !HEADER.equals(lines.get(1))) {
+			throw new IOException(file + " is not a replay report.");
+		}
+		try {
+			long duration = Long.parseLong(lines.get(0).substring("duration_ns\t".length()));
+			var endpoints = new LinkedHashMap<String, Stats>();
+			for (var line : lines.subList(2, lines.size())) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				var fields = line.split("\t");
+				endpoints.put(fields[0], new Stats(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+						Long.parseLong(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5]),
+						Long.parseLong(fields[6]), Long.parseLong(fields[7])));
+			}
+			return new ReplayReport(duration, endpoints);
+		} catch (RuntimeException e) {
+			throw new IOException(file + " is not a replay report.", e);
+		}
+	}
+
+	/**
+	 * Compares this report with the report of a baseline, e.g. the same
+	 * recording replayed with the previous SDK build.
+	 *
+	 * @param baseline The report to compare with.
+	 * @return A table of the throughput and latencies of both, and their
+	 *         difference in percent, positive when this report is higher.
+	 */
+	public String compare(ReplayReport baseline) {
+		var out = new StringBuilder();
+		out.append(String.format("%-26s %12s %12s %8s%n", "", "baseline", "candidate", "change"));
+		row(out, "throughput (calls/s)", baseline.getThroughput(), getThroughput());
+		for (var entry : endpoints.entrySet()) {
+			var before = baseline.endpoints.get(entry.getKey());
+			if (before == null) {
+				continue;
+			}
+			var after = entry.getValue();
+			out.append(entry.getKey()).append(System.lineSeparator());
+			row(out, "  mismatches", before.mismatches, after.mismatches);
+			row(out, "  mean (us)", before.meanNanos / 1e3, after.meanNanos / 1e3);
+			row(out, "  p50 (us)", before.p50Nanos / 1e3, after.p50Nanos / 1e3);
+			row(out, "  p90 (us)", before.p90Nanos / 1e3, after.p90Nanos / 1e3);
+			row(out, "  p99 (us)", before.p99Nanos / 1e3, after.p99Nanos / 1e3);
+			row(out, "  max (us)", before.maxNanos / 1e3, after.maxNanos / 1e3);
+		}
+		return out.toString();
+	}
+
+	private static void row(StringBuilder out, String name, double before, double after) {
+		var change = before == 0 ? (after == 0 ? "0.0%" : "n/a") : String.format("%+.1f%%", (after - before) * 100 / before);
+		out.append(String.format("%-26s %12.1f %12.1f %8s%n", name, before, after, change));
+	}
+
+	@Override
+	public String toString() {
+		var out = new StringBuilder();
+		out.append(String.format("%.1f calls/s over %.3f s%n", getThroughput(), durationNanos / 1e9));
+		out.append(String.format("%-26s %8s %10s %10s %10s %10s %10s %10s%n", "endpoint", "count", "mismatches",
+				"mean (us)", "p50 (us)", "p90 (us)", "p99 (us)", "max (us)"));
+		for (var entry : endpoints.entrySet()) {
+			var stats = entry.getValue();
+			out.append(String.format("%-26s %8d %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", entry.getKey(),
+					stats.count, stats.mismatches, stats.meanNanos / 1e3, stats.p50Nanos / 1e3,
+					stats.p90Nanos / 1e3, stats.p99Nanos / 1e3, stats.maxNanos / 1e3));
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Statistics of the calls of one endpoint. Latencies are measured from when
+	 * the call was due to start, in nanoseconds.
+	 */
+	public static final class Stats {
+		private final long count;
+		private final long mismatches;
+		private final long meanNanos;
+		private final long p50Nanos;
+		private final long p90Nanos;
+		private final long p99Nanos;
+		private final long maxNanos;
+
+		Stats(long count, long mismatches, long meanNanos, long p50Nanos, long p90Nanos, long p99Nanos,
+				long maxNanos) {
+			this.count = count;
+			this.mismatches = mismatches;
+			this.meanNanos = meanNanos;
+			this.p50Nanos = p50Nanos;
+			this.p90Nanos = p90Nanos;
+			this.p99Nanos = p99Nanos;
+			this.maxNanos = maxNanos;
+		}
+
+		Stats(HistogramSnapshot latencies, long mismatches) {
+			this(latencies.count(), mismatches, Math.round(latencies.mean()), latencies.percentile(50),
+					latencies.percentile(90), latencies.percentile(99), latencies.max());
+		}
+
+		/**
+		 * @return The number of calls.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return The number of calls whose status code differed from the
+		 *         recorded one, or that failed while the recorded one did not.
+		 */
+		public long getMismatches() {
+			return mismatches;
+		}
+
+		public long getMeanNanos() {
+			return meanNanos;
+		}
+
+		public long getP50Nanos() {
+			return p50Nanos;
+		}
+
+		public long getP90Nanos() {
+			return p90Nanos;
+		}
+
+		public long getP99Nanos() {
+			return p99Nanos;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+	}
+}
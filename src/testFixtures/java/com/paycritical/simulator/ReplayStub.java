@@ -0,0 +1,206 @@
+package com.paycritical.simulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paycritical.RecordedExchange;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Stub of the Paycritical API answering from a recording, for replaying
+ * traffic without calling the API.
+ *
+ * Each request is answered with the response recorded for the same method,
+ * path and body, the recorded responses of identical requests being used in
+ * the order they were recorded. JSON bodies match whatever the order of
+ * their fields, so a gateway that serializes differently still finds its
+ * responses. A response can be delayed by its recorded time to first byte,
+ * scaled. An exchange recorded without a response is answered by closing the
+ * connection, and a request that is not in the recording with a 404.
+ */
+public final class ReplayStub implements AutoCloseable {
+	private final LoopbackServer server;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final double latencyScale;
+	private final ConcurrentHashMap<Key, Queue<RecordedExchange>> responses = new ConcurrentHashMap<>();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	private ReplayStub(Builder builder) throws IOException {
+		this.latencyScale = builder.latencyScale;
+		for (var exchange : builder.exchanges) {
+			responses.computeIfAbsent(key(exchange.getMethod(), exchange.getPath(), exchange.getRequestBody()),
+					key -> new ConcurrentLinkedQueue<>()).add(exchange);
+		}
+
+		this.server = new LoopbackServer("paycritical-replay-stub", 0, 1024, builder.threads, this::handle);
+	}
+
+	/**
+	 * <p>
+	 * Create a Stub Builder
+	 * </p>
+	 *
+	 * @param exchanges The recorded exchanges to answer with.
+	 * @return A builder for a ReplayStub.
+	 */
+	public static Builder builder(List<RecordedExchange> exchanges) {
+		return new Builder(exchanges);
+	}
+
+	/**
+	 * @return The base URL to give the gateway, e.g. http://127.0.0.1:40123
+	 */
+	public String baseUrl() {
+		return server.baseUrl();
+	}
+
+	/**
+	 * @return The number of requests received.
+	 */
+	public long requestCount() {
+		return requests.sum();
+	}
+
+	/**
+	 * @return The number of requests that were not in the recording, or came
+	 *         more often than recorded.
+	 */
+	public long missCount() {
+		return misses.sum();
+	}
+
+	@Override
+	public void close() {
+		server.close();
+	}
+
+	private void handle(HttpExchange exchange) {
+		requests.increment();
+		RecordedExchange recorded = null;
+		// Closing the request body drains whatever was not read
+		try (InputStream body = exchange.getRequestBody()) {
+			var path = exchange.getRequestURI().getRawPath();
+			if (exchange.getRequestURI().getRawQuery() != null) {
+				path += "?" + exchange.getRequestURI().getRawQuery();
+			}
+			var queue = responses.get(key(exchange.getRequestMethod(), path, body.readAllBytes()));
+			recorded = queue != null ? queue.poll() : null;
+		} catch (IOException e) {
+			// Answered as a miss
+		}
+		if (recorded == null) {
+			misses.increment();
+			LoopbackServer.send(exchange, 404, "The request is not in the recording.".getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+
+		var response = recorded;
+		long delay = (long) (Math.max(0, response.getTimeToFirstByteNanos()) * latencyScale);
+		if (delay <= 0) {
+			send(exchange, response);
+			return;
+		}
+		server.schedule(() -> send(exchange, response), delay);
+	}
+
+	private Key key(String method, String path, byte[] body) {
+		Object content = new String(body, StandardCharsets.UTF_8);
+		if (body.length > 0) {
+			try {
+				content = mapper.readTree(body);
+			} catch (IOException e) {
+				// Matched as text
+			}
+		}
+		return new Key(method, path, content);
+	}
+
+	private static void send(HttpExchange exchange, RecordedExchange response) {
+		if (response.getStatusCode() == 0) {
+			// The call failed without a response
+			exchange.close();
+			return;
+		}
+		LoopbackServer.send(exchange, response.getStatusCode(), response.getResponseBody());
+	}
+
+	/**
+	 * A request as matched against the recording; the body is a JsonNode, whose
+	 * equality ignores the order of the fields, or text.
+	 */
+	private static final class Key {
+		private final String method;
+		private final String path;
+		private final Object body;
+
+		private Key(String method, String path, Object body) {
+			this.method = method;
+			this.path = path;
+			this.body = body;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			var key = (Key) other;
+			return method.equals(key.method) && path.equals(key.path) && body.equals(key.body);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(method, path, body);
+		}
+	}
+
+	/**
+	 * Builder for {@link ReplayStub}. Not thread-safe.
+	 */
+	public static final class Builder {
+		private final List<RecordedExchange> exchanges;
+		private double latencyScale = 1;
+		private int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+		private Builder(List<RecordedExchange> exchanges) {
+			this.exchanges = Objects.requireNonNull(exchanges);
+		}
+
+		/**
+		 * Factor applied to the recorded time to first byte of each response
+		 * before it is sent, 0 answering at once. Defaults to 1.
+		 */
+		public Builder latencyScale(double latencyScale) {
+			if (!(latencyScale >= 0)) {
+				throw new IllegalArgumentException("The latency scale cannot be negative.");
+			}
+			this.latencyScale = latencyScale;
+			return this;
+		}
+
+		/**
+		 * Number of threads handling requests. Defaults to twice the number of
+		 * processors, and at least 4.
+		 */
+		public Builder threads(int threads) {
+			if (threads < 1) {
+				throw new IllegalArgumentException("The stub needs at least one thread.");
+			}
+			this.threads = threads;
+			return this;
+		}
+
+		public ReplayStub start() throws IOException {
+			return new ReplayStub(this);
+		}
+	}
+}
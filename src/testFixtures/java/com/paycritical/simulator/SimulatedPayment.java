@@ -0,0 +1,117 @@
+package com.paycritical.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.paycritical.response.PaycriticalCapture;
+
+/**
+ * State of one simulated payment request.
+ *
+ * A payment starts as Requested and the customer answers it after a delay
+ * drawn when it is created, unless it expires or is cancelled first. The
+ * transition is applied lazily when the payment is next read, so pending
+ * payments cost no timers. Amounts are kept in cents. All methods are
+ * called with the payment's monitor held.
+ */
+final class SimulatedPayment {
+	static final String REQUESTED = "Requested";
+	static final String COMPLETED = "Completed";
+	static final String REJECTED = "RejectedByUser";
+	static final String EXPIRED = "Expired";
+	static final String CANCELLED = "Cancelled";
+	static final String REFUNDED = "Refunded";
+
+	static final String CAPTURE = "Capture";
+	static final String AUTHORIZATION = "Authorization";
+
+	final String id;
+	final String humanId;
+	final String transactionType;
+	final long amountCents;
+	final String authorizationExpiration;
+	private final long expiresAt;
+	private long answerAt;
+	private boolean approve;
+	private String status = REQUESTED;
+	// Left to capture on an authorization, left to refund on a capture
+	private long remainingCents;
+	private final List<PaycriticalCapture> captures = new ArrayList<>();
+
+	SimulatedPayment(String id, String humanId, String transactionType, long amountCents, long expiresAt,
+			long answerAt, boolean approve, String authorizationExpiration) {
+		this.id = id;
+		this.humanId = humanId;
+		this.transactionType = transactionType;
+		this.amountCents = amountCents;
+		this.expiresAt = expiresAt;
+		this.answerAt = answerAt;
+		this.approve = approve;
+		this.authorizationExpiration = authorizationExpiration;
+		this.remainingCents = amountCents;
+	}
+
+	String status(long now) {
+		if (REQUESTED.equals(status)) {
+			if (answerAt - now <= 0 && answerAt - expiresAt < 0) {
+				status = approve ? COMPLETED : REJECTED;
+			} else if (expiresAt - now <= 0) {
+				status = EXPIRED;
+			}
+		}
+		return status;
+	}
+
+	/**
+	 * Makes the customer answer now.
+	 *
+	 * @return false if the payment was no longer pending.
+	 */
+	boolean answer(boolean approve, long now) {
+		if (!REQUESTED.equals(status(now))) {
+			return false;
+		}
+		this.approve = approve;
+		this.answerAt = now;
+		status(now);
+		return true;
+	}
+
+	boolean cancel(long now) {
+		var current = status(now);
+		// Pending requests, and authorizations nothing was captured from, can be cancelled
+		if (REQUESTED.equals(current)
+				|| (COMPLETED.equals(current) && AUTHORIZATION.equals(transactionType) && captures.isEmpty())) {
+			status = CANCELLED;
+			return true;
+		}
+		return false;
+	}
+
+	long remainingCents() {
+		return remainingCents;
+	}
+
+	List<PaycriticalCapture> captures() {
+		return captures;
+	}
+
+	void capture(PaycriticalCapture capture, long cents) {
+		captures.add(capture);
+		remainingCents -= cents;
+	}
+
+	void refund(long cents) {
+		remainingCents -= cents;
+		if (remainingCents == 0) {
+			status = REFUNDED;
+		}
+	}
+
+	/**
+	 * Records a payment that completed when it was created, such as a capture.
+	 */
+	void complete() {
+		status = COMPLETED;
+	}
+}